@@ -0,0 +1,28 @@
+package com.hitstdio.fhir.server.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.hitstdio.fhir.server.util.BatchItemExecutor;
+
+/**
+ * $batch-validate-code item execution.
+ * <p>
+ * tx.batch.threads = 所有批次共用的執行緒數（驗證多半在等 DB，可大於 CPU 核心數，但應小於 hikari maximumPoolSize）
+ * tx.batch.concurrency-per-batch = 單一批次最多同時使用的執行緒數；1 表示依序執行
+ */
+@Configuration
+public class BatchValidationConfig {
+
+	@Value("${tx.batch.threads:8}")
+	private int threads;
+
+	@Value("${tx.batch.concurrency-per-batch:4}")
+	private int concurrencyPerBatch;
+
+	@Bean(destroyMethod = "shutdown")
+	public BatchItemExecutor batchItemExecutor() {
+		return new BatchItemExecutor(threads, concurrencyPerBatch);
+	}
+}
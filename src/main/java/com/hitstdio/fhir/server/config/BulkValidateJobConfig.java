@@ -0,0 +1,57 @@
+package com.hitstdio.fhir.server.config;
+
+import org.hl7.fhir.r4.model.Binary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.hitstdio.fhir.server.job.BulkValidateChunkJson;
+import com.hitstdio.fhir.server.job.BulkValidateGenerateChunksStep;
+import com.hitstdio.fhir.server.job.BulkValidateItemsStep;
+import com.hitstdio.fhir.server.job.BulkValidateJobParameters;
+import com.hitstdio.fhir.server.job.BulkValidateJobService;
+import com.hitstdio.fhir.server.job.BulkValidateOutputJson;
+import com.hitstdio.fhir.server.job.BulkValidateReportJson;
+import com.hitstdio.fhir.server.job.BulkValidateReportStep;
+import com.hitstdio.fhir.server.provider.ValueSetResourceProvider;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobDefinition;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+
+/**
+ * 非同步大量驗證（$bulk-validate-code + Prefer: respond-async）的 Batch2 工作定義。
+ * <p>
+ * tx.batch.job-chunk-size = 每個 work chunk（輸入 Binary）的行數；chunk 會分散到各節點的 Batch2 worker 執行
+ */
+@Configuration
+public class BulkValidateJobConfig {
+
+	@Value("${tx.batch.job-chunk-size:1000}")
+	private int chunkSize;
+
+	@Bean
+	public BulkValidateJobService bulkValidateJobService(IJobCoordinator jobCoordinator, DaoRegistry daoRegistry) {
+		return new BulkValidateJobService(jobCoordinator, daoRegistry.getResourceDao(Binary.class), chunkSize);
+	}
+
+	@Bean
+	public JobDefinition<BulkValidateJobParameters> bulkValidateJobDefinition(DaoRegistry daoRegistry,
+			ValueSetResourceProvider valueSetResourceProvider) {
+		return JobDefinition.newBuilder()
+				.setJobDefinitionId(BulkValidateJobService.JOB_DEFINITION_ID)
+				.setJobDescription("Terminology bulk $validate-code")
+				.setJobDefinitionVersion(1)
+				.setParametersType(BulkValidateJobParameters.class)
+				.gatedExecution()
+				.addFirstStep("generate-chunks", "One work chunk per input Binary",
+						BulkValidateChunkJson.class, new BulkValidateGenerateChunksStep())
+				.addIntermediateStep("validate", "Validate the lines of one input Binary",
+						BulkValidateOutputJson.class,
+						new BulkValidateItemsStep(daoRegistry.getResourceDao(Binary.class),
+								valueSetResourceProvider::validateNdjsonLine))
+				.addFinalReducerStep("create-report", "Collect the output Binaries",
+						BulkValidateReportJson.class, new BulkValidateReportStep(daoRegistry.getResourceDao(Binary.class)))
+				.build();
+	}
+}
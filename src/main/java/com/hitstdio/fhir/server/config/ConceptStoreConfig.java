@@ -0,0 +1,97 @@
+package com.hitstdio.fhir.server.config;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.hitstdio.fhir.server.interceptor.ConceptStoreAssemblyInterceptor;
+import com.hitstdio.fhir.server.interceptor.ConceptStoreSyncInterceptor;
+import com.hitstdio.fhir.server.util.CodeSystemBulkLoader;
+import com.hitstdio.fhir.server.util.ConceptStore;
+import com.hitstdio.fhir.server.util.ConceptStoreLoader;
+
+import javax.sql.DataSource;
+
+/**
+ * Relational concept store: CodeSystem concepts as indexed rows for single-concept reads.
+ * <p>
+ * tx.concept-store.enabled = true 時建立資料表、啟動時載入既有 CodeSystem，並於 CodeSystem 異動後更新
+ * （預設 false，$lookup / $validate-code 仍讀取整個 CodeSystem 資源）
+ * <p>
+ * tx.concept-store.bulk-chunk-size：大型 CodeSystem 分批載入（CodeSystem/$bulk-load）每批概念數（預設 1000），
+ * 讀取只存標頭的 CodeSystem 時亦依此批次由概念資料列重組完整資源，
+ * tx.concept-store.bulk-load-path：啟動時載入的 CSV / NDJSON / JSON 檔案目錄（預設不載入），
+ * 寫入批次大小沿用 hibernate.jdbc.batch_size
+ */
+@Configuration
+public class ConceptStoreConfig {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(ConceptStoreConfig.class);
+
+	@Value("${tx.concept-store.enabled:false}")
+	private boolean enabled;
+
+	@Value("${tx.concept-store.bulk-chunk-size:1000}")
+	private int bulkChunkSize;
+
+	@Value("${tx.concept-store.bulk-load-path:}")
+	private String bulkLoadPath;
+
+	@Value("${hibernate.jdbc.batch_size:50}")
+	private int jdbcBatchSize;
+
+	@Bean
+	public ConceptStore conceptStore(DataSource dataSource, FhirContext fhirContext) {
+		ConceptStore store = new ConceptStore(dataSource, fhirContext);
+		store.setAssemblyChunkSize(bulkChunkSize);
+		if (enabled) {
+			try {
+				store.initializeSchema();
+			} catch (RuntimeException e) {
+				ourLog.warn("Could not initialize concept store tables: {}", e.getMessage());
+			}
+		}
+		return store;
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "shutdown")
+	public ConceptStoreLoader conceptStoreLoader(DaoRegistry daoRegistry, ConceptStore store) {
+		return new ConceptStoreLoader(daoRegistry.getResourceDao(CodeSystem.class), store, enabled);
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "shutdown")
+	public CodeSystemBulkLoader codeSystemBulkLoader(DaoRegistry daoRegistry, ConceptStore store) {
+		return new CodeSystemBulkLoader(daoRegistry.getResourceDao(CodeSystem.class), store, enabled, bulkChunkSize,
+				jdbcBatchSize, bulkLoadPath);
+	}
+
+	@Bean
+	public ConceptStoreSyncInterceptor conceptStoreSyncInterceptor(ConceptStore store, ConceptStoreLoader loader,
+			IInterceptorService interceptorService) {
+		ConceptStoreSyncInterceptor interceptor = new ConceptStoreSyncInterceptor(store, loader);
+		if (enabled) {
+			interceptorService.registerInterceptor(interceptor);
+		}
+		return interceptor;
+	}
+
+	@Bean
+	public ConceptStoreAssemblyInterceptor conceptStoreAssemblyInterceptor(ConceptStore store,
+			IInterceptorService interceptorService) {
+		ConceptStoreAssemblyInterceptor interceptor = new ConceptStoreAssemblyInterceptor(store);
+		if (enabled) {
+			interceptorService.registerInterceptor(interceptor);
+		}
+		return interceptor;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+}
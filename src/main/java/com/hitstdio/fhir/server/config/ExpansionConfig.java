@@ -0,0 +1,53 @@
+package com.hitstdio.fhir.server.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.hitstdio.fhir.server.util.ConceptBuffer;
+import com.hitstdio.fhir.server.util.ExpansionLimits;
+
+/**
+ * ValueSet expansion size limits.
+ * <p>
+ * tx.expansion.memory-budget-kb = 未分頁展開可使用的估計記憶體（KB）；0 表示沿用 1000 個概念的固定上限
+ * tx.expansion.spill-to-disk = 超過記憶體預算時改寫入暫存檔並由暫存檔輸出，而不是回傳 TOOCOSTLY
+ * tx.expansion.spill-max-concepts = spill 模式下的概念數上限（0 表示不限制）
+ * tx.expansion.spill-directory = 暫存檔目錄（預設 java.io.tmpdir）
+ */
+@Configuration
+public class ExpansionConfig {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(ExpansionConfig.class);
+
+	@Value("${tx.expansion.memory-budget-kb:0}")
+	private long memoryBudgetKb;
+
+	@Value("${tx.expansion.spill-to-disk:false}")
+	private boolean spillToDisk;
+
+	@Value("${tx.expansion.spill-max-concepts:1000000}")
+	private int spillMaxConcepts;
+
+	@Value("${tx.expansion.spill-directory:}")
+	private String spillDirectory;
+
+	@Bean
+	public ExpansionLimits expansionLimits() {
+		if (spillToDisk && memoryBudgetKb <= 0) {
+			ourLog.warn("tx.expansion.spill-to-disk requires tx.expansion.memory-budget-kb; spilling disabled");
+		}
+		ExpansionLimits limits = new ExpansionLimits(memoryBudgetKb * 1024, spillToDisk, spillMaxConcepts,
+				spillDirectory);
+		if (limits.isSpillToDisk()) {
+			// 清除前次執行中斷時遺留的暫存檔
+			int removed = ConceptBuffer.sweepSpillDirectory(limits.getSpillDirectory());
+			if (removed > 0) {
+				ourLog.info("Removed {} leftover expansion spill file(s) from {}", removed, limits.getSpillDirectory());
+			}
+		}
+		return limits;
+	}
+}
@@ -0,0 +1,93 @@
+package com.hitstdio.fhir.server.config;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.hitstdio.fhir.server.interceptor.PreExpansionInvalidationInterceptor;
+import com.hitstdio.fhir.server.util.ConceptStore;
+import com.hitstdio.fhir.server.util.ExpansionLimits;
+import com.hitstdio.fhir.server.util.PreExpansionScheduler;
+import com.hitstdio.fhir.server.util.PreExpansionStore;
+import com.hitstdio.fhir.server.util.ValueSetExpansionService;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+
+/**
+ * ValueSet pre-expansion: persisted expansions kept fresh by a background scheduler.
+ * <p>
+ * tx.preexpansion.policy = none | selected | all（預設 none，不影響既有行為）
+ * tx.preexpansion.valuesets = 以逗號分隔的 ValueSet canonical（url 或 url|version），policy=selected 時使用
+ * tx.preexpansion.refresh-seconds = 排程間隔秒數
+ */
+@Configuration
+public class PreExpansionConfig {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(PreExpansionConfig.class);
+
+	@Value("${tx.preexpansion.policy:none}")
+	private String policy;
+
+	@Value("${tx.preexpansion.valuesets:}")
+	private String selectedValueSets;
+
+	@Value("${tx.preexpansion.refresh-seconds:60}")
+	private long refreshSeconds;
+
+	@Bean
+	public PreExpansionStore preExpansionStore(DataSource dataSource, FhirContext fhirContext) {
+		PreExpansionStore store = new PreExpansionStore(dataSource, fhirContext);
+		if (PreExpansionScheduler.Policy.fromString(policy) != PreExpansionScheduler.Policy.NONE) {
+			try {
+				store.initializeSchema();
+			} catch (RuntimeException e) {
+				ourLog.warn("Could not initialize pre-expansion tables: {}", e.getMessage());
+			}
+		}
+		return store;
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "shutdown")
+	public PreExpansionScheduler preExpansionScheduler(DaoRegistry daoRegistry, PreExpansionStore store,
+			ExpansionLimits expansionLimits, ConceptStoreConfig conceptStoreConfig, ConceptStore conceptStore) {
+		ValueSetExpansionService expansionService = new ValueSetExpansionService(
+				daoRegistry.getResourceDao(ValueSet.class), daoRegistry.getResourceDao(CodeSystem.class));
+		expansionService.setPreExpansionStore(store);
+		expansionService.setExpansionLimits(expansionLimits);
+		if (conceptStoreConfig.isEnabled()) {
+			expansionService.setConceptStore(conceptStore);
+		}
+
+		List<String> selected = Arrays.stream(selectedValueSets.split(","))
+				.map(String::trim)
+				.filter(s -> !s.isEmpty())
+				.collect(Collectors.toList());
+
+		return new PreExpansionScheduler(daoRegistry.getResourceDao(ValueSet.class), expansionService, store,
+				PreExpansionScheduler.Policy.fromString(policy), selected, refreshSeconds);
+	}
+
+	@Bean
+	public PreExpansionInvalidationInterceptor preExpansionInvalidationInterceptor(PreExpansionStore store,
+			PreExpansionScheduler scheduler, IInterceptorService interceptorService) {
+		PreExpansionInvalidationInterceptor interceptor = new PreExpansionInvalidationInterceptor(store, scheduler);
+		if (PreExpansionScheduler.Policy.fromString(policy) != PreExpansionScheduler.Policy.NONE) {
+			interceptorService.registerInterceptor(interceptor);
+		}
+		return interceptor;
+	}
+
+	public boolean isEnabled() {
+		return PreExpansionScheduler.Policy.fromString(policy) != PreExpansionScheduler.Policy.NONE;
+	}
+}
@@ -0,0 +1,44 @@
+package com.hitstdio.fhir.server.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.hitstdio.fhir.server.interceptor.SearchWriteAuditInterceptor;
+import com.hitstdio.fhir.server.interceptor.TerminologyReadAuditInterceptor;
+
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+
+/**
+ * Audit of the database writes (search rows) caused by read-only terminology calls.
+ * <p>
+ * tx.search-write-audit.enabled = true 時統計每次搜尋是否寫入 HFJ_SEARCH / HFJ_SEARCH_RESULT，
+ * 並記錄唯讀術語操作造成的寫入（預設 false）
+ */
+@Configuration
+public class SearchWriteAuditConfig {
+
+	@Value("${tx.search-write-audit.enabled:false}")
+	private boolean enabled;
+
+	@Bean
+	public SearchWriteAuditInterceptor searchWriteAuditInterceptor(IInterceptorService interceptorService) {
+		SearchWriteAuditInterceptor interceptor = new SearchWriteAuditInterceptor();
+		if (enabled) {
+			interceptorService.registerInterceptor(interceptor);
+		}
+		return interceptor;
+	}
+
+	/**
+	 * 由 RestfulServer 註冊（僅在 {@link #isEnabled()} 時）。
+	 */
+	@Bean
+	public TerminologyReadAuditInterceptor terminologyReadAuditInterceptor() {
+		return new TerminologyReadAuditInterceptor();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+}
@@ -0,0 +1,35 @@
+package com.hitstdio.fhir.server.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.hitstdio.fhir.server.interceptor.TerminologyIndexInvalidationInterceptor;
+import com.hitstdio.fhir.server.util.CodeSystemMetadataQuery;
+
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+
+import javax.sql.DataSource;
+
+/**
+ * In-memory terminology indexes built from several stored resources.
+ * <p>
+ * 這些索引不需設定；CodeSystem / ValueSet 新增、更新或刪除時由 interceptor 清除對應 url 的索引
+ * <p>
+ * CodeSystem 中繼資料（url / version / status / date）直接查詢 JPA 搜尋索引資料表，不需快取
+ */
+@Configuration
+public class TerminologyIndexConfig {
+
+	@Bean
+	public TerminologyIndexInvalidationInterceptor terminologyIndexInvalidationInterceptor(
+			IInterceptorService interceptorService) {
+		TerminologyIndexInvalidationInterceptor interceptor = new TerminologyIndexInvalidationInterceptor();
+		interceptorService.registerInterceptor(interceptor);
+		return interceptor;
+	}
+
+	@Bean
+	public CodeSystemMetadataQuery codeSystemMetadataQuery(DataSource dataSource) {
+		return new CodeSystemMetadataQuery(dataSource);
+	}
+}
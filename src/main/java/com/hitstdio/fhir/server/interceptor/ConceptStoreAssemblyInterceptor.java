@@ -0,0 +1,78 @@
+package com.hitstdio.fhir.server.interceptor;
+
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hitstdio.fhir.server.util.ConceptStore;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.IPreResourceShowDetails;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+
+/**
+ * Returns the standard CodeSystem resource to a client that reads (or vreads) a header-only
+ * CodeSystem ({@code content = not-present}) whose concepts are in {@link ConceptStore}: a copy
+ * of the assembled CodeSystem the terminology operations share ({@link ConceptStore#withConcepts}),
+ * so repeated reads do not rebuild the concept tree from the rows. A vread of an earlier version
+ * gets that header as stored, since the rows hold the concepts of the current version only.
+ * Internal lookups (system requests), searches and {@code _summary} / {@code _elements} reads
+ * get the header as stored; terminology operations resolve concepts through the store themselves.
+ * Registered on the JPA interceptor service (storage pointcuts), not on the RestfulServer.
+ */
+@Interceptor
+public class ConceptStoreAssemblyInterceptor {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(ConceptStoreAssemblyInterceptor.class);
+
+	private final ConceptStore store;
+
+	public ConceptStoreAssemblyInterceptor(ConceptStore store) {
+		this.store = store;
+	}
+
+	@Hook(Pointcut.STORAGE_PRESHOW_RESOURCES)
+	public void preShow(IPreResourceShowDetails theDetails, RequestDetails theRequestDetails) {
+		if (!isClientRead(theRequestDetails)) {
+			return;
+		}
+		for (int i = 0; i < theDetails.size(); i++) {
+			IBaseResource resource = theDetails.getResource(i);
+			if (!(resource instanceof CodeSystem cs)
+					|| cs.getContent() != CodeSystem.CodeSystemContentMode.NOTPRESENT) {
+				continue;
+			}
+			try {
+				CodeSystem assembled = store.withConcepts(cs);
+				if (assembled != cs) {
+					// the cached instance is shared; the response gets its own copy
+					theDetails.setResource(i, assembled.copy());
+				}
+			} catch (RuntimeException e) {
+				// the header is returned as stored
+				ourLog.warn("Could not assemble concepts of {}|{}: {}", cs.getUrl(), cs.getVersion(), e.getMessage());
+			}
+		}
+	}
+
+	private static boolean isClientRead(RequestDetails theRequestDetails) {
+		if (theRequestDetails == null || theRequestDetails instanceof SystemRequestDetails) {
+			return false;
+		}
+		RestOperationTypeEnum operation = theRequestDetails.getRestOperationType();
+		if (operation != RestOperationTypeEnum.READ && operation != RestOperationTypeEnum.VREAD) {
+			return false;
+		}
+		Map<String, String[]> parameters = theRequestDetails.getParameters();
+		return parameters == null || (!parameters.containsKey(Constants.PARAM_SUMMARY)
+				&& !parameters.containsKey(Constants.PARAM_ELEMENTS));
+	}
+}
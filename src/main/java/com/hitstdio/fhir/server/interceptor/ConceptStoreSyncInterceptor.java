@@ -0,0 +1,104 @@
+package com.hitstdio.fhir.server.interceptor;
+
+import java.util.Objects;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.hitstdio.fhir.server.util.ConceptStore;
+import com.hitstdio.fhir.server.util.ConceptStoreLoader;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+
+/**
+ * Keeps {@link ConceptStore} in step with CodeSystem create, update (including patch) and
+ * delete. The rows of every affected url|version are removed before the resource transaction
+ * commits, so readers fall back to the resource until the loader has stored the committed
+ * state again (after completion, whether the transaction committed or rolled back).
+ * Header-only CodeSystems ({@code content = not-present}) written by
+ * {@link com.hitstdio.fhir.server.util.CodeSystemBulkLoader} keep their rows on create and
+ * update; the bulk loader replaces them itself.
+ * Registered on the JPA interceptor service (storage pointcuts), not on the RestfulServer.
+ */
+@Interceptor
+public class ConceptStoreSyncInterceptor {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(ConceptStoreSyncInterceptor.class);
+
+	private final ConceptStore store;
+	private final ConceptStoreLoader loader;
+
+	public ConceptStoreSyncInterceptor(ConceptStore store, ConceptStoreLoader loader) {
+		this.store = store;
+		this.loader = loader;
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		if (!isHeaderOnly(theResource)) {
+			sync(theResource);
+		}
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		if (isHeaderOnly(theNewResource)) {
+			// a bulk load writing a new header after committing its rows; a previous complete
+			// resource's rows still go, unless they are those rows (same url|version)
+			if (!isHeaderOnly(theOldResource) && !sameUrlAndVersion(theOldResource, theNewResource)) {
+				sync(theOldResource);
+			}
+			return;
+		}
+		sync(theOldResource);
+		sync(theNewResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		sync(theResource);
+	}
+
+	private static boolean isHeaderOnly(IBaseResource resource) {
+		return resource instanceof CodeSystem cs && cs.getContent() == CodeSystem.CodeSystemContentMode.NOTPRESENT;
+	}
+
+	private static boolean sameUrlAndVersion(IBaseResource a, IBaseResource b) {
+		return a instanceof CodeSystem csA && b instanceof CodeSystem csB
+				&& Objects.equals(csA.getUrl(), csB.getUrl())
+				&& Objects.equals(emptyToNull(csA.getVersion()), emptyToNull(csB.getVersion()));
+	}
+
+	private static String emptyToNull(String value) {
+		return value == null || value.isEmpty() ? null : value;
+	}
+
+	private void sync(IBaseResource resource) {
+		if (!(resource instanceof CodeSystem cs) || !cs.hasUrl()) {
+			return;
+		}
+		String url = cs.getUrl();
+		String version = cs.getVersion();
+		try {
+			store.delete(url, version);
+		} catch (RuntimeException e) {
+			ourLog.warn("Could not remove stored concepts of {}|{}: {}", url, version, e.getMessage());
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					loader.submitRefresh(url, version);
+				}
+			});
+		} else {
+			loader.submitRefresh(url, version);
+		}
+	}
+}
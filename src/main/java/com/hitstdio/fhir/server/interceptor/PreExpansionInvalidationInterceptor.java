@@ -0,0 +1,158 @@
+package com.hitstdio.fhir.server.interceptor;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.hitstdio.fhir.server.util.CodeSystemDelta;
+import com.hitstdio.fhir.server.util.PreExpansionScheduler;
+import com.hitstdio.fhir.server.util.PreExpansionStore;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+
+/**
+ * Keeps stored ValueSet pre-expansions consistent with CodeSystem/ValueSet changes.
+ * <p>
+ * ValueSet changes mark dependent expansions STALE; a deleted ValueSet also loses its own stored
+ * expansion. CodeSystem changes only touch the expansions built from the affected url|version:
+ * a deleted CodeSystem marks them STALE, an update is diffed against the previous version, and a
+ * new version is diffed by the scheduler against the version each expansion used. Expansions to
+ * be patched are taken out of service (PATCHING) only if they are READY, and the delta is patched
+ * into them by the pre-expansion scheduler once the transaction commits; a rollback puts back
+ * exactly the expansions this change took out of service.
+ * Registered on the JPA interceptor service (storage pointcuts), not on the RestfulServer.
+ */
+@Interceptor
+public class PreExpansionInvalidationInterceptor {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(PreExpansionInvalidationInterceptor.class);
+
+	private final PreExpansionStore store;
+	private final PreExpansionScheduler scheduler;
+
+	public PreExpansionInvalidationInterceptor(PreExpansionStore store, PreExpansionScheduler scheduler) {
+		this.store = store;
+		this.scheduler = scheduler;
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		if (theResource instanceof CodeSystem cs && cs.hasUrl()) {
+			codeSystemCreated(cs);
+			return;
+		}
+		invalidate(theResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		if (theOldResource instanceof CodeSystem oldCs && theNewResource instanceof CodeSystem newCs
+				&& oldCs.hasUrl() && oldCs.getUrl().equals(newCs.getUrl())) {
+			if (!Objects.equals(oldCs.getVersion(), newCs.getVersion())) {
+				// expansions that referenced the new version before it existed
+				invalidate(newCs);
+			}
+			applyDelta(CodeSystemDelta.between(oldCs, newCs));
+			return;
+		}
+		invalidate(theOldResource);
+		invalidate(theNewResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		invalidate(theResource);
+		if (theResource instanceof ValueSet vs && vs.hasUrl()) {
+			try {
+				store.delete(vs.getUrl(), vs.getVersion());
+			} catch (RuntimeException e) {
+				ourLog.warn("Could not remove the pre-expansion of {}|{}: {}", vs.getUrl(), vs.getVersion(),
+						e.getMessage());
+			}
+		}
+	}
+
+	private void applyDelta(CodeSystemDelta delta) {
+		if (delta.isEmpty()) {
+			return;
+		}
+		List<String> patching = markPatching(delta.getUrl(), delta.getOldVersion());
+		if (patching.isEmpty()) {
+			return;
+		}
+		ourLog.info("Patching {} pre-expansion(s) for {} ({} concepts changed)", patching.size(), delta.getUrl(),
+				delta.size());
+		afterCommit(patching, () -> scheduler.submitDelta(delta, patching));
+	}
+
+	/**
+	 * A new version may become the one unpinned includes resolve to; the expansions built from
+	 * other versions wait (PATCHING) until the scheduler has compared them with it.
+	 */
+	private void codeSystemCreated(CodeSystem created) {
+		invalidate(created);
+		List<String> patching = markPatching(created.getUrl(), null);
+		if (patching.isEmpty()) {
+			return;
+		}
+		ourLog.info("Checking {} pre-expansion(s) against new version {}|{}", patching.size(), created.getUrl(),
+				created.getVersion());
+		afterCommit(patching, () -> scheduler.submitCreated(created, patching));
+	}
+
+	private List<String> markPatching(String url, String version) {
+		try {
+			return store.markPatching(url, version);
+		} catch (RuntimeException e) {
+			ourLog.warn("Could not invalidate pre-expansions for {}: {}", url, e.getMessage());
+			return List.of();
+		}
+	}
+
+	private void afterCommit(List<String> patching, Runnable submit) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					if (status == STATUS_COMMITTED) {
+						submit.run();
+					} else {
+						store.updateStatus(patching, PreExpansionStore.STATUS_PATCHING, PreExpansionStore.STATUS_READY);
+					}
+				}
+			});
+		} else {
+			submit.run();
+		}
+	}
+
+	private void invalidate(IBaseResource resource) {
+		String url = null;
+		if (resource instanceof CodeSystem cs && cs.hasUrl()) {
+			url = cs.getUrl();
+		} else if (resource instanceof ValueSet vs && vs.hasUrl()) {
+			url = vs.getUrl();
+		}
+		if (url == null) {
+			return;
+		}
+		try {
+			int marked = resource instanceof CodeSystem codeSystem ? store.markStale(url, codeSystem.getVersion())
+					: store.markStale(url);
+			if (marked > 0) {
+				ourLog.info("Marked {} pre-expansion(s) stale after change to {}", marked, url);
+			}
+		} catch (RuntimeException e) {
+			ourLog.warn("Could not invalidate pre-expansions for {}: {}", url, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.hitstdio.fhir.server.interceptor;
+
+import com.hitstdio.fhir.server.util.SearchWriteAudit;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+
+/**
+ * Counts JPA searches into {@link SearchWriteAudit}: searches that went through the search
+ * coordinator (and therefore stored a search row and its result rows) versus synchronous
+ * ones, on the counter of the audited request that ran them. Registered on the JPA
+ * interceptor service (performance-tracing pointcuts), which sees the searches of every
+ * caller, including the providers' internal lookups.
+ */
+@Interceptor
+public class SearchWriteAuditInterceptor {
+
+	@Hook(Pointcut.JPA_PERFTRACE_SEARCH_SELECT_COMPLETE)
+	public void searchSelectComplete(RequestDetails theRequestDetails, SearchRuntimeDetails theDetails) {
+		if (theDetails.isLoadSynchronous()) {
+			SearchWriteAudit.recordSynchronousSearch(theRequestDetails);
+		} else {
+			SearchWriteAudit.recordPersistedSearch(theRequestDetails);
+		}
+	}
+
+	@Hook(Pointcut.JPA_PERFTRACE_SEARCH_COMPLETE)
+	public void searchComplete(RequestDetails theRequestDetails, SearchRuntimeDetails theDetails) {
+		if (!theDetails.isLoadSynchronous()) {
+			SearchWriteAudit.recordPersistedResults(theRequestDetails, theDetails.getFoundMatchesCount());
+		}
+	}
+
+	@Hook(Pointcut.JPA_PERFTRACE_SEARCH_REUSING_CACHED)
+	public void searchReusingCached(RequestDetails theRequestDetails) {
+		SearchWriteAudit.recordCachedSearchReuse(theRequestDetails);
+	}
+}
@@ -0,0 +1,62 @@
+package com.hitstdio.fhir.server.interceptor;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.hitstdio.fhir.server.util.TerminologyIndexCache;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+
+/**
+ * Drops the in-memory terminology indexes ({@link TerminologyIndexCache}: per-version indexes,
+ * the per-url {@link com.hitstdio.fhir.server.util.CodeVersionIndex} and the resolved references
+ * of {@link com.hitstdio.fhir.server.util.ValueSetDependencyGraph}) built from a CodeSystem or
+ * ValueSet url when a resource with that url changes. Indexes are dropped
+ * before commit and again after completion, so a rebuild that read the old rows meanwhile does
+ * not survive. Registered on the JPA interceptor service (storage pointcuts).
+ */
+@Interceptor
+public class TerminologyIndexInvalidationInterceptor {
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+	public void resourceCreated(IBaseResource theResource) {
+		invalidate(theResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+	public void resourceUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+		invalidate(theOldResource);
+		invalidate(theNewResource);
+	}
+
+	@Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+	public void resourceDeleted(IBaseResource theResource) {
+		invalidate(theResource);
+	}
+
+	private void invalidate(IBaseResource resource) {
+		String url;
+		if (resource instanceof CodeSystem cs && cs.hasUrl()) {
+			url = cs.getUrl();
+		} else if (resource instanceof ValueSet vs && vs.hasUrl()) {
+			url = vs.getUrl();
+		} else {
+			return;
+		}
+		Runnable invalidation = () -> TerminologyIndexCache.invalidate(url);
+		invalidation.run();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					invalidation.run();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.hitstdio.fhir.server.interceptor;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hitstdio.fhir.server.util.SearchWriteAudit;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+
+/**
+ * Reports the search-row writes caused by read-only terminology calls ($lookup,
+ * $validate-code, $expand, ... and plain reads). Searches are excluded: paging legitimately
+ * stores search rows. Each audited request gets its own {@link SearchWriteAudit} counter, so
+ * concurrent requests are not mixed up. A call that caused writes is logged at WARN; every
+ * {@value #REPORT_INTERVAL} audited calls the per-operation totals are logged.
+ * Registered on the RestfulServer (server pointcuts).
+ */
+@Interceptor
+public class TerminologyReadAuditInterceptor {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(TerminologyReadAuditInterceptor.class);
+
+	private static final String USER_DATA_KEY = TerminologyReadAuditInterceptor.class.getName() + ".operation";
+	private static final int REPORT_INTERVAL = 1000;
+	private static final Set<String> READ_ONLY_OPERATIONS = Set.of("$lookup", "$validate-code", "$expand",
+			"$subsumes", "$translate", "$batch-validate-code", "$metadata");
+	private static final Set<RestOperationTypeEnum> READ_ONLY_INTERACTIONS = Set.of(RestOperationTypeEnum.READ,
+			RestOperationTypeEnum.VREAD, RestOperationTypeEnum.METADATA);
+
+	private final AtomicLong audited = new AtomicLong();
+
+	@Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED)
+	public void requestPreHandled(RequestDetails theRequestDetails) {
+		String operation = operationOf(theRequestDetails);
+		if (operation != null) {
+			theRequestDetails.getUserData().put(USER_DATA_KEY, operation);
+			SearchWriteAudit.attach(theRequestDetails);
+		}
+	}
+
+	@Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+	public void processingCompleted(RequestDetails theRequestDetails) {
+		if (!(theRequestDetails.getUserData().remove(USER_DATA_KEY) instanceof String operation)) {
+			return;
+		}
+		SearchWriteAudit.Counts delta = SearchWriteAudit.detach(theRequestDetails);
+		if (delta == null) {
+			return;
+		}
+		SearchWriteAudit.recordRequest(operation, delta);
+		if (delta.hasWrites()) {
+			ourLog.warn("Read-only {} stored {} search rows and {} search result rows", operation,
+					delta.persistedSearches(), delta.persistedResults());
+		}
+		if (audited.incrementAndGet() % REPORT_INTERVAL == 0) {
+			ourLog.info("Search writes of read-only terminology calls:\n{}", SearchWriteAudit.report());
+		}
+	}
+
+	// "ValueSet/$validate-code", "CodeSystem read", ...; null for calls that may write and for searches
+	private static String operationOf(RequestDetails theRequestDetails) {
+		String resourceName = theRequestDetails.getResourceName() != null ? theRequestDetails.getResourceName() : "";
+		String operation = theRequestDetails.getOperation();
+		if (operation != null && READ_ONLY_OPERATIONS.contains(operation)) {
+			return resourceName + "/" + operation;
+		}
+		RestOperationTypeEnum interaction = theRequestDetails.getRestOperationType();
+		if (operation == null && theRequestDetails.getRequestType() == RequestTypeEnum.GET
+				&& READ_ONLY_INTERACTIONS.contains(interaction)) {
+			return resourceName + " " + interaction.getCode();
+		}
+		return null;
+	}
+}
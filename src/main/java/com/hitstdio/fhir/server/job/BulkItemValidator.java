@@ -0,0 +1,15 @@
+package com.hitstdio.fhir.server.job;
+
+import org.hl7.fhir.r4.model.Resource;
+
+import com.hitstdio.fhir.server.util.NdjsonValidationItems;
+
+/**
+ * Validates one NDJSON input line against the job's batch-wide parameters and returns the
+ * $validate-code result (Parameters) or an OperationOutcome.
+ */
+@FunctionalInterface
+public interface BulkItemValidator {
+
+	Resource validate(NdjsonValidationItems.Line line, BulkValidateJobParameters params);
+}
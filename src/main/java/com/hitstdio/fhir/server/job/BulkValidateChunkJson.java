@@ -0,0 +1,29 @@
+package com.hitstdio.fhir.server.job;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import ca.uhn.fhir.model.api.IModelJson;
+
+/**
+ * Work chunk of a bulk validate-code job: one input NDJSON Binary.
+ */
+public class BulkValidateChunkJson implements IModelJson {
+
+	@JsonProperty("inputBinaryId")
+	private String inputBinaryId;
+
+	public BulkValidateChunkJson() {
+	}
+
+	public BulkValidateChunkJson(String inputBinaryId) {
+		this.inputBinaryId = inputBinaryId;
+	}
+
+	public String getInputBinaryId() {
+		return inputBinaryId;
+	}
+
+	public void setInputBinaryId(String inputBinaryId) {
+		this.inputBinaryId = inputBinaryId;
+	}
+}
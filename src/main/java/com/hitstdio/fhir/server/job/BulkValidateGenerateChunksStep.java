@@ -0,0 +1,27 @@
+package com.hitstdio.fhir.server.job;
+
+import ca.uhn.fhir.batch2.api.IFirstJobStepWorker;
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.api.VoidModel;
+
+/**
+ * First step: one work chunk per input Binary, so chunks are spread over the Batch2 workers
+ * of every node.
+ */
+public class BulkValidateGenerateChunksStep
+		implements IFirstJobStepWorker<BulkValidateJobParameters, BulkValidateChunkJson> {
+
+	@Override
+	public RunOutcome run(StepExecutionDetails<BulkValidateJobParameters, VoidModel> theStepExecutionDetails,
+			IJobDataSink<BulkValidateChunkJson> theDataSink) throws JobExecutionFailedException {
+		int chunks = 0;
+		for (String binaryId : theStepExecutionDetails.getParameters().getInputBinaryIds()) {
+			theDataSink.accept(new BulkValidateChunkJson(binaryId));
+			chunks++;
+		}
+		return new RunOutcome(chunks);
+	}
+}
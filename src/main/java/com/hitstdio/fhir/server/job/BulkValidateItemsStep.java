@@ -0,0 +1,70 @@
+package com.hitstdio.fhir.server.job;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hitstdio.fhir.server.util.NdjsonValidationItems;
+
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.IJobStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+
+/**
+ * Validates the lines of one input Binary and stores the results, one NDJSON line per input
+ * line in the same order, as an output Binary. The output Binary id is derived from the job and
+ * the input Binary, so a retried chunk replaces its earlier output.
+ */
+public class BulkValidateItemsStep
+		implements IJobStepWorker<BulkValidateJobParameters, BulkValidateChunkJson, BulkValidateOutputJson> {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(BulkValidateItemsStep.class);
+
+	private final IFhirResourceDao<Binary> binaryDao;
+	private final BulkItemValidator validator;
+
+	public BulkValidateItemsStep(IFhirResourceDao<Binary> binaryDao, BulkItemValidator validator) {
+		this.binaryDao = binaryDao;
+		this.validator = validator;
+	}
+
+	@Override
+	public RunOutcome run(StepExecutionDetails<BulkValidateJobParameters, BulkValidateChunkJson> theStepExecutionDetails,
+			IJobDataSink<BulkValidateOutputJson> theDataSink) throws JobExecutionFailedException {
+		BulkValidateJobParameters params = theStepExecutionDetails.getParameters();
+		String inputBinaryId = theStepExecutionDetails.getData().getInputBinaryId();
+
+		Binary input = binaryDao.read(new IdType("Binary", inputBinaryId), new SystemRequestDetails());
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new ByteArrayInputStream(input.getData()), StandardCharsets.UTF_8));
+
+		IParser parser = FhirContext.forR4Cached().newJsonParser().setPrettyPrint(false);
+		StringBuilder output = new StringBuilder();
+		int count = 0;
+		for (Iterator<NdjsonValidationItems.Line> lines = NdjsonValidationItems.lines(reader); lines.hasNext();) {
+			output.append(parser.encodeResourceToString(validator.validate(lines.next(), params))).append('\n');
+			count++;
+		}
+
+		String instanceId = theStepExecutionDetails.getInstance().getInstanceId();
+		String outputBinaryId = BulkValidateJobService.outputBinaryId(instanceId, inputBinaryId);
+		BulkValidateJobService.storeNdjson(binaryDao, outputBinaryId, output.toString());
+		ourLog.debug("Bulk validate job {}: {} items of Binary/{} -> Binary/{}", instanceId, count, inputBinaryId,
+				outputBinaryId);
+		theDataSink.accept(new BulkValidateOutputJson(inputBinaryId, outputBinaryId, count));
+		return new RunOutcome(count);
+	}
+}
@@ -0,0 +1,187 @@
+package com.hitstdio.fhir.server.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import ca.uhn.fhir.model.api.IModelJson;
+
+/**
+ * Parameters of a bulk validate-code job: the batch-wide $validate-code parameters (the same
+ * ones $batch-validate-code takes) and the NDJSON Binary resources holding the items.
+ */
+public class BulkValidateJobParameters implements IModelJson {
+
+	@JsonProperty("url")
+	private String url;
+
+	@JsonProperty("version")
+	private String version;
+
+	@JsonProperty("displayLanguage")
+	private String displayLanguage;
+
+	@JsonProperty("activeOnly")
+	private Boolean activeOnly;
+
+	@JsonProperty("inferSystem")
+	private Boolean inferSystem;
+
+	@JsonProperty("lenientDisplayValidation")
+	private Boolean lenientDisplayValidation;
+
+	@JsonProperty("defaultValuesetVersion")
+	private String defaultValuesetVersion;
+
+	@JsonProperty("systemVersion")
+	private List<String> systemVersion = new ArrayList<>();
+
+	@JsonProperty("checkSystemVersion")
+	private List<String> checkSystemVersion = new ArrayList<>();
+
+	@JsonProperty("forceSystemVersion")
+	private List<String> forceSystemVersion = new ArrayList<>();
+
+	@JsonProperty("inputBinaryIds")
+	private List<String> inputBinaryIds = new ArrayList<>();
+
+	/** The input Binaries the job stored itself (removed when the job ends), not those the caller listed */
+	@JsonProperty("ownedInputBinaryIds")
+	private List<String> ownedInputBinaryIds = new ArrayList<>();
+
+	/**
+	 * Reads the batch-wide parameters from a query string. {@code input} lists NDJSON Binary
+	 * resources ({@code Binary/id} or {@code id}) that were uploaded beforehand.
+	 */
+	public static BulkValidateJobParameters fromQuery(Map<String, String[]> query) {
+		BulkValidateJobParameters params = new BulkValidateJobParameters();
+		params.setUrl(first(query, "url"));
+		params.setVersion(first(query, "version"));
+		params.setDisplayLanguage(first(query, "displayLanguage"));
+		params.setActiveOnly(bool(query, "activeOnly"));
+		params.setInferSystem(bool(query, "inferSystem"));
+		params.setLenientDisplayValidation(bool(query, "lenient-display-validation"));
+		params.setDefaultValuesetVersion(first(query, "default-valueset-version"));
+		params.setSystemVersion(all(query, "system-version"));
+		params.setCheckSystemVersion(all(query, "check-system-version"));
+		params.setForceSystemVersion(all(query, "force-system-version"));
+		for (String input : all(query, "input")) {
+			params.getInputBinaryIds().add(input.startsWith("Binary/") ? input.substring("Binary/".length()) : input);
+		}
+		return params;
+	}
+
+	private static String first(Map<String, String[]> query, String name) {
+		String[] values = query.get(name);
+		return values != null && values.length > 0 && !values[0].isBlank() ? values[0] : null;
+	}
+
+	private static Boolean bool(Map<String, String[]> query, String name) {
+		String value = first(query, name);
+		return value != null ? Boolean.valueOf(value) : null;
+	}
+
+	private static List<String> all(Map<String, String[]> query, String name) {
+		String[] values = query.get(name);
+		return values != null ? new ArrayList<>(Arrays.asList(values)) : new ArrayList<>();
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	public String getDisplayLanguage() {
+		return displayLanguage;
+	}
+
+	public void setDisplayLanguage(String displayLanguage) {
+		this.displayLanguage = displayLanguage;
+	}
+
+	public Boolean getActiveOnly() {
+		return activeOnly;
+	}
+
+	public void setActiveOnly(Boolean activeOnly) {
+		this.activeOnly = activeOnly;
+	}
+
+	public Boolean getInferSystem() {
+		return inferSystem;
+	}
+
+	public void setInferSystem(Boolean inferSystem) {
+		this.inferSystem = inferSystem;
+	}
+
+	public Boolean getLenientDisplayValidation() {
+		return lenientDisplayValidation;
+	}
+
+	public void setLenientDisplayValidation(Boolean lenientDisplayValidation) {
+		this.lenientDisplayValidation = lenientDisplayValidation;
+	}
+
+	public String getDefaultValuesetVersion() {
+		return defaultValuesetVersion;
+	}
+
+	public void setDefaultValuesetVersion(String defaultValuesetVersion) {
+		this.defaultValuesetVersion = defaultValuesetVersion;
+	}
+
+	public List<String> getSystemVersion() {
+		return systemVersion;
+	}
+
+	public void setSystemVersion(List<String> systemVersion) {
+		this.systemVersion = systemVersion;
+	}
+
+	public List<String> getCheckSystemVersion() {
+		return checkSystemVersion;
+	}
+
+	public void setCheckSystemVersion(List<String> checkSystemVersion) {
+		this.checkSystemVersion = checkSystemVersion;
+	}
+
+	public List<String> getForceSystemVersion() {
+		return forceSystemVersion;
+	}
+
+	public void setForceSystemVersion(List<String> forceSystemVersion) {
+		this.forceSystemVersion = forceSystemVersion;
+	}
+
+	public List<String> getInputBinaryIds() {
+		return inputBinaryIds;
+	}
+
+	public void setInputBinaryIds(List<String> inputBinaryIds) {
+		this.inputBinaryIds = inputBinaryIds;
+	}
+
+	public List<String> getOwnedInputBinaryIds() {
+		return ownedInputBinaryIds;
+	}
+
+	public void setOwnedInputBinaryIds(List<String> ownedInputBinaryIds) {
+		this.ownedInputBinaryIds = ownedInputBinaryIds;
+	}
+}
@@ -0,0 +1,235 @@
+package com.hitstdio.fhir.server.job;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.hitstdio.fhir.server.util.NdjsonValidationItems;
+
+import ca.uhn.fhir.batch2.api.IJobCoordinator;
+import ca.uhn.fhir.batch2.model.JobInstance;
+import ca.uhn.fhir.batch2.model.JobInstanceStartRequest;
+import ca.uhn.fhir.batch2.model.StatusEnum;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.batch.models.Batch2JobStartResponse;
+import ca.uhn.fhir.model.api.IModelJson;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.util.JsonUtil;
+
+/**
+ * Starts and reports on asynchronous bulk validate-code jobs (Batch2). Input lines are stored
+ * as NDJSON Binary resources of at most {@code chunkSize} lines; each Binary becomes one work
+ * chunk, and each chunk's results are stored as an output Binary listed in the job report.
+ * <p>
+ * The output Binary of a chunk has an id derived from the job and the input Binary
+ * ({@link #outputBinaryId(String, String)}), so a retried chunk overwrites its earlier result
+ * instead of adding one. Input Binaries the job stored itself are removed by the report step;
+ * the Binaries of a failed or cancelled job are removed when its status is read, those of a
+ * completed job when the client deletes it ({@link #delete(JobInstance)}).
+ */
+public class BulkValidateJobService {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(BulkValidateJobService.class);
+
+	public static final String JOB_DEFINITION_ID = "TERMINOLOGY_BULK_VALIDATE_CODE";
+	public static final String NDJSON_CONTENT_TYPE = "application/fhir+ndjson";
+
+	private final IJobCoordinator jobCoordinator;
+	private final IFhirResourceDao<Binary> binaryDao;
+	private final int chunkSize;
+
+	public BulkValidateJobService(IJobCoordinator jobCoordinator, IFhirResourceDao<Binary> binaryDao, int chunkSize) {
+		this.jobCoordinator = jobCoordinator;
+		this.binaryDao = binaryDao;
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * Stores the given lines as input Binaries, adds them to the parameters (after any
+	 * Binaries the caller already listed) and starts the job. Returns the job instance id.
+	 */
+	public String submit(Iterator<NdjsonValidationItems.Line> lines, BulkValidateJobParameters params,
+			RequestDetails theRequestDetails) {
+		StringBuilder chunk = new StringBuilder();
+		int inChunk = 0;
+		while (lines.hasNext()) {
+			chunk.append(lines.next().text()).append('\n');
+			if (++inChunk == chunkSize) {
+				addOwnedInput(params, storeNdjson(binaryDao, chunk.toString()));
+				chunk.setLength(0);
+				inChunk = 0;
+			}
+		}
+		if (inChunk > 0) {
+			addOwnedInput(params, storeNdjson(binaryDao, chunk.toString()));
+		}
+		if (params.getInputBinaryIds().isEmpty()) {
+			throw new InvalidRequestException("No validation items supplied (request body or 'input' Binary)");
+		}
+
+		JobInstanceStartRequest startRequest = new JobInstanceStartRequest();
+		startRequest.setJobDefinitionId(JOB_DEFINITION_ID);
+		startRequest.setParameters(params);
+		Batch2JobStartResponse response = jobCoordinator.startInstance(theRequestDetails, startRequest);
+		ourLog.info("Started bulk validate job {} with {} input chunk(s)", response.getInstanceId(),
+				params.getInputBinaryIds().size());
+		return response.getInstanceId();
+	}
+
+	private static void addOwnedInput(BulkValidateJobParameters params, String binaryId) {
+		params.getInputBinaryIds().add(binaryId);
+		params.getOwnedInputBinaryIds().add(binaryId);
+	}
+
+	/**
+	 * Returns the bulk validate job with this id; instances of other job definitions are
+	 * reported as not found.
+	 */
+	public JobInstance getInstance(String instanceId) {
+		JobInstance instance;
+		try {
+			instance = jobCoordinator.getInstance(instanceId);
+		} catch (ResourceNotFoundException e) {
+			instance = null;
+		}
+		if (instance == null || !JOB_DEFINITION_ID.equals(instance.getJobDefinitionId())) {
+			throw new ResourceNotFoundException("Unknown bulk validation job: " + instanceId);
+		}
+		return instance;
+	}
+
+	/**
+	 * Removes the Binaries of a failed or cancelled job: the input Binaries it stored and the
+	 * output Binaries of the chunks that had finished.
+	 */
+	public void cleanUpFailed(JobInstance instance) {
+		if (instance.getStatus() == StatusEnum.FAILED || instance.getStatus() == StatusEnum.CANCELLED) {
+			removeBinaries(instance);
+		}
+	}
+
+	/**
+	 * Cancels the job if it is still running and removes its Binaries (inputs the job stored
+	 * and all outputs), e.g. once the client has downloaded the results.
+	 */
+	public void delete(JobInstance instance) {
+		if (!instance.getStatus().isEnded()) {
+			jobCoordinator.cancelInstance(instance.getInstanceId());
+		}
+		removeBinaries(instance);
+	}
+
+	private void removeBinaries(JobInstance instance) {
+		BulkValidateJobParameters params = instance.getParameters(BulkValidateJobParameters.class);
+		List<String> binaryIds = new ArrayList<>(params.getOwnedInputBinaryIds());
+		for (String inputBinaryId : params.getInputBinaryIds()) {
+			binaryIds.add(outputBinaryId(instance.getInstanceId(), inputBinaryId));
+		}
+		deleteBinaries(binaryDao, binaryIds);
+	}
+
+	/**
+	 * Builds the completion manifest (bulk data style) of a finished job.
+	 */
+	public String buildManifest(JobInstance instance, String serverBase, String requestUrl) {
+		BulkValidateReportJson report = instance.getReport() != null
+				? JsonUtil.deserialize(instance.getReport(), BulkValidateReportJson.class)
+				: new BulkValidateReportJson();
+		Manifest manifest = new Manifest();
+		manifest.transactionTime = instance.getEndTime() != null ? instance.getEndTime().toInstant().toString() : null;
+		manifest.request = requestUrl;
+		manifest.itemCount = report.getItemCount();
+		for (String binaryId : report.getOutputBinaryIds()) {
+			manifest.output.add(new ManifestOutput("Parameters", serverBase + "/Binary/" + binaryId));
+		}
+		return JsonUtil.serialize(manifest);
+	}
+
+	static String storeNdjson(IFhirResourceDao<Binary> binaryDao, String content) {
+		return binaryDao.create(ndjsonBinary(content), new SystemRequestDetails()).getId().getIdPart();
+	}
+
+	/**
+	 * Stores {@code content} as the Binary with this id, replacing an earlier version.
+	 */
+	static void storeNdjson(IFhirResourceDao<Binary> binaryDao, String binaryId, String content) {
+		Binary binary = ndjsonBinary(content);
+		binary.setId(new IdType("Binary", binaryId));
+		binaryDao.update(binary, new SystemRequestDetails());
+	}
+
+	private static Binary ndjsonBinary(String content) {
+		Binary binary = new Binary();
+		binary.setContentType(NDJSON_CONTENT_TYPE);
+		binary.setData(content.getBytes(StandardCharsets.UTF_8));
+		return binary;
+	}
+
+	/**
+	 * Id of the output Binary of one chunk (input Binary) of a job: stable across retries of
+	 * the chunk, and a valid FHIR id whatever the length of the input id.
+	 */
+	static String outputBinaryId(String instanceId, String inputBinaryId) {
+		return "bvo-" + UUID.nameUUIDFromBytes((instanceId + "/" + inputBinaryId).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Deletes the Binaries that exist; a missing or undeletable one is logged and skipped.
+	 */
+	static void deleteBinaries(IFhirResourceDao<Binary> binaryDao, Collection<String> binaryIds) {
+		for (String binaryId : binaryIds) {
+			try {
+				binaryDao.delete(new IdType("Binary", binaryId), new SystemRequestDetails());
+			} catch (ResourceNotFoundException e) {
+				// never stored (chunk not run) or already removed
+			} catch (RuntimeException e) {
+				ourLog.warn("Could not delete Binary/{}: {}", binaryId, e.getMessage());
+			}
+		}
+	}
+
+	private static class Manifest implements IModelJson {
+		@JsonProperty("transactionTime")
+		private String transactionTime;
+
+		@JsonProperty("request")
+		private String request;
+
+		@JsonProperty("requiresAccessToken")
+		private boolean requiresAccessToken;
+
+		@JsonProperty("itemCount")
+		private long itemCount;
+
+		@JsonProperty("output")
+		private List<ManifestOutput> output = new ArrayList<>();
+
+		@JsonProperty("error")
+		private List<ManifestOutput> error = new ArrayList<>();
+	}
+
+	private static class ManifestOutput implements IModelJson {
+		@JsonProperty("type")
+		private String type;
+
+		@JsonProperty("url")
+		private String url;
+
+		ManifestOutput(String type, String url) {
+			this.type = type;
+			this.url = url;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.hitstdio.fhir.server.job;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import ca.uhn.fhir.model.api.IModelJson;
+
+/**
+ * Result of one validated chunk: the NDJSON Binary holding its results.
+ */
+public class BulkValidateOutputJson implements IModelJson {
+
+	@JsonProperty("inputBinaryId")
+	private String inputBinaryId;
+
+	@JsonProperty("outputBinaryId")
+	private String outputBinaryId;
+
+	@JsonProperty("itemCount")
+	private int itemCount;
+
+	public BulkValidateOutputJson() {
+	}
+
+	public BulkValidateOutputJson(String inputBinaryId, String outputBinaryId, int itemCount) {
+		this.inputBinaryId = inputBinaryId;
+		this.outputBinaryId = outputBinaryId;
+		this.itemCount = itemCount;
+	}
+
+	public String getInputBinaryId() {
+		return inputBinaryId;
+	}
+
+	public void setInputBinaryId(String inputBinaryId) {
+		this.inputBinaryId = inputBinaryId;
+	}
+
+	public String getOutputBinaryId() {
+		return outputBinaryId;
+	}
+
+	public void setOutputBinaryId(String outputBinaryId) {
+		this.outputBinaryId = outputBinaryId;
+	}
+
+	public int getItemCount() {
+		return itemCount;
+	}
+
+	public void setItemCount(int itemCount) {
+		this.itemCount = itemCount;
+	}
+}
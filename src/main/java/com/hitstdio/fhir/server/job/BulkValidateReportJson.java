@@ -0,0 +1,36 @@
+package com.hitstdio.fhir.server.job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import ca.uhn.fhir.model.api.IModelJson;
+
+/**
+ * Job report: output Binary ids in input order and the number of validated items.
+ */
+public class BulkValidateReportJson implements IModelJson {
+
+	@JsonProperty("outputBinaryIds")
+	private List<String> outputBinaryIds = new ArrayList<>();
+
+	@JsonProperty("itemCount")
+	private long itemCount;
+
+	public List<String> getOutputBinaryIds() {
+		return outputBinaryIds;
+	}
+
+	public void setOutputBinaryIds(List<String> outputBinaryIds) {
+		this.outputBinaryIds = outputBinaryIds;
+	}
+
+	public long getItemCount() {
+		return itemCount;
+	}
+
+	public void setItemCount(long itemCount) {
+		this.itemCount = itemCount;
+	}
+}
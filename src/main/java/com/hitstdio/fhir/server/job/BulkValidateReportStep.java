@@ -0,0 +1,61 @@
+package com.hitstdio.fhir.server.job;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Binary;
+
+import ca.uhn.fhir.batch2.api.ChunkExecutionDetails;
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.IReductionStepWorker;
+import ca.uhn.fhir.batch2.api.JobExecutionFailedException;
+import ca.uhn.fhir.batch2.api.RunOutcome;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.model.ChunkOutcome;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+
+/**
+ * Final step: collects the output Binaries into the job report, in input order. A chunk that
+ * was retried only counts once. The input Binaries the job stored itself are removed once the
+ * report is built.
+ */
+public class BulkValidateReportStep
+		implements IReductionStepWorker<BulkValidateJobParameters, BulkValidateOutputJson, BulkValidateReportJson> {
+
+	private final IFhirResourceDao<Binary> binaryDao;
+	private final Map<String, BulkValidateOutputJson> outputs = new HashMap<>();
+
+	public BulkValidateReportStep(IFhirResourceDao<Binary> binaryDao) {
+		this.binaryDao = binaryDao;
+	}
+
+	@Override
+	public IReductionStepWorker<BulkValidateJobParameters, BulkValidateOutputJson, BulkValidateReportJson> newInstance() {
+		return new BulkValidateReportStep(binaryDao);
+	}
+
+	@Override
+	public ChunkOutcome consume(ChunkExecutionDetails<BulkValidateJobParameters, BulkValidateOutputJson> theChunkDetails) {
+		BulkValidateOutputJson output = theChunkDetails.getData();
+		outputs.put(output.getInputBinaryId(), output);
+		return ChunkOutcome.SUCCESS();
+	}
+
+	@Override
+	public RunOutcome run(StepExecutionDetails<BulkValidateJobParameters, BulkValidateOutputJson> theStepExecutionDetails,
+			IJobDataSink<BulkValidateReportJson> theDataSink) throws JobExecutionFailedException {
+		BulkValidateReportJson report = new BulkValidateReportJson();
+		for (String inputBinaryId : theStepExecutionDetails.getParameters().getInputBinaryIds()) {
+			BulkValidateOutputJson output = outputs.get(inputBinaryId);
+			if (output == null) {
+				throw new JobExecutionFailedException("No result for input Binary/" + inputBinaryId);
+			}
+			report.getOutputBinaryIds().add(output.getOutputBinaryId());
+			report.setItemCount(report.getItemCount() + output.getItemCount());
+		}
+		theDataSink.accept(report);
+		outputs.clear();
+		BulkValidateJobService.deleteBinaries(binaryDao, theStepExecutionDetails.getParameters().getOwnedInputBinaryIds());
+		return RunOutcome.SUCCESS;
+	}
+}
@@ -7,6 +7,7 @@ import ca.uhn.fhir.model.primitive.XhtmlDt;
 import ca.uhn.fhir.rest.annotation.*;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.api.PatchTypeEnum;
+import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
@@ -31,6 +32,15 @@ import org.hl7.fhir.utilities.xhtml.XhtmlNode;
 import org.hl7.fhir.utilities.xhtml.XhtmlParser;
 import org.springframework.web.bind.annotation.PostMapping;
 
+import jakarta.servlet.http.HttpServletRequest;
+
+import com.hitstdio.fhir.server.util.CodeSystemBulkLoader;
+import com.hitstdio.fhir.server.util.CodeSystemMetadataQuery;
+import com.hitstdio.fhir.server.util.ConceptStore;
+import com.hitstdio.fhir.server.util.ConceptStreamReader;
+import com.hitstdio.fhir.server.util.InternalSearch;
+
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -67,12 +77,39 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
     private final IFhirResourceDao<CodeSystem> dao;
     //systemRequestDetails: 用來執行 DAO 操作時模擬一個系統層級的請求。
     private final RequestDetails systemRequestDetails;
+    //conceptStore: 啟用時以資料列讀取單一概念，不載入整個 CodeSystem；null 表示停用
+    private ConceptStore conceptStore;
+    //metadataQuery: 由搜尋索引欄位讀取 url / version / status / date；null 表示載入資源
+    private CodeSystemMetadataQuery metadataQuery;
+    //bulkLoader: 大型 CodeSystem 分批載入至概念儲存；null 表示不提供 $bulk-load
+    private CodeSystemBulkLoader bulkLoader;
     
     public CodeSystemResourceProvider(DaoRegistry theDaoRegistry) {
         super(theDaoRegistry);
         this.dao = theDaoRegistry.getResourceDao(CodeSystem.class);
         this.systemRequestDetails = new SystemRequestDetails();
     }
+
+    /**
+     * 啟用關聯式概念儲存：$lookup 與 $validate-code 依 url 查詢時改讀概念資料列。
+     */
+    public void setConceptStore(ConceptStore conceptStore) {
+        this.conceptStore = conceptStore;
+    }
+
+    /**
+     * 未指定版本的 $lookup 依索引中繼資料排序版本，只載入需要檢查的版本。
+     */
+    public void setMetadataQuery(CodeSystemMetadataQuery metadataQuery) {
+        this.metadataQuery = metadataQuery;
+    }
+
+    /**
+     * 提供 $bulk-load：概念分批寫入關聯式概念儲存，CodeSystem 資源只保存標頭。
+     */
+    public void setBulkLoader(CodeSystemBulkLoader bulkLoader) {
+        this.bulkLoader = bulkLoader;
+    }
     
     @Override
     public Class<CodeSystem> getResourceType() {
@@ -837,6 +874,51 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
             });
     }
 
+    /**
+     * 大型 CodeSystem 分批載入：request body 為 CSV、NDJSON 或 CodeSystem JSON（依 format 參數或 Content-Type），
+     * 概念逐批寫入概念儲存，CodeSystem 資源僅保存標頭（content = not-present、count = 概念數）。
+     * url、version、name、title、status 可由 query string 指定，覆寫輸入中的值。
+     * CSV 僅支援平面清單：parent 欄位只保存為 parent 屬性，不建立階層；需要階層請使用 NDJSON 或 JSON。
+     */
+    @Operation(name = "$bulk-load", manualRequest = true, idempotent = false)
+    public Parameters bulkLoad(HttpServletRequest theServletRequest) throws IOException {
+        if (bulkLoader == null || !bulkLoader.isEnabled()) {
+            throw new InvalidRequestException("CodeSystem bulk load is not enabled (tx.concept-store.enabled)");
+        }
+        String formatName = theServletRequest.getParameter("format");
+        ConceptStreamReader.Format format = ConceptStreamReader.Format.of(
+                StringUtils.isNotBlank(formatName) ? formatName : theServletRequest.getContentType());
+        if (format == null) {
+            throw new InvalidRequestException("Unsupported bulk load format, expected csv, ndjson or json");
+        }
+
+        CodeSystem overrides = new CodeSystem();
+        overrides.setUrl(StringUtils.trimToNull(theServletRequest.getParameter("url")));
+        overrides.setVersion(StringUtils.trimToNull(theServletRequest.getParameter("version")));
+        overrides.setName(StringUtils.trimToNull(theServletRequest.getParameter("name")));
+        overrides.setTitle(StringUtils.trimToNull(theServletRequest.getParameter("title")));
+        String status = StringUtils.trimToNull(theServletRequest.getParameter("status"));
+        if (status != null) {
+            try {
+                overrides.setStatus(Enumerations.PublicationStatus.fromCode(status));
+            } catch (Exception e) {
+                throw new InvalidRequestException("Invalid status: " + status);
+            }
+        }
+
+        CodeSystemBulkLoader.Result result = bulkLoader.load(format, theServletRequest.getInputStream(), overrides);
+
+        Parameters output = new Parameters();
+        output.addParameter("url", new UriType(result.url()));
+        if (result.version() != null) {
+            output.addParameter("version", new StringType(result.version()));
+        }
+        output.addParameter("concepts", new IntegerType(result.concepts()));
+        output.addParameter("chunks", new IntegerType(result.chunks()));
+        output.addParameter("elapsedMillis", new IntegerType((int) Math.min(Integer.MAX_VALUE, result.elapsedMillis())));
+        return output;
+    }
+
     @Operation(name = "$validate-code", idempotent = true)
     public Parameters validateCode(
             @IdParam(optional = true) IdType resourceId,
@@ -1106,10 +1188,16 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
 
     // 修改 CodeSystem 查找方法以使用 url 參數
     private CodeSystem findCodeSystemForValidation(IdType resourceId, ValidationParams params, StringType version) {
+        String code = params.code() != null ? params.code().getValue() : null;
         if (resourceId != null) {
-            return getCodeSystemById(resourceId.getIdPart(), version);
+            return withStoredConcept(getCodeSystemById(resourceId.getIdPart(), version), code);
         }
-        return findCodeSystemByUrl(params.system().getValue(), version != null ? version.getValue() : null);
+        String versionValue = version != null ? version.getValue() : null;
+        CodeSystem view = findConceptView(params.system().getValue(), versionValue, code);
+        if (view != null) {
+            return view;
+        }
+        return withStoredConcept(findCodeSystemByUrl(params.system().getValue(), versionValue), code);
     }
     
     //支援大小寫忽略與 designation 比對
@@ -1519,7 +1607,7 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
     
     // Core CodeSystem Operations
     private CodeSystem getCodeSystem(String systemUrl, String version) {
-        var searchParams = new SearchParameterMap();
+        var searchParams = InternalSearch.firstMatch();
         searchParams.add(CodeSystem.SP_URL, new UriParam(systemUrl));
         
         if (StringUtils.isNotBlank(version)) {
@@ -1545,7 +1633,7 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
     }
     
     private CodeSystem getCodeSystemById(String id, StringType version) {
-        var searchParams = new SearchParameterMap();
+        var searchParams = InternalSearch.firstMatch();
         searchParams.add("_id", new TokenParam(id));
         
         if (version != null && !version.isEmpty()) {
@@ -1574,7 +1662,7 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
     
     // 主要修改點 3: 新增支援多版本查詢的方法
     private List<CodeSystem> findAllVersionsOfCodeSystem(String systemUrl) {
-        var searchParams = new SearchParameterMap();
+        var searchParams = InternalSearch.allMatches();
         searchParams.add(CodeSystem.SP_URL, new UriParam(systemUrl));
         // 不指定版本，獲取所有版本
         
@@ -1582,7 +1670,7 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
         List<CodeSystem> codeSystems = new ArrayList<>();
         
         for (int i = 0; i < searchResult.size(); i++) {
-            var resource = searchResult.getResources(i, 1).get(0);
+            var resource = searchResult.getResources(i, i + 1).get(0);
             if (resource instanceof CodeSystem) {
                 codeSystems.add((CodeSystem) resource);
             }
@@ -1594,6 +1682,73 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
     private CodeSystem findCodeSystemByUrl(String systemUrl, String version) {
         return getCodeSystem(systemUrl, version);
     }
+
+    // 從概念資料列組出只含該概念（及其上層、子概念）的 CodeSystem；無法確定結果與資源一致時回傳 null
+    private CodeSystem findConceptView(String systemUrl, String version, String code) {
+        if (conceptStore == null || systemUrl == null || code == null) {
+            return null;
+        }
+        try {
+            if (StringUtils.isNotBlank(version)) {
+                return conceptStore.findView(systemUrl, version, code);
+            }
+            // 未指定版本時，資源查詢回傳的版本不固定；僅在只有一個版本時使用資料列
+            List<String> versions = conceptStore.findVersions(systemUrl);
+            if (versions.size() != 1 || countCodeSystems(systemUrl) != 1) {
+                return null;
+            }
+            return conceptStore.findView(systemUrl, versions.get(0), code);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // 所有版本的概念檢視；資料列未涵蓋全部版本時回傳 null
+    private List<CodeSystem> findAllConceptViews(String systemUrl, String code) {
+        if (conceptStore == null || systemUrl == null || code == null) {
+            return null;
+        }
+        try {
+            List<String> versions = conceptStore.findVersions(systemUrl);
+            if (versions.isEmpty() || versions.size() != countCodeSystems(systemUrl)) {
+                return null;
+            }
+            List<CodeSystem> views = new ArrayList<>();
+            for (String storedVersion : versions) {
+                CodeSystem view = conceptStore.findView(systemUrl, storedVersion, code);
+                if (view == null) {
+                    return null;
+                }
+                views.add(view);
+            }
+            return views;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // 只存標頭的 CodeSystem（content = not-present，概念在概念資料列）改讀該概念所在的部分；其他情況原樣回傳
+    private CodeSystem withStoredConcept(CodeSystem codeSystem, String code) {
+        if (conceptStore == null || codeSystem == null || code == null
+                || codeSystem.getContent() != CodeSystem.CodeSystemContentMode.NOTPRESENT) {
+            return codeSystem;
+        }
+        try {
+            CodeSystem view = conceptStore.findView(codeSystem.getUrl(), codeSystem.getVersion(), code);
+            return view != null ? view : codeSystem;
+        } catch (RuntimeException e) {
+            return codeSystem;
+        }
+    }
+
+    // 只計數，不載入 CodeSystem 內容
+    private int countCodeSystems(String systemUrl) {
+        var searchParams = InternalSearch.allMatches();
+        searchParams.add(CodeSystem.SP_URL, new UriParam(systemUrl));
+        searchParams.setSummaryMode(SummaryEnum.COUNT);
+        Integer size = dao.search(searchParams, new SystemRequestDetails()).size();
+        return size != null ? size : 0;
+    }
     
     private ConceptDefinitionComponent findConceptRecursive(List<ConceptDefinitionComponent> concepts, String code) {
         for (var concept : concepts) {
@@ -1622,8 +1777,9 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
     
     private CodeSystem findCodeSystemWithConcept(String code, String systemUrl, String version) {
         if (version != null && !version.trim().isEmpty()) {
-            // 如果指定版本，直接查找該版本
-            var codeSystem = getCodeSystem(systemUrl, version.trim());
+            // 如果指定版本，直接查找該版本（概念資料列優先）
+            var view = findConceptView(systemUrl, version.trim(), code);
+            var codeSystem = view != null ? view : withStoredConcept(getCodeSystem(systemUrl, version.trim()), code);
             var conceptExists = findConceptRecursive(codeSystem.getConcept(), code) != null;
             
             if (!conceptExists) {
@@ -1634,7 +1790,17 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
             return codeSystem;
         } else {
             // 如果沒有指定版本，查找所有版本中的概念
-            List<CodeSystem> codeSystems = findAllVersionsOfCodeSystem(systemUrl);
+            List<CodeSystem> codeSystems = findAllConceptViews(systemUrl, code);
+            if (codeSystems == null) {
+                var preferred = findPreferredVersionWithConcept(systemUrl, code);
+                if (preferred != null) {
+                    return preferred;
+                }
+                codeSystems = new ArrayList<>();
+                for (CodeSystem cs : findAllVersionsOfCodeSystem(systemUrl)) {
+                    codeSystems.add(withStoredConcept(cs, code));
+                }
+            }
             
             if (codeSystems.isEmpty()) {
                 throw new ResourceNotFoundException(
@@ -1662,6 +1828,45 @@ public class CodeSystemResourceProvider extends BaseResourceProvider<CodeSystem>
         }
     }
     
+    // 依索引中繼資料由最優先的版本開始載入，回傳第一個含有該概念的版本；無法取得中繼資料時回傳 null
+    private CodeSystem findPreferredVersionWithConcept(String systemUrl, String code) {
+        if (metadataQuery == null) {
+            return null;
+        }
+        var metadata = metadataQuery.findByUrl(systemUrl);
+        if (metadata == null) {
+            return null;
+        }
+        if (metadata.isEmpty()) {
+            throw new ResourceNotFoundException(
+                String.format("CodeSystem with URL '%s' not found", systemUrl));
+        }
+        List<CodeSystem> remaining = new ArrayList<>();
+        for (var entry : metadata) {
+            remaining.add(entry.toStub());
+        }
+        while (!remaining.isEmpty()) {
+            CodeSystem preferred = null;
+            for (CodeSystem stub : remaining) {
+                if (preferred == null || isPreferredVersion(stub, preferred)) {
+                    preferred = stub;
+                }
+            }
+            remaining.remove(preferred);
+            try {
+                var codeSystem = withStoredConcept(getCodeSystemById(preferred.getIdElement().getIdPart(), null), code);
+                if (findConceptRecursive(codeSystem.getConcept(), code) != null) {
+                    return codeSystem;
+                }
+            } catch (ResourceNotFoundException e) {
+                // 索引與資源不一致（例如剛刪除），略過此版本
+            }
+        }
+        throw new ResourceNotFoundException(
+            String.format("Concept with code '%s' not found in any version of CodeSystem '%s'", 
+                code, systemUrl));
+    }
+
     // 主要修改點 5: 新增版本優先級判斷方法
     private boolean isPreferredVersion(CodeSystem candidate, CodeSystem current) {
         // 1. 優先選擇 active 狀態
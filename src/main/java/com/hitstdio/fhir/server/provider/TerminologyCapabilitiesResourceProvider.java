@@ -1,5 +1,6 @@
 package com.hitstdio.fhir.server.provider;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -24,15 +25,26 @@ import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.param.UriParam;
 import ca.uhn.fhir.rest.server.RestfulServer;
 
+import com.hitstdio.fhir.server.util.CodeSystemMetadataQuery;
+import com.hitstdio.fhir.server.util.InternalSearch;
+
 public class TerminologyCapabilitiesResourceProvider extends BaseResourceProvider<TerminologyCapabilities> {
 
 	 private final IFhirResourceDao<CodeSystem> codeSystemDao;
+	 private CodeSystemMetadataQuery metadataQuery;
 
 	    public TerminologyCapabilitiesResourceProvider(DaoRegistry theDaoRegistry) {
 	        super(theDaoRegistry);
 	        this.codeSystemDao = theDaoRegistry.getResourceDao(CodeSystem.class);
 	    }
 
+	    /**
+	     * Lists CodeSystems from search-index metadata instead of loading every resource.
+	     */
+	    public void setMetadataQuery(CodeSystemMetadataQuery metadataQuery) {
+	        this.metadataQuery = metadataQuery;
+	    }
+
 	    @Operation(name = "$metadata", idempotent = true)
 	    public TerminologyCapabilities getTerminologyCapabilities(
 	        @OperationParam(name = "mode") String mode,
@@ -71,9 +83,12 @@ public class TerminologyCapabilitiesResourceProvider extends BaseResourceProvide
 	            
 	            
 	            // �q��Ʈw���X�Ҧ�CodeSystem�귽
-	            SearchParameterMap searchParams = new SearchParameterMap();
-	            IBundleProvider results = codeSystemDao.search(searchParams, requestDetails);
-	            List<IBaseResource> codeSystemResources = results.getResources(0, results.size());
+	            List<IBaseResource> codeSystemResources = findCodeSystemStubs();
+	            if (codeSystemResources == null) {
+	                SearchParameterMap searchParams = InternalSearch.allMatches();
+	                IBundleProvider results = codeSystemDao.search(searchParams, requestDetails);
+	                codeSystemResources = results.getResources(0, results.size());
+	            }
 
 	            // �ھڼ��X�Ӫ�CodeSystem�]�wTerminologyCapabilities
 	            for (IBaseResource resource : codeSystemResources) {
@@ -98,6 +113,22 @@ public class TerminologyCapabilitiesResourceProvider extends BaseResourceProvide
 	        return null;
 	    }
 
+	    // url / version stubs of every stored CodeSystem; null when the metadata is unavailable
+	    private List<IBaseResource> findCodeSystemStubs() {
+	        if (metadataQuery == null) {
+	            return null;
+	        }
+	        List<CodeSystemMetadataQuery.CodeSystemMetadata> metadata = metadataQuery.findAll();
+	        if (metadata == null) {
+	            return null;
+	        }
+	        List<IBaseResource> stubs = new ArrayList<>();
+	        for (CodeSystemMetadataQuery.CodeSystemMetadata entry : metadata) {
+	            stubs.add(entry.toStub());
+	        }
+	        return stubs;
+	    }
+
 	    @Override
 	    public Class<TerminologyCapabilities> getResourceType() {
 	        return TerminologyCapabilities.class;
@@ -1,9 +1,12 @@
 package com.hitstdio.fhir.server.provider;
 
+import ca.uhn.fhir.batch2.model.JobInstance;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.jpa.api.dao.DaoRegistry;
 import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.annotation.IdParam;
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
@@ -43,25 +46,58 @@ import org.hl7.fhir.r4.model.ValueSet.ValueSetComposeComponent;
 import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionComponent;
 import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
 import org.springframework.beans.factory.annotation.Autowired;
-
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import com.hitstdio.fhir.server.job.BulkValidateJobParameters;
+import com.hitstdio.fhir.server.job.BulkValidateJobService;
+import com.hitstdio.fhir.server.util.BatchItemExecutor;
+import com.hitstdio.fhir.server.util.BatchItemPlanner;
+import com.hitstdio.fhir.server.util.CodeSystemMetadataQuery;
+import com.hitstdio.fhir.server.util.CodeVersionIndex;
+import com.hitstdio.fhir.server.util.CodingValidationPlan;
+import com.hitstdio.fhir.server.util.ConceptCodeIndex;
+import com.hitstdio.fhir.server.util.ConceptStore;
+import com.hitstdio.fhir.server.util.DisplayKeys;
+import com.hitstdio.fhir.server.util.ExpansionIndex;
+import com.hitstdio.fhir.server.util.ExpansionLimits;
 import com.hitstdio.fhir.server.util.ExpansionRequest;
+import com.hitstdio.fhir.server.util.InternalSearch;
+import com.hitstdio.fhir.server.util.NdjsonValidationItems;
 import com.hitstdio.fhir.server.util.OperationOutcomeHelper;
-import com.hitstdio.fhir.server.util.OperationOutcomeIssueBuilder;
 import com.hitstdio.fhir.server.util.OperationOutcomeMessageId;
+import com.hitstdio.fhir.server.util.OperationOutcomeTemplates;
+import com.hitstdio.fhir.server.util.PreExpansionStore;
+import com.hitstdio.fhir.server.util.ResolutionScope;
+import com.hitstdio.fhir.server.util.SupplementOverlay;
+import com.hitstdio.fhir.server.util.SystemInferenceIndex;
+import com.hitstdio.fhir.server.util.TerminologyIndexCache;
+import com.hitstdio.fhir.server.util.TxResourceContext;
 import com.hitstdio.fhir.server.util.ValidationContext;
 import com.hitstdio.fhir.server.util.ValidationErrorType;
 import com.hitstdio.fhir.server.util.ValidationParams;
 import com.hitstdio.fhir.server.util.ValidationResult;
+import com.hitstdio.fhir.server.util.ValueSetDependencyGraph;
 import com.hitstdio.fhir.server.util.ValueSetExpansionService;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -80,9 +116,17 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
     
     private final RequestDetails systemRequestDetails;
 
-    // $batch-validate 用：存放 tx-resource 提供的 inline ValueSet，key 為 ValueSet URL
-    private static final ThreadLocal<Map<String, ValueSet>> txResourceRegistry =
-            ThreadLocal.withInitial(HashMap::new);
+    // $batch-validate-code 用：批次項目的共用執行緒池（未設定時依序執行）
+    private BatchItemExecutor batchItemExecutor;
+    // $bulk-validate-code 背景批次工作（未設定時僅支援同步串流）
+    private BulkValidateJobService bulkValidateJobService;
+    // 關聯式概念儲存：依 url|version 讀取單一概念的 display（未設定時讀取整個 CodeSystem）
+    private ConceptStore conceptStore;
+    // CodeSystem 的 url / version 等中繼資料改由搜尋索引欄位讀取（未設定時載入資源）
+    private CodeSystemMetadataQuery metadataQuery;
+
+    /** $batch-validate-code 預先編譯成員集合的 ValueSet 大小上限，超過時各項目逐一驗證 */
+    private static final int BATCH_MEMBERSHIP_MAX_SIZE = 100_000;
 
     /** 範例一、二、三：bad-supplement 測試用 ValueSet URL（validate-code-bad-supplement / validate-coding-bad-supplement / validate-codeableconcept-bad-supplement）。 */
     private static final String BAD_SUPPLEMENT_TEST_VALUESET_URL = "http://hl7.org/fhir/test/ValueSet/extensions-bad-supplement";
@@ -218,6 +262,51 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         this.systemRequestDetails = new SystemRequestDetails();
     }
 
+    /**
+     * 啟用 pre-expansion：$expand 與 $validate-code 在參數允許時讀取預先展開的結果。
+     */
+    public void setPreExpansionStore(PreExpansionStore preExpansionStore) {
+        this.expansionService.setPreExpansionStore(preExpansionStore);
+    }
+
+    /**
+     * 設定展開的記憶體預算與 spill-to-disk 模式。
+     */
+    public void setExpansionLimits(ExpansionLimits expansionLimits) {
+        this.expansionService.setExpansionLimits(expansionLimits);
+    }
+
+    /**
+     * 設定 $batch-validate-code 的平行執行器。
+     */
+    public void setBatchItemExecutor(BatchItemExecutor batchItemExecutor) {
+        this.batchItemExecutor = batchItemExecutor;
+    }
+
+    /**
+     * 啟用 $bulk-validate-code 的非同步（Batch2）模式。
+     */
+    public void setBulkValidateJobService(BulkValidateJobService bulkValidateJobService) {
+        this.bulkValidateJobService = bulkValidateJobService;
+    }
+
+    /**
+     * 啟用關聯式概念儲存：已解析版本的 display 查詢改讀概念資料列，
+     * 標頭式（bulk-load）CodeSystem 於展開與驗證時由概念儲存取得概念。
+     */
+    public void setConceptStore(ConceptStore conceptStore) {
+        this.conceptStore = conceptStore;
+        this.expansionService.setConceptStore(conceptStore);
+    }
+
+    /**
+     * 版本清單與最新版本選擇改讀搜尋索引中的中繼資料，不載入每個版本的 CodeSystem。
+     */
+    public void setMetadataQuery(CodeSystemMetadataQuery metadataQuery) {
+        this.metadataQuery = metadataQuery;
+        this.expansionService.setMetadataQuery(metadataQuery);
+    }
+
     @Override
     public Class<ValueSet> getResourceType() {
         return ValueSet.class;
@@ -1477,6 +1566,78 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             @OperationParam(name = "force-system-version") List<CanonicalType> theForceSystemVersion,
             @OperationParam(name = "tx-resource") List<IBaseResource> txResources
     ) {
+        return validateCode(
+                resourceId, code, system, systemVersion, systemVersionCode, url, valueSet, version,
+                valueSetVersionParam, display, coding, codeableConcept, displayLanguage, abstractAllowed,
+                activeOnly, inferSystem, lenientDisplayValidation, valuesetMembershipOnly,
+                defaultValuesetVersion, theSystemVersionList, theCheckSystemVersion, theForceSystemVersion,
+                txResources, TxResourceContext.EMPTY);
+    }
+
+    // 單次驗證期間的 CodeSystem / ValueSet 查詢結果（含查無結果）只查一次
+    private IBaseResource validateCode(
+            IdType resourceId,
+            CodeType code,
+            CanonicalType system,
+            StringType systemVersion,
+            CodeType systemVersionCode,
+            UriType url,
+            CanonicalType valueSet,
+            StringType version,
+            StringType valueSetVersionParam,
+            StringType display,
+            Coding coding,
+            CodeableConcept codeableConcept,
+            CodeType displayLanguage,
+            BooleanType abstractAllowed,
+            BooleanType activeOnly,
+            BooleanType inferSystem,
+            BooleanType lenientDisplayValidation,
+            BooleanType valuesetMembershipOnly,
+            CanonicalType defaultValuesetVersion,
+            List<CanonicalType> theSystemVersionList,
+            List<CanonicalType> theCheckSystemVersion,
+            List<CanonicalType> theForceSystemVersion,
+            List<IBaseResource> txResources,
+            TxResourceContext txContext
+    ) {
+        // 查詢結果記在請求的 TxResourceContext 上，同一批次的項目（不論在哪個執行緒）共用
+        try (ResolutionScope.Binding scope = ResolutionScope.open(txContext)) {
+            return validateCodeInScope(
+                    resourceId, code, system, systemVersion, systemVersionCode, url, valueSet, version,
+                    valueSetVersionParam, display, coding, codeableConcept, displayLanguage, abstractAllowed,
+                    activeOnly, inferSystem, lenientDisplayValidation, valuesetMembershipOnly,
+                    defaultValuesetVersion, theSystemVersionList, theCheckSystemVersion, theForceSystemVersion,
+                    txResources, txContext);
+        }
+    }
+
+    private IBaseResource validateCodeInScope(
+            IdType resourceId,
+            CodeType code,
+            CanonicalType system,
+            StringType systemVersion,
+            CodeType systemVersionCode,
+            UriType url,
+            CanonicalType valueSet,
+            StringType version,
+            StringType valueSetVersionParam,
+            StringType display,
+            Coding coding,
+            CodeableConcept codeableConcept,
+            CodeType displayLanguage,
+            BooleanType abstractAllowed,
+            BooleanType activeOnly,
+            BooleanType inferSystem,
+            BooleanType lenientDisplayValidation,
+            BooleanType valuesetMembershipOnly,
+            CanonicalType defaultValuesetVersion,
+            List<CanonicalType> theSystemVersionList,
+            List<CanonicalType> theCheckSystemVersion,
+            List<CanonicalType> theForceSystemVersion,
+            List<IBaseResource> txResources,
+            TxResourceContext txContext
+    ) {
 
     	// 在所有驗證之前先檢查 displayLanguage 的有效性
     	if (displayLanguage != null && !displayLanguage.isEmpty()) {
@@ -1528,10 +1689,10 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     targetValueSet = getValueSetById(resourceId.getIdPart(), requestedValueSetVersion);
                 } else {                  
                     if (resolvedUrl != null) {
-                        targetValueSet = findValueSetByUrl(resolvedUrl.getValue(), 
+                        targetValueSet = findValueSetByUrl(txContext, resolvedUrl.getValue(), 
                             requestedValueSetVersion != null ? requestedValueSetVersion.getValue() : null);
                     } else if (resolvedValueSetUrl != null) {
-                        targetValueSet = findValueSetByUrl(resolvedValueSetUrl.getValue(), 
+                        targetValueSet = findValueSetByUrl(txContext, resolvedValueSetUrl.getValue(), 
                             requestedValueSetVersion != null ? requestedValueSetVersion.getValue() : null);
                     }
                 }
@@ -3327,7 +3488,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     && (resolvedSystemVersion == null || !resolvedSystemVersion.hasValue())
                     && (systemVersionCode == null || !systemVersionCode.hasValue())) {
                 ValueSet vsForBadVersion = null;
-                try { vsForBadVersion = findValueSetByUrl(resolvedUrl.getValue(), null); } catch (Exception ignored) {}
+                try { vsForBadVersion = findValueSetByUrl(txContext, resolvedUrl.getValue(), null); } catch (Exception ignored) {}
                 String forceVer = forceSysVersionMap != null ? forceSysVersionMap.get(resolvedSystem.getValue()) : null;
                 Parameters r = validateCodeWithVersion(
                         vsForBadVersion, resolvedSystem.getValue(), code.getValue(), forceVer,
@@ -3354,17 +3515,13 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 
                 // 從 ValueSet include 動態取得 "bad" 版本號（如 "1"）
                 ValueSet vsForBadVersion = null;
-                try { vsForBadVersion = findValueSetByUrl(resolvedUrl.getValue(), null); } catch (Exception ignored) {}
+                try { vsForBadVersion = findValueSetByUrl(txContext, resolvedUrl.getValue(), null); } catch (Exception ignored) {}
                 String badIncludeVersion = vsForBadVersion != null
                     ? getEffectiveIncludeVersion(vsForBadVersion, systemUrl) : null;
                 String badVersion = badIncludeVersion != null ? badIncludeVersion : "unknown";
 
                 // 動態取得所有可用版本（DESC 排序）
-                List<CodeSystem> allCsVersions = findAllCodeSystemVersions(systemUrl);
-                List<String> availableVersions = allCsVersions.stream()
-                    .filter(CodeSystem::hasVersion)
-                    .map(CodeSystem::getVersion)
-                    .collect(Collectors.toList());
+                List<String> availableVersions = findAllCodeSystemVersionIds(systemUrl);
                 String latestVersion = availableVersions.isEmpty() ? null : availableVersions.get(0);
 
                 // 動態從最新版 CodeSystem 查詢 code display
@@ -3475,7 +3632,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     && "code1".equals(coding.getCode())
                     && (code == null || !code.hasValue())) {
                 ValueSet vsForBadVersion = null;
-                try { vsForBadVersion = findValueSetByUrl(resolvedUrl.getValue(), null); } catch (Exception ignored) {}
+                try { vsForBadVersion = findValueSetByUrl(txContext, resolvedUrl.getValue(), null); } catch (Exception ignored) {}
                 String forceVer = forceSysVersionMap != null ? forceSysVersionMap.get(coding.getSystem()) : null;
                 Parameters r = validateCodeWithVersion(
                         vsForBadVersion, coding.getSystem(), coding.getCode(), forceVer,
@@ -3564,7 +3721,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                         && !cc.hasVersion()
                         && "code1".equals(cc.getCode())) {
                     ValueSet vsForBadVersion = null;
-                    try { vsForBadVersion = findValueSetByUrl(resolvedUrl.getValue(), null); } catch (Exception ignored) {}
+                    try { vsForBadVersion = findValueSetByUrl(txContext, resolvedUrl.getValue(), null); } catch (Exception ignored) {}
                     String forceVer = forceSysVersionMap != null ? forceSysVersionMap.get(cc.getSystem()) : null;
                     Parameters r = validateCodeWithVersion(
                             vsForBadVersion, cc.getSystem(), cc.getCode(), forceVer,
@@ -3653,7 +3810,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     || (resolvedValueSetUrl != null && BAD_SUPPLEMENT_TEST_VALUESET_URL.equals(resolvedValueSetUrl.getValue()));
                 if (isBadSupplementTestUrl) {
                     throw new UnprocessableEntityException(
-                        FhirContext.forR4(),
+                        FhirContext.forR4Cached(),
                         buildBadSupplementTestOperationOutcome());
                 }
                 // 範例：big-circle-1（validation-big-circle）— ValueSet 循環引用時回傳 VALUESET_CIRCULAR_REFERENCE OperationOutcome，並以 4xx 狀態碼回傳
@@ -3661,8 +3818,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     || (resolvedValueSetUrl != null && BIG_CIRCLE_TEST_VALUESET_URL.equals(resolvedValueSetUrl.getValue()));
                 if (isBigCircleTestUrl) {
                     throw new UnprocessableEntityException(
-                        FhirContext.forR4(),
-                        buildBigCircleTestOperationOutcome());
+                        FhirContext.forR4Cached(),
+                        buildCircularReferenceOperationOutcome(BIG_CIRCLE_TEST_VALUESET_URL));
                 }
                 // 範例三、四：broken-filter / broken-filter2（errors-broken-filter-validate、errors-broken-filter2-validate）— filter 無 value 時回傳 UNABLE_TO_HANDLE_SYSTEM_FILTER_WITH_NO_VALUE OperationOutcome，並以 4xx 狀態碼回傳
                 boolean isBrokenFilterTestUrl = (resolvedUrl != null && (BROKEN_FILTER_TEST_VALUESET_URL.equals(resolvedUrl.getValue())
@@ -3687,7 +3844,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                         brokenFilterVsUrl = BROKEN_FILTER_TEST_VALUESET_URL;
                     }
                     throw new UnprocessableEntityException(
-                        FhirContext.forR4(),
+                        FhirContext.forR4Cached(),
                         buildBrokenFilterOperationOutcome(brokenFilterVsUrl));
                 }
                 // vs-version-b1 / vs-version-b2 改由資料庫驗證，以支援 text 範例（coding-indirect-one、coding-indirect-two 等）
@@ -3720,10 +3877,10 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     }
                 }
                 if (resolvedUrl != null) {
-                    targetValueSet = findValueSetByUrl(resolvedUrl.getValue(),
+                    targetValueSet = findValueSetByUrl(txContext, resolvedUrl.getValue(),
                         requestedValueSetVersion != null ? requestedValueSetVersion.getValue() : null);
                 } else if (resolvedValueSetUrl != null) {
-                    targetValueSet = findValueSetByUrl(resolvedValueSetUrl.getValue(), 
+                    targetValueSet = findValueSetByUrl(txContext, resolvedValueSetUrl.getValue(), 
                         requestedValueSetVersion != null ? requestedValueSetVersion.getValue() : null);
                 } else {
                 	// 在拋出缺少 ValueSet 錯誤前，先檢查 system 是否為 supplement
@@ -3742,7 +3899,16 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             }
 
             // 請求以 url + valueSetVersion 解析時，確保 targetValueSet 帶有 url/version（供錯誤訊息與邏輯使用，避免出現 value set '|5.0.0'）
+            // 取得的 ValueSet 為共用實例，需要調整時先複製
             if (targetValueSet != null) {
+                boolean missingUrl = (resolvedUrl != null || resolvedValueSetUrl != null)
+                    && (!targetValueSet.hasUrl() || targetValueSet.getUrl().isEmpty());
+                boolean missingVersion = requestedValueSetVersion != null && requestedValueSetVersion.hasValue()
+                    && (!targetValueSet.hasVersion() || targetValueSet.getVersion().isEmpty());
+                if (missingUrl || missingVersion) {
+                    targetValueSet = targetValueSet.copy();
+                    TerminologyIndexCache.markClientSupplied(targetValueSet);
+                }
                 if (resolvedUrl != null && (!targetValueSet.hasUrl() || targetValueSet.getUrl().isEmpty())) {
                     targetValueSet.setUrl(resolvedUrl.getValue());
                 } else if (resolvedValueSetUrl != null && (!targetValueSet.hasUrl() || targetValueSet.getUrl().isEmpty())) {
@@ -3829,26 +3995,37 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             // 範例一（complex-codeableconcept-full）：多個 coding 時收集 SYSTEM_VERSION_NOT_FOUND，最後合併成單一回應
             boolean isMultiCodingCodeableConcept = (codeableConcept != null && codeableConcept.getCoding().size() > 1);
             List<AbstractMap.SimpleEntry<ValidationParams, CodeSystemVersionNotFoundException>> versionNotFoundErrors = new ArrayList<>();
+            // 重複的 coding（相同 system/version/code/display）只驗證一次，且只在迴圈走到時才驗證；
+            // 多個 coding 時先以成員集合一次檢查全部 coding，已有 coding 通過後，確定在 ValueSet 內的 coding 不再完整驗證
+            boolean activeOnlyRequested = activeOnly != null && activeOnly.hasValue() && activeOnly.getValue();
+            CodingValidationPlan codingPlan = CodingValidationPlan.plan(paramsList,
+                paramsList.size() > 1 && !activeOnlyRequested ? findCodingMembership(targetValueSet, txContext) : null);
             
             for (var params : paramsList) {
             	validateValidationParams(params.code(), params.system(), resourceId, resolvedUrl, resolvedValueSetUrl);
+            	if (!codingPlan.needsDiagnostics(params, anyValid)) {
+            		continue;
+            	}
 
                 try {
                     StringType effectiveSystemVersion = determineEffectiveSystemVersion(
                         params, resolvedSystemVersion);
 
-                    ValidationResult validationResult = validateCodeInValueSet(
-                        targetValueSet, 
-                        params.code(), 
-                        params.system(), 
-                        params.display(), 
-                        displayLanguage,
-                        abstractAllowed,
-                        effectiveSystemVersion,
-                        activeOnly,
-                        lenientDisplayValidation,
-                        isMembershipOnlyMode
-                    );
+                    final ValueSet planValueSet = targetValueSet;
+                    ValidationResult validationResult = codingPlan.validate(params, effectiveSystemVersion,
+                        (p, version) -> validateCodeInValueSet(
+                            planValueSet, 
+                            p.code(), 
+                            p.system(), 
+                            p.display(), 
+                            displayLanguage,
+                            abstractAllowed,
+                            version,
+                            activeOnly,
+                            lenientDisplayValidation,
+                            isMembershipOnlyMode,
+                            txContext
+                        ));
 
                     // 處理 SYSTEM_NOT_FOUND 錯誤
                     if (validationResult.errorType() == ValidationErrorType.SYSTEM_NOT_FOUND) {
@@ -4665,10 +4842,10 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                         UriType resolvedValueSetUrl = valueSet != null ? new UriType(valueSet.getValue()) : null;
 
                         if (resolvedUrl != null) {
-                            targetValueSet = findValueSetByUrl(resolvedUrl.getValue(), 
+                            targetValueSet = findValueSetByUrl(txContext, resolvedUrl.getValue(), 
                                 vsVersion != null ? vsVersion.getValue() : null);
                         } else if (resolvedValueSetUrl != null) {
-                            targetValueSet = findValueSetByUrl(resolvedValueSetUrl.getValue(), 
+                            targetValueSet = findValueSetByUrl(txContext, resolvedValueSetUrl.getValue(), 
                                 vsVersion != null ? vsVersion.getValue() : null);
                         }
                     }
@@ -4808,25 +4985,9 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
     // 根據 code 和 display 推斷版本的方法
     private StringType inferVersionFromCodeAndDisplay(String systemUrl, String code, String display) {
         try {
-            List<CodeSystem> allVersions = findAllCodeSystemVersions(systemUrl);
-            
-            for (CodeSystem codeSystem : allVersions) {
-                ConceptDefinitionComponent concept = findConceptRecursive(codeSystem.getConcept(), code);
-                if (concept != null) {
-                    if (isDisplayMatching(concept, display)) {
-                        return codeSystem.hasVersion() ? new StringType(codeSystem.getVersion()) : null;
-                    }
-                    
-                    for (ConceptDefinitionDesignationComponent designation : concept.getDesignation()) {
-                        if (display.equalsIgnoreCase(designation.getValue())) {
-                            return codeSystem.hasVersion() ? new StringType(codeSystem.getVersion()) : null;
-                        }
-                    }
-                }
-            }
-            
-            return null;
-            
+            // 以 code → 版本索引查詢，不需逐一載入並搜尋每個版本
+            String version = getCodeVersionIndex(systemUrl).inferVersion(code, display);
+            return version != null ? new StringType(version) : null;
         } catch (Exception e) {
             return null;
         }
@@ -4834,7 +4995,13 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 
     // 獲取 CodeSystem 所有版本的方法
     private List<CodeSystem> findAllCodeSystemVersions(String systemUrl) {
-        var searchParams = SearchParameterMap.newSynchronous();
+        List<CodeSystem> codeSystems = ResolutionScope.resolve("CodeSystem.versions", systemUrl,
+            () -> searchAllCodeSystemVersions(systemUrl));
+        return new ArrayList<>(codeSystems);
+    }
+
+    private List<CodeSystem> searchAllCodeSystemVersions(String systemUrl) {
+        var searchParams = InternalSearch.allMatches();
         searchParams.add(CodeSystem.SP_URL, new UriParam(systemUrl));
 
         searchParams.setSort(new SortSpec(CodeSystem.SP_VERSION).setOrder(SortOrderEnum.DESC));
@@ -4849,34 +5016,37 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         return codeSystems;
     }
 
+    // 同一 url 所有已儲存版本的 code → 版本索引（快取，CodeSystem 異動時清除）
+    private CodeVersionIndex getCodeVersionIndex(String systemUrl) {
+        return CodeVersionIndex.of(systemUrl, this::findAllCodeSystemVersions);
+    }
+
+    // 所有已儲存版本的版本號（新到舊）
+    private List<String> findAllCodeSystemVersionIds(String systemUrl) {
+        return getCodeVersionIndex(systemUrl).getVersions();
+    }
+
     // 檢查 display 是否匹配的方法
     private boolean isDisplayMatching(ConceptDefinitionComponent concept, String requestedDisplay) {
         if (concept == null || requestedDisplay == null || requestedDisplay.isEmpty()) {
             return false;
         }
         
-        // 檢查主要的 display
-        if (concept.hasDisplay() && requestedDisplay.equalsIgnoreCase(concept.getDisplay())) {
-            return true;
-        }
-        
-        // 檢查所有的 designation
-        for (ConceptDefinitionDesignationComponent designation : concept.getDesignation()) {
-            if (requestedDisplay.equalsIgnoreCase(designation.getValue())) {
-                return true;
-            }
-        }
-        
-        return false;
+        // 比對主要 display 及所有 designation 的正規化鍵值
+        DisplayKeys keys = DisplayKeys.of(concept);
+        return keys.matchesDisplay(requestedDisplay) || keys.matchesAnyDesignation(requestedDisplay);
     }
    
     private boolean isValueSetUrl(String systemUrl) {
         if (systemUrl == null || systemUrl.isEmpty()) {
             return false;
         }
-        
+        return ResolutionScope.resolve("ValueSet.exists", systemUrl, () -> searchValueSetUrl(systemUrl));
+    }
+
+    private boolean searchValueSetUrl(String systemUrl) {
         try {
-            var searchParams = new SearchParameterMap();
+            var searchParams = InternalSearch.firstMatch();
             searchParams.add(ValueSet.SP_URL, new UriParam(systemUrl));
             var searchResult = myValueSetDao.search(searchParams, new SystemRequestDetails());
             
@@ -4890,7 +5060,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             										StringType display, CodeType displayLanguage, 
             										BooleanType abstractAllowed, StringType systemVersion,
             										BooleanType activeOnly, BooleanType lenientDisplayValidation,
-                                                    boolean membershipOnly) {
+                                                    boolean membershipOnly, TxResourceContext txContext) {
     	
     	
     	List<CodeSystem> rootSupplements = new ArrayList<>();
@@ -4944,7 +5114,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	                issue.setDiagnostics(String.format("Supplement CodeSystem %s not found", supplementUrl));
 
 	                throw new UnprocessableEntityException(
-	                    FhirContext.forR4(),
+	                    FhirContext.forR4Cached(),
 	                    oo);
 	            }
     	            
@@ -5017,7 +5187,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                 issue.setDiagnostics(String.format("Supplement CodeSystem %s not found", supplementUrl));
 
                 throw new UnprocessableEntityException(
-                    FhirContext.forR4(),
+                    FhirContext.forR4Cached(),
                     oo
                 );
             }
@@ -5034,7 +5204,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                         // tests-version version-w-bad：ValueSet include 的版本（如 "1"）若不存在，應回傳 SYSTEM_VERSION_NOT_FOUND，
                         // 讓主迴圈呼叫 buildCodeSystemVersionNotFoundError（codeableConcept、VALUESET_VALUE_MISMATCH、UNKNOWN_CODESYSTEM_VERSION、x-caused-by-unknown-system）
                         try {
-                            findCodeSystemByUrl(system.getValue(), valueSetVersion);
+                            findStoredCodeSystemByUrl(system.getValue(), valueSetVersion);
                         } catch (ResourceNotFoundException e) {
                             CodeSystemVersionNotFoundException versionException =
                                 new CodeSystemVersionNotFoundException(
@@ -5044,12 +5214,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                             versionException.setRequestedVersion(valueSetVersion);
                             List<String> availableVersions = new ArrayList<>();
                             try {
-                                List<CodeSystem> allVersions = findAllCodeSystemVersions(system.getValue());
-                                for (CodeSystem cs : allVersions) {
-                                    if (cs.hasVersion()) {
-                                        availableVersions.add(cs.getVersion());
-                                    }
-                                }
+                                availableVersions.addAll(findAllCodeSystemVersionIds(system.getValue()));
                             } catch (Exception ex) { }
                             versionException.setAvailableVersions(availableVersions);
                             return new ValidationResult(false, null, null, null,
@@ -5058,7 +5223,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                         }
                         // ValueSet 的版本存在，但與請求版本不同 -> VERSION_MISMATCH_WITH_VALUESET 或 VERSION_MISMATCH
                         try {
-                            findCodeSystemByUrl(system.getValue(), requestedVersion);
+                            findStoredCodeSystemByUrl(system.getValue(), requestedVersion);
                             return new ValidationResult(false, null, null, null,
                                     ValidationErrorType.VERSION_MISMATCH_WITH_VALUESET,
                                     null, null, null, null);
@@ -5071,12 +5236,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                             versionException.setRequestedVersion(requestedVersion);
                             List<String> availableVersions = new ArrayList<>();
                             try {
-                                List<CodeSystem> allVersions = findAllCodeSystemVersions(system.getValue());
-                                for (CodeSystem cs : allVersions) {
-                                    if (cs.hasVersion()) {
-                                        availableVersions.add(cs.getVersion());
-                                    }
-                                }
+                                availableVersions.addAll(findAllCodeSystemVersionIds(system.getValue()));
                             } catch (Exception ex) { }
                             versionException.setAvailableVersions(availableVersions);
                             return new ValidationResult(false, null, null, null,
@@ -5088,7 +5248,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     if (valueSetVersion == null && requestedVersion != null) {
                         // 範例六：使用者明確提供 systemVersion 時，直接採用該版本驗證，不與 ValueSet 的 default 版本比較
                         try {
-                            findCodeSystemByUrl(system.getValue(), requestedVersion);
+                            findStoredCodeSystemByUrl(system.getValue(), requestedVersion);
                             // 請求的版本存在，使用該版本繼續驗證
                         } catch (ResourceNotFoundException e) {
                             CodeSystemVersionNotFoundException versionException = 
@@ -5100,12 +5260,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                             
                             List<String> availableVersions = new ArrayList<>();
                             try {
-                                List<CodeSystem> allVersions = findAllCodeSystemVersions(system.getValue());
-                                for (CodeSystem cs : allVersions) {
-                                    if (cs.hasVersion()) {
-                                        availableVersions.add(cs.getVersion());
-                                    }
-                                }
+                                availableVersions.addAll(findAllCodeSystemVersionIds(system.getValue()));
                             } catch (Exception ex) {
                             	
                             }
@@ -5124,7 +5279,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         if (systemVersion != null && !systemVersion.isEmpty()) {
             try {
                 // 嘗試找指定版本的 CodeSystem
-                findCodeSystemByUrl(system.getValue(), systemVersion.getValue());
+                findStoredCodeSystemByUrl(system.getValue(), systemVersion.getValue());
             } catch (ResourceNotFoundException e) {
                 // 檢查 CodeSystem 是否完全不存在
                 CodeSystemVersionNotFoundException versionException = 
@@ -5136,12 +5291,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                 
                 List<String> availableVersions = new ArrayList<>();
                 try {
-                    List<CodeSystem> allVersions = findAllCodeSystemVersions(system.getValue());
-                    for (CodeSystem cs : allVersions) {
-                        if (cs.hasVersion()) {
-                            availableVersions.add(cs.getVersion());
-                        }
-                    }
+                    availableVersions.addAll(findAllCodeSystemVersionIds(system.getValue()));
                 } catch (Exception ex) {
                 }
                 
@@ -5153,10 +5303,19 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             }
         }
 
+        // 有可用的 pre-expansion 時（條件與 $expand 相同）由其回答成員與非成員；不適用時沿用 compose 驗證
+        if (isPreExpansionEligible(systemVersion, displayLanguage, activeOnly, txContext)) {
+            ValidationResult preExpansionResult = validateCodeInPreExpansion(valueSet, code, system, display,
+                displayLanguage, abstractAllowed, activeOnly, lenientDisplayValidation, membershipOnly);
+            if (preExpansionResult != null) {
+                return preExpansionResult;
+            }
+        }
+
         // 優先檢查 expansion
     	if (valueSet.hasExpansion() && isExpansionCurrent(valueSet.getExpansion())) {
             ValidationResult expansionResult = validateCodeInExpansion(
-                valueSet.getExpansion(), code, system, display, displayLanguage, abstractAllowed, 
+                valueSet, code, system, display, displayLanguage, abstractAllowed, 
                 systemVersion, activeOnly, lenientDisplayValidation, membershipOnly, rootSupplements);
             if (expansionResult.isValid()) {
                 return expansionResult;
@@ -5169,15 +5328,101 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 
         // 處理 compose 規則
     	if (valueSet.hasCompose()) {
-            ValidationResult composeResult = validateCodeInCompose(valueSet.getCompose(), code, system, display, 
+            ValidationResult composeResult = validateCodeInCompose(valueSet, code, system, display, 
                                        displayLanguage, abstractAllowed, systemVersion, activeOnly, lenientDisplayValidation, 
-                                       membershipOnly, rootSupplements, isFragmentValueSet);
+                                       membershipOnly, rootSupplements, isFragmentValueSet, txContext);
             return composeResult;
         }
 
     	return new ValidationResult(false, null, null, null, ValidationErrorType.CODE_NOT_IN_VALUESET, null, null, null, null);
     }
     
+    // 與 $expand 使用 pre-expansion 的條件一致：displayLanguage、activeOnly、system-version、tx-resource 等都會改變結果
+    private boolean isPreExpansionEligible(StringType systemVersion, CodeType displayLanguage,
+                                           BooleanType activeOnly, TxResourceContext txContext) {
+        if ((systemVersion != null && !systemVersion.isEmpty()) || txContext.hasInlineValueSets()) {
+            return false;
+        }
+        return expansionService.isPreExpansionEligible(ExpansionRequest.builder()
+            .displayLanguage(displayLanguage)
+            .activeOnly(activeOnly)
+            .build());
+    }
+
+    private ValidationResult validateCodeInPreExpansion(ValueSet valueSet, CodeType code, UriType system,
+                                                        StringType display, CodeType displayLanguage,
+                                                        BooleanType abstractAllowed, BooleanType activeOnly,
+                                                        BooleanType lenientDisplayValidation,
+                                                        boolean membershipOnly) {
+        PreExpansionStore store = expansionService.getPreExpansionStore();
+        if (store == null || !valueSet.hasUrl()) {
+            return null;
+        }
+        try {
+            PreExpansionStore.PreExpansion preExpansion = store.findReady(valueSet.getUrl(), valueSet.getVersion(),
+                PreExpansionStore.resourceVersionOf(valueSet));
+            if (preExpansion == null) {
+                return null;
+            }
+            String systemUrl = system != null ? system.getValue() : null;
+            ValueSetExpansionContainsComponent member = store.findMember(preExpansion.id(), systemUrl, code.getValue());
+            if (member != null) {
+                return validateCodeInExpansionContains(member, code, system, display, displayLanguage,
+                    abstractAllowed, null, activeOnly, lenientDisplayValidation, membershipOnly);
+            }
+            if (systemUrl == null) {
+                return new ValidationResult(false, null, null, null, ValidationErrorType.CODE_NOT_IN_VALUESET, null, null, null, null);
+            }
+            return validateNonMemberOfPreExpansion(store, preExpansion, code, system, display, displayLanguage,
+                abstractAllowed, activeOnly, lenientDisplayValidation, membershipOnly);
+        } catch (RuntimeException e) {
+            // pre-expansion 無法使用時回到一般驗證流程
+            return null;
+        }
+    }
+
+    // 不在 pre-expansion 中的 code：依 CodeSystem 區分 code 不存在（INVALID_CODE）與存在但不在 ValueSet 中
+    // （CODE_NOT_IN_VALUESET），結果與 compose 驗證相同；CodeSystem 不存在或為 fragment 時交回 compose 驗證產生其錯誤
+    private ValidationResult validateNonMemberOfPreExpansion(PreExpansionStore store,
+                                                             PreExpansionStore.PreExpansion preExpansion,
+                                                             CodeType code, UriType system, StringType display,
+                                                             CodeType displayLanguage, BooleanType abstractAllowed,
+                                                             BooleanType activeOnly,
+                                                             BooleanType lenientDisplayValidation,
+                                                             boolean membershipOnly) {
+        CodeSystem codeSystem;
+        try {
+            codeSystem = findStoredCodeSystemByUrl(system.getValue(), null);
+        } catch (ResourceNotFoundException e) {
+            return null;
+        }
+        if (codeSystem == null || codeSystem.getContent() == CodeSystem.CodeSystemContentMode.FRAGMENT) {
+            return null;
+        }
+        // 不分大小寫的 CodeSystem 須看全部概念才能比對其他寫法
+        boolean caseInsensitive = isCodeSystemCaseInsensitive(codeSystem);
+        codeSystem = caseInsensitive ? withStoredConcepts(codeSystem)
+            : withStoredConceptsFor(codeSystem, code, new ConceptSetComponent());
+        ConceptDefinitionComponent concept = findConceptRecursive(codeSystem.getConcept(), code.getValue());
+        if (concept == null && caseInsensitive) {
+            concept = findConceptRecursiveCaseInsensitive(codeSystem.getConcept(), code.getValue());
+            if (concept != null) {
+                // 大小寫不同的 code：以 CodeSystem 中的寫法查詢成員
+                ValueSetExpansionContainsComponent member = store.findMember(preExpansion.id(),
+                    system.getValue(), concept.getCode());
+                if (member != null) {
+                    return validateCodeInExpansionContains(member, code, system, display, displayLanguage,
+                        abstractAllowed, null, activeOnly, lenientDisplayValidation, membershipOnly);
+                }
+            }
+        }
+        if (concept == null) {
+            return new ValidationResult(false, null, codeSystem, null, ValidationErrorType.INVALID_CODE, null, null, null, null);
+        }
+        return new ValidationResult(false, concept, codeSystem, getDisplayForLanguage(concept, displayLanguage),
+            ValidationErrorType.CODE_NOT_IN_VALUESET, isConceptInactive(concept), null, null, null);
+    }
+
     private List<String> checkForMissingSupplements(ValueSetComposeComponent compose, UriType system) {
 
         List<String> missingSupplements = new ArrayList<>();
@@ -5195,7 +5440,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                         String supplementUrl = ext.getValue().primitiveValue();
 
                         try {
-                            findCodeSystemByUrl(supplementUrl, null);
+                            findStoredCodeSystemByUrl(supplementUrl, null);
                         } catch (ResourceNotFoundException e) {
                             missingSupplements.add(supplementUrl);
                         }
@@ -5220,7 +5465,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         // 先檢查請求的 system 是否存在，再檢查是否匹配
         if (system != null && !system.isEmpty()) {
             try {
-                findCodeSystemByUrl(system.getValue(), null);
+                findStoredCodeSystemByUrl(system.getValue(), null);
             } catch (ResourceNotFoundException e) {
                 return new ValidationResult(false, null, null, null, 
                     ValidationErrorType.SYSTEM_NOT_FOUND, null, null, null, null);
@@ -5254,7 +5499,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                             && !matchesVersionPattern(resolvedSystemVersion.getValue(), conceptSet.getVersion())) {
                             
                             try {
-                                findCodeSystemByUrl(systemUrl, resolvedSystemVersion.getValue());
+                                findStoredCodeSystemByUrl(systemUrl, resolvedSystemVersion.getValue());
                                 
                                 return new ValidationResult(false, null, null, null, 
                                         ValidationErrorType.VERSION_MISMATCH_WITH_VALUESET, 
@@ -5271,12 +5516,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                                 // 獲取可用版本
                                 List<String> availableVersions = new ArrayList<>();
                                 try {
-                                    List<CodeSystem> allVersions = findAllCodeSystemVersions(systemUrl);
-                                    for (CodeSystem cs : allVersions) {
-                                        if (cs.hasVersion()) {
-                                            availableVersions.add(cs.getVersion());
-                                        }
-                                    }
+                                    availableVersions.addAll(findAllCodeSystemVersionIds(systemUrl));
                                 } catch (Exception ex) {
 
                                 }
@@ -5298,12 +5538,12 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                             systemUrl, code.getValue(), display.getValue());
                         
                         if (inferredVersion != null) {
-                            codeSystem = findCodeSystemByUrl(systemUrl, inferredVersion.getValue());
+                            codeSystem = findStoredCodeSystemByUrl(systemUrl, inferredVersion.getValue());
                         } else {
-                            codeSystem = findCodeSystemByUrl(systemUrl, null);
+                            codeSystem = findStoredCodeSystemByUrl(systemUrl, null);
                         }
                     } else {
-                        codeSystem = findCodeSystemByUrl(systemUrl, null);
+                        codeSystem = findStoredCodeSystemByUrl(systemUrl, null);
                     }
                 }
                 
@@ -5311,6 +5551,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     return new ValidationResult(false, null, null, null,
                         ValidationErrorType.SYSTEM_IS_SUPPLEMENT, null, null, null, null);
                 }
+                codeSystem = withStoredConceptsFor(codeSystem, code, conceptSet);
                 
             } catch (CodeSystemVersionNotFoundException e) {
                 return new ValidationResult(false, null, null, null, 
@@ -5441,15 +5682,18 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         return conceptSetVersion;
     }
     
-    private ValidationResult validateCodeInCompose(ValueSetComposeComponent compose, CodeType code, 
+    private ValidationResult validateCodeInCompose(ValueSet valueSet, CodeType code, 
 													UriType system, StringType display, 
 													CodeType displayLanguage, BooleanType abstractAllowed,
 													StringType systemVersion, BooleanType activeOnly,
 		                                            BooleanType lenientDisplayValidation,
 		                                            boolean membershipOnly,
 	                                                List<CodeSystem> rootSupplements,
-	                                                boolean isFragment) {
+	                                                boolean isFragment,
+	                                                TxResourceContext txContext) {
 			
+    		ValueSetComposeComponent compose = valueSet.getCompose();
+    		
     		// 取得 compose.inactive 設定（null 或 true 代表允許 inactive）
     		boolean excludeInactive = compose.hasInactive() && 
     	                          Boolean.FALSE.equals(compose.getInactive());
@@ -5461,29 +5705,14 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	        ConceptDefinitionComponent lastFoundConcept = null;
 			
 			// 檢查 include 中是否有引用不存在的 ValueSet（canonical 格式為 url 或 url|version）
+			// 引用關係與解析結果由 ValueSetDependencyGraph 快取，ValueSet 異動時清除
 			List<String> missingValueSets = new ArrayList<>();
-			for (ConceptSetComponent include : compose.getInclude()) {
-				if (include.hasValueSet()) {
-					for (CanonicalType valueSetRef : include.getValueSet()) {
-						String canonical = valueSetRef.getValue();
-						if (canonical == null || canonical.isEmpty()) continue;
-						String refUrl;
-						String refVersion;
-						int pipe = canonical.indexOf('|');
-						if (pipe >= 0) {
-							refUrl = canonical.substring(0, pipe).trim();
-							refVersion = canonical.substring(pipe + 1).trim();
-							if (refVersion.isEmpty()) refVersion = null;
-						} else {
-							refUrl = canonical.trim();
-							refVersion = null;
-						}
-						try {
-							findValueSetByUrl(refUrl, refVersion);
-						} catch (ResourceNotFoundException e) {
-							missingValueSets.add(canonical);
-						}
-					}
+			for (ValueSetDependencyGraph.Reference reference : ValueSetDependencyGraph.of(valueSet).getValueSets()) {
+				if (txContext.hasInlineValueSet(reference.url())) {
+					continue;
+				}
+				if (!ValueSetDependencyGraph.exists(reference, this::findStoredValueSetOrNull)) {
+					missingValueSets.add(reference.canonical());
 				}
 			}
 			
@@ -5493,6 +5722,14 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 						null, null, missingValueSets, null);
 			}
 			
+			// ValueSet 循環引用（如 big-circle）：以 4xx 回傳 VALUESET_CIRCULAR_REFERENCE
+			List<String> cycle = ValueSetDependencyGraph.findCycle(valueSet, this::findStoredValueSetOrNull);
+			if (!cycle.isEmpty()) {
+				throw new UnprocessableEntityException(
+					FhirContext.forR4Cached(),
+					buildCircularReferenceOperationOutcome(cycle.get(0)));
+			}
+			
 			// 檢查 include 部分
 			for (ConceptSetComponent include : compose.getInclude()) {
 				ValidationResult result = validateCodeInConceptSet(include, code, system, display, 
@@ -5640,7 +5877,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 			return includeResult;
 		}
 
-    private ValidationResult validateCodeInExpansion(ValueSetExpansionComponent expansion, 
+    private ValidationResult validateCodeInExpansion(ValueSet valueSet, 
 		            									CodeType code, UriType system, StringType display,
 		            									CodeType displayLanguage, BooleanType abstractAllowed,
 		            									StringType systemVersion, BooleanType activeOnly,
@@ -5648,12 +5885,12 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		                                                boolean membershipOnly,
 		                                                List<CodeSystem> rootSupplements) {
 		
-    	for (ValueSetExpansionContainsComponent contains : expansion.getContains()) {
-            ValidationResult result = validateCodeInExpansionContains(contains, code, system, display, 
-                                                                    displayLanguage, abstractAllowed, 
-                                                                    systemVersion, activeOnly, 
-                                                                    lenientDisplayValidation, membershipOnly);
-            if (result.isValid()) {
+        // 以 expansion 的 code 索引取得候選項目（依原本遞迴走訪順序），不再逐層搜尋 contains
+    	for (ValueSetExpansionContainsComponent contains : ExpansionIndex.of(valueSet).find(valueSet, code.getValue())) {
+            ValidationResult result = validateExpansionEntry(contains, code, system, display, 
+                                                             abstractAllowed, systemVersion, 
+                                                             lenientDisplayValidation, membershipOnly);
+            if (result != null && result.isValid()) {
                 return result;
             }
         }
@@ -5668,37 +5905,11 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                                                            BooleanType lenientDisplayValidation,
                                                            boolean membershipOnly) {
         
-        if (code.getValue().equals(contains.getCode()) && 
-            (system == null || system.getValue().equals(contains.getSystem()))) {
-            
-            if (!isVersionMatch(contains, resolvedSystemVersion)) {
-
-            } else {
-                if (contains.hasAbstract() && contains.getAbstract() && 
-                    (abstractAllowed == null || !abstractAllowed.getValue())) {
-                    return new ValidationResult(false, null, null, null, 
-                                              ValidationErrorType.ABSTRACT_CODE_NOT_ALLOWED, null, null, null, null);
-                }
-                
-                if (!membershipOnly && display != null && !display.isEmpty() && contains.hasDisplay() && 
-                    !display.getValue().equalsIgnoreCase(contains.getDisplay())) {
-                	
-                	boolean isLenient = lenientDisplayValidation != null && lenientDisplayValidation.getValue();
-                    
-                    if (isLenient) {
-                        Boolean isInactive = contains.hasInactive() ? contains.getInactive() : false;
-                        return new ValidationResult(true, null, null, contains.getDisplay(), 
-                                                  ValidationErrorType.INVALID_DISPLAY_WARNING, isInactive, null, null, null);
-                    } else {
-                        return new ValidationResult(false, null, null, contains.getDisplay(), 
-                                                  ValidationErrorType.INVALID_DISPLAY, null, null, null, null);
-                    }
-                }
-                
-                Boolean isInactive = contains.hasInactive() ? contains.getInactive() : false;
-                
-                return new ValidationResult(true, null, null, contains.getDisplay(), null, isInactive, null, null, null);
-            }
+        ValidationResult entryResult = validateExpansionEntry(contains, code, system, display, abstractAllowed,
+                                                              resolvedSystemVersion, lenientDisplayValidation, 
+                                                              membershipOnly);
+        if (entryResult != null) {
+            return entryResult;
         }
         
         for (ValueSetExpansionContainsComponent child : contains.getContains()) {
@@ -5714,6 +5925,44 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         return new ValidationResult(false, null, null, null, ValidationErrorType.INVALID_CODE, null, null, null, null);
     }
     
+    // 單一 expansion 項目的驗證；code/system/version 不符時回傳 null
+    private ValidationResult validateExpansionEntry(ValueSetExpansionContainsComponent contains,
+                                                    CodeType code, UriType system, StringType display,
+                                                    BooleanType abstractAllowed, StringType resolvedSystemVersion,
+                                                    BooleanType lenientDisplayValidation, boolean membershipOnly) {
+        
+        if (!code.getValue().equals(contains.getCode()) || 
+            (system != null && !system.getValue().equals(contains.getSystem())) ||
+            !isVersionMatch(contains, resolvedSystemVersion)) {
+            return null;
+        }
+        
+        if (contains.hasAbstract() && contains.getAbstract() && 
+            (abstractAllowed == null || !abstractAllowed.getValue())) {
+            return new ValidationResult(false, null, null, null, 
+                                      ValidationErrorType.ABSTRACT_CODE_NOT_ALLOWED, null, null, null, null);
+        }
+        
+        if (!membershipOnly && display != null && !display.isEmpty() && contains.hasDisplay() && 
+            !display.getValue().equalsIgnoreCase(contains.getDisplay())) {
+        	
+        	boolean isLenient = lenientDisplayValidation != null && lenientDisplayValidation.getValue();
+            
+            if (isLenient) {
+                Boolean isInactive = contains.hasInactive() ? contains.getInactive() : false;
+                return new ValidationResult(true, null, null, contains.getDisplay(), 
+                                          ValidationErrorType.INVALID_DISPLAY_WARNING, isInactive, null, null, null);
+            } else {
+                return new ValidationResult(false, null, null, contains.getDisplay(), 
+                                          ValidationErrorType.INVALID_DISPLAY, null, null, null, null);
+            }
+        }
+        
+        Boolean isInactive = contains.hasInactive() ? contains.getInactive() : false;
+        
+        return new ValidationResult(true, null, null, contains.getDisplay(), null, isInactive, null, null, null);
+    }
+    
     private boolean isVersionMatch(ValueSetExpansionContainsComponent contains, StringType resolvedSystemVersion) {
         if (resolvedSystemVersion == null || resolvedSystemVersion.isEmpty()) {
             return true;
@@ -5730,7 +5979,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
     
     private CodeSystem findCodeSystemWithVersionFallback(String url, String preferredVersion) {
         try {
-            return findCodeSystemByUrl(url, preferredVersion);
+            return findStoredCodeSystemByUrl(url, preferredVersion);
         } catch (ResourceNotFoundException e) {
             if (StringUtils.isNotBlank(preferredVersion)) {
                 
@@ -5748,7 +5997,11 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 
     // 查找最新版本的 CodeSystem
     private CodeSystem findLatestCodeSystemVersion(String url) {
-        var searchParams = new SearchParameterMap();
+        return ResolutionScope.resolve("CodeSystem.latest", url, () -> searchLatestCodeSystemVersion(url));
+    }
+
+    private CodeSystem searchLatestCodeSystemVersion(String url) {
+        var searchParams = InternalSearch.firstMatch();
         searchParams.add(CodeSystem.SP_URL, new UriParam(url));
         
         searchParams.setSort(new SortSpec(CodeSystem.SP_VERSION).setOrder(SortOrderEnum.DESC));
@@ -5938,46 +6191,16 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         String displayWarningTextForFail = null;
      
         if (membershipOnly && isCodeableConcept) {
-            var generalCcIssue = outcome.addIssue();
-            generalCcIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-            generalCcIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-            
-            Extension messageIdExt = new Extension();
-            messageIdExt.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-            messageIdExt.setValue(new StringType(OperationOutcomeMessageId.TX_GENERAL_CC_ERROR));
-            generalCcIssue.addExtension(messageIdExt);
-            
-            CodeableConcept details1 = new CodeableConcept();
-            Coding coding1 = details1.addCoding();
-            coding1.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-            coding1.setCode("not-in-vs");
-            details1.setText(String.format("$external:2:%s|%s$", valueSetUrl, valueSetVersion));
-            generalCcIssue.setDetails(details1);
+            outcome.addIssue(OperationOutcomeTemplates.TX_GENERAL_CC_ERROR
+                .create(OperationOutcomeTemplates.external(2, valueSetUrl + "|" + valueSetVersion)));
             
             if (context.originalCodeableConcept() != null) {
                 for (int i = 0; i < context.originalCodeableConcept().getCoding().size(); i++) {
                     Coding c = context.originalCodeableConcept().getCoding().get(i);
-                    
-                    var notInVsIssue = outcome.addIssue();
-                    notInVsIssue.setSeverity(OperationOutcome.IssueSeverity.INFORMATION);
-                    notInVsIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-                    
-                    Extension messageIdExt2 = new Extension();
-                    messageIdExt2.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-                    messageIdExt2.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-                    notInVsIssue.addExtension(messageIdExt2);
-                    
-                    CodeableConcept details2 = new CodeableConcept();
-                    Coding coding2 = details2.addCoding();
-                    coding2.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-                    coding2.setCode("this-code-not-in-vs");
-                    
                     String codeText = c.hasCode() ? c.getCode() : "";
-                    details2.setText(String.format("$external:%d:%s$", i == 0 ? 3 : 1, codeText));
-                    notInVsIssue.setDetails(details2);
-                    
-                    notInVsIssue.addLocation(String.format("CodeableConcept.coding[%d].code", i));
-                    notInVsIssue.addExpression(String.format("CodeableConcept.coding[%d].code", i));
+                    outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET)
+                        .create(OperationOutcomeTemplates.external(i == 0 ? 3 : 1, codeText),
+                            "CodeableConcept.coding[" + i + "].code"));
                 }
             }
         } else {
@@ -5997,34 +6220,15 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	                displayExpression = displayLocation;
 	            }
 
-	            var displayIssue = outcome.addIssue();
-	            displayIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	            displayIssue.setCode(OperationOutcome.IssueType.INVALID);
-
-	            Extension messageIdExt = new Extension();
-	            messageIdExt.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	            messageIdExt.setValue(
-	                new StringType(
-	                    OperationOutcomeMessageId.DISPLAY_NAME_SHOULD_BE_ONE_OF
-	                )
-	            );
-	            displayIssue.addExtension(messageIdExt);
-
-	            CodeableConcept details = new CodeableConcept();
-	            Coding coding = details.addCoding();
-	            coding.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	            coding.setCode("invalid-display");
-	            details.setText(
-	                String.format("$external:1:%s$", context.display().getValue())
-	            );
-	            displayIssue.setDetails(details);
-
+	            var displayIssue = OperationOutcomeTemplates.DISPLAY_SHOULD_BE_ONE_OF.create(
+	                OperationOutcomeTemplates.external(1, context.display().getValue()));
 	            displayIssue.addLocation(displayLocation);
 	            displayIssue.addExpression(displayExpression);
+	            outcome.addIssue(displayIssue);
 	
 	            result.addParameter().setName("issues").setResource(outcome);
 	            result.addParameter("message",
-	                new StringType(String.format("$external:2:%s$", context.display().getValue()))
+	                new StringType(OperationOutcomeTemplates.external(2, context.display().getValue()))
 	            );
 	            result.addParameter("result", new BooleanType(false));
 	
@@ -6042,98 +6246,38 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	        // 根據錯誤類型動態建立 issues
 	        if (isCodeableConcept && !isInvalidDisplay) {
 	            // Issue 1: TX_GENERAL_CC_ERROR_MESSAGE
-	            var generalCcIssue = outcome.addIssue();
-	            generalCcIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	            generalCcIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	            
-	            Extension messageIdExt = new Extension();
-	            messageIdExt.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	            messageIdExt.setValue(new StringType(OperationOutcomeMessageId.TX_GENERAL_CC_ERROR));
-	            generalCcIssue.addExtension(messageIdExt);
-	            
-	            CodeableConcept details1 = new CodeableConcept();
-	            Coding coding1 = details1.addCoding();
-	            coding1.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	            coding1.setCode("not-in-vs");
 	            boolean isDualFilterOut = DUAL_FILTER_VALUESET_URL.equals(valueSetUrl);
-	            details1.setText(String.format(
-	                isDualFilterOut ? "No valid coding was found for the value set '%s'" : "No valid coding was found for the value set '%s|%s'",
-	                valueSetUrl, valueSetVersion));
-	            generalCcIssue.setDetails(details1);
+	            outcome.addIssue(OperationOutcomeTemplates.TX_GENERAL_CC_ERROR
+	                .create(String.format(
+	                    isDualFilterOut ? "No valid coding was found for the value set '%s'" : "No valid coding was found for the value set '%s|%s'",
+	                    valueSetUrl, valueSetVersion)));
 	            
 	            // Issue 2: 根據錯誤類型選擇
 	            int codingIndex = extractCodingIndex(context.parameterSource());
 	            
 	            if (isSystemNotFound) {
 	                // UNKNOWN_CODESYSTEM
-	                var unknownSystemIssue = outcome.addIssue();
-	                unknownSystemIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	                unknownSystemIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-	                
-	                Extension messageIdExt2 = new Extension();
-	                messageIdExt2.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-	                messageIdExt2.setValue(new StringType("UNKNOWN_CODESYSTEM"));
-	                unknownSystemIssue.addExtension(messageIdExt2);
-	                
-	                CodeableConcept details2 = new CodeableConcept();
-	                Coding coding2 = details2.addCoding();
-	                coding2.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	                coding2.setCode("not-found");
-	                details2.setText(String.format("$external:2:%s$", systemUrl));
-	                unknownSystemIssue.setDetails(details2);
-	                
-	                unknownSystemIssue.addLocation(String.format("CodeableConcept.coding[%d].system", codingIndex));
-	                unknownSystemIssue.addExpression(String.format("CodeableConcept.coding[%d].system", codingIndex));
+	                outcome.addIssue(OperationOutcomeTemplates.UNKNOWN_CODESYSTEM.create(
+	                    OperationOutcomeTemplates.external(2, systemUrl),
+	                    "CodeableConcept.coding[" + codingIndex + "].system"));
 	            } else if (!isCodeNotInValueSet) {
 	                // Unknown_Code_in_Version
-	                var unknownCodeIssue = outcome.addIssue();
-	                unknownCodeIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	                unknownCodeIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	                
-	                Extension messageIdExt2 = new Extension();
-	                messageIdExt2.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	                messageIdExt2.setValue(new StringType(OperationOutcomeMessageId.UNKNOWN_CODE_IN_VERSION));
-	                unknownCodeIssue.addExtension(messageIdExt2);
-	                
-	                CodeableConcept details2 = new CodeableConcept();
-	                Coding coding2 = details2.addCoding();
-	                coding2.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	                coding2.setCode("invalid-code");
-	                details2.setText(String.format("$external:2:%s$", systemUrl));
-	                unknownCodeIssue.setDetails(details2);
-	                
-	                unknownCodeIssue.addLocation(String.format("CodeableConcept.coding[%d].code", codingIndex));
-	                unknownCodeIssue.addExpression(String.format("CodeableConcept.coding[%d].code", codingIndex));
+	                outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.INVALID_CODE).create(
+	                    OperationOutcomeTemplates.external(2, systemUrl),
+	                    "CodeableConcept.coding[" + codingIndex + "].code"));
 	            }
 	            
 	            // Issue 3: None_of_the_provided_codes_are_in_the_value_set_one
-	            var notInVsIssue = outcome.addIssue();
-	            notInVsIssue.setSeverity(OperationOutcome.IssueSeverity.INFORMATION);
-	            notInVsIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	            
-	            Extension messageIdExt3 = new Extension();
-	            messageIdExt3.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	            messageIdExt3.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-	            notInVsIssue.addExtension(messageIdExt3);
-	            
-	            CodeableConcept details3 = new CodeableConcept();
-	            Coding coding3 = details3.addCoding();
-	            coding3.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	            coding3.setCode("this-code-not-in-vs");
-	            
+	            String notInVsText;
 	            if (isSystemNotFound) {
-	                details3.setText(String.format("$external:1:%s#%s$", systemUrl, codeValue));
-	            } else if (isCodeNotInValueSet) {
-	                details3.setText(isDualFilterOut
-	                    ? String.format("The provided code '%s#%s' was not found in the value set '%s'", systemUrl, codeValue, valueSetUrl)
-	                    : String.format("$external:1:%s|%s$", valueSetUrl, valueSetVersion));
+	                notInVsText = OperationOutcomeTemplates.external(1, systemUrl + "#" + codeValue);
+	            } else if (isCodeNotInValueSet && isDualFilterOut) {
+	                notInVsText = String.format("The provided code '%s#%s' was not found in the value set '%s'", systemUrl, codeValue, valueSetUrl);
 	            } else {
-	                details3.setText(String.format("$external:1:%s|%s$", valueSetUrl, valueSetVersion));
+	                notInVsText = OperationOutcomeTemplates.external(1, valueSetUrl + "|" + valueSetVersion);
 	            }
-	            notInVsIssue.setDetails(details3);
-	            
-	            notInVsIssue.addLocation(String.format("CodeableConcept.coding[%d].code", codingIndex));
-	            notInVsIssue.addExpression(String.format("CodeableConcept.coding[%d].code", codingIndex));
+	            outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET)
+	                .create(notInVsText, "CodeableConcept.coding[" + codingIndex + "].code"));
 	            
 	        } else {
 	            
@@ -6173,8 +6317,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	                    "Unknown code '%s' in the CodeSystem '%s' version '%s'",
 	                    codeValue, systemUrl, codeSystemVersion);
 	            } else if (isCodeParam) {
-	                notInVsDetailsText = String.format("$external:1:%s|%s$", valueSetUrl, valueSetVersion);
-	                unknownSystemDetailsText = String.format("$external:2:%s$", systemUrl);
+	                notInVsDetailsText = OperationOutcomeTemplates.external(1, valueSetUrl + "|" + valueSetVersion);
+	                unknownSystemDetailsText = OperationOutcomeTemplates.external(2, systemUrl);
 	            } else if (isSpecialErrorType) {
 	                notInVsDetailsText = String.format(
 	                  "The provided code '%s#%s' was not found in the value set '%s|%s'",
@@ -6203,13 +6347,13 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	                            systemUrl, codeValue, displaySuffix, vsRef);
 	                } else {
 	                    // 範例二：coding 參數的 issue details.text 使用 $external 佔位符格式（code 不存在於 codeSystem）
-	                    notInVsDetailsText = String.format("$external:1:%s|%s$", valueSetUrl, valueSetVersion);
+	                    notInVsDetailsText = OperationOutcomeTemplates.external(1, valueSetUrl + "|" + valueSetVersion);
 	                }
-	                unknownSystemDetailsText = String.format("$external:2:%s$", systemUrl);
+	                unknownSystemDetailsText = OperationOutcomeTemplates.external(2, systemUrl);
 	            } else {
 	                // codeableConcept 參數的一般錯誤使用 $external 佔位符
-	                notInVsDetailsText = String.format("$external:1:%s|%s$", valueSetUrl, valueSetVersion);
-	                unknownSystemDetailsText = String.format("$external:2:%s$", systemUrl);
+	                notInVsDetailsText = OperationOutcomeTemplates.external(1, valueSetUrl + "|" + valueSetVersion);
+	                unknownSystemDetailsText = OperationOutcomeTemplates.external(2, systemUrl);
 	            }
 	            
 	            // Terminology FHIR server 註冊 範例一：vs-version-b1，僅單一 not-in-vs issue、literal 訊息；location 依 parameterSource（coding→Coding.code, code→code）
@@ -6221,51 +6365,22 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	                    "The provided code '%s#%s' was not found in the value set '%s|%s'",
 	                    sysUrl, codeValue, vsUrl, vsVer);
 	                String locExpr = isCoding ? "Coding.code" : "code";
-	                var notInVsIssue = new OperationOutcomeIssueBuilder()
-	                    .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-	                    .setCode(OperationOutcome.IssueType.CODEINVALID)
-	                    .setMessageId(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE)
-	                    .setDetails("not-in-vs", notInVsDetailsText)
-	                    .addLocation(locExpr)
-	                    .addExpression(locExpr)
-	                    .build();
-	                outcome.addIssue(notInVsIssue);
+	                outcome.addIssue(OperationOutcomeTemplates.NOT_IN_VALUESET.create(notInVsDetailsText, locExpr));
 	            } else if (!isRegistrationTestExample1) {
 	                // 註冊測試 範例一：僅 UNKNOWN_CODESYSTEM，不加入 not-in-vs
 	                // Issue 1: None_of_the_provided_codes_are_in_the_value_set_one
-	                var notInVsIssue = new OperationOutcomeIssueBuilder()
-	                    .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-	                    .setCode(OperationOutcome.IssueType.CODEINVALID)
-	                    .setMessageId(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE)
-	                    .setDetails("not-in-vs", notInVsDetailsText)
-	                    .addLocation(locationExpressionValue)
-	                    .addExpression(locationExpressionValue)
-	                    .build();
-	                outcome.addIssue(notInVsIssue);
+	                outcome.addIssue(OperationOutcomeTemplates.NOT_IN_VALUESET.create(notInVsDetailsText,
+	                    locationExpressionValue));
 	            }
 	            
 	            // Issue 2: 根據錯誤類型選擇 (UNKNOWN_CODESYSTEM 或 Unknown_Code_in_Version)；vs-version-b1 範例一僅單一 issue 故不加入
 	            if (!isVsVersionB1NotInVs && (isSystemNotFound || isRegistrationTestExample1)) {
-	                var unknownSystemIssue = new OperationOutcomeIssueBuilder()
-	                    .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-	                    .setCode(OperationOutcome.IssueType.NOTFOUND)
-	                    .setMessageId(OperationOutcomeMessageId.UNKNOWN_CODESYSTEM)
-	                    .setDetails("not-found", unknownSystemDetailsText)
-	                    .addLocation(systemLocationExpressionValue)
-	                    .addExpression(systemLocationExpressionValue)
-	                    .build();
-	                outcome.addIssue(unknownSystemIssue);
+	                outcome.addIssue(OperationOutcomeTemplates.UNKNOWN_CODESYSTEM.create(unknownSystemDetailsText,
+	                    systemLocationExpressionValue));
 	            } else if (!isVsVersionB1NotInVs && (!isCodeNotInValueSet || isCaseSensitiveCode1_3)) {
 	            	// code 參數和 coding 參數在非 CODE_NOT_IN_VALUESET 情況下都添加 Unknown_Code_in_Version；case-coding-sensitive-code1-3 亦添加第二則 issue；vs-version-b1 範例一不添加
-	                var unknownCodeIssue = new OperationOutcomeIssueBuilder()
-	                    .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-	                    .setCode(OperationOutcome.IssueType.CODEINVALID)
-	                    .setMessageId(OperationOutcomeMessageId.UNKNOWN_CODE_IN_VERSION)
-	                    .setDetails("invalid-code", unknownSystemDetailsText)
-	                    .addLocation(locationExpressionValue)
-	                    .addExpression(locationExpressionValue)
-	                    .build();
-	                outcome.addIssue(unknownCodeIssue);
+	                outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.INVALID_CODE)
+	                    .create(unknownSystemDetailsText, locationExpressionValue));
 	            }
 
             // display warning issue: CODE_NOT_IN_VALUESET + display 提供 + display 不符 CS 正確值
@@ -6279,21 +6394,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                     displayWarningTextForFail = String.format(
                         "Wrong Display Name '%s' for %s#%s. Valid display is '%s' (en) (for the language(s) '--')",
                         incorrectDisplayVal, systemUrl, codeValue, correctDisplay);
-                    OperationOutcome.OperationOutcomeIssueComponent displayWarnIssue = outcome.addIssue();
-                    displayWarnIssue.setSeverity(OperationOutcome.IssueSeverity.WARNING);
-                    displayWarnIssue.setCode(OperationOutcome.IssueType.INVALID);
-                    Extension displayMsgIdExt = new Extension();
-                    displayMsgIdExt.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-                    displayMsgIdExt.setValue(new StringType("Display_Name_for__should_be_one_of__instead_of"));
-                    displayWarnIssue.addExtension(displayMsgIdExt);
-                    CodeableConcept displayWarnDetails = new CodeableConcept();
-                    Coding displayWarnCoding = displayWarnDetails.addCoding();
-                    displayWarnCoding.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-                    displayWarnCoding.setCode("invalid-display");
-                    displayWarnDetails.setText(displayWarningTextForFail);
-                    displayWarnIssue.setDetails(displayWarnDetails);
-                    displayWarnIssue.addLocation("Coding.display");
-                    displayWarnIssue.addExpression("Coding.display");
+                    outcome.addIssue(OperationOutcomeTemplates.DISPLAY_SHOULD_BE_ONE_OF_WARNING
+                        .create(displayWarningTextForFail, "Coding.display"));
                 }
             }
 	        }
@@ -6322,11 +6424,11 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	            mainErrorMessage = String.format("%s; %s", unknownSystemDetailsText, notInVsDetailsText);
 	        } else if (isCodeParam) {
 	            if (isSystemNotFound) {
-	                mainErrorMessage = String.format("$external:3:%s$", systemUrl);
+	                mainErrorMessage = OperationOutcomeTemplates.external(3, systemUrl);
 	            } else if (isCodeNotInValueSet) {
-	                mainErrorMessage = String.format("$external:2:%s|%s$", valueSetUrl, valueSetVersion);
+	                mainErrorMessage = OperationOutcomeTemplates.external(2, valueSetUrl + "|" + valueSetVersion);
 	            } else {
-	                mainErrorMessage = String.format("$external:3:%s$", systemUrl);
+	                mainErrorMessage = OperationOutcomeTemplates.external(3, systemUrl);
 	            }
 	        } else if (isCoding && isSystemNotFound) {
 	            mainErrorMessage = String.format(
@@ -6344,13 +6446,13 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             }
 	        } else if (isCoding && isInvalidCode) {
 	            // 範例二：coding 參數且同時回傳 not-in-vs + invalid-code 時，message 為 $external:3:systemUrl$
-	            mainErrorMessage = String.format("$external:3:%s$", systemUrl);
+	            mainErrorMessage = OperationOutcomeTemplates.external(3, systemUrl);
 	        } else if (isCoding) {
 	            // coding 參數使用完整訊息
 	            mainErrorMessage = String.format("%s; %s", notInVsDetailsText, unknownSystemDetailsText);
 	        } else if (isCodeableConcept) {
 	        	if (isSystemNotFound) {
-	                mainErrorMessage = String.format("$external:3:%s$", systemUrl);
+	                mainErrorMessage = OperationOutcomeTemplates.external(3, systemUrl);
 	            } else if (DUAL_FILTER_VALUESET_URL.equals(valueSetUrl) && isCodeNotInValueSet) {
 	                mainErrorMessage = String.format(
 	                    "No valid coding was found for the value set '%s'; The provided code '%s#%s' was not found in the value set '%s'",
@@ -6361,7 +6463,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	                mainErrorMessage = "$external:3$";
 	            }
 	        } else {
-	            mainErrorMessage = String.format("$external:3:%s$", systemUrl);
+	            mainErrorMessage = OperationOutcomeTemplates.external(3, systemUrl);
 	        }
         }
         
@@ -7119,13 +7221,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             return false;
         }
         
-        for (ConceptDefinitionDesignationComponent designation : concept.getDesignation()) {
-            if (displayValue.equalsIgnoreCase(designation.getValue())) {
-                return true;
-            }
-        }
-        
-        return false;
+        return DisplayKeys.of(concept).matchesAnyDesignation(displayValue);
     }
 
     // 支援逗號分隔的多個語言代碼檢查
@@ -7177,9 +7273,10 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		    }
 		    
 		    String displayValue = display.getValue();
+		    DisplayKeys keys = DisplayKeys.of(concept);
 		    
 		    // 1. 先比對主要 display
-		    if (concept.hasDisplay() && displayValue.equalsIgnoreCase(concept.getDisplay())) {
+		    if (keys.matchesDisplay(displayValue)) {
 		        return true;
 		    }
 		    
@@ -7191,12 +7288,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		    // 3. 有指定語言時，只比對該語言的 designation
 		    String[] languages = displayLanguage.getValue().split(",");
 		    for (String lang : languages) {
-		        lang = lang.trim();
-		        for (ConceptDefinitionDesignationComponent desig : concept.getDesignation()) {
-		            if (lang.equalsIgnoreCase(desig.getLanguage()) && 
-		                displayValue.equalsIgnoreCase(desig.getValue())) {
-		                return true;
-		            }
+		        if (keys.matchesDesignation(lang.trim(), displayValue)) {
+		            return true;
 		        }
 		    }
 		    
@@ -7333,7 +7426,14 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 
     // 根據 ID 獲取 ValueSet
     private ValueSet getValueSetById(String id, StringType version) {
-    	var searchParams = new SearchParameterMap();
+        // 回傳共用的實例（唯讀）；需要調整時由呼叫端自行複製
+        String versionValue = version != null && !version.isEmpty() ? version.getValue() : null;
+        return ResolutionScope.resolve("ValueSet.id", TxResourceContext.resolvedKey(id, versionValue),
+            () -> searchValueSetById(id, version));
+    }
+
+    private ValueSet searchValueSetById(String id, StringType version) {
+    	var searchParams = InternalSearch.firstMatch();
         searchParams.add("_id", new TokenParam(id));
         
         if (version != null && !version.isEmpty()) {
@@ -7350,12 +7450,18 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
     }
 
     // 根據 URL 查找 ValueSet
-    private ValueSet findValueSetByUrl(String url, String version) {
-        // $batch-validate tx-resource：優先使用請求中提供的 inline ValueSet
-        ValueSet inline = txResourceRegistry.get().get(url);
+    private ValueSet findValueSetByUrl(TxResourceContext txContext, String url, String version) {
+        // tx-resource：優先使用請求中提供的 inline ValueSet，其次為批次預先解析的 ValueSet
+        ValueSet inline = txContext.findValueSet(url, version);
         if (inline != null) return inline;
 
-    	var searchParams = new SearchParameterMap();
+        // 回傳共用的實例（唯讀）；需要調整時由呼叫端自行複製
+        return ResolutionScope.resolve("ValueSet", TxResourceContext.resolvedKey(url, version),
+            () -> searchValueSetByUrl(url, version));
+    }
+
+    private ValueSet searchValueSetByUrl(String url, String version) {
+    	var searchParams = InternalSearch.firstMatch();
         searchParams.add(ValueSet.SP_URL, new UriParam(url));
         
         if (StringUtils.isNotBlank(version)) {
@@ -7373,9 +7479,50 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         return (ValueSet) searchResult.getResources(0, 1).get(0);
     }
 
+    // 僅查詢資料庫中的 ValueSet；找不到時回傳 null（供 ValueSetDependencyGraph 使用）
+    private ValueSet findStoredValueSetOrNull(ValueSetDependencyGraph.Reference reference) {
+        try {
+            return findValueSetByUrl(TxResourceContext.EMPTY, reference.url(), reference.version());
+        } catch (ResourceNotFoundException e) {
+            return null;
+        }
+    }
+
     private CodeSystem findCodeSystemByUrl(String url, String version) {
+        return withStoredConcepts(findStoredCodeSystemByUrl(url, version));
+    }
+
+    // 資料庫或 tx-resource 中的 CodeSystem 原樣回傳（標頭式不組回概念）；只需確認存在或單一 code 時使用
+    private CodeSystem findStoredCodeSystemByUrl(String url, String version) {
+        return ResolutionScope.resolve("CodeSystem", TxResourceContext.resolvedKey(url, version),
+            () -> searchCodeSystemByUrl(url, version));
+    }
+
+    // 標頭式 CodeSystem（content = not-present，大型分批載入）由概念儲存補上概念（快取），展開與驗證才看得到內容
+    private CodeSystem withStoredConcepts(CodeSystem codeSystem) {
+        return conceptStore != null ? conceptStore.withConcepts(codeSystem) : codeSystem;
+    }
+
+    // 單一 code 的驗證：標頭式 CodeSystem 只讀該 code 的概念資料列（含上層、子概念），不組回整個 CodeSystem；
+    // generalizes filter 需要 code 以下的整個子樹，仍組回全部概念
+    private CodeSystem withStoredConceptsFor(CodeSystem codeSystem, CodeType code, ConceptSetComponent conceptSet) {
+        if (conceptStore == null || codeSystem == null || code == null || code.isEmpty()
+                || codeSystem.getContent() != CodeSystem.CodeSystemContentMode.NOTPRESENT
+                || TerminologyIndexCache.keyOf(codeSystem) == null
+                || conceptSet.getFilter().stream().anyMatch(f -> f.getOp() == ValueSet.FilterOperator.GENERALIZES)) {
+            return withStoredConcepts(codeSystem);
+        }
+        try {
+            CodeSystem view = conceptStore.findView(codeSystem.getUrl(), codeSystem.getVersion(), code.getValue());
+            return view != null ? view : codeSystem;
+        } catch (RuntimeException e) {
+            return withStoredConcepts(codeSystem);
+        }
+    }
+
+    private CodeSystem searchCodeSystemByUrl(String url, String version) {
         
-        var searchParams = new SearchParameterMap();
+        var searchParams = InternalSearch.firstMatch();
         searchParams.add(CodeSystem.SP_URL, new UriParam(url));
         
         // 如果指定了版本，先嘗試精確匹配
@@ -7389,14 +7536,16 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                 return codeSystem;
             }
             
-            // 查詢所有版本以提供更好的錯誤信息
-            var allVersionsParams = new SearchParameterMap();
-            allVersionsParams.add(CodeSystem.SP_URL, new UriParam(url));
-            var allVersionsResult = myCodeSystemDao.search(allVersionsParams, new SystemRequestDetails());
-            
-            // 在這裡聲明並初始化 availableVersions
+            // 查詢所有版本以提供更好的錯誤信息（優先讀取索引中繼資料）
+            List<CodeSystemMetadataQuery.CodeSystemMetadata> metadata =
+                metadataQuery != null ? metadataQuery.findByUrl(url) : null;
             List<String> availableVersions = new ArrayList<>();
-            if (allVersionsResult.size() > 0) {
+            if (metadata != null) {
+                availableVersions.addAll(CodeSystemMetadataQuery.versionsOf(metadata));
+            } else {
+                var allVersionsParams = InternalSearch.allMatches();
+                allVersionsParams.add(CodeSystem.SP_URL, new UriParam(url));
+                var allVersionsResult = myCodeSystemDao.search(allVersionsParams, new SystemRequestDetails());
                 for (int i = 0; i < allVersionsResult.size(); i++) {
                     CodeSystem cs = (CodeSystem) allVersionsResult.getResources(i, i+1).get(0);
                     if (cs.hasVersion()) {
@@ -7720,31 +7869,15 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             targetValueSet.getVersion() : "5.0.0";
         
         // Issue 1: System is ValueSet error
-        var systemIsVsIssue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.INVALID)
-            .setMessageId(OperationOutcomeMessageId.TERMINOLOGY_TX_SYSTEM_VALUESET2)
-            .setDetails("invalid-data", String.format(
-                "The Coding references a value set, not a code system ('%s')",
-                systemUrl))
-            .build();
-        
-        systemIsVsIssue.addLocation("Coding.system");
-        systemIsVsIssue.addExpression("Coding.system");
+        var systemIsVsIssue = OperationOutcomeTemplates.SYSTEM_IS_VALUESET.create(String.format(
+            "The Coding references a value set, not a code system ('%s')",
+            systemUrl), "Coding.system");
         outcome.addIssue(systemIsVsIssue);
         
         // Issue 2: Code not in ValueSet
-        var notInVsIssue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.CODEINVALID)
-            .setMessageId(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE)
-            .setDetails("not-in-vs", String.format(
-                "The provided code '%s#%s' was not found in the value set '%s|%s'",
-                systemUrl, params.code().getValue(), valueSetUrl, valueSetVersion))
-            .build();
-        
-        notInVsIssue.addLocation("Coding.code");
-        notInVsIssue.addExpression("Coding.code");
+        var notInVsIssue = OperationOutcomeTemplates.NOT_IN_VALUESET.create(String.format(
+            "The provided code '%s#%s' was not found in the value set '%s|%s'",
+            systemUrl, params.code().getValue(), valueSetUrl, valueSetVersion), "Coding.code");
         outcome.addIssue(notInVsIssue);
         
         // 3. issues 參數
@@ -7839,7 +7972,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		        incorrectDisplay != null ? incorrectDisplay : "", sysUrlForDisplayW, codeValForDisplayW,
 		        matchedDisplay != null ? matchedDisplay : "");
 		} else {
-		    detailsDisplayText = String.format("$external:1:%s$", incorrectDisplay != null ? incorrectDisplay : "");
+		    detailsDisplayText = OperationOutcomeTemplates.external(1, incorrectDisplay != null ? incorrectDisplay : "");
 		}
 		details.setText(detailsDisplayText);
 		displayWarningIssue.setDetails(details);
@@ -7865,9 +7998,9 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    if (BROKEN_FILTER_SIMPLE_SYSTEM_URL.equals(sysUrlForDisplayW)) {
 	        message = detailsDisplayText;
 	    } else if (isCoding) {
-	        message = String.format("$external:1:%s$", incorrectDisplay != null ? incorrectDisplay : "");
+	        message = OperationOutcomeTemplates.external(1, incorrectDisplay != null ? incorrectDisplay : "");
 	    } else {
-	        message = String.format("$external:2:%s$", incorrectDisplay != null ? incorrectDisplay : "");
+	        message = OperationOutcomeTemplates.external(2, incorrectDisplay != null ? incorrectDisplay : "");
 	    }
 	    result.addParameter("message", new StringType(message));
 		
@@ -8025,31 +8158,15 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		targetValueSet.getVersion() : "5.0.0";
 		
 		// Issue 1: No system warning
-		var noSystemIssue = new OperationOutcomeIssueBuilder()
-				.setSeverity(OperationOutcome.IssueSeverity.WARNING)
-				.setCode(OperationOutcome.IssueType.INVALID)
-				.setMessageId(OperationOutcomeMessageId.CODING_HAS_NO_SYSTEM_CANNOT_VALIDATE)
-				.setDetails("invalid-data", 
-						"Coding has no system. A code with no system has no defined meaning, " +
-						"and it cannot be validated. A system should be provided")
-				.build();
-		
-		noSystemIssue.addLocation("Coding");
-		noSystemIssue.addExpression("Coding");
+		var noSystemIssue = OperationOutcomeTemplates.CODING_HAS_NO_SYSTEM.create(
+				"Coding has no system. A code with no system has no defined meaning, " +
+				"and it cannot be validated. A system should be provided", "Coding");
 		outcome.addIssue(noSystemIssue);
 		
 		// Issue 2: Code not in ValueSet
-		var notInVsIssue = new OperationOutcomeIssueBuilder()
-				.setSeverity(OperationOutcome.IssueSeverity.ERROR)
-				.setCode(OperationOutcome.IssueType.CODEINVALID)
-				.setMessageId(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE)
-				.setDetails("not-in-vs", String.format(
+		var notInVsIssue = OperationOutcomeTemplates.NOT_IN_VALUESET.create(String.format(
 				"The provided code '#%s' was not found in the value set '%s|%s'",
-				params.code().getValue(), valueSetUrl, valueSetVersion))
-				.build();
-		
-		notInVsIssue.addLocation("Coding.code");
-		notInVsIssue.addExpression("Coding.code");
+				params.code().getValue(), valueSetUrl, valueSetVersion), "Coding.code");
 		outcome.addIssue(notInVsIssue);
 
 		// 3. issues 參數
@@ -8171,23 +8288,9 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                 codeExpression = String.format("CodeableConcept.coding[%d].code", codingIndex);
                 
                 // Issue 1: TX_GENERAL_CC_ERROR_MESSAGE (只有 CodeableConcept 才需要)
-                var generalCcIssue = outcome.addIssue();
-                generalCcIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-                generalCcIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-                
-                Extension messageIdExt1 = new Extension();
-                messageIdExt1.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-                messageIdExt1.setValue(new StringType("TX_GENERAL_CC_ERROR_MESSAGE"));
-                generalCcIssue.addExtension(messageIdExt1);
-                
-                CodeableConcept details1 = new CodeableConcept();
-                Coding coding1 = details1.addCoding();
-                coding1.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-                coding1.setCode("not-in-vs");
-                details1.setText(String.format(
-                    "No valid coding was found for the value set '%s|%s'",
-                    valueSetUrl, valueSetVersion));
-                generalCcIssue.setDetails(details1);
+                outcome.addIssue(OperationOutcomeTemplates.TX_GENERAL_CC_ERROR
+                    .create(String.format("No valid coding was found for the value set '%s|%s'",
+                        valueSetUrl, valueSetVersion)));
             } else if (isCoding) {
                 systemLocation = "Coding.system";
                 systemExpression = "Coding.system";
@@ -8202,62 +8305,32 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             }
             
             // Issue 2 (或 Issue 1 for non-CC): 根據是否有明確版本決定使用哪個訊息ID
-            var unknownSystemIssue = outcome.addIssue();
-            unknownSystemIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-            unknownSystemIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-            
-            Extension messageIdExt2 = new Extension();
-            messageIdExt2.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-            
-            CodeableConcept details2 = new CodeableConcept();
-            Coding coding2 = details2.addCoding();
-            coding2.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-            coding2.setCode("not-found");
-            
+            OperationOutcome.OperationOutcomeIssueComponent unknownSystemIssue;
             if (hasExplicitVersion) {
                 // 有明確指定版本：使用 UNKNOWN_CODESYSTEM_VERSION_NONE，並使用完整訊息
-                messageIdExt2.setValue(new StringType("UNKNOWN_CODESYSTEM_VERSION_NONE"));
-                details2.setText(String.format(
+                unknownSystemIssue = OperationOutcomeTemplates.UNKNOWN_CODESYSTEM_VERSION_NONE.create(String.format(
                     "A definition for CodeSystem '%s' version '%s' could not be found, " +
                     "so the code cannot be validated. No versions of this code system are known",
                     systemUrl, requestedVersion));
             } else {
                 // 沒有指定版本：使用 UNKNOWN_CODESYSTEM
-                messageIdExt2.setValue(new StringType("UNKNOWN_CODESYSTEM"));
-                details2.setText(String.format("$external:2:%s$", systemUrl));
+                unknownSystemIssue = OperationOutcomeTemplates.UNKNOWN_CODESYSTEM.create(
+                    OperationOutcomeTemplates.external(2, systemUrl));
             }
-            
-            unknownSystemIssue.addExtension(messageIdExt2);
-            unknownSystemIssue.setDetails(details2);
             unknownSystemIssue.addLocation(systemLocation);
             unknownSystemIssue.addExpression(systemExpression);
+            outcome.addIssue(unknownSystemIssue);
             
             // Issue 3 (或 Issue 2 for non-CC): None_of_the_provided_codes_are_in_the_value_set_one
-            var notInVsIssue = outcome.addIssue();
-            notInVsIssue.setSeverity(OperationOutcome.IssueSeverity.INFORMATION);
-            notInVsIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-            
-            Extension messageIdExt3 = new Extension();
-            messageIdExt3.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-            messageIdExt3.setValue(new StringType("None_of_the_provided_codes_are_in_the_value_set_one"));
-            notInVsIssue.addExtension(messageIdExt3);
-            
-            CodeableConcept details3 = new CodeableConcept();
-            Coding coding3 = details3.addCoding();
-            coding3.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-            coding3.setCode("this-code-not-in-vs");
-            
-            if (hasExplicitVersion) {
-                details3.setText(String.format(
-                    "The provided code '%s|%s#%s' was not found in the value set '%s|%s'",
-                    systemUrl, requestedVersion, codeValue, valueSetUrl, valueSetVersion));
-            } else {
-                details3.setText(String.format("$external:1:%s#%s$", systemUrl, codeValue));
-            }
-            notInVsIssue.setDetails(details3);
-            
+            String notInVsText = hasExplicitVersion
+                ? String.format("The provided code '%s|%s#%s' was not found in the value set '%s|%s'",
+                    systemUrl, requestedVersion, codeValue, valueSetUrl, valueSetVersion)
+                : OperationOutcomeTemplates.external(1, systemUrl + "#" + codeValue);
+            var notInVsIssue = OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET)
+                .create(notInVsText);
             notInVsIssue.addLocation(codeLocation);
             notInVsIssue.addExpression(codeExpression);
+            outcome.addIssue(notInVsIssue);
             
             // 3. issues 參數
             result.addParameter().setName("issues").setResource(outcome);
@@ -8275,7 +8348,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                         valueSetUrl, valueSetVersion,
                         systemUrl, requestedVersion, codeValue, valueSetUrl, valueSetVersion);
                 } else {
-                    message = String.format("$external:3:%s$", systemUrl);
+                    message = OperationOutcomeTemplates.external(3, systemUrl);
                 }
             } else {
             	if (hasExplicitVersion) {
@@ -8286,7 +8359,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                         systemUrl, requestedVersion,
                         systemUrl, requestedVersion, codeValue, valueSetUrl, valueSetVersion);
                 } else {
-                    message = String.format("$external:3:%s$", systemUrl);
+                    message = OperationOutcomeTemplates.external(3, systemUrl);
                 }
             }
             result.addParameter("message", new StringType(message));
@@ -8418,7 +8491,6 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         
         // ValueSet include 有指定版本時用 VALUESET_VALUE_MISMATCH 與 "in the ValueSet include"（如 version-w-bad）
         boolean valueSetIncludeHasVersion = valueSetUsedVersion != null && !valueSetUsedVersion.isEmpty();
-        String mismatchMessageId = valueSetIncludeHasVersion ? "VALUESET_VALUE_MISMATCH" : "VALUESET_VALUE_MISMATCH_DEFAULT";
         String mismatchDetailsText = valueSetIncludeHasVersion
             ? String.format(
                 "The code system '%s' version '%s' in the ValueSet include is different to the one in the value ('%s')",
@@ -8429,47 +8501,22 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                 systemUrl, vsVersion, valueVersion);
 
         // Issue 1: VALUESET_VALUE_MISMATCH 或 VALUESET_VALUE_MISMATCH_DEFAULT
-        var versionMismatchIssue = outcome.addIssue();
-        versionMismatchIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-        versionMismatchIssue.setCode(OperationOutcome.IssueType.INVALID);
-
-        Extension messageIdExt1 = new Extension();
-        messageIdExt1.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-        messageIdExt1.setValue(new StringType(mismatchMessageId));
-        versionMismatchIssue.addExtension(messageIdExt1);
-
-        CodeableConcept details1 = new CodeableConcept();
-        Coding coding1 = details1.addCoding();
-        coding1.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-        coding1.setCode("vs-invalid");
-        details1.setText(mismatchDetailsText);
-        versionMismatchIssue.setDetails(details1);
-
+        var versionMismatchIssue = (valueSetIncludeHasVersion
+            ? OperationOutcomeTemplates.VALUESET_VALUE_MISMATCH
+            : OperationOutcomeTemplates.VALUESET_VALUE_MISMATCH_DEFAULT).create(mismatchDetailsText);
         versionMismatchIssue.addLocation(versionLocation);
         versionMismatchIssue.addExpression(versionExpression);
+        outcome.addIssue(versionMismatchIssue);
 
         // Issue 2: UNKNOWN_CODESYSTEM_VERSION（code = not-found）
-        var unknownVersionIssue = outcome.addIssue();
-        unknownVersionIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-        unknownVersionIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-        
-        Extension messageIdExt2 = new Extension();
-        messageIdExt2.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-        messageIdExt2.setValue(new StringType("UNKNOWN_CODESYSTEM_VERSION"));
-        unknownVersionIssue.addExtension(messageIdExt2);
-        
-        CodeableConcept details2 = new CodeableConcept();
-        Coding coding2 = details2.addCoding();
-        coding2.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-        coding2.setCode("not-found");
-        details2.setText(String.format(
-            "A definition for CodeSystem '%s' version '%s' could not be found, " +
-            "so the code cannot be validated. Valid versions: %s",
-            systemUrl, requestedVersion, validVersionsText));
-        unknownVersionIssue.setDetails(details2);
-        
+        var unknownVersionIssue = OperationOutcomeTemplates.forErrorType(ValidationErrorType.SYSTEM_VERSION_NOT_FOUND)
+            .create(String.format(
+                "A definition for CodeSystem '%s' version '%s' could not be found, " +
+                "so the code cannot be validated. Valid versions: %s",
+                systemUrl, requestedVersion, validVersionsText));
         unknownVersionIssue.addLocation(systemLocation);
         unknownVersionIssue.addExpression(systemExpression);
+        outcome.addIssue(unknownVersionIssue);
         
         // 5. issues 參數
         result.addParameter().setName("issues").setResource(outcome);
@@ -8521,36 +8568,20 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
     
     /** 收集 ValueSet 中所有包含該 code（及 display）的 system URL，用於判斷單一推斷或多個符合（範例六）。 */
     private List<String> collectMatchingSystemsFromValueSet(ValueSet valueSet, CodeType code, StringType display) {
-        Set<String> systems = new LinkedHashSet<>();
         if (valueSet == null || code == null || code.isEmpty()) {
-            return new ArrayList<>(systems);
-        }
-        if (valueSet.hasExpansion() && isExpansionCurrent(valueSet.getExpansion())) {
-            collectSystemsFromExpansionContains(valueSet.getExpansion().getContains(), code, display, systems);
+            return new ArrayList<>();
         }
-        if (valueSet.hasCompose()) {
-            for (ConceptSetComponent include : valueSet.getCompose().getInclude()) {
-                if (include.hasSystem() && isCodeInConceptSet(include, code, display)) {
-                    systems.add(include.getSystem());
-                }
-            }
-        }
-        return new ArrayList<>(systems);
+        // 以每個 ValueSet 版本的 code → system 索引查詢，不再逐次走訪 expansion 與 CodeSystem
+        return SystemInferenceIndex.of(valueSet).findSystems(valueSet, code.getValue(),
+                display != null && display.hasValue() ? display.getValue() : null,
+                this::findCodeSystemQuietly, this::isDisplayMatching);
     }
 
-    private void collectSystemsFromExpansionContains(List<ValueSetExpansionContainsComponent> containsList,
-            CodeType code, StringType display, Set<String> outSystems) {
-        if (containsList == null) return;
-        for (ValueSetExpansionContainsComponent contains : containsList) {
-            if (code.getValue().equals(contains.getCode())) {
-                if (display == null || !display.hasValue() ||
-                    (contains.hasDisplay() && display.getValue().equalsIgnoreCase(contains.getDisplay()))) {
-                    if (contains.hasSystem()) {
-                        outSystems.add(contains.getSystem());
-                    }
-                }
-            }
-            collectSystemsFromExpansionContains(contains.getContains(), code, display, outSystems);
+    private CodeSystem findCodeSystemQuietly(String system, String version) {
+        try {
+            return findCodeSystemByUrl(system, version);
+        } catch (Exception e) {
+            return null;
         }
     }
 
@@ -8562,39 +8593,6 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         return null;
     }
 
-    private UriType inferSystemFromExpansion(ValueSetExpansionComponent expansion, 
-                                            CodeType code, StringType display) {
-        for (ValueSetExpansionContainsComponent contains : expansion.getContains()) {
-            UriType result = findSystemInExpansionContains(contains, code, display);
-            if (result != null) {
-                return result;
-            }
-        }
-        return null;
-    }
-
-    private UriType findSystemInExpansionContains(ValueSetExpansionContainsComponent contains,
-                                                 CodeType code, StringType display) {
-        // 檢查當前 contains
-        if (code.getValue().equals(contains.getCode())) {
-            if (display == null || !display.hasValue() || 
-                (contains.hasDisplay() && display.getValue().equalsIgnoreCase(contains.getDisplay()))) {
-                if (contains.hasSystem()) {
-                    return new UriType(contains.getSystem());
-                }
-            }
-        }
-        
-        for (ValueSetExpansionContainsComponent child : contains.getContains()) {
-            UriType result = findSystemInExpansionContains(child, code, display);
-            if (result != null) {
-                return result;
-            }
-        }
-        
-        return null;
-    }
-
     private UriType inferSystemFromCompose(ValueSetComposeComponent compose, 
                                           CodeType code, StringType display) {
         for (ConceptSetComponent include : compose.getInclude()) {
@@ -8626,8 +8624,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             try {
                 CodeSystem codeSystem = findCodeSystemByUrl(conceptSet.getSystem(), 
                     conceptSet.hasVersion() ? conceptSet.getVersion() : null);
-                ConceptDefinitionComponent concept = findConceptRecursive(
-                    codeSystem.getConcept(), code.getValue());
+                ConceptDefinitionComponent concept = ConceptCodeIndex.of(codeSystem)
+                    .find(codeSystem, code.getValue());
                 if (concept != null) {
                     if (display == null || !display.hasValue() || 
                         isDisplayMatching(concept, display.getValue())) {
@@ -8665,49 +8663,16 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		String possibleSystem = findPossibleSystemFromValueSet(targetValueSet);
 		
 		// Issue 1: Code not in ValueSet
-		var notInVsIssue = outcome.addIssue();
-	    notInVsIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	    notInVsIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	    
-	    Extension messageIdExt1 = new Extension();
-	    messageIdExt1.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	    messageIdExt1.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-	    notInVsIssue.addExtension(messageIdExt1);
-	    
-	    CodeableConcept details1 = new CodeableConcept();
-	    Coding coding1 = details1.addCoding();
-	    coding1.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	    coding1.setCode("not-in-vs");
-	    details1.setText(String.format("$external:1:%s|%s$", valueSetUrl, valueSetVersion));
-	    notInVsIssue.setDetails(details1);
-	    
-	    notInVsIssue.addLocation("code");
-	    notInVsIssue.addExpression("code");
-	    
-	    var unableToInferIssue = outcome.addIssue();
-	    unableToInferIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	    unableToInferIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-	    
-	    Extension messageIdExt2 = new Extension();
-	    messageIdExt2.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-	    messageIdExt2.setValue(new StringType("UNABLE_TO_INFER_CODESYSTEM"));
-	    unableToInferIssue.addExtension(messageIdExt2);
-	    
-	    CodeableConcept details2 = new CodeableConcept();
-	    Coding coding2 = details2.addCoding();
-	    coding2.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	    coding2.setCode("cannot-infer");
-	    details2.setText(String.format("$external:2:%s$", possibleSystem != null ? possibleSystem : ""));
-	    unableToInferIssue.setDetails(details2);
-	    
-	    unableToInferIssue.addLocation("code");
-	    unableToInferIssue.addExpression("code");
+		outcome.addIssue(OperationOutcomeTemplates.NOT_IN_VALUESET.create(
+		    OperationOutcomeTemplates.external(1, valueSetUrl + "|" + valueSetVersion), "code"));
+	    outcome.addIssue(OperationOutcomeTemplates.UNABLE_TO_INFER_CODESYSTEM.create(
+	        OperationOutcomeTemplates.external(2, possibleSystem != null ? possibleSystem : ""), "code"));
 			
 		// 3. issues 參數
 		result.addParameter().setName("issues").setResource(outcome);
 			
 		// 4. message 參數
-		String message = String.format("$external:3:%s$", possibleSystem != null ? possibleSystem : "");
+		String message = OperationOutcomeTemplates.external(3, possibleSystem != null ? possibleSystem : "");
 	    result.addParameter("message", new StringType(message));
 			
 		// 5. result 參數
@@ -8738,33 +8703,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		outcome.setMeta(null);
 		outcome.setText(null);
 
-		var notInVsIssue = outcome.addIssue();
-		notInVsIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-		notInVsIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-		Extension messageIdExt1 = new Extension();
-		messageIdExt1.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-		messageIdExt1.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-		notInVsIssue.addExtension(messageIdExt1);
-		CodeableConcept details1 = new CodeableConcept();
-		details1.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("not-in-vs");
-		details1.setText(notInVsText);
-		notInVsIssue.setDetails(details1);
-		notInVsIssue.addLocation("code");
-		notInVsIssue.addExpression("code");
-
-		var unableToInferIssue = outcome.addIssue();
-		unableToInferIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-		unableToInferIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-		Extension messageIdExt2 = new Extension();
-		messageIdExt2.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-		messageIdExt2.setValue(new StringType("Unable_to_resolve_system__value_set_has_multiple_matches"));
-		unableToInferIssue.addExtension(messageIdExt2);
-		CodeableConcept details2 = new CodeableConcept();
-		details2.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("cannot-infer");
-		details2.setText(cannotInferText);
-		unableToInferIssue.setDetails(details2);
-		unableToInferIssue.addLocation("code");
-		unableToInferIssue.addExpression("code");
+		outcome.addIssue(OperationOutcomeTemplates.NOT_IN_VALUESET.create(notInVsText, "code"));
+		outcome.addIssue(OperationOutcomeTemplates.UNABLE_TO_INFER_MULTIPLE_MATCHES.create(cannotInferText, "code"));
 
 		result.addParameter().setName("issues").setResource(outcome);
 		result.addParameter("message", new StringType(combinedMessage));
@@ -8773,32 +8713,10 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	}
 
 	private String findPossibleSystemFromValueSet(ValueSet valueSet) {
-		
-		if (valueSet == null) {
-			return null;
-		}
-		
-		// 從 compose.include 中找第一個 system
-		if (valueSet.hasCompose()) {
-			for (ConceptSetComponent include : valueSet.getCompose().getInclude()) {
-				if (include.hasSystem()) {
-					return include.getSystem();
-				}
-			}
-		}
-		
-		// 從 expansion 中找第一個 system
-		if (valueSet.hasExpansion()) {
-			for (ValueSetExpansionContainsComponent contains : valueSet.getExpansion().getContains()) {
-				if (contains.hasSystem()) {
-					return contains.getSystem();
-				}
-			}
-		}
-		
-		return null;
-	}    
-	
+		// compose.include 的第一個 system，否則取 expansion 的第一個 system
+		return valueSet != null ? SystemInferenceIndex.of(valueSet).getFirstSystem() : null;
+	}
+
 	private Parameters buildReferencedValueSetNotFoundError(
 	        ValidationParams params,
 	        ValueSet targetValueSet,
@@ -8884,48 +8802,18 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	        && "http://hl7.org/fhir/test/ValueSet/simple-filter-isaX".equals(missingValueSetUrl);
 	    
 	    // Issue 1: Unable_to_resolve_value_Set_
-	    var unableToResolveIssue = outcome.addIssue();
-	    unableToResolveIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	    unableToResolveIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-	    
-	    Extension messageIdExt1 = new Extension();
-	    messageIdExt1.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-	    messageIdExt1.setValue(new StringType("Unable_to_resolve_value_Set_"));
-	    unableToResolveIssue.addExtension(messageIdExt1);
-	    
-	    CodeableConcept details1 = new CodeableConcept();
-	    Coding coding1 = details1.addCoding();
-	    coding1.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	    coding1.setCode("not-found");
-	    details1.setText(String.format(
+	    outcome.addIssue(OperationOutcomeTemplates.VALUESET_NOT_FOUND.create(String.format(
 	        "A definition for the value Set '%s' could not be found",
-	        missingValueSetUrl));
-	    unableToResolveIssue.setDetails(details1);
+	        missingValueSetUrl)));
 	    
 	    // 範例四、五：預設僅回傳單一 issue（Unable_to_resolve_value_Set_）
 	    // 但 tests/simple-code-bad-import 需要額外回傳 vs-invalid 的 warning
 	    if (isSimpleBadImport) {
-	        var unableToCheckIssue = outcome.addIssue();
-	        unableToCheckIssue.setSeverity(OperationOutcome.IssueSeverity.WARNING);
-	        unableToCheckIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-	        
-	        Extension messageIdExt2 = new Extension();
-	        messageIdExt2.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-	        messageIdExt2.setValue(new StringType(
-	            "UNABLE_TO_CHECK_IF_THE_PROVIDED_CODES_ARE_IN_THE_VALUE_SET_VS"));
-	        unableToCheckIssue.addExtension(messageIdExt2);
-	        
-	        CodeableConcept details2 = new CodeableConcept();
-	        Coding coding2 = details2.addCoding();
-	        coding2.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	        coding2.setCode("vs-invalid");
-	        
-	        details2.setText(String.format(
+	        outcome.addIssue(OperationOutcomeTemplates.VALUESET_WARNING_VS.create(String.format(
 	            "Unable to check whether the code is in the value set '%s|%s' because the value set %s was not found",
 	            valueSetUrl,
 	            valueSetVersion,
-	            missingValueSetUrl));
-	        unableToCheckIssue.setDetails(details2);
+	            missingValueSetUrl)));
 	    }
 	    
 	    // 4. issues 參數
@@ -9099,34 +8987,26 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		    }
 		    
 		    if (isMultiLanguage) {
-		        detailsText = String.format("$external:1:%s$", incorrectDisplay);
+		        detailsText = OperationOutcomeTemplates.external(1, incorrectDisplay);
 		        if (isCodeParam) {
-		            messageText = String.format("$external:1:%s$", incorrectDisplay);
+		            messageText = OperationOutcomeTemplates.external(1, incorrectDisplay);
 		        } else {
-		            messageText = String.format("$external:2:%s$", incorrectDisplay);
+		            messageText = OperationOutcomeTemplates.external(2, incorrectDisplay);
 		        }
 		    } else if (displayLanguage == null || displayLanguage.isEmpty()) {
 		        // 範例9、10、11、12：未提供 displayLanguage 時，details 與 message 使用 $external 佔位符格式
-		        detailsText = String.format("$external:1:%s$", incorrectDisplay);
-		        messageText = String.format("$external:2:%s$", incorrectDisplay);
+		        detailsText = OperationOutcomeTemplates.external(1, incorrectDisplay);
+		        messageText = OperationOutcomeTemplates.external(2, incorrectDisplay);
 		    } else {
 		        // 範例13、14：有 displayLanguage（如 en）且 display 錯誤時，details 與 message 仍使用 $external 佔位符格式
-		        detailsText = String.format("$external:1:%s$", incorrectDisplay);
-		        messageText = String.format("$external:2:%s$", incorrectDisplay);
+		        detailsText = OperationOutcomeTemplates.external(1, incorrectDisplay);
+		        messageText = OperationOutcomeTemplates.external(2, incorrectDisplay);
 		    }
 	    }
 	    
 	    // 檢測是否為空白字元差異
-	    boolean isWhitespaceDifference = false;
-	    if (incorrectDisplay != null && correctDisplay != null) {
-	        // 移除所有連續空白字元後比較
-	        String normalizedIncorrect = incorrectDisplay.replaceAll("\\s+", " ").trim();
-	        String normalizedCorrect = correctDisplay.replaceAll("\\s+", " ").trim();
-	        
-	        // 如果標準化後相同，表示只是空白字元差異
-	        isWhitespaceDifference = normalizedIncorrect.equalsIgnoreCase(normalizedCorrect) &&
-	                                !incorrectDisplay.equals(correctDisplay);
-	    }
+	    // 合併連續空白字元後相同，表示只是空白字元差異
+	    boolean isWhitespaceDifference = DisplayKeys.isWhitespaceOnlyDifference(incorrectDisplay, correctDisplay);
 	    
 	    // 判斷參數來源以決定 location 和 expression
 	    String displayLocation;
@@ -9256,52 +9136,19 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    for (ValidationContext errorContext : invalidCodeErrors) {
 	        int codingIndex = extractCodingIndex(errorContext.parameterSource());
 	        
-	        var unknownCodeIssue = outcome.addIssue();
-	        unknownCodeIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	        unknownCodeIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	        
-	        Extension messageIdExt = new Extension();
-	        messageIdExt.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        messageIdExt.setValue(new StringType(OperationOutcomeMessageId.UNKNOWN_CODE_IN_VERSION));
-	        unknownCodeIssue.addExtension(messageIdExt);
-	        
 	        String codeValue = errorContext.code() != null ? errorContext.code().getValue() : "";
-	        
-	        CodeableConcept details = new CodeableConcept();
-	        Coding coding = details.addCoding();
-	        coding.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	        coding.setCode("invalid-code");
-	        details.setText(String.format("$external:2:%s$", codeValue));
-	        unknownCodeIssue.setDetails(details);
-	        
-	        unknownCodeIssue.addLocation(String.format("CodeableConcept.coding[%d].code", codingIndex));
-	        unknownCodeIssue.addExpression(String.format("CodeableConcept.coding[%d].code", codingIndex));
+	        outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.INVALID_CODE).create(
+	            OperationOutcomeTemplates.external(2, codeValue), "CodeableConcept.coding[" + codingIndex + "].code"));
 	    }
 	    
 	    for (ValidationContext errorContext : invalidDisplayErrors) {
 	        int codingIndex = extractCodingIndex(errorContext.parameterSource());
 	        
-	        var displayIssue = outcome.addIssue();
-	        displayIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	        displayIssue.setCode(OperationOutcome.IssueType.INVALID);
-	        
-	        Extension messageIdExt = new Extension();
-	        messageIdExt.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        messageIdExt.setValue(new StringType(OperationOutcomeMessageId.DISPLAY_NAME_SHOULD_BE_ONE_OF));
-	        displayIssue.addExtension(messageIdExt);
-	        
 	        String incorrectDisplay = errorContext.display() != null ? 
 	                errorContext.display().getValue() : "";
-	        
-	        CodeableConcept details = new CodeableConcept();
-	        Coding coding = details.addCoding();
-	        coding.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	        coding.setCode("invalid-display");
-	        details.setText(String.format("$external:3:%s$", incorrectDisplay));
-	        displayIssue.setDetails(details);
-	        
-	        displayIssue.addLocation(String.format("CodeableConcept.coding[%d].display", codingIndex));
-	        displayIssue.addExpression(String.format("CodeableConcept.coding[%d].display", codingIndex));
+	        outcome.addIssue(OperationOutcomeTemplates.DISPLAY_SHOULD_BE_ONE_OF.create(
+	            OperationOutcomeTemplates.external(3, incorrectDisplay),
+	            "CodeableConcept.coding[" + codingIndex + "].display"));
 	    }
 	    
 	    // 範例一（complex-codeableconcept-full）：為每個 CODE_NOT_IN_VALUESET 或 INVALID_CODE 建立 this-code-not-in-vs（依 coding 順序）
@@ -9313,21 +9160,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    for (ValidationContext errorContext : notInVsOrInvalidCodeForInfo) {
 	        int codingIndex = extractCodingIndex(errorContext.parameterSource());
 	        String codeValue = errorContext.code() != null ? errorContext.code().getValue() : "";
-	        var notInVsIssue = outcome.addIssue();
-	        notInVsIssue.setSeverity(OperationOutcome.IssueSeverity.INFORMATION);
-	        notInVsIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	        Extension messageIdExt = new Extension();
-	        messageIdExt.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        messageIdExt.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-	        notInVsIssue.addExtension(messageIdExt);
-	        CodeableConcept details = new CodeableConcept();
-	        Coding coding = details.addCoding();
-	        coding.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	        coding.setCode("this-code-not-in-vs");
-	        details.setText(String.format("$external:1:%s$", codeValue));
-	        notInVsIssue.setDetails(details);
-	        notInVsIssue.addLocation(String.format("CodeableConcept.coding[%d].code", codingIndex));
-	        notInVsIssue.addExpression(String.format("CodeableConcept.coding[%d].code", codingIndex));
+	        outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET).create(
+	            OperationOutcomeTemplates.external(1, codeValue), "CodeableConcept.coding[" + codingIndex + "].code"));
 	    }
 	    
 	    // 若沒有任何 CODE_NOT_IN_VALUESET 或 INVALID_CODE 的 context，仍保留單一 notInVsIssue（與既有行為一致）
@@ -9341,32 +9175,16 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	        if (lastInvalidCodeError != null) {
 	            String invalidCode = lastInvalidCodeError.code() != null ? 
 	                lastInvalidCodeError.code().getValue() : "";
-	            detailsText = String.format("$external:1:%s$", invalidCode);
+	            detailsText = OperationOutcomeTemplates.external(1, invalidCode);
 	            targetCodingIndex = extractCodingIndex(lastInvalidCodeError.parameterSource());
 	        } else {
-	            detailsText = String.format("$external:1:%s$", valueSetUrl);
+	            detailsText = OperationOutcomeTemplates.external(1, valueSetUrl);
 	            targetCodingIndex = allErrors.isEmpty() ? 0 : 
 	                extractCodingIndex(allErrors.get(allErrors.size() - 1).parameterSource());
 	        }
 	        
-	        var notInVsIssue = outcome.addIssue();
-	        notInVsIssue.setSeverity(OperationOutcome.IssueSeverity.INFORMATION);
-	        notInVsIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	        
-	        Extension messageIdExt = new Extension();
-	        messageIdExt.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        messageIdExt.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-	        notInVsIssue.addExtension(messageIdExt);
-	        
-	        CodeableConcept details = new CodeableConcept();
-	        Coding coding = details.addCoding();
-	        coding.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	        coding.setCode("this-code-not-in-vs");
-	        details.setText(detailsText);
-	        notInVsIssue.setDetails(details);
-	        
-	        notInVsIssue.addLocation(String.format("CodeableConcept.coding[%d].code", targetCodingIndex));
-	        notInVsIssue.addExpression(String.format("CodeableConcept.coding[%d].code", targetCodingIndex));
+	        outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET)
+	            .create(detailsText, "CodeableConcept.coding[" + targetCodingIndex + "].code"));
 	    }
 	    
 	    // 5. issues 參數
@@ -9427,35 +9245,15 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	        String valueSetUrl = targetValueSet != null && targetValueSet.hasUrl() ? targetValueSet.getUrl() : "";
 	        String valueSetVersion = targetValueSet != null && targetValueSet.hasVersion() ? targetValueSet.getVersion() : "5.0.0";
 
-	        var generalCcIssue = outcome.addIssue();
-	        generalCcIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	        generalCcIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	        Extension messageIdExt = new Extension();
-	        messageIdExt.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        messageIdExt.setValue(new StringType("TX_GENERAL_CC_ERROR_MESSAGE"));
-	        generalCcIssue.addExtension(messageIdExt);
-	        CodeableConcept details1 = new CodeableConcept();
-	        details1.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("not-in-vs");
-	        details1.setText(String.format("$external:2:%s|%s$", valueSetUrl, valueSetVersion));
-	        generalCcIssue.setDetails(details1);
+	        outcome.addIssue(OperationOutcomeTemplates.TX_GENERAL_CC_ERROR
+	            .create(OperationOutcomeTemplates.external(2, valueSetUrl + "|" + valueSetVersion)));
 
 	        if (codeableConcept != null) {
 	            for (int i = 0; i < codeableConcept.getCoding().size(); i++) {
 	                Coding c = codeableConcept.getCoding().get(i);
-	                var notInVsIssue = outcome.addIssue();
-	                notInVsIssue.setSeverity(OperationOutcome.IssueSeverity.INFORMATION);
-	                notInVsIssue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	                Extension messageIdExt2 = new Extension();
-	                messageIdExt2.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	                messageIdExt2.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-	                notInVsIssue.addExtension(messageIdExt2);
-	                CodeableConcept details2 = new CodeableConcept();
-	                details2.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("this-code-not-in-vs");
 	                String codeText = c.hasCode() ? c.getCode() : "";
-	                details2.setText(String.format("$external:%d:%s$", i == 0 ? 3 : 1, codeText));
-	                notInVsIssue.setDetails(details2);
-	                notInVsIssue.addLocation(String.format("CodeableConcept.coding[%d].code", i));
-	                notInVsIssue.addExpression(String.format("CodeableConcept.coding[%d].code", i));
+	                outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET).create(
+	                    OperationOutcomeTemplates.external(i == 0 ? 3 : 1, codeText), "CodeableConcept.coding[" + i + "].code"));
 	            }
 	        }
 	        result.addParameter().setName("issues").setResource(outcome);
@@ -9487,49 +9285,16 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	        String coding1Code = codings.get(1).hasCode() ? codings.get(1).getCode() : "";
 
 	        // Issue 1: invalid-code (Unknown_Code_in_Version) — coding[1].code
-	        var issue1 = outcome.addIssue();
-	        issue1.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	        issue1.setCode(OperationOutcome.IssueType.CODEINVALID);
-	        Extension ext1 = new Extension();
-	        ext1.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        ext1.setValue(new StringType(OperationOutcomeMessageId.UNKNOWN_CODE_IN_VERSION));
-	        issue1.addExtension(ext1);
-	        CodeableConcept d1 = new CodeableConcept();
-	        d1.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("invalid-code");
-	        d1.setText(String.format("$external:2:%s$", coding1Code));
-	        issue1.setDetails(d1);
-	        issue1.addLocation("CodeableConcept.coding[1].code");
-	        issue1.addExpression("CodeableConcept.coding[1].code");
+	        outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.INVALID_CODE).create(
+	            OperationOutcomeTemplates.external(2, coding1Code), "CodeableConcept.coding[1].code"));
 
 	        // Issue 2: invalid-display (Display_Name_for__should_be_one_of__instead_of) — coding[0].display
-	        var issue2 = outcome.addIssue();
-	        issue2.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	        issue2.setCode(OperationOutcome.IssueType.INVALID);
-	        Extension ext2 = new Extension();
-	        ext2.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        ext2.setValue(new StringType(OperationOutcomeMessageId.DISPLAY_NAME_SHOULD_BE_ONE_OF));
-	        issue2.addExtension(ext2);
-	        CodeableConcept d2 = new CodeableConcept();
-	        d2.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("invalid-display");
-	        d2.setText(String.format("$external:3:%s$", coding0Display));
-	        issue2.setDetails(d2);
-	        issue2.addLocation("CodeableConcept.coding[0].display");
-	        issue2.addExpression("CodeableConcept.coding[0].display");
+	        outcome.addIssue(OperationOutcomeTemplates.DISPLAY_SHOULD_BE_ONE_OF.create(
+	            OperationOutcomeTemplates.external(3, coding0Display), "CodeableConcept.coding[0].display"));
 
 	        // Issue 3: this-code-not-in-vs (None_of_the_provided_codes_are_in_the_value_set_one) — coding[1].code
-	        var issue3 = outcome.addIssue();
-	        issue3.setSeverity(OperationOutcome.IssueSeverity.INFORMATION);
-	        issue3.setCode(OperationOutcome.IssueType.CODEINVALID);
-	        Extension ext3 = new Extension();
-	        ext3.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        ext3.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-	        issue3.addExtension(ext3);
-	        CodeableConcept d3 = new CodeableConcept();
-	        d3.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("this-code-not-in-vs");
-	        d3.setText(String.format("$external:1:%s$", coding1Code));
-	        issue3.setDetails(d3);
-	        issue3.addLocation("CodeableConcept.coding[1].code");
-	        issue3.addExpression("CodeableConcept.coding[1].code");
+	        outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET).create(
+	            OperationOutcomeTemplates.external(1, coding1Code), "CodeableConcept.coding[1].code"));
 	    } else {
 	        // 依 coding 順序加入 version-not-found 的 issues（每個 coding 兩則：vs-invalid + UNKNOWN_CODESYSTEM_VERSION）
 	        versionNotFoundErrors.sort((a, b) -> Integer.compare(
@@ -9554,10 +9319,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	            }
 	            if (vsVersion == null) {
 	                try {
-	                    List<CodeSystem> allVersions = findAllCodeSystemVersions(systemUrl);
-	                    if (!allVersions.isEmpty() && allVersions.get(0).hasVersion()) {
-	                        vsVersion = allVersions.get(0).getVersion();
-	                    }
+	                    vsVersion = getCodeVersionIndex(systemUrl).getLatestVersion();
 	                } catch (Exception ex) { /* ignore */ }
 	            }
 	            if (vsVersion == null) vsVersion = "";
@@ -9568,37 +9330,13 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	            String versionLocation = String.format("CodeableConcept.coding[%d].version", codingIndex);
 	            String systemLocation = String.format("CodeableConcept.coding[%d].system", codingIndex);
 
-	            var versionMismatchIssue = outcome.addIssue();
-	            versionMismatchIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	            versionMismatchIssue.setCode(OperationOutcome.IssueType.INVALID);
-	            Extension ext1 = new Extension();
-	            ext1.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-	            ext1.setValue(new StringType("VALUESET_VALUE_MISMATCH_DEFAULT"));
-	            versionMismatchIssue.addExtension(ext1);
-	            CodeableConcept d1 = new CodeableConcept();
-	            d1.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("vs-invalid");
-	            d1.setText(String.format(
+	            outcome.addIssue(OperationOutcomeTemplates.VALUESET_VALUE_MISMATCH_DEFAULT.create(String.format(
 	                "The code system '%s' version '%s' for the versionless include in the ValueSet include is different to the one in the value ('%s')",
-	                systemUrl, vsVersion, requestedVersion));
-	            versionMismatchIssue.setDetails(d1);
-	            versionMismatchIssue.addLocation(versionLocation);
-	            versionMismatchIssue.addExpression(versionLocation);
-
-	            var unknownVersionIssue = outcome.addIssue();
-	            unknownVersionIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	            unknownVersionIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-	            Extension ext2 = new Extension();
-	            ext2.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-	            ext2.setValue(new StringType("UNKNOWN_CODESYSTEM_VERSION"));
-	            unknownVersionIssue.addExtension(ext2);
-	            CodeableConcept d2 = new CodeableConcept();
-	            d2.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("not-found");
-	            d2.setText(String.format(
-	                "A definition for CodeSystem '%s' version '%s' could not be found, so the code cannot be validated. Valid versions: %s",
-	                systemUrl, requestedVersion, validVersionsText));
-	            unknownVersionIssue.setDetails(d2);
-	            unknownVersionIssue.addLocation(systemLocation);
-	            unknownVersionIssue.addExpression(systemLocation);
+	                systemUrl, vsVersion, requestedVersion), versionLocation));
+	            outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.SYSTEM_VERSION_NOT_FOUND)
+	                .create(String.format(
+	                    "A definition for CodeSystem '%s' version '%s' could not be found, so the code cannot be validated. Valid versions: %s",
+	                    systemUrl, requestedVersion, validVersionsText), systemLocation));
 	        }
 	    }
 
@@ -9617,37 +9355,15 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    }
 	    for (ValidationContext errorContext : invalidCodeErrors) {
 	        int codingIndex = extractCodingIndex(errorContext.parameterSource());
-	        var issue = outcome.addIssue();
-	        issue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	        issue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	        Extension ext = new Extension();
-	        ext.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        ext.setValue(new StringType(OperationOutcomeMessageId.UNKNOWN_CODE_IN_VERSION));
-	        issue.addExtension(ext);
 	        String codeValue = errorContext.code() != null ? errorContext.code().getValue() : "";
-	        CodeableConcept details = new CodeableConcept();
-	        details.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("invalid-code");
-	        details.setText(String.format("$external:2:%s$", codeValue));
-	        issue.setDetails(details);
-	        issue.addLocation(String.format("CodeableConcept.coding[%d].code", codingIndex));
-	        issue.addExpression(String.format("CodeableConcept.coding[%d].code", codingIndex));
+	        outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.INVALID_CODE).create(
+	            OperationOutcomeTemplates.external(2, codeValue), "CodeableConcept.coding[" + codingIndex + "].code"));
 	    }
 	    for (ValidationContext errorContext : invalidDisplayErrors) {
 	        int codingIndex = extractCodingIndex(errorContext.parameterSource());
-	        var issue = outcome.addIssue();
-	        issue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	        issue.setCode(OperationOutcome.IssueType.INVALID);
-	        Extension ext = new Extension();
-	        ext.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        ext.setValue(new StringType(OperationOutcomeMessageId.DISPLAY_NAME_SHOULD_BE_ONE_OF));
-	        issue.addExtension(ext);
 	        String incorrectDisplay = errorContext.display() != null ? errorContext.display().getValue() : "";
-	        CodeableConcept details = new CodeableConcept();
-	        details.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("invalid-display");
-	        details.setText(String.format("$external:3:%s$", incorrectDisplay));
-	        issue.setDetails(details);
-	        issue.addLocation(String.format("CodeableConcept.coding[%d].display", codingIndex));
-	        issue.addExpression(String.format("CodeableConcept.coding[%d].display", codingIndex));
+	        outcome.addIssue(OperationOutcomeTemplates.DISPLAY_SHOULD_BE_ONE_OF.create(
+	            OperationOutcomeTemplates.external(3, incorrectDisplay), "CodeableConcept.coding[" + codingIndex + "].display"));
 	    }
 	    // 範例一：為每個 CODE_NOT_IN_VALUESET 或 INVALID_CODE 建立 this-code-not-in-vs（依 coding 順序）
 	    List<ValidationContext> notInVsOrInvalidCodeMulti = new ArrayList<>(codeNotInVsErrors);
@@ -9658,19 +9374,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    for (ValidationContext errorContext : notInVsOrInvalidCodeMulti) {
 	        int codingIndex = extractCodingIndex(errorContext.parameterSource());
 	        String codeValue = errorContext.code() != null ? errorContext.code().getValue() : "";
-	        var issue = outcome.addIssue();
-	        issue.setSeverity(OperationOutcome.IssueSeverity.INFORMATION);
-	        issue.setCode(OperationOutcome.IssueType.CODEINVALID);
-	        Extension ext = new Extension();
-	        ext.setUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL);
-	        ext.setValue(new StringType(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE));
-	        issue.addExtension(ext);
-	        CodeableConcept details = new CodeableConcept();
-	        details.addCoding().setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type").setCode("this-code-not-in-vs");
-	        details.setText(String.format("$external:1:%s$", codeValue));
-	        issue.setDetails(details);
-	        issue.addLocation(String.format("CodeableConcept.coding[%d].code", codingIndex));
-	        issue.addExpression(String.format("CodeableConcept.coding[%d].code", codingIndex));
+	        outcome.addIssue(OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET).create(
+	            OperationOutcomeTemplates.external(1, codeValue), "CodeableConcept.coding[" + codingIndex + "].code"));
 	    }
 	    }
 
@@ -9814,10 +9519,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    String vsVersion = valueSetUsedVersion;
 	    if (vsVersion == null) {
 	        try {
-	            List<CodeSystem> allVersions = findAllCodeSystemVersions(systemUrl);
-	            if (!allVersions.isEmpty() && allVersions.get(0).hasVersion()) {
-	                vsVersion = allVersions.get(0).getVersion();
-	            }
+	            vsVersion = getCodeVersionIndex(systemUrl).getLatestVersion();
 	        } catch (Exception ex) {
 	            // ignore
 	        }
@@ -9898,7 +9600,6 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    }
 	    
 	    boolean valueSetIncludeHasVersion = valueSetUsedVersion != null && !valueSetUsedVersion.isEmpty();
-	    String mismatchMessageId = valueSetIncludeHasVersion ? "VALUESET_VALUE_MISMATCH" : "VALUESET_VALUE_MISMATCH_DEFAULT";
 	    String mismatchDetailsText = valueSetIncludeHasVersion
 	        ? String.format(
 	            "The code system '%s' version '%s' in the ValueSet include is different to the one in the value ('%s')",
@@ -9909,47 +9610,22 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	            systemUrl, vsVersion, requestedVersionStr);
 	    
 	    // Issue 1: VALUESET_VALUE_MISMATCH / VALUESET_VALUE_MISMATCH_DEFAULT
-	    var versionMismatchIssue = outcome.addIssue();
-	    versionMismatchIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	    versionMismatchIssue.setCode(OperationOutcome.IssueType.INVALID);
-	    
-	    Extension messageIdExt1 = new Extension();
-	    messageIdExt1.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-	    messageIdExt1.setValue(new StringType(mismatchMessageId));
-	    versionMismatchIssue.addExtension(messageIdExt1);
-	    
-	    CodeableConcept details1 = new CodeableConcept();
-	    Coding coding1 = details1.addCoding();
-	    coding1.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	    coding1.setCode("vs-invalid");
-	    details1.setText(mismatchDetailsText);
-	    versionMismatchIssue.setDetails(details1);
-	    
+	    var versionMismatchIssue = (valueSetIncludeHasVersion
+	        ? OperationOutcomeTemplates.VALUESET_VALUE_MISMATCH
+	        : OperationOutcomeTemplates.VALUESET_VALUE_MISMATCH_DEFAULT).create(mismatchDetailsText);
 	    versionMismatchIssue.addLocation(versionLocation);
 	    versionMismatchIssue.addExpression(versionExpression);
+	    outcome.addIssue(versionMismatchIssue);
 	    
 	    // Issue 2: UNKNOWN_CODESYSTEM_VERSION
-	    var unknownVersionIssue = outcome.addIssue();
-	    unknownVersionIssue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
-	    unknownVersionIssue.setCode(OperationOutcome.IssueType.NOTFOUND);
-	    
-	    Extension messageIdExt2 = new Extension();
-	    messageIdExt2.setUrl("http://hl7.org/fhir/StructureDefinition/operationoutcome-message-id");
-	    messageIdExt2.setValue(new StringType("UNKNOWN_CODESYSTEM_VERSION"));
-	    unknownVersionIssue.addExtension(messageIdExt2);
-	    
-	    CodeableConcept details2 = new CodeableConcept();
-	    Coding coding2 = details2.addCoding();
-	    coding2.setSystem("http://hl7.org/fhir/tools/CodeSystem/tx-issue-type");
-	    coding2.setCode("not-found");
-	    details2.setText(String.format(
-	        "A definition for CodeSystem '%s' version '%s' could not be found, " +
-	        "so the code cannot be validated. Valid versions: %s",
-	        systemUrl, requestedVersionStr, validVersionsText));
-	    unknownVersionIssue.setDetails(details2);
-	    
+	    var unknownVersionIssue = OperationOutcomeTemplates.forErrorType(ValidationErrorType.SYSTEM_VERSION_NOT_FOUND)
+	        .create(String.format(
+	            "A definition for CodeSystem '%s' version '%s' could not be found, " +
+	            "so the code cannot be validated. Valid versions: %s",
+	            systemUrl, requestedVersionStr, validVersionsText));
 	    unknownVersionIssue.addLocation(systemLocation);
 	    unknownVersionIssue.addExpression(systemExpression);
+	    outcome.addIssue(unknownVersionIssue);
 	    
 	    // 5. issues 參數
 	    result.addParameter().setName("issues").setResource(outcome);
@@ -10017,10 +9693,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    String vsVersion = valueSetUsedVersion;
 	    if (vsVersion == null) {
 	        try {
-	            List<CodeSystem> allVersions = findAllCodeSystemVersions(systemUrl);
-	            if (!allVersions.isEmpty() && allVersions.get(0).hasVersion()) {
-	                vsVersion = allVersions.get(0).getVersion();
-	            }
+	            vsVersion = getCodeVersionIndex(systemUrl).getLatestVersion();
 	        } catch (Exception ex) {
 	            // ignore
 	        }
@@ -10532,8 +10205,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    return outcome;
 	}
 
-	/** 範例：建立 big-circle-1 測試專用 OperationOutcome（ValueSet 循環引用），回傳 severity=error、code=processing、details.text=$external:1:…$、diagnostics=$external:2$（optional）。 */
-	private OperationOutcome buildBigCircleTestOperationOutcome() {
+	/** 範例：建立 ValueSet 循環引用（如 big-circle-1）的 OperationOutcome，回傳 severity=error、code=processing、details.text=$external:1:…$、diagnostics=$external:2$（optional）。 */
+	private OperationOutcome buildCircularReferenceOperationOutcome(String valueSetUrl) {
 	    OperationOutcome outcome = new OperationOutcome();
 	    outcome.setMeta(null);
 	    outcome.setText(null);
@@ -10541,7 +10214,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    issue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
 	    issue.setCode(OperationOutcome.IssueType.PROCESSING);
 	    CodeableConcept details = new CodeableConcept();
-	    details.setText("$external:1:" + BIG_CIRCLE_TEST_VALUESET_URL + "$");
+	    details.setText(OperationOutcomeTemplates.external(1, valueSetUrl));
 	    issue.setDetails(details);
 	    issue.setDiagnostics("$external:2$");
 	    return outcome;
@@ -10584,15 +10257,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    OperationOutcome outcome = new OperationOutcome();
 	    outcome.setMeta(null);
 	    outcome.setText(null);
-	    var notInVsIssue = new OperationOutcomeIssueBuilder()
-	        .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-	        .setCode(OperationOutcome.IssueType.CODEINVALID)
-	        .setMessageId(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE)
-	        .setDetails("not-in-vs", messageText)
-	        .addLocation("Coding.code")
-	        .addExpression("Coding.code")
-	        .build();
-	    outcome.addIssue(notInVsIssue);
+	    outcome.addIssue(OperationOutcomeTemplates.NOT_IN_VALUESET.create(messageText, "Coding.code"));
 	    result.addParameter().setName("issues").setResource(outcome);
 	    result.addParameter("message", new StringType(messageText));
 	    result.addParameter("result", new BooleanType(false));
@@ -10623,15 +10288,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    OperationOutcome outcome = new OperationOutcome();
 	    outcome.setMeta(null);
 	    outcome.setText(null);
-	    var notInVsIssue = new OperationOutcomeIssueBuilder()
-	        .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-	        .setCode(OperationOutcome.IssueType.CODEINVALID)
-	        .setMessageId(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE)
-	        .setDetails("not-in-vs", messageText)
-	        .addLocation("Coding.code")
-	        .addExpression("Coding.code")
-	        .build();
-	    outcome.addIssue(notInVsIssue);
+	    outcome.addIssue(OperationOutcomeTemplates.NOT_IN_VALUESET.create(messageText, "Coding.code"));
 	    result.addParameter().setName("issues").setResource(outcome);
 	    result.addParameter("message", new StringType(messageText));
 	    result.addParameter("result", new BooleanType(false));
@@ -10655,20 +10312,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	    OperationOutcome outcome = new OperationOutcome();
 	    outcome.setMeta(null);
 	    outcome.setText(null);
-	    var notFoundIssue = new OperationOutcomeIssueBuilder()
-	        .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-	        .setCode(OperationOutcome.IssueType.NOTFOUND)
-	        .setMessageId(OperationOutcomeMessageId.UNABLE_TO_RESOLVE_VALUE_SET)
-	        .setDetails("not-found", notFoundMsg)
-	        .build();
-	    outcome.addIssue(notFoundIssue);
-	    var unableToCheckIssue = new OperationOutcomeIssueBuilder()
-	        .setSeverity(OperationOutcome.IssueSeverity.WARNING)
-	        .setCode(OperationOutcome.IssueType.NOTFOUND)
-	        .setMessageId(OperationOutcomeMessageId.UNABLE_TO_CHECK_CODES_IN_VS_VS)
-	        .setDetails("vs-invalid", unableToCheckMsg)
-	        .build();
-	    outcome.addIssue(unableToCheckIssue);
+	    outcome.addIssue(OperationOutcomeTemplates.VALUESET_NOT_FOUND.create(notFoundMsg));
+	    outcome.addIssue(OperationOutcomeTemplates.VALUESET_WARNING_VS.create(unableToCheckMsg));
 	    result.addParameter().setName("issues").setResource(outcome);
 	    result.addParameter("message", new StringType(combinedMessage));
 	    result.addParameter("result", new BooleanType(false));
@@ -11054,16 +10699,10 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	        return originalConcept;
 	    }
 	    
-	    // 收集所有 supplement 中對應 code 的 designation
-	    List<ConceptDefinitionDesignationComponent> supplementDesignations = new ArrayList<>();
-	    for (CodeSystem supplement : supplements) {
-	        ConceptDefinitionComponent suppConcept = findConceptRecursive(
-	            supplement.getConcept(), code);
-	        if (suppConcept != null) {
-	            supplementDesignations.addAll(suppConcept.getDesignation());
-	        }
-	    }
-	   	    
+	    // 由 supplement overlay 索引取得對應 code 的 designation（不逐一掃描 supplement）
+	    List<ConceptDefinitionDesignationComponent> supplementDesignations =
+	        SupplementOverlay.of(supplements).getDesignations(code);
+
 	    if (supplementDesignations.isEmpty()) {
 	        return originalConcept;
 	    }
@@ -11449,7 +11088,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 
 	    // 6. message 參數（$external:2:valueSetUrl|version$）
 	    result.addParameter("message", new StringType(
-	            String.format("$external:2:%s|%s$", valueSetUrl, valueSetVersion)));
+	            OperationOutcomeTemplates.external(2, valueSetUrl + "|" + valueSetVersion)));
 
 	    // 7. result 參數
 	    result.addParameter("result", new BooleanType(false));
@@ -11638,10 +11277,9 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		if (versionPattern == null) return null;
 		if (!versionPattern.contains("x")) return versionPattern;
 		try {
-			List<CodeSystem> allVersions = findAllCodeSystemVersions(systemUrl);
-			for (CodeSystem cs : allVersions) {
-				if (cs.hasVersion() && matchesVersionPattern(cs.getVersion(), versionPattern)) {
-					return cs.getVersion();
+			for (String version : findAllCodeSystemVersionIds(systemUrl)) {
+				if (matchesVersionPattern(version, versionPattern)) {
+					return version;
 				}
 			}
 		} catch (Exception e) {
@@ -11822,10 +11460,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 
 		List<String> availableVersions = new ArrayList<>();
 		try {
-			List<CodeSystem> allVersions = findAllCodeSystemVersions(systemUrl);
-			for (CodeSystem cs : allVersions) {
-				if (cs.hasVersion()) availableVersions.add(cs.getVersion());
-			}
+			availableVersions.addAll(findAllCodeSystemVersionIds(systemUrl));
 		} catch (Exception e) { /* ignore */ }
 
 		boolean codingVersionExists = availableVersions.contains(codingVersion);
@@ -11924,7 +11559,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		// tests-version-3: ValueSet include 的版本若根本不存在（如 version-w-bad 的 "1"），應由主流程回傳
 		// SYSTEM_VERSION_NOT_FOUND（VALUESET_VALUE_MISMATCH + UNKNOWN_CODESYSTEM_VERSION），不回傳 version-check 錯誤
 		try {
-			findCodeSystemByUrl(systemUrl, includeVersion);
+			findStoredCodeSystemByUrl(systemUrl, includeVersion);
 		} catch (ResourceNotFoundException e) {
 			return null;
 		}
@@ -12039,7 +11674,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 			String resolvedVersion = resolveVersionPatternToActual(systemUrl, version);
 			CodeSystem codeSystem;
 			if (resolvedVersion != null) {
-				codeSystem = findCodeSystemByUrl(systemUrl, resolvedVersion);
+				CodeSystem view = findConceptView(systemUrl, resolvedVersion, codeValue);
+				codeSystem = view != null ? view : findCodeSystemByUrl(systemUrl, resolvedVersion);
 			} else {
 				List<CodeSystem> allVersions = findAllCodeSystemVersions(systemUrl);
 				if (allVersions.isEmpty()) return null;
@@ -12171,9 +11807,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		String includeVersion = getEffectiveIncludeVersion(valueSet, systemUrl);
 
 		// ASC 排序：get(0) = 最舊版 (1.0.0)，get(last) = 最新版 (1.2.0)
-		List<String> availableVersions = findAllCodeSystemVersions(systemUrl).stream()
-				.filter(org.hl7.fhir.r4.model.CodeSystem::hasVersion)
-				.map(org.hl7.fhir.r4.model.CodeSystem::getVersion)
+		List<String> availableVersions = findAllCodeSystemVersionIds(systemUrl).stream()
 				.sorted()
 				.collect(Collectors.toList());
 
@@ -12316,7 +11950,10 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 	private String findVsnDisplay(String systemUrl, String version, String code) {
 		if (version == null) return null;
 		try {
-			org.hl7.fhir.r4.model.CodeSystem cs = findCodeSystemByUrl(systemUrl, version);
+			org.hl7.fhir.r4.model.CodeSystem cs = findConceptView(systemUrl, version, code);
+			if (cs == null) {
+				cs = findCodeSystemByUrl(systemUrl, version);
+			}
 			ConceptDefinitionComponent concept = findConceptRecursive(cs.getConcept(), code);
 			return (concept != null && concept.hasDisplay()) ? concept.getDisplay() : null;
 		} catch (Exception ignored) {
@@ -12324,6 +11961,18 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
 		}
 	}
 
+	// 概念資料列組出的 CodeSystem（僅含該概念及其上下層）；未儲存該 url|version 時回傳 null
+	private CodeSystem findConceptView(String systemUrl, String version, String code) {
+		if (conceptStore == null || systemUrl == null || version == null || code == null) {
+			return null;
+		}
+		try {
+			return conceptStore.findView(systemUrl, version, code);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
     @Operation(name = "$batch-validate-code", idempotent = false)
     public Parameters batchValidate(
             @OperationParam(name = "url") UriType url,
@@ -12363,33 +12012,310 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
             List<CanonicalType> globalForceSystemVersion,
             List<Parameters> validations) {
 
+        // 相同的項目只驗證一次；各項目指向的 ValueSet 在批次開始時各解析一次
+        BatchItemPlanner plan = BatchItemPlanner.plan(validations, globalUrl, globalVersion);
+
+        // tx-resource 與預先解析的 ValueSet 建成唯讀的請求範圍 context，明確傳給每個項目，可跨執行緒共用
+        TxResourceContext txContext = resolveBatchValueSets(TxResourceContext.of(txResources), plan);
+        Function<Parameters, Resource> item = validationInput -> executeBatchItem(
+                validationInput, txContext,
+                globalUrl, globalVersion, globalLenient, globalActiveOnly, globalInferSystem,
+                globalDisplayLanguage, globalDefaultValuesetVersion,
+                globalSystemVersion, globalCheckSystemVersion, globalForceSystemVersion);
+
+        // 有執行器時平行執行（單一批次的並行數有上限），結果維持輸入順序
+        List<Resource> results;
+        if (batchItemExecutor != null) {
+            results = batchItemExecutor.map(plan.getUniqueItems(), item);
+        } else {
+            results = new ArrayList<>(plan.getUniqueItems().size());
+            for (Parameters validationInput : plan.getUniqueItems()) {
+                results.add(item.apply(validationInput));
+            }
+        }
+
         Parameters output = new Parameters();
+        for (Resource result : plan.spread(results)) {
+            output.addParameter().setName("validation").setResource(result);
+        }
+        return output;
+    }
+
+    /**
+     * 串流式大量驗證：request body 為 application/fhir+ndjson，每行一個 Coding、CodeableConcept
+     * 或 Parameters（格式同 $batch-validate-code 的 validation，可帶該行專用的 tx-resource）；回應亦為
+     * NDJSON，每行一個結果，順序與輸入相同。批次共用參數（url、version、displayLanguage 等）由 query
+     * string 提供（query string 無法攜帶 tx-resource）。同時處理中的行數有上限，且寫出回應受 client
+     * 讀取速度限制，記憶體用量不隨輸入大小增加。回應狀態在第一行前即送出，串流中途失敗時以最後一行
+     * OperationOutcome（code = exception）標示結果不完整。
+     * <p>
+     * 帶 {@code Prefer: respond-async} 時改為背景批次工作（Batch2）：回傳 202 與 Content-Location，
+     * 以 $bulk-validate-code-status 查詢進度與結果。
+     */
+    @Operation(name = "$bulk-validate-code", manualRequest = true, manualResponse = true, idempotent = false)
+    public void bulkValidateCode(HttpServletRequest theServletRequest, HttpServletResponse theServletResponse,
+            RequestDetails theRequestDetails) throws IOException {
+        if (theServletRequest.getParameterMap().containsKey("tx-resource")) {
+            throw new InvalidRequestException(
+                    "'tx-resource' cannot be passed in the query string; add it to the Parameters line of each item");
+        }
+        BulkValidateJobParameters params = BulkValidateJobParameters.fromQuery(theServletRequest.getParameterMap());
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(theServletRequest.getInputStream(), StandardCharsets.UTF_8));
+
+        String prefer = theServletRequest.getHeader("Prefer");
+        if (prefer != null && prefer.contains("respond-async")) {
+            if (bulkValidateJobService == null) {
+                throw new InvalidRequestException("Asynchronous bulk validation is not enabled");
+            }
+            String jobId = bulkValidateJobService.submit(NdjsonValidationItems.lines(reader), params,
+                    theRequestDetails);
+            theServletResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+            theServletResponse.setHeader("Content-Location", theRequestDetails.getFhirServerBase()
+                    + "/ValueSet/$bulk-validate-code-status?_jobId=" + jobId);
+            return;
+        }
+
+        theServletResponse.setStatus(HttpServletResponse.SC_OK);
+        theServletResponse.setContentType(BulkValidateJobService.NDJSON_CONTENT_TYPE);
+        theServletResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(theServletResponse.getOutputStream(), StandardCharsets.UTF_8));
+        IParser parser = FhirContext.forR4Cached().newJsonParser().setPrettyPrint(false);
+        Function<NdjsonValidationItems.Line, Resource> item = line -> validateNdjsonLine(line, params);
+        int[] written = new int[1];
+        boolean[] writeFailed = new boolean[1];
+        Consumer<Resource> sink = result -> {
+            try {
+                writer.write(parser.encodeResourceToString(result));
+                writer.write('\n');
+                if (++written[0] % 100 == 0) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                writeFailed[0] = true;
+                throw new UncheckedIOException(e);
+            }
+        };
+
         try {
-            // 將所有 tx-resource 注冊到 ThreadLocal，供 findValueSetByUrl() 優先使用
-            if (txResources != null) {
-                for (IBaseResource r : txResources) {
-                    if (r instanceof ValueSet vs && vs.hasUrl()) {
-                        txResourceRegistry.get().put(vs.getUrl(), vs);
-                    }
+            Iterator<NdjsonValidationItems.Line> lines = NdjsonValidationItems.lines(reader);
+            if (batchItemExecutor != null) {
+                batchItemExecutor.stream(lines, item, sink);
+            } else {
+                while (lines.hasNext()) {
+                    sink.accept(item.apply(lines.next()));
                 }
             }
-            for (Parameters validationInput : validations) {
-                Resource result = executeBatchItem(
-                        validationInput,
-                        globalUrl, globalVersion, globalLenient, globalActiveOnly, globalInferSystem,
-                        globalDisplayLanguage, globalDefaultValuesetVersion,
-                        globalSystemVersion, globalCheckSystemVersion, globalForceSystemVersion);
-                output.addParameter().setName("validation").setResource(result);
+        } catch (RuntimeException e) {
+            if (writeFailed[0]) {
+                // client 端已中斷，無法再寫出
+                throw e instanceof UncheckedIOException io ? io.getCause() : e;
+            }
+            // 狀態 200 已送出：寫出最後一行 OperationOutcome，讓 client 知道結果在此中斷
+            Throwable cause = e instanceof UncheckedIOException io ? io.getCause() : e;
+            OperationOutcome aborted = buildBatchItemError("Bulk validation aborted after " + written[0]
+                    + " results: " + cause.getMessage());
+            aborted.getIssueFirstRep().setCode(OperationOutcome.IssueType.EXCEPTION);
+            writer.write(parser.encodeResourceToString(aborted));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * 背景批次驗證的狀態查詢：執行中回傳 202（X-Progress），完成回傳 200 與 manifest（各輸出 NDJSON Binary），
+     * 失敗或取消回傳 500 與 OperationOutcome（並移除該工作的 Binary）。
+     * {@code _delete=true}：client 已取回結果（或放棄工作）時呼叫，取消仍在執行的工作並移除其輸入與輸出 Binary，回傳 202。
+     */
+    @Operation(name = "$bulk-validate-code-status", manualResponse = true, idempotent = true)
+    public void bulkValidateCodeStatus(HttpServletRequest theServletRequest, HttpServletResponse theServletResponse,
+            RequestDetails theRequestDetails) throws IOException {
+        if (bulkValidateJobService == null) {
+            throw new InvalidRequestException("Asynchronous bulk validation is not enabled");
+        }
+        String jobId = theServletRequest.getParameter("_jobId");
+        if (StringUtils.isBlank(jobId)) {
+            throw new InvalidRequestException("Missing '_jobId' parameter");
+        }
+
+        // 非本工作定義的 job id 視為不存在
+        JobInstance instance = bulkValidateJobService.getInstance(jobId);
+        if ("true".equals(theServletRequest.getParameter("_delete"))) {
+            bulkValidateJobService.delete(instance);
+            theServletResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+            return;
+        }
+        switch (instance.getStatus()) {
+            case COMPLETED:
+                theServletResponse.setStatus(HttpServletResponse.SC_OK);
+                theServletResponse.setContentType("application/json");
+                theServletResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+                theServletResponse.getWriter().write(bulkValidateJobService.buildManifest(instance,
+                        theRequestDetails.getFhirServerBase(), theRequestDetails.getCompleteUrl()));
+                theServletResponse.getWriter().close();
+                break;
+            case FAILED:
+            case CANCELLED:
+                bulkValidateJobService.cleanUpFailed(instance);
+                theServletResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                theServletResponse.setContentType("application/fhir+json");
+                theServletResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+                theServletResponse.getWriter().write(FhirContext.forR4Cached().newJsonParser().encodeResourceToString(
+                        buildBatchItemError("Bulk validation job " + jobId + " " + instance.getStatus()
+                                + (instance.getErrorMessage() != null ? ": " + instance.getErrorMessage() : ""))));
+                theServletResponse.getWriter().close();
+                break;
+            default:
+                theServletResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+                theServletResponse.setHeader("X-Progress", instance.getStatus() + " ("
+                        + Math.round(instance.getProgress() * 100) + "%)");
+                theServletResponse.setHeader("Retry-After", "10");
+                break;
+        }
+    }
+
+    /**
+     * 驗證 NDJSON 的一行（同步串流與背景批次工作共用）；格式錯誤的行回傳 OperationOutcome。
+     */
+    public Resource validateNdjsonLine(NdjsonValidationItems.Line line, BulkValidateJobParameters theParams) {
+        Parameters validationInput;
+        try {
+            validationInput = NdjsonValidationItems.toItem(line.text());
+        } catch (DataFormatException e) {
+            return buildBatchItemError("Line " + line.number() + ": " + e.getMessage());
+        }
+        TxResourceContext txContext;
+        try {
+            // 該行以 tx-resource 參數帶入的 inline 資源
+            txContext = TxResourceContext.of(NdjsonValidationItems.txResources(validationInput));
+        } catch (RuntimeException e) {
+            return buildBatchItemError("Line " + line.number() + ": " + e.getMessage());
+        }
+        return executeBatchItem(
+                validationInput, txContext,
+                theParams.getUrl() != null ? new UriType(theParams.getUrl()) : null,
+                theParams.getVersion() != null ? new StringType(theParams.getVersion()) : null,
+                theParams.getLenientDisplayValidation() != null
+                        ? new BooleanType(theParams.getLenientDisplayValidation()) : null,
+                theParams.getActiveOnly() != null ? new BooleanType(theParams.getActiveOnly()) : null,
+                theParams.getInferSystem() != null ? new BooleanType(theParams.getInferSystem()) : null,
+                theParams.getDisplayLanguage() != null ? new CodeType(theParams.getDisplayLanguage()) : null,
+                theParams.getDefaultValuesetVersion() != null
+                        ? new CanonicalType(theParams.getDefaultValuesetVersion()) : null,
+                toCanonicals(theParams.getSystemVersion()),
+                toCanonicals(theParams.getCheckSystemVersion()),
+                toCanonicals(theParams.getForceSystemVersion()));
+    }
+
+    private static List<CanonicalType> toCanonicals(List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        List<CanonicalType> result = new ArrayList<>(values.size());
+        for (String value : values) {
+            result.add(new CanonicalType(value));
+        }
+        return result;
+    }
+
+    /**
+     * codeableConcept 多個 coding 的成員檢查：優先使用批次已編譯的成員集合，否則以 membership-only 收集一次；
+     * 成員過多或無法編譯時回傳 null（每個 coding 照常完整驗證）。
+     */
+    private Set<String> findCodingMembership(ValueSet valueSet, TxResourceContext txContext) {
+        if (valueSet == null || !valueSet.hasUrl() || !valueSet.hasCompose()) {
+            return null;
+        }
+        Set<String> membership = txContext != null
+                ? txContext.findMembership(valueSet.getUrl(), valueSet.hasVersion() ? valueSet.getVersion() : null)
+                : null;
+        if (membership != null) {
+            return membership;
+        }
+        try {
+            return expansionService.compileMembership(valueSet, BATCH_MEMBERSHIP_MAX_SIZE);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 批次中各項目指向的 ValueSet（url + version）只查詢一次，並一併解析其 include 的 CodeSystem、
+     * 編譯成員集合（system|code）。找不到的 ValueSet 留給項目本身回報 not found；其他錯誤記錄於 context，
+     * 指向該 ValueSet 的每個項目各自回報，不影響其他項目。
+     */
+    private TxResourceContext resolveBatchValueSets(TxResourceContext txContext, BatchItemPlanner plan) {
+        Map<String, ValueSet> resolved = new HashMap<>();
+        Map<String, CodeSystem> codeSystems = new HashMap<>();
+        Map<String, Set<String>> memberships = new HashMap<>();
+        Map<String, OperationOutcome> failures = new HashMap<>();
+        for (String[] target : plan.getValueSetTargets()) {
+            if (txContext.hasInlineValueSet(target[0])) {
+                continue;
+            }
+            String key = TxResourceContext.resolvedKey(target[0], target[1]);
+            ValueSet valueSet;
+            try {
+                valueSet = findValueSetByUrl(txContext, target[0], target[1]);
+            } catch (ResourceNotFoundException e) {
+                // 不快取，項目驗證時會回報 not found
+                continue;
+            } catch (UnprocessableEntityException e) {
+                failures.put(key, e.getOperationOutcome() instanceof OperationOutcome oo ? oo
+                        : buildBatchItemError(e.getMessage()));
+                continue;
+            } catch (RuntimeException e) {
+                failures.put(key, buildBatchItemError("Unable to resolve ValueSet " + target[0]
+                        + (target[1] != null ? "|" + target[1] : "") + ": " + e.getMessage()));
+                continue;
+            }
+            resolved.put(key, valueSet);
+            resolveBatchCodeSystems(valueSet, codeSystems);
+            try {
+                Set<String> membership = expansionService.compileMembership(valueSet, BATCH_MEMBERSHIP_MAX_SIZE);
+                if (membership != null) {
+                    memberships.put(key, membership);
+                }
+            } catch (RuntimeException e) {
+                // 無法編譯時各項目照常逐一驗證
+            }
+        }
+        return txContext.withResolved(resolved, codeSystems, memberships, failures);
+    }
+
+    /**
+     * ValueSet include 的 CodeSystem（含指定版本與不指定版本兩種查詢）在批次開始時各解析一次；
+     * 找不到或發生錯誤的留給項目本身回報。
+     */
+    private void resolveBatchCodeSystems(ValueSet valueSet, Map<String, CodeSystem> codeSystems) {
+        if (!valueSet.hasCompose()) {
+            return;
+        }
+        for (ConceptSetComponent include : valueSet.getCompose().getInclude()) {
+            if (!include.hasSystem()) {
+                continue;
+            }
+            String[] versions = include.hasVersion()
+                    ? new String[] { include.getVersion(), null } : new String[] { null };
+            for (String includeVersion : versions) {
+                String key = TxResourceContext.resolvedKey(include.getSystem(), includeVersion);
+                if (codeSystems.containsKey(key)) {
+                    continue;
+                }
+                try {
+                    codeSystems.put(key, findCodeSystemByUrl(include.getSystem(), includeVersion));
+                } catch (RuntimeException e) {
+                    // 不快取，項目驗證時回報
+                }
             }
-        } finally {
-            // 確保 ThreadLocal 一定清除，避免 thread pool 汙染
-            txResourceRegistry.get().clear();
         }
-        return output;
     }
 
     private Resource executeBatchItem(
             Parameters itemParams,
+            TxResourceContext txContext,
             UriType globalUrl,
             StringType globalVersion,
             BooleanType globalLenient,
@@ -12506,6 +12432,15 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
         // per-item 優先，未設定則 fallback 至全域
         UriType effectiveUrl                       = localUrl != null ? localUrl : globalUrl;
         StringType effectiveVersion                = localVersion != null ? localVersion : globalVersion;
+
+        // 批次開始時已無法解析的 ValueSet：直接回報當時的錯誤
+        if (effectiveUrl != null) {
+            OperationOutcome failure = txContext.findFailure(effectiveUrl.getValue(),
+                    effectiveVersion != null && effectiveVersion.hasValue() ? effectiveVersion.getValue() : null);
+            if (failure != null) {
+                return failure;
+            }
+        }
         BooleanType effectiveLenient               = globalLenient;
         BooleanType effectiveActiveOnly            = localActiveOnly != null ? localActiveOnly : globalActiveOnly;
         BooleanType effectiveInferSystem           = localInferSystem != null ? localInferSystem : globalInferSystem;
@@ -12523,7 +12458,7 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                 localSystemVersion,      // systemVersion (StringType，per-item 專屬)
                 null,                    // systemVersionCode (CodeType，已由 systemVersion 涵蓋)
                 effectiveUrl,            // url
-                null,                    // valueSet（inline ValueSet 透過 ThreadLocal 處理）
+                null,                    // valueSet（inline ValueSet 由 txContext 提供）
                 effectiveVersion,        // version
                 null,                    // valueSetVersion
                 display,                 // display
@@ -12539,7 +12474,8 @@ public final class ValueSetResourceProvider extends BaseResourceProvider<ValueSe
                 effectiveSystemVersion,  // system-version list
                 effectiveCheckSysVer,    // check-system-version list
                 effectiveForceSysVer,    // force-system-version list
-                null                     // txResources（已透過 ThreadLocal 注冊）
+                null,                    // txResources（已建入 txContext）
+                txContext
             );
         } catch (UnprocessableEntityException e) {
             if (e.getOperationOutcome() instanceof OperationOutcome oo) return oo;
@@ -7,38 +7,103 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
+import com.hitstdio.fhir.server.config.BatchValidationConfig;
+import com.hitstdio.fhir.server.config.BulkValidateJobConfig;
+import com.hitstdio.fhir.server.config.ConceptStoreConfig;
+import com.hitstdio.fhir.server.config.ExpansionConfig;
+import com.hitstdio.fhir.server.config.PreExpansionConfig;
+import com.hitstdio.fhir.server.config.SearchWriteAuditConfig;
+import com.hitstdio.fhir.server.config.TerminologyIndexConfig;
+import com.hitstdio.fhir.server.job.BulkValidateJobService;
 import com.hitstdio.fhir.server.provider.BundleResourceProvider;
 import com.hitstdio.fhir.server.provider.CodeSystemResourceProvider;
 import com.hitstdio.fhir.server.provider.ConceptMapResourceProvider;
 import com.hitstdio.fhir.server.provider.StructureDefinitionResourceProvider;
 import com.hitstdio.fhir.server.provider.TerminologyCapabilitiesResourceProvider;
 import com.hitstdio.fhir.server.provider.ValueSetResourceProvider;
+import com.hitstdio.fhir.server.util.BatchItemExecutor;
+import com.hitstdio.fhir.server.util.CodeSystemBulkLoader;
+import com.hitstdio.fhir.server.util.CodeSystemMetadataQuery;
+import com.hitstdio.fhir.server.util.ConceptStore;
+import com.hitstdio.fhir.server.util.ExpansionLimits;
+import com.hitstdio.fhir.server.util.PreExpansionStore;
 
 import java.util.ArrayList;
 import java.util.List;
 
 @Configuration
 @Import({
-	TestJpaR4Config.class
+	TestJpaR4Config.class,
+	PreExpansionConfig.class,
+	ExpansionConfig.class,
+	BatchValidationConfig.class,
+	BulkValidateJobConfig.class,
+	TerminologyIndexConfig.class,
+	ConceptStoreConfig.class,
+	SearchWriteAuditConfig.class
 })
 public class TestServerR4AppCtx {
 	private final DaoRegistry myDaoRegistry;
+	private final PreExpansionConfig myPreExpansionConfig;
+	private final PreExpansionStore myPreExpansionStore;
+	private final ExpansionLimits myExpansionLimits;
+	private final BatchItemExecutor myBatchItemExecutor;
+	private final BulkValidateJobService myBulkValidateJobService;
+	private final ConceptStoreConfig myConceptStoreConfig;
+	private final ConceptStore myConceptStore;
+	private final CodeSystemMetadataQuery myCodeSystemMetadataQuery;
+	private final CodeSystemBulkLoader myCodeSystemBulkLoader;
 	
 	@Autowired
-	public TestServerR4AppCtx(DaoRegistry theDaoRegistry) {
+	public TestServerR4AppCtx(DaoRegistry theDaoRegistry, PreExpansionConfig thePreExpansionConfig,
+			PreExpansionStore thePreExpansionStore, ExpansionLimits theExpansionLimits,
+			BatchItemExecutor theBatchItemExecutor, BulkValidateJobService theBulkValidateJobService,
+			ConceptStoreConfig theConceptStoreConfig, ConceptStore theConceptStore,
+			CodeSystemMetadataQuery theCodeSystemMetadataQuery, CodeSystemBulkLoader theCodeSystemBulkLoader) {
 		this.myDaoRegistry = theDaoRegistry;
+		this.myPreExpansionConfig = thePreExpansionConfig;
+		this.myPreExpansionStore = thePreExpansionStore;
+		this.myExpansionLimits = theExpansionLimits;
+		this.myBatchItemExecutor = theBatchItemExecutor;
+		this.myBulkValidateJobService = theBulkValidateJobService;
+		this.myConceptStoreConfig = theConceptStoreConfig;
+		this.myConceptStore = theConceptStore;
+		this.myCodeSystemMetadataQuery = theCodeSystemMetadataQuery;
+		this.myCodeSystemBulkLoader = theCodeSystemBulkLoader;
 	}
 
 	@Bean
 	public ValueSetResourceProvider valueSetResourceProvider() {
-		return new ValueSetResourceProvider(myDaoRegistry);
+		ValueSetResourceProvider provider = new ValueSetResourceProvider(myDaoRegistry);
+		provider.setExpansionLimits(myExpansionLimits);
+		provider.setBatchItemExecutor(myBatchItemExecutor);
+		provider.setBulkValidateJobService(myBulkValidateJobService);
+		provider.setMetadataQuery(myCodeSystemMetadataQuery);
+		if (myPreExpansionConfig.isEnabled()) {
+			provider.setPreExpansionStore(myPreExpansionStore);
+		}
+		if (myConceptStoreConfig.isEnabled()) {
+			provider.setConceptStore(myConceptStore);
+		}
+		return provider;
+	}
+
+	@Bean
+	public CodeSystemResourceProvider codeSystemResourceProvider() {
+		CodeSystemResourceProvider provider = new CodeSystemResourceProvider(myDaoRegistry);
+		provider.setMetadataQuery(myCodeSystemMetadataQuery);
+		if (myConceptStoreConfig.isEnabled()) {
+			provider.setConceptStore(myConceptStore);
+			provider.setBulkLoader(myCodeSystemBulkLoader);
+		}
+		return provider;
 	}
 
 	@Bean(name = "resourceProviders")
 	public List<IResourceProvider> resourceProviders() {
 		List<IResourceProvider> retVal = new ArrayList<>();
 		retVal.add(new BundleResourceProvider(myDaoRegistry));
-		retVal.add(new CodeSystemResourceProvider(myDaoRegistry));
+		retVal.add(codeSystemResourceProvider());
 		retVal.add(new ConceptMapResourceProvider(myDaoRegistry));
 		retVal.add(new TerminologyCapabilitiesResourceProvider(myDaoRegistry));
 		retVal.add(valueSetResourceProvider());
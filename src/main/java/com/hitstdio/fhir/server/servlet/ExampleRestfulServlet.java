@@ -12,10 +12,13 @@ import org.hl7.fhir.r4.model.TerminologyCapabilities;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Import;
 
+import com.hitstdio.fhir.server.config.SearchWriteAuditConfig;
 //import com.hitstdio.fhir.server.interceptor.KafkaLoggingInterceptor;
+import com.hitstdio.fhir.server.interceptor.TerminologyReadAuditInterceptor;
 import com.hitstdio.fhir.server.interceptor.ValidateCodeNarrativeSuppressionInterceptor;
 import com.hitstdio.fhir.server.provider.TerminologyCapabilitiesResourceProvider;
 import com.hitstdio.fhir.server.r4.TestServerR4AppCtx;
+import com.hitstdio.fhir.server.util.CodeSystemMetadataQuery;
 
 import ca.uhn.fhir.batch2.jobs.config.Batch2JobsConfig;
 import ca.uhn.fhir.context.FhirContext;
@@ -72,6 +75,7 @@ public final class ExampleRestfulServlet extends RestfulServer {
 		
 		
         TerminologyCapabilitiesResourceProvider terminologyProvider = new TerminologyCapabilitiesResourceProvider(appCtx.getBean(DaoRegistry.class));
+        terminologyProvider.setMetadataQuery(appCtx.getBean(CodeSystemMetadataQuery.class));
         providers.add(terminologyProvider);
 		
 		setResourceProviders(providers);
@@ -87,6 +91,11 @@ public final class ExampleRestfulServlet extends RestfulServer {
 		registerInterceptor(new ResponseHighlighterInterceptor());
 		
 		registerInterceptor(new ValidateCodeNarrativeSuppressionInterceptor());  
+
+		// 唯讀術語操作造成的搜尋寫入統計（tx.search-write-audit.enabled）
+		if (appCtx.getBean(SearchWriteAuditConfig.class).isEnabled()) {
+			registerInterceptor(appCtx.getBean(TerminologyReadAuditInterceptor.class));
+		}
 		
 		/*KafkaLoggingInterceptor kafkaInterceptor = new KafkaLoggingInterceptor();
 		registerInterceptor(kafkaInterceptor);*/
@@ -0,0 +1,142 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+/**
+ * Runs the items of a batch operation on a shared, fixed-size thread pool. Each batch may
+ * occupy at most {@code concurrencyPerBatch} threads, so one large batch cannot starve the
+ * others (or exhaust the DB connection pool), and results are returned in input order.
+ */
+public class BatchItemExecutor {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(BatchItemExecutor.class);
+
+	private final ExecutorService executor;
+	private final int concurrencyPerBatch;
+
+	public BatchItemExecutor(int threads, int concurrencyPerBatch) {
+		this.concurrencyPerBatch = Math.max(1, Math.min(concurrencyPerBatch, threads));
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread thread = new Thread(r, "batch-item-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		ourLog.info("Batch items run on {} thread(s), at most {} per batch", threads, this.concurrencyPerBatch);
+	}
+
+	/**
+	 * Applies the task to every item and returns the results in item order. The task should
+	 * turn item-level failures into results; an exception escaping it fails the whole batch.
+	 */
+	public <I, R> List<R> map(List<I> items, Function<I, R> task) {
+		List<R> results = new ArrayList<>(items.size());
+		if (items.size() < 2 || concurrencyPerBatch == 1) {
+			for (I item : items) {
+				results.add(task.apply(item));
+			}
+			return results;
+		}
+
+		Semaphore permits = new Semaphore(concurrencyPerBatch);
+		List<Future<R>> futures = new ArrayList<>(items.size());
+		try {
+			for (I item : items) {
+				permits.acquire();
+				futures.add(executor.submit(() -> {
+					try {
+						return task.apply(item);
+					} finally {
+						permits.release();
+					}
+				}));
+			}
+			for (Future<R> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancel(futures);
+			throw new InternalErrorException("Batch interrupted", e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException runtime) {
+				throw runtime;
+			}
+			throw new InternalErrorException("Batch item failed: " + cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Streaming variant of {@link #map}: pulls items as they are needed, keeps at most
+	 * {@code concurrencyPerBatch} of them in flight and hands results to the sink in item order.
+	 * The sink runs on the calling thread, so a slow consumer (e.g. a blocking response write)
+	 * stops further items from being read.
+	 */
+	public <I, R> void stream(Iterator<I> items, Function<I, R> task, Consumer<R> sink) {
+		if (concurrencyPerBatch == 1) {
+			while (items.hasNext()) {
+				sink.accept(task.apply(items.next()));
+			}
+			return;
+		}
+
+		Deque<Future<R>> inFlight = new ArrayDeque<>(concurrencyPerBatch);
+		try {
+			while (items.hasNext()) {
+				if (inFlight.size() >= concurrencyPerBatch) {
+					sink.accept(inFlight.poll().get());
+				}
+				I item = items.next();
+				inFlight.add(executor.submit(() -> task.apply(item)));
+			}
+			while (!inFlight.isEmpty()) {
+				sink.accept(inFlight.poll().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancel(inFlight);
+			throw new InternalErrorException("Batch interrupted", e);
+		} catch (ExecutionException e) {
+			cancel(inFlight);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException runtime) {
+				throw runtime;
+			}
+			throw new InternalErrorException("Batch item failed: " + cause.getMessage(), cause);
+		} catch (RuntimeException e) {
+			cancel(inFlight);
+			throw e;
+		}
+	}
+
+	private static void cancel(Collection<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
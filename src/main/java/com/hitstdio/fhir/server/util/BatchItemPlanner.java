@@ -0,0 +1,99 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.UriType;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Plans the items of a batch validation: identical items (same parameters, hence the same
+ * outcome since the batch-level parameters are shared) are validated once, and the distinct
+ * ValueSets the items target are listed so they can be resolved once per batch instead of
+ * once per item.
+ */
+public final class BatchItemPlanner {
+
+	private final List<Parameters> uniqueItems = new ArrayList<>();
+	private final int[] positions;
+	private final Map<String, String[]> valueSetTargets = new LinkedHashMap<>();
+
+	private BatchItemPlanner(List<Parameters> items, UriType globalUrl, StringType globalVersion) {
+		IParser parser = FhirContext.forR4Cached().newJsonParser();
+		Map<String, Integer> seen = new HashMap<>();
+		positions = new int[items.size()];
+		for (int i = 0; i < items.size(); i++) {
+			Parameters item = items.get(i);
+			String key = parser.encodeResourceToString(item);
+			Integer index = seen.get(key);
+			if (index == null) {
+				index = uniqueItems.size();
+				seen.put(key, index);
+				uniqueItems.add(item);
+				addValueSetTarget(item, globalUrl, globalVersion);
+			}
+			positions[i] = index;
+		}
+	}
+
+	public static BatchItemPlanner plan(List<Parameters> items, UriType globalUrl, StringType globalVersion) {
+		return new BatchItemPlanner(items, globalUrl, globalVersion);
+	}
+
+	private void addValueSetTarget(Parameters item, UriType globalUrl, StringType globalVersion) {
+		String url = globalUrl != null ? globalUrl.getValue() : null;
+		String version = globalVersion != null && globalVersion.hasValue() ? globalVersion.getValue() : null;
+		for (ParametersParameterComponent p : item.getParameter()) {
+			if ("url".equals(p.getName()) && p.getValue() instanceof UriType u) {
+				url = u.getValue();
+			} else if ("version".equals(p.getName()) && p.getValue() instanceof StringType s && s.hasValue()) {
+				version = s.getValue();
+			}
+		}
+		if (url != null && !url.isEmpty()) {
+			valueSetTargets.putIfAbsent(TxResourceContext.resolvedKey(url, version), new String[] { url, version });
+		}
+	}
+
+	/**
+	 * Items to validate, one per distinct input, in order of first appearance.
+	 */
+	public List<Parameters> getUniqueItems() {
+		return uniqueItems;
+	}
+
+	/**
+	 * Distinct {@code {url, version}} pairs (version may be {@code null}) targeted by the items.
+	 */
+	public List<String[]> getValueSetTargets() {
+		return new ArrayList<>(valueSetTargets.values());
+	}
+
+	public int size() {
+		return positions.length;
+	}
+
+	/**
+	 * Maps the results of {@link #getUniqueItems()} back to every input position. Repeated
+	 * items receive their own copy of the shared result.
+	 */
+	public List<Resource> spread(List<Resource> uniqueResults) {
+		List<Resource> results = new ArrayList<>(positions.length);
+		boolean[] used = new boolean[uniqueResults.size()];
+		for (int position : positions) {
+			Resource result = uniqueResults.get(position);
+			results.add(used[position] ? result.copy() : result);
+			used[position] = true;
+		}
+		return results;
+	}
+}
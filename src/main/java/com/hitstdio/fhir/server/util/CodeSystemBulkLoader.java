@@ -0,0 +1,259 @@
+package com.hitstdio.fhir.server.util;
+
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.api.model.DaoMethodOutcome;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.UriParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads very large CodeSystems without building them as one resource: concepts are streamed
+ * from CSV, NDJSON or CodeSystem JSON input ({@link ConceptStreamReader}) into
+ * {@link ConceptStore} rows one chunk at a time, and the CodeSystem resource is stored as a
+ * header only ({@code content = not-present}, {@code count} = number of concepts). Memory use
+ * is bounded by the chunk size (and the largest concept subtree), not by the CodeSystem size.
+ * <p>
+ * Used by {@code CodeSystem/$bulk-load} and, at startup, for the files of a configured
+ * directory that are not stored yet (url|version absent from the concept store). A startup
+ * load claims its url|version in the concept store first, so that nodes starting together
+ * load each file once.
+ * <p>
+ * The rows are committed before the header resource is written: readers see the new concepts
+ * as soon as the rows commit, and a failed resource write removes them again.
+ */
+public class CodeSystemBulkLoader {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(CodeSystemBulkLoader.class);
+
+	/** A progress line is logged every this many chunks */
+	private static final int PROGRESS_INTERVAL = 10;
+
+	private final IFhirResourceDao<CodeSystem> codeSystemDao;
+	private final ConceptStore store;
+	private final boolean enabled;
+	private final int chunkSize;
+	private final int batchSize;
+	private final String startupPath;
+	private ExecutorService executor;
+
+	public CodeSystemBulkLoader(IFhirResourceDao<CodeSystem> codeSystemDao, ConceptStore store, boolean enabled,
+			int chunkSize, int batchSize, String startupPath) {
+		this.codeSystemDao = codeSystemDao;
+		this.store = store;
+		this.enabled = enabled;
+		this.chunkSize = chunkSize;
+		this.batchSize = batchSize;
+		this.startupPath = startupPath;
+	}
+
+	public record Result(String url, String version, int concepts, int chunks, long elapsedMillis) {
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void start() {
+		if (!enabled || startupPath == null || startupPath.isBlank()) {
+			return;
+		}
+		executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "codesystem-bulk-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.execute(this::loadStartupFiles);
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Streams {@code in} into the concept store and stores the CodeSystem header resource.
+	 * Elements set on {@code overrides} (url, version, name, title, status) replace those of
+	 * the input header. Rows of a failed load are removed; the previously stored concepts of
+	 * the url|version stay in place until the new load commits. When the header resource
+	 * cannot be written afterwards, the new rows are removed as well: they would otherwise stay
+	 * without a resource version, behind a resource describing the previous load. The
+	 * url|version then has no stored concepts until it is loaded again (a startup file is
+	 * retried at the next start).
+	 */
+	public Result load(ConceptStreamReader.Format format, InputStream in, CodeSystem overrides) throws IOException {
+		if (!enabled) {
+			throw new InvalidRequestException("CodeSystem bulk load requires tx.concept-store.enabled=true");
+		}
+		try (ConceptStore.BulkWriter writer = store.openBulkWriter(chunkSize, batchSize)) {
+			return load(format, in, overrides, writer);
+		}
+	}
+
+	private Result load(ConceptStreamReader.Format format, InputStream in, CodeSystem overrides,
+			ConceptStore.BulkWriter writer) throws IOException {
+		long started = System.currentTimeMillis();
+		CodeSystem header = ConceptStreamReader.read(format, in, concept -> {
+			if (writer.append(concept) && writer.getChunkCount() % PROGRESS_INTERVAL == 0) {
+				ourLog.info("Bulk load in progress: {} concepts in {} chunks", writer.getConceptCount(),
+						writer.getChunkCount());
+			}
+		});
+		applyOverrides(header, overrides);
+		if (!header.hasUrl()) {
+			throw new InvalidRequestException("CodeSystem bulk load: no url in the input or the 'url' parameter");
+		}
+		header.setContent(CodeSystem.CodeSystemContentMode.NOTPRESENT);
+		header.setCount(writer.getConceptCount());
+		if (!header.hasStatus()) {
+			header.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		}
+
+		CodeSystem current = findHeaderResource(header);
+		writer.commit(header, null);
+		String resourceVersion;
+		try {
+			resourceVersion = storeHeaderResource(header, current);
+		} catch (RuntimeException e) {
+			try {
+				store.delete(header.getUrl(), header.getVersion());
+				TerminologyIndexCache.invalidate(header.getUrl());
+			} catch (RuntimeException deleteFailure) {
+				e.addSuppressed(deleteFailure);
+			}
+			throw e;
+		}
+		store.setResourceVersion(header.getUrl(), header.getVersion(), resourceVersion);
+		return new Result(header.getUrl(), header.getVersion(), writer.getConceptCount(), writer.getChunkCount(),
+				System.currentTimeMillis() - started);
+	}
+
+	private static void applyOverrides(CodeSystem header, CodeSystem overrides) {
+		if (overrides == null) {
+			return;
+		}
+		if (overrides.hasUrl()) {
+			header.setUrl(overrides.getUrl());
+		}
+		if (overrides.hasVersion()) {
+			header.setVersion(overrides.getVersion());
+		}
+		if (overrides.hasName()) {
+			header.setName(overrides.getName());
+		}
+		if (overrides.hasTitle()) {
+			header.setTitle(overrides.getTitle());
+		}
+		if (overrides.hasStatus()) {
+			header.setStatus(overrides.getStatus());
+		}
+	}
+
+	/**
+	 * The stored CodeSystem with the url|version of {@code header}, or {@code null}.
+	 */
+	private CodeSystem findHeaderResource(CodeSystem header) {
+		SearchParameterMap params = InternalSearch.allMatches();
+		params.add(CodeSystem.SP_URL, new UriParam(header.getUrl()));
+		if (header.hasVersion()) {
+			params.add(CodeSystem.SP_VERSION, new TokenParam(header.getVersion()));
+		}
+		IBundleProvider existing = codeSystemDao.search(params, new SystemRequestDetails());
+		CodeSystem current = null;
+		int size = existing.size() != null ? existing.size() : 0;
+		for (IBaseResource resource : existing.getResources(0, size)) {
+			if (resource instanceof CodeSystem cs && header.hasVersion() == cs.hasVersion()) {
+				current = cs;
+				break;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Creates the header resource, or updates {@code current} (the stored CodeSystem with the
+	 * same url|version); returns the resource version written.
+	 */
+	private String storeHeaderResource(CodeSystem header, CodeSystem current) {
+		DaoMethodOutcome outcome;
+		if (current != null) {
+			header.setId(current.getIdElement().toUnqualifiedVersionless());
+			outcome = codeSystemDao.update(header, new SystemRequestDetails());
+		} else {
+			header.setId((String) null);
+			outcome = codeSystemDao.create(header, new SystemRequestDetails());
+		}
+		header.setId(outcome.getId());
+		return outcome.getId().getVersionIdPart();
+	}
+
+	private boolean isStored(CodeSystem header) {
+		return store.findVersions(header.getUrl()).contains(header.getVersion());
+	}
+
+	private void loadStartupFiles() {
+		List<Path> files;
+		try (Stream<Path> listing = Files.list(Paths.get(startupPath))) {
+			files = listing.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		} catch (IOException | RuntimeException e) {
+			ourLog.warn("CodeSystem bulk load directory {} not readable: {}", startupPath, e.getMessage());
+			return;
+		}
+		for (Path file : files) {
+			ConceptStreamReader.Format format = ConceptStreamReader.Format.of(file.getFileName().toString());
+			if (format == null) {
+				continue;
+			}
+			try {
+				// header only: the reader stops before the concepts where the input allows it
+				CodeSystem header;
+				try (InputStream in = Files.newInputStream(file)) {
+					header = ConceptStreamReader.read(format, in, null);
+				}
+				if (header.hasUrl() && isStored(header)) {
+					ourLog.debug("CodeSystem bulk load: {} already stored, skipping {}", header.getUrl(), file);
+					continue;
+				}
+				Result result;
+				try (ConceptStore.BulkWriter writer = header.hasUrl()
+						? store.openBulkWriter(chunkSize, batchSize, header.getUrl(), header.getVersion())
+						: store.openBulkWriter(chunkSize, batchSize)) {
+					// null: another node is loading this url|version; re-checked once claimed,
+					// since it may have committed in between
+					if (writer == null || (header.hasUrl() && isStored(header))) {
+						ourLog.debug("CodeSystem bulk load: {} loaded by another node, skipping {}", header.getUrl(),
+								file);
+						continue;
+					}
+					try (InputStream in = Files.newInputStream(file)) {
+						result = load(format, in, null, writer);
+					}
+				}
+				ourLog.info("CodeSystem bulk load of {}: {}|{} ({} concepts, {} ms)", file.getFileName(),
+						result.url(), result.version(), result.concepts(), result.elapsedMillis());
+			} catch (IOException | RuntimeException e) {
+				ourLog.warn("CodeSystem bulk load of {} failed: {}", file, e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.hitstdio.fhir.server.util;
+
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptPropertyComponent;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Concept-level difference between two versions of the same CodeSystem resource, computed at
+ * update time so that dependent pre-expansions can be patched instead of recomputed.
+ */
+public final class CodeSystemDelta {
+
+	private final String url;
+	private final String oldVersion;
+	private final String newVersion;
+	private final CodeSystem newCodeSystem;
+	private final Set<String> added = new LinkedHashSet<>();
+	private final Set<String> removed = new LinkedHashSet<>();
+	private final Set<String> changed = new LinkedHashSet<>();
+	private final Set<String> changedPropertyCodes = new HashSet<>();
+	private final Map<String, ConceptDefinitionComponent> newConcepts;
+	private final Map<String, String> newParents;
+	private boolean hierarchyChanged;
+	private boolean definitionChanged;
+
+	private CodeSystemDelta(CodeSystem oldCodeSystem, CodeSystem newCodeSystem) {
+		this.url = newCodeSystem.getUrl();
+		this.oldVersion = oldCodeSystem.getVersion();
+		this.newVersion = newCodeSystem.getVersion();
+		this.newCodeSystem = newCodeSystem;
+		this.newConcepts = new LinkedHashMap<>();
+		this.newParents = new LinkedHashMap<>();
+		index(newCodeSystem.getConcept(), null, newConcepts, newParents);
+	}
+
+	/**
+	 * Diffs two versions of a CodeSystem. Concepts are compared shallowly (children excluded),
+	 * so a change deep in the hierarchy only marks the concept that actually changed.
+	 */
+	public static CodeSystemDelta between(CodeSystem oldCodeSystem, CodeSystem newCodeSystem) {
+		CodeSystemDelta delta = new CodeSystemDelta(oldCodeSystem, newCodeSystem);
+
+		Map<String, ConceptDefinitionComponent> oldConcepts = new LinkedHashMap<>();
+		Map<String, String> oldParents = new LinkedHashMap<>();
+		index(oldCodeSystem.getConcept(), null, oldConcepts, oldParents);
+
+		for (Map.Entry<String, ConceptDefinitionComponent> entry : delta.newConcepts.entrySet()) {
+			String code = entry.getKey();
+			ConceptDefinitionComponent oldConcept = oldConcepts.get(code);
+			if (oldConcept == null) {
+				delta.added.add(code);
+				continue;
+			}
+			if (!Objects.equals(oldParents.get(code), delta.newParents.get(code))) {
+				delta.hierarchyChanged = true;
+			}
+			if (!shallowEquals(oldConcept, entry.getValue())) {
+				delta.changed.add(code);
+				collectChangedProperties(oldConcept, entry.getValue(), delta.changedPropertyCodes);
+			}
+		}
+		for (String code : oldConcepts.keySet()) {
+			if (!delta.newConcepts.containsKey(code)) {
+				delta.removed.add(code);
+			}
+		}
+
+		delta.definitionChanged = oldCodeSystem.getCaseSensitive() != newCodeSystem.getCaseSensitive()
+				|| oldCodeSystem.getContent() != newCodeSystem.getContent()
+				|| oldCodeSystem.getStatus() != newCodeSystem.getStatus()
+				|| !Base.compareDeep(oldCodeSystem.getProperty(), newCodeSystem.getProperty(), true)
+				|| !Base.compareDeep(oldCodeSystem.getFilter(), newCodeSystem.getFilter(), true);
+
+		return delta;
+	}
+
+	private static void index(List<ConceptDefinitionComponent> concepts, String parentCode,
+			Map<String, ConceptDefinitionComponent> byCode, Map<String, String> parents) {
+		for (ConceptDefinitionComponent concept : concepts) {
+			if (concept.getCode() != null && !byCode.containsKey(concept.getCode())) {
+				byCode.put(concept.getCode(), concept);
+				parents.put(concept.getCode(), parentCode);
+			}
+			index(concept.getConcept(), concept.getCode(), byCode, parents);
+		}
+	}
+
+	private static boolean shallowEquals(ConceptDefinitionComponent a, ConceptDefinitionComponent b) {
+		return Objects.equals(a.getDisplay(), b.getDisplay())
+				&& Objects.equals(a.getDefinition(), b.getDefinition())
+				&& Base.compareDeep(a.getDesignation(), b.getDesignation(), true)
+				&& Base.compareDeep(a.getProperty(), b.getProperty(), true)
+				&& Base.compareDeep(a.getExtension(), b.getExtension(), true);
+	}
+
+	private static void collectChangedProperties(ConceptDefinitionComponent a, ConceptDefinitionComponent b,
+			Set<String> changedPropertyCodes) {
+		Set<String> codes = new HashSet<>();
+		for (ConceptPropertyComponent p : a.getProperty()) {
+			codes.add(p.getCode());
+		}
+		for (ConceptPropertyComponent p : b.getProperty()) {
+			codes.add(p.getCode());
+		}
+		for (String code : codes) {
+			if (!Base.compareDeep(propertiesOf(a, code), propertiesOf(b, code), true)) {
+				changedPropertyCodes.add(code);
+			}
+		}
+		if (!Base.compareDeep(a.getExtension(), b.getExtension(), true)) {
+			// Extension-based properties (conceptOrder, label, itemWeight, standards-status)
+			changedPropertyCodes.add("*extension");
+		}
+	}
+
+	private static List<ConceptPropertyComponent> propertiesOf(ConceptDefinitionComponent concept, String code) {
+		return concept.getProperty().stream().filter(p -> code.equals(p.getCode())).toList();
+	}
+
+	public String getUrl() { return url; }
+	public String getOldVersion() { return oldVersion; }
+	public String getNewVersion() { return newVersion; }
+	public CodeSystem getNewCodeSystem() { return newCodeSystem; }
+	public Set<String> getAdded() { return Collections.unmodifiableSet(added); }
+	public Set<String> getRemoved() { return Collections.unmodifiableSet(removed); }
+	public Set<String> getChanged() { return Collections.unmodifiableSet(changed); }
+	public Set<String> getChangedPropertyCodes() { return Collections.unmodifiableSet(changedPropertyCodes); }
+	public boolean isHierarchyChanged() { return hierarchyChanged; }
+
+	/**
+	 * True when CodeSystem-level content changed (property/filter declarations, status, content
+	 * mode, case sensitivity); such changes are not patched.
+	 */
+	public boolean isDefinitionChanged() { return definitionChanged; }
+
+	/**
+	 * True when the business version differs; patched by restamping the version on the rows of
+	 * expansions that did not pin the old one.
+	 */
+	public boolean isVersionChanged() { return !Objects.equals(oldVersion, newVersion); }
+
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && changed.isEmpty() && !hierarchyChanged && !definitionChanged
+				&& !isVersionChanged();
+	}
+
+	public ConceptDefinitionComponent getNewConcept(String code) {
+		return newConcepts.get(code);
+	}
+
+	/**
+	 * Codes of the new version in depth-first order, which is the order expansions emit them.
+	 */
+	public List<String> getNewCodesInOrder() {
+		return List.copyOf(newConcepts.keySet());
+	}
+
+	/**
+	 * Whether {@code code} equals {@code ancestor} or descends from it in the new version.
+	 */
+	public boolean isSelfOrDescendant(String code, String ancestor) {
+		String current = code;
+		Set<String> visited = new HashSet<>();
+		while (current != null && visited.add(current)) {
+			if (current.equals(ancestor)) {
+				return true;
+			}
+			current = newParents.get(current);
+		}
+		return false;
+	}
+
+	public int size() {
+		return added.size() + removed.size() + changed.size();
+	}
+}
@@ -0,0 +1,123 @@
+package com.hitstdio.fhir.server.util;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+/**
+ * url, version and status of the stored CodeSystems, read from the JPA search-index tables
+ * (HFJ_SPIDX_URI / _TOKEN) instead of loading and parsing the resources. Only current,
+ * non-deleted resources are returned. The date is not among them: its index keeps the instant
+ * the value starts at, not the value as written (precision, timezone), so code that needs the
+ * date reads the resource.
+ * <p>
+ * When the query fails (e.g. an unexpected schema), {@code null} is returned and the caller
+ * falls back to loading the resources.
+ */
+public class CodeSystemMetadataQuery {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(CodeSystemMetadataQuery.class);
+
+	private static final String SELECT = "SELECT r.RES_ID, r.FHIR_ID, u.SP_URI, v.SP_VALUE AS CS_VERSION,"
+			+ " s.SP_VALUE AS CS_STATUS"
+			+ " FROM HFJ_RESOURCE r"
+			+ " JOIN HFJ_SPIDX_URI u ON u.RES_ID = r.RES_ID AND u.SP_NAME = 'url'"
+			+ " LEFT JOIN HFJ_SPIDX_TOKEN v ON v.RES_ID = r.RES_ID AND v.SP_NAME = 'version' AND v.SP_VALUE IS NOT NULL"
+			+ " LEFT JOIN HFJ_SPIDX_TOKEN s ON s.RES_ID = r.RES_ID AND s.SP_NAME = 'status' AND s.SP_VALUE IS NOT NULL"
+			+ " WHERE r.RES_TYPE = 'CodeSystem' AND r.RES_DELETED_AT IS NULL AND u.SP_URI IS NOT NULL";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	public CodeSystemMetadataQuery(DataSource dataSource) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	/**
+	 * Metadata of every stored version of the CodeSystem url, or {@code null} when unavailable.
+	 */
+	public List<CodeSystemMetadata> findByUrl(String url) {
+		if (url == null) {
+			return null;
+		}
+		return query(SELECT + " AND u.SP_URI = ? ORDER BY r.RES_ID", url);
+	}
+
+	/**
+	 * Metadata of every stored CodeSystem, or {@code null} when unavailable.
+	 */
+	public List<CodeSystemMetadata> findAll() {
+		return query(SELECT + " ORDER BY r.RES_ID");
+	}
+
+	/**
+	 * The versions in {@code metadata} (unversioned entries skipped), in order.
+	 */
+	public static List<String> versionsOf(List<CodeSystemMetadata> metadata) {
+		List<String> versions = new ArrayList<>();
+		for (CodeSystemMetadata entry : metadata) {
+			if (entry.version() != null) {
+				versions.add(entry.version());
+			}
+		}
+		return versions;
+	}
+
+	private List<CodeSystemMetadata> query(String sql, Object... args) {
+		try {
+			// one row per resource; a repeated index row only duplicates the same values
+			Map<Long, CodeSystemMetadata> byResource = new LinkedHashMap<>();
+			jdbcTemplate.query(sql, rs -> {
+				byResource.putIfAbsent(rs.getLong("RES_ID"), readRow(rs));
+			}, args);
+			return new ArrayList<>(byResource.values());
+		} catch (RuntimeException e) {
+			ourLog.warn("CodeSystem metadata query failed, loading resources instead: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private CodeSystemMetadata readRow(ResultSet rs) throws SQLException {
+		String id = rs.getString("FHIR_ID");
+		if (id == null) {
+			id = Long.toString(rs.getLong("RES_ID"));
+		}
+		return new CodeSystemMetadata(id, rs.getString("SP_URI"), rs.getString("CS_VERSION"),
+				rs.getString("CS_STATUS"));
+	}
+
+	/**
+	 * Index values of one stored CodeSystem; {@code id} is its logical id.
+	 */
+	public record CodeSystemMetadata(String id, String url, String version, String status) {
+
+		/**
+		 * A CodeSystem carrying only id, url, version and status, for code that compares or
+		 * lists versions without reading concepts.
+		 */
+		public CodeSystem toStub() {
+			CodeSystem stub = new CodeSystem();
+			stub.setId(id);
+			stub.setUrl(url);
+			stub.setVersion(version);
+			if (status != null) {
+				try {
+					stub.setStatus(Enumerations.PublicationStatus.fromCode(status));
+				} catch (Exception e) {
+					// unknown status: left unset, as an unparseable resource value would be
+				}
+			}
+			return stub;
+		}
+	}
+}
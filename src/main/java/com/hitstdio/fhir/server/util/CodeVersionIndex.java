@@ -0,0 +1,161 @@
+package com.hitstdio.fhir.server.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionDesignationComponent;
+
+/**
+ * Code to version index over all stored versions of one CodeSystem url, for inferring the
+ * version of a coding from its code and display. Per code, the versions containing it are
+ * grouped by their display keys ({@link DisplayKeys}), so a code whose display never changed
+ * across monthly releases costs one group. Versions keep the order they were added in
+ * (newest first), and inference returns the first version that matches.
+ * <p>
+ * Cached per url in {@link TerminologyIndexCache}; stored CodeSystem changes must call
+ * {@link #invalidate(String)}. Since that only reaches this node and the index is keyed by url
+ * rather than by the stored versions it was built from, an index is also rebuilt
+ * {@link #MAX_AGE} after it was built, so a version loaded on another node is seen within it.
+ */
+public final class CodeVersionIndex implements TerminologyIndexCache.Weighted {
+
+	/** How long an index is used after it was built, whatever the local invalidations */
+	static final Duration MAX_AGE = Duration.ofMinutes(5);
+
+	private final List<String> versions = new ArrayList<>();
+	private final Map<String, List<Group>> groupsByCode = new HashMap<>();
+	private final Map<Set<String>, Set<String>> internedKeys = new HashMap<>();
+
+	private CodeVersionIndex() {
+	}
+
+	/**
+	 * Returns the cached index of {@code url}, building it with {@code loader} (stored versions,
+	 * newest first) when missing.
+	 */
+	public static CodeVersionIndex of(String url, Function<String, Iterable<CodeSystem>> loader) {
+		return TerminologyIndexCache.get(CodeVersionIndex.class, url, Collections.singletonList(url), MAX_AGE, () -> {
+			CodeVersionIndex index = new CodeVersionIndex();
+			for (CodeSystem codeSystem : loader.apply(url)) {
+				index.add(codeSystem);
+			}
+			index.internedKeys.clear();
+			return index;
+		});
+	}
+
+	public static void invalidate(String url) {
+		TerminologyIndexCache.invalidate(url);
+	}
+
+	@Override
+	public int weight() {
+		return groupsByCode.size() + versions.size();
+	}
+
+	private void add(CodeSystem codeSystem) {
+		int ordinal = versions.size();
+		versions.add(codeSystem.hasVersion() ? codeSystem.getVersion() : null);
+		Set<String> seen = new HashSet<>();
+		addConcepts(codeSystem.getConcept(), ordinal, seen);
+	}
+
+	private void addConcepts(List<ConceptDefinitionComponent> concepts, int ordinal, Set<String> seen) {
+		for (ConceptDefinitionComponent concept : concepts) {
+			// The first (pre-order) occurrence of a code is the one a recursive search finds
+			if (concept.getCode() != null && seen.add(concept.getCode())) {
+				Set<String> keys = internedKeys.computeIfAbsent(displayKeys(concept), k -> k);
+				List<Group> groups = groupsByCode.computeIfAbsent(concept.getCode(), k -> new ArrayList<>(1));
+				Group group = null;
+				for (Group candidate : groups) {
+					if (candidate.keys == keys) {
+						group = candidate;
+						break;
+					}
+				}
+				if (group == null) {
+					group = new Group(keys);
+					groups.add(group);
+				}
+				group.versions.set(ordinal);
+			}
+			addConcepts(concept.getConcept(), ordinal, seen);
+		}
+	}
+
+	private static Set<String> displayKeys(ConceptDefinitionComponent concept) {
+		Set<String> keys = new HashSet<>();
+		if (concept.hasDisplay()) {
+			keys.add(DisplayKeys.key(concept.getDisplay()));
+		}
+		for (ConceptDefinitionDesignationComponent designation : concept.getDesignation()) {
+			if (designation.getValue() != null) {
+				keys.add(DisplayKeys.key(designation.getValue()));
+			}
+		}
+		return keys.isEmpty() ? Collections.emptySet() : keys;
+	}
+
+	/**
+	 * The first version (newest first) containing {@code code} with {@code display} as its
+	 * display or a designation, ignoring case; {@code null} when none does (or when the
+	 * matching CodeSystem has no version).
+	 */
+	public String inferVersion(String code, String display) {
+		List<Group> groups = code != null && display != null ? groupsByCode.get(code) : null;
+		if (groups == null) {
+			return null;
+		}
+		String key = DisplayKeys.key(display);
+		int first = -1;
+		for (Group group : groups) {
+			if (group.keys.contains(key)) {
+				int ordinal = group.versions.nextSetBit(0);
+				if (ordinal >= 0 && (first < 0 || ordinal < first)) {
+					first = ordinal;
+				}
+			}
+		}
+		return first < 0 ? null : versions.get(first);
+	}
+
+	/**
+	 * Versions of the stored CodeSystems, newest first; CodeSystems without a version are skipped.
+	 */
+	public List<String> getVersions() {
+		List<String> result = new ArrayList<>(versions.size());
+		for (String version : versions) {
+			if (version != null) {
+				result.add(version);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Version of the newest stored CodeSystem, or {@code null} when there is none or it has no version.
+	 */
+	public String getLatestVersion() {
+		return versions.isEmpty() ? null : versions.get(0);
+	}
+
+	private static final class Group {
+		private final Set<String> keys;
+		private final BitSet versions = new BitSet();
+
+		private Group(Set<String> keys) {
+			this.keys = Objects.requireNonNull(keys);
+		}
+	}
+}
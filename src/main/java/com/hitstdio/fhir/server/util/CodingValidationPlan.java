@@ -0,0 +1,125 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.StringType;
+
+/**
+ * Plans the validation of the codings of one {@code codeableConcept} against the same
+ * ValueSet. All request-level inputs are shared, so codings with the same system, version,
+ * code and display have the same outcome: each distinct coding is validated once, on first
+ * use, and repeats (e.g. {@code coding[0]} and {@code coding[2]} carrying the same code)
+ * replay that outcome, including a thrown exception. Codings are only validated when the
+ * caller reaches them, so nothing is computed for codings past an early return.
+ * <p>
+ * When the ValueSet's membership is known up front (one membership-only pass for all codings,
+ * {@link TxResourceContext#membershipKey(String, String)} keys), a coding found in it adds
+ * nothing to report once an earlier coding has matched, and is not validated in full
+ * ({@link #needsDiagnostics(ValidationParams, boolean)}).
+ */
+public final class CodingValidationPlan {
+
+	private final Map<String, Outcome> outcomes = new HashMap<>();
+	/** {@code system|code} members of the ValueSet; {@code null} when not known */
+	private final Set<String> membership;
+	private final int size;
+	private final int distinct;
+
+	private CodingValidationPlan(List<ValidationParams> paramsList, Set<String> membership) {
+		this.membership = membership;
+		this.size = paramsList.size();
+		Set<String> keys = new HashSet<>();
+		for (ValidationParams params : paramsList) {
+			keys.add(key(params, null));
+		}
+		this.distinct = keys.size();
+	}
+
+	public static CodingValidationPlan plan(List<ValidationParams> paramsList) {
+		return new CodingValidationPlan(paramsList, null);
+	}
+
+	/**
+	 * As {@link #plan(List)}, with the ValueSet's {@code system|code} membership from a
+	 * membership-only pass ({@code null}: not known, every coding is validated in full).
+	 */
+	public static CodingValidationPlan plan(List<ValidationParams> paramsList, Set<String> membership) {
+		return new CodingValidationPlan(paramsList, membership);
+	}
+
+	/**
+	 * Whether the membership pass found the coding in the ValueSet; {@code null} when the
+	 * membership is not known or the coding has no system.
+	 */
+	public Boolean isMember(ValidationParams params) {
+		if (membership == null || params.system() == null || !params.system().hasValue()
+				|| params.code() == null || !params.code().hasValue()) {
+			return null;
+		}
+		return membership.contains(TxResourceContext.membershipKey(params.system().getValue(),
+				params.code().getValue()));
+	}
+
+	/**
+	 * Whether the coding has to be validated in full. Codings not in the ValueSet (or not known
+	 * to be) are reported and always are; a coding in it only repeats the match once an earlier
+	 * coding has {@code matched}.
+	 */
+	public boolean needsDiagnostics(ValidationParams params, boolean matched) {
+		return !matched || !Boolean.TRUE.equals(isMember(params));
+	}
+
+	/**
+	 * Outcome of {@code validator} for the coding, computed once per distinct
+	 * {@code (system, systemVersion, code, display)}.
+	 */
+	public ValidationResult validate(ValidationParams params, StringType systemVersion,
+			BiFunction<ValidationParams, StringType, ValidationResult> validator) {
+		if (distinct == size) {
+			// no repeated coding, nothing to share
+			return validator.apply(params, systemVersion);
+		}
+		String key = key(params, systemVersion);
+		Outcome outcome = outcomes.get(key);
+		if (outcome == null) {
+			try {
+				outcome = new Outcome(validator.apply(params, systemVersion), null);
+			} catch (RuntimeException e) {
+				outcome = new Outcome(null, e);
+			}
+			outcomes.put(key, outcome);
+		}
+		if (outcome.failure() != null) {
+			throw outcome.failure();
+		}
+		return outcome.result();
+	}
+
+	private static String key(ValidationParams params, StringType systemVersion) {
+		StringBuilder key = new StringBuilder();
+		append(key, params.system());
+		append(key, systemVersion);
+		append(key, params.code());
+		append(key, params.display());
+		return key.toString();
+	}
+
+	private static void append(StringBuilder key, PrimitiveType<?> value) {
+		// keeps a missing value apart from an empty one
+		if (value == null || value.getValueAsString() == null) {
+			key.append('\u0000');
+		} else {
+			key.append(value.getValueAsString().length()).append(':').append(value.getValueAsString());
+		}
+		key.append('|');
+	}
+
+	private record Outcome(ValidationResult result, RuntimeException failure) {
+	}
+}
@@ -0,0 +1,372 @@
+package com.hitstdio.fhir.server.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+
+/**
+ * Append-only list of expansion concepts that keeps its entries in memory until the request's
+ * {@link ExpansionBudget} says to spill, then moves them to a temporary file (one JSON line per
+ * concept) and keeps appending there. Reads stream from the file, so a spilled list can be set
+ * as {@code expansion.contains} and is only materialized one concept at a time while the
+ * response is serialized. The file and its open readers are released by {@link #close()}, or
+ * once the list is no longer reachable; files left behind by a crash are removed by
+ * {@link #sweepSpillDirectory(Path)} at startup.
+ * <p>
+ * Code that reads a spilled list front to back uses a {@link Cursor} in try-with-resources;
+ * {@link #get(int)} keeps one cursor for sequential index access.
+ */
+public class ConceptBuffer extends AbstractList<ValueSetExpansionContainsComponent> implements AutoCloseable {
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	private static final String SPILL_PREFIX = "expansion-";
+	private static final String SPILL_SUFFIX = ".ndjson";
+
+	private final ExpansionBudget budget;
+	/** Whether this is the final list of an expansion, checked against the legacy count limit */
+	private final boolean finalList;
+	private List<ValueSetExpansionContainsComponent> memory = new ArrayList<>();
+	private SpillFile spill;
+	private int size;
+
+	/** Sequential read cursor for {@link #get(int)} */
+	private Cursor indexCursor;
+
+	public ConceptBuffer(ExpansionBudget budget) {
+		this(budget, false);
+	}
+
+	public ConceptBuffer(ExpansionBudget budget, boolean finalList) {
+		this.budget = budget;
+		this.finalList = finalList;
+	}
+
+	public boolean isSpilled() {
+		return spill != null;
+	}
+
+	@Override
+	public boolean add(ValueSetExpansionContainsComponent component) {
+		if (finalList && budget != null) {
+			budget.checkCollected(size + 1);
+		}
+		if (spill == null) {
+			memory.add(component);
+			if (budget != null && budget.shouldSpill()) {
+				spillMemory();
+			}
+		} else {
+			spill.append(component);
+		}
+		size++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public ValueSetExpansionContainsComponent get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		if (spill == null) {
+			return memory.get(index);
+		}
+		if (indexCursor == null || index < indexCursor.nextIndex()) {
+			closeIndexCursor();
+			indexCursor = cursor(index);
+		}
+		indexCursor.skipTo(index);
+		ValueSetExpansionContainsComponent value = indexCursor.next();
+		if (!indexCursor.hasNext()) {
+			closeIndexCursor();
+		}
+		return value;
+	}
+
+	@Override
+	public Iterator<ValueSetExpansionContainsComponent> iterator() {
+		return spill == null ? memory.iterator() : cursor(0);
+	}
+
+	/**
+	 * Reads the entries from {@code fromIndex} on, in order. Close it (try-with-resources) when
+	 * not reading to the end; it also closes itself after the last entry.
+	 */
+	public Cursor cursor(int fromIndex) {
+		if (fromIndex < 0 || fromIndex > size) {
+			throw new IndexOutOfBoundsException("Index: " + fromIndex + ", Size: " + size);
+		}
+		Cursor cursor = spill == null ? new Cursor(null, null, memory.subList(fromIndex, size).iterator(), size)
+				: new Cursor(spill, spill.openReader(), null, size);
+		cursor.skipTo(fromIndex);
+		return cursor;
+	}
+
+	/**
+	 * Releases the spill file and its open readers; the list must not be read afterwards.
+	 */
+	@Override
+	public void close() {
+		closeIndexCursor();
+		if (spill != null) {
+			spill.discard();
+		}
+	}
+
+	/**
+	 * Removes the spill files left in {@code directory} by processes that ended without
+	 * discarding them (files last written before this JVM started).
+	 *
+	 * @return the number of files removed
+	 */
+	public static int sweepSpillDirectory(Path directory) {
+		if (!Files.isDirectory(directory)) {
+			return 0;
+		}
+		long startedAt = ManagementFactory.getRuntimeMXBean().getStartTime();
+		int removed = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SPILL_PREFIX + "*" + SPILL_SUFFIX)) {
+			for (Path file : files) {
+				try {
+					if (Files.getLastModifiedTime(file).toMillis() < startedAt && Files.deleteIfExists(file)) {
+						removed++;
+					}
+				} catch (IOException e) {
+					// in use or already gone
+				}
+			}
+		} catch (IOException e) {
+			// directory not readable; nothing to sweep
+		}
+		return removed;
+	}
+
+	@Override
+	public boolean removeIf(Predicate<? super ValueSetExpansionContainsComponent> filter) {
+		if (spill == null) {
+			boolean removed = memory.removeIf(filter);
+			size = memory.size();
+			modCount++;
+			return removed;
+		}
+		closeIndexCursor();
+		SpillFile filtered = SpillFile.create(budget.getLimits().getSpillDirectory());
+		int kept = 0;
+		try (Cursor cursor = cursor(0)) {
+			while (cursor.hasNext()) {
+				ValueSetExpansionContainsComponent component = cursor.next();
+				if (!filter.test(component)) {
+					filtered.append(component);
+					kept++;
+				}
+			}
+		} catch (RuntimeException e) {
+			filtered.discard();
+			throw e;
+		}
+		boolean removed = kept != size;
+		spill.discard();
+		spill = filtered;
+		CLEANER.register(this, filtered::discard);
+		size = kept;
+		modCount++;
+		return removed;
+	}
+
+	private void spillMemory() {
+		spill = SpillFile.create(budget.getLimits().getSpillDirectory());
+		for (ValueSetExpansionContainsComponent component : memory) {
+			spill.append(component);
+		}
+		memory = null;
+		CLEANER.register(this, spill::discard);
+	}
+
+	private void closeIndexCursor() {
+		if (indexCursor != null) {
+			indexCursor.close();
+			indexCursor = null;
+		}
+	}
+
+	/**
+	 * Forward-only reader over the entries of the list.
+	 */
+	public static final class Cursor implements Iterator<ValueSetExpansionContainsComponent>, AutoCloseable {
+		private final SpillFile spill;
+		private final Iterator<ValueSetExpansionContainsComponent> memory;
+		private final int size;
+		private BufferedReader reader;
+		private int nextIndex;
+
+		private Cursor(SpillFile spill, BufferedReader reader, Iterator<ValueSetExpansionContainsComponent> memory,
+				int size) {
+			this.spill = spill;
+			this.reader = reader;
+			this.memory = memory;
+			this.size = size;
+		}
+
+		int nextIndex() {
+			return nextIndex;
+		}
+
+		/**
+		 * Moves forward so that {@link #next()} returns the entry at {@code index}.
+		 */
+		void skipTo(int index) {
+			if (memory != null) {
+				nextIndex = index;
+				return;
+			}
+			try {
+				while (nextIndex < index) {
+					reader.readLine();
+					nextIndex++;
+				}
+			} catch (IOException e) {
+				close();
+				throw new InternalErrorException("Could not read spilled expansion: " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextIndex < size;
+		}
+
+		@Override
+		public ValueSetExpansionContainsComponent next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (memory != null) {
+				nextIndex++;
+				return memory.next();
+			}
+			try {
+				ValueSetExpansionContainsComponent value = spill.decode(reader.readLine());
+				if (++nextIndex == size) {
+					close();
+				}
+				return value;
+			} catch (IOException e) {
+				close();
+				throw new InternalErrorException("Could not read spilled expansion: " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (reader != null) {
+				spill.release(reader);
+				reader = null;
+			}
+		}
+	}
+
+	/**
+	 * Temporary JSON-lines file; each concept is wrapped in a holder ValueSet, like the
+	 * pre-expansion store does. Keeps track of its open readers so that discarding the file
+	 * (explicitly or from the cleaner) also closes them.
+	 */
+	private static final class SpillFile {
+		private final Path path;
+		private final IParser parser = FhirContext.forR4Cached().newJsonParser();
+		private final Set<BufferedReader> readers = ConcurrentHashMap.newKeySet();
+		private BufferedWriter writer;
+
+		private SpillFile(Path path) throws IOException {
+			this.path = path;
+			this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+		}
+
+		static SpillFile create(Path directory) {
+			try {
+				Files.createDirectories(directory);
+				return new SpillFile(Files.createTempFile(directory, SPILL_PREFIX, SPILL_SUFFIX));
+			} catch (IOException e) {
+				throw new InternalErrorException("Could not create expansion spill file: " + e.getMessage(), e);
+			}
+		}
+
+		void append(ValueSetExpansionContainsComponent component) {
+			ValueSet holder = new ValueSet();
+			holder.getExpansion().getContains().add(component);
+			try {
+				writer.write(parser.encodeResourceToString(holder));
+				writer.newLine();
+			} catch (IOException e) {
+				throw new InternalErrorException("Could not write expansion spill file: " + e.getMessage(), e);
+			}
+		}
+
+		BufferedReader openReader() {
+			try {
+				writer.flush();
+				BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+				readers.add(reader);
+				return reader;
+			} catch (IOException e) {
+				throw new InternalErrorException("Could not read spilled expansion: " + e.getMessage(), e);
+			}
+		}
+
+		void release(BufferedReader reader) {
+			readers.remove(reader);
+			closeQuietly(reader);
+		}
+
+		ValueSetExpansionContainsComponent decode(String line) {
+			return parser.parseResource(ValueSet.class, line).getExpansion().getContainsFirstRep();
+		}
+
+		void discard() {
+			for (BufferedReader reader : readers) {
+				release(reader);
+			}
+			closeQuietly(writer);
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				// best effort; removed by the startup sweep otherwise
+			}
+		}
+
+		private static void closeQuietly(Closeable closeable) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+
+/**
+ * Code lookup for one CodeSystem version: per code, the position of its first (pre-order)
+ * occurrence in the concept tree, so finding a concept by code costs the depth of the tree
+ * instead of a full walk. Positions rather than concepts are kept, so the cached index can
+ * serve every instance of the same stored version. Attached and cached like {@link PropertyCatalogue}.
+ */
+public final class ConceptCodeIndex implements TerminologyIndexCache.Weighted {
+
+	/** child index at each level, from the root list down to the concept */
+	private final Map<String, int[]> paths = new HashMap<>();
+
+	private ConceptCodeIndex(CodeSystem codeSystem) {
+		index(codeSystem.getConcept(), new int[0]);
+	}
+
+	public static ConceptCodeIndex of(CodeSystem codeSystem) {
+		return TerminologyIndexCache.of(ConceptCodeIndex.class, codeSystem, ConceptCodeIndex::new);
+	}
+
+	@Override
+	public int weight() {
+		return paths.size();
+	}
+
+	private void index(List<ConceptDefinitionComponent> concepts, int[] parent) {
+		for (int i = 0; i < concepts.size(); i++) {
+			ConceptDefinitionComponent concept = concepts.get(i);
+			int[] path = new int[parent.length + 1];
+			System.arraycopy(parent, 0, path, 0, parent.length);
+			path[parent.length] = i;
+			if (concept.getCode() != null) {
+				paths.putIfAbsent(concept.getCode(), path);
+			}
+			index(concept.getConcept(), path);
+		}
+	}
+
+	public boolean contains(String code) {
+		return code != null && paths.containsKey(code);
+	}
+
+	/**
+	 * The first concept with this code in {@code codeSystem} (the same one a depth-first search
+	 * returns), or {@code null}.
+	 */
+	public ConceptDefinitionComponent find(CodeSystem codeSystem, String code) {
+		int[] path = code != null ? paths.get(code) : null;
+		if (path == null) {
+			return null;
+		}
+		List<ConceptDefinitionComponent> level = codeSystem.getConcept();
+		ConceptDefinitionComponent concept = null;
+		for (int i : path) {
+			if (i >= level.size()) {
+				return findRecursive(codeSystem.getConcept(), code);
+			}
+			concept = level.get(i);
+			level = concept.getConcept();
+		}
+		// The instance differs from the one indexed (e.g. adjusted after loading): search it
+		return concept != null && code.equals(concept.getCode()) ? concept
+				: findRecursive(codeSystem.getConcept(), code);
+	}
+
+	private static ConceptDefinitionComponent findRecursive(List<ConceptDefinitionComponent> concepts, String code) {
+		for (ConceptDefinitionComponent concept : concepts) {
+			if (code.equals(concept.getCode())) {
+				return concept;
+			}
+			ConceptDefinitionComponent found = findRecursive(concept.getConcept(), code);
+			if (found != null) {
+				return found;
+			}
+		}
+		return null;
+	}
+}
@@ -37,11 +37,22 @@ public class ConceptCollector {
         }
         return collectAllConceptsRecursive(sourceValueSet, expansion, request, new HashSet<>());
     }	
+
+	/**
+	 * Builds the expansion entry of a single concept exactly as a full expansion would.
+	 * Used to patch stored pre-expansions after a CodeSystem update.
+	 */
+	public ValueSetExpansionContainsComponent createComponent(CodeSystem codeSystem,
+			CodeSystem.ConceptDefinitionComponent conceptDef, ExpansionRequest request) {
+		return componentBuilder.createExpansionComponent(codeSystem, conceptDef, request);
+	}
 	
 	private List<ValueSetExpansionContainsComponent> collectAllConceptsRecursive(ValueSet sourceValueSet,
 			ValueSetExpansionComponent expansion, ExpansionRequest request, Set<String> expansionChain) {
 
 		String canonicalUrl = sourceValueSet.getUrl() + "|" + sourceValueSet.getVersion();
+		// Without excludes the root list only grows, so the size limit applies while collecting
+		boolean finalList = expansionChain.isEmpty() && !sourceValueSet.getCompose().hasExclude();
 
 		if (expansionChain.contains(canonicalUrl)) {
 			OperationOutcome oo = new OperationOutcome();
@@ -55,7 +66,8 @@ public class ConceptCollector {
         try {
             expansionChain.add(canonicalUrl);
 
-            List<ValueSetExpansionContainsComponent> includedCodes = new ArrayList<>();
+            List<ValueSetExpansionContainsComponent> includedCodes = new ConceptBuffer(request.getExpansionBudget(),
+                    finalList);
             processIncludes(sourceValueSet, expansion, request, includedCodes, expansionChain);
             processExcludes(sourceValueSet, expansion, request, includedCodes, expansionChain);
             
@@ -80,6 +92,104 @@ public class ConceptCollector {
 
 		List<ConceptSetComponent> includes = sourceValueSet.getCompose().getInclude();
 
+		recordIncludedVersions(includes, request, systemVersionMap, checkSystemVersionMap, forceSystemVersionMap);
+
+		  for (int i = 0; i < includes.size(); i++) {
+			ConceptSetComponent include = includes.get(i);
+			validateFilters(include, i, sourceValueSet);
+
+			// Process system-based includes
+			if (include.hasSystem()) {
+				processSystemInclude(include, sourceValueSet, expansion, request, includedCodes, excludedSystems,
+						systemVersionMap, checkSystemVersionMap, forceSystemVersionMap);
+			}
+
+			// Process ValueSet-based includes
+			if (include.hasValueSet()) {
+				processValueSetInclude(include, expansion, request, includedCodes, expansionChain);
+			}
+		}
+	}
+
+	/**
+	 * Count-only execution ($expand with count=0): computes expansion.total from
+	 * {@link ConceptCountIndex} without building any contains entries, adding the same
+	 * expansion parameters a full run would. Applies to composes made only of whole-system or
+	 * single is-a/descendent-of includes with no excludes and no text/notForUI filtering;
+	 * returns {@code null} otherwise so the caller falls back to full collection.
+	 */
+	public Integer countAllConcepts(ValueSet sourceValueSet, ValueSetExpansionComponent expansion,
+			ExpansionRequest request) {
+
+		if (!isCountable(sourceValueSet, request)) {
+			return null;
+		}
+
+		Set<String> excludedSystems = getExcludedSystems(request.getExcludeSystem());
+		Map<String, String> systemVersionMap = parseSystemVersions(request.getSystemVersion());
+		Map<String, String> checkSystemVersionMap = parseSystemVersions(request.getCheckSystemVersion());
+		Map<String, String> forceSystemVersionMap = parseSystemVersions(request.getForceSystemVersion());
+
+		List<ConceptSetComponent> includes = sourceValueSet.getCompose().getInclude();
+		recordIncludedVersions(includes, request, systemVersionMap, checkSystemVersionMap, forceSystemVersionMap);
+
+		boolean activeOnly = (request.getActiveOnly() != null && request.getActiveOnly().getValue())
+				|| (sourceValueSet.getCompose().hasInactive() && !sourceValueSet.getCompose().getInactive());
+
+		int total = 0;
+		for (int i = 0; i < includes.size(); i++) {
+			ConceptSetComponent include = includes.get(i);
+			validateFilters(include, i, sourceValueSet);
+
+			CodeSystem codeSystem = resolveSystemInclude(include, expansion, request, excludedSystems,
+					systemVersionMap, checkSystemVersionMap, forceSystemVersionMap);
+			if (codeSystem == null) {
+				continue;
+			}
+			ConceptCountIndex index = ConceptCountIndex.of(codeSystem, conceptFilter);
+			if (!include.hasFilter()) {
+				total += index.getTotal(activeOnly);
+			} else {
+				ConceptSetFilterComponent filter = include.getFilterFirstRep();
+				total += filter.getOp() == FilterOperator.ISA
+						? index.getSelfAndDescendants(filter.getValue(), activeOnly)
+						: index.getDescendants(filter.getValue(), activeOnly);
+			}
+		}
+		return total;
+	}
+
+	private boolean isCountable(ValueSet sourceValueSet, ExpansionRequest request) {
+		if (!sourceValueSet.hasCompose() || sourceValueSet.getCompose().hasExclude()) {
+			return false;
+		}
+		if ((request.getFilter() != null && request.getFilter().hasValue())
+				|| (request.getExcludeNotForUI() != null && request.getExcludeNotForUI().getValue())) {
+			return false;
+		}
+		for (ConceptSetComponent include : sourceValueSet.getCompose().getInclude()) {
+			if (!include.hasSystem() || include.hasValueSet() || include.hasConcept()
+					|| include.getFilter().size() > 1) {
+				return false;
+			}
+			if (include.hasFilter()) {
+				ConceptSetFilterComponent filter = include.getFilterFirstRep();
+				if (!"concept".equals(filter.getProperty()) || !filter.hasValue()
+						|| (filter.getOp() != FilterOperator.ISA && filter.getOp() != FilterOperator.DESCENDENTOF)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records requested and resolved CodeSystem versions of all system includes up front.
+	 */
+	private void recordIncludedVersions(List<ConceptSetComponent> includes, ExpansionRequest request,
+			Map<String, String> systemVersionMap, Map<String, String> checkSystemVersionMap,
+			Map<String, String> forceSystemVersionMap) {
+
 		  for (ConceptSetComponent include : includes) {
 		      if (include.hasSystem()) {
 		          String systemUrl = include.getSystem();
@@ -100,22 +210,6 @@ public class ConceptCollector {
 		          }
 		      }
 		  }
-
-		  for (int i = 0; i < includes.size(); i++) {
-			ConceptSetComponent include = includes.get(i);
-			validateFilters(include, i, sourceValueSet);
-
-			// Process system-based includes
-			if (include.hasSystem()) {
-				processSystemInclude(include, sourceValueSet, expansion, request, includedCodes, excludedSystems,
-						systemVersionMap, checkSystemVersionMap, forceSystemVersionMap);
-			}
-
-			// Process ValueSet-based includes
-			if (include.hasValueSet()) {
-				processValueSetInclude(include, expansion, request, includedCodes, expansionChain);
-			}
-		}
 	}
 
 	/**
@@ -127,9 +221,24 @@ public class ConceptCollector {
 			Map<String, String> systemVersionMap, Map<String, String> checkSystemVersionMap,
 			Map<String, String> forceSystemVersionMap) {
 
+		CodeSystem codeSystem = resolveSystemInclude(include, expansion, request, excludedSystems, systemVersionMap,
+				checkSystemVersionMap, forceSystemVersionMap);
+		if (codeSystem != null) {
+			addCodesFromCodeSystem(includedCodes, sourceValueSet, codeSystem, include, request);
+		}
+	}
+
+	/**
+	 * Resolves the CodeSystem of a system include, validates check-system-version and adds the
+	 * used-codesystem/warning parameters. Returns {@code null} when excluded or not found.
+	 */
+	private CodeSystem resolveSystemInclude(ConceptSetComponent include, ValueSetExpansionComponent expansion,
+			ExpansionRequest request, Set<String> excludedSystems, Map<String, String> systemVersionMap,
+			Map<String, String> checkSystemVersionMap, Map<String, String> forceSystemVersionMap) {
+
 		String systemUrl = include.getSystem();
 		if (excludedSystems.contains(systemUrl)) {
-			return;
+			return null;
 		}
 
 		String version = determineSystemVersion(systemUrl, include.getVersion(), systemVersionMap,
@@ -153,8 +262,8 @@ public class ConceptCollector {
 			}
 
 			addSystemParameters(expansion, codeSystem, systemUrl, version);
-			addCodesFromCodeSystem(includedCodes, sourceValueSet, codeSystem, include, request);
 		}
+		return codeSystem;
 	}
 
 	/**
@@ -193,10 +302,64 @@ public class ConceptCollector {
 					addWarningParameter(expansion, "warning-withdrawn", resolvedCanonical);
 				}
 
-				// Recursively collect concepts from included ValueSet
-				includedCodes.addAll(collectAllConceptsRecursive(importedVs, expansion, request, expansionChain));
+				// Recursively collect concepts from included ValueSet (memoized per request)
+				SubExpansionMemo.Entry subExpansion = collectSubExpansion(importedVs, expansion, request,
+						expansionChain, request.isMembershipOnly());
+				if (subExpansion.claimConcepts()) {
+					includedCodes.addAll(subExpansion.getConcepts());
+					continue;
+				}
+				for (ValueSetExpansionContainsComponent concept : subExpansion.getConcepts()) {
+					ValueSetExpansionContainsComponent copy = concept.copy();
+					if (request.getExpansionBudget() != null && !request.isMembershipOnly()) {
+						request.getExpansionBudget().record(copy);
+					}
+					includedCodes.add(copy);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Expands an imported or excluded ValueSet once per request. On a repeat the parameters
+	 * the first expansion added are replayed the way a re-expansion would add them
+	 * (used-valueset/default-valueset-version unconditionally, the rest only if missing).
+	 * With {@code membershipOnly} the concepts are collected as bare system/code pairs, which
+	 * is all an exclude needs.
+	 */
+	private SubExpansionMemo.Entry collectSubExpansion(ValueSet valueSet, ValueSetExpansionComponent expansion,
+			ExpansionRequest request, Set<String> expansionChain, boolean membershipOnly) {
+
+		String canonicalUrl = valueSet.getUrl() + "|" + valueSet.getVersion();
+		SubExpansionMemo memo = request.getSubExpansionMemo();
+		SubExpansionMemo.Entry entry = memo.get(canonicalUrl, membershipOnly);
+
+		if (entry != null) {
+			for (ValueSetExpansionParameterComponent param : entry.getAddedParameters()) {
+				String name = param.getName();
+				if ("used-valueset".equals(name) || "default-valueset-version".equals(name)
+						|| !hasParameter(expansion, name, param.getValue())) {
+					expansion.addParameter(param.copy());
+				}
 			}
+			return entry;
 		}
+
+		int parameterCountBefore = expansion.getParameter().size();
+		List<ValueSetExpansionContainsComponent> concepts;
+		if (membershipOnly) {
+			request.enterMembershipOnly();
+			try {
+				concepts = collectAllConceptsRecursive(valueSet, expansion, request, expansionChain);
+			} finally {
+				request.exitMembershipOnly();
+			}
+		} else {
+			concepts = collectAllConceptsRecursive(valueSet, expansion, request, expansionChain);
+		}
+		return memo.put(canonicalUrl, concepts,
+				expansion.getParameter().subList(parameterCountBefore, expansion.getParameter().size()),
+				membershipOnly);
 	}
 
 	/**
@@ -227,12 +390,9 @@ public class ConceptCollector {
                 for (CanonicalType valueSetToExclude : exclude.getValueSet()) {
                     ValueSet excludedVs = resourceFinder.findValueSetByCanonical(valueSetToExclude, request);
                     if (excludedVs != null) {
-                        List<ValueSetExpansionContainsComponent> conceptsToExcludeFromVs =
-                            collectAllConceptsRecursive(excludedVs, expansion, request, expansionChain);
-                        
-                        conceptsToExcludeFromVs.forEach(comp -> 
-                            codesToExclude.add(comp.getSystem() + "|" + comp.getCode())
-                        );
+                        // Only membership matters here: collect bare system|code pairs
+                        codesToExclude.addAll(collectSubExpansion(excludedVs, expansion, request,
+                                expansionChain, true).getCodeKeys());
                     }
                 }
             }			
@@ -409,17 +569,14 @@ public class ConceptCollector {
 				&& f.getOp() != FilterOperator.DESCENDENTOF && f.getOp() != FilterOperator.GENERALIZES)
 				.collect(Collectors.toList());
 
-		List<ValueSetExpansionContainsComponent> conceptsForThisInclude = new ArrayList<>();
-
+		// Appended straight to the (possibly spilling) target list, no intermediate copy
 		if (generalizesFilter.isPresent()) {
-			processGeneralizes(conceptsForThisInclude, codeSystem, generalizesFilter.get().getValue(), propertyFilters,
+			processGeneralizes(allCodes, codeSystem, generalizesFilter.get().getValue(), propertyFilters,
 					request);
 		} else {
-			processHierarchicalFilters(conceptsForThisInclude, sourceValueSet, codeSystem, isAFilter,
+			processHierarchicalFilters(allCodes, sourceValueSet, codeSystem, isAFilter,
 					descendentOfFilter, propertyFilters, request);
 		}
-
-		allCodes.addAll(conceptsForThisInclude);
 	}
 
 	/**
@@ -30,8 +30,15 @@ public class ConceptComponentBuilder {
             CodeSystem codeSystem,
             CodeSystem.ConceptDefinitionComponent conceptDef,
             ExpansionRequest request) {
+        if (request.isMembershipOnly()) {
+            // Excluded ValueSets only need the system|code pair
+            ValueSetExpansionContainsComponent member = new ValueSetExpansionContainsComponent();
+            member.setSystem(codeSystem.getUrl());
+            member.setCode(conceptDef.getCode());
+            return member;
+        }
     	propertiesFromExtensions.get().clear();
-    	preprocessConceptExtensions(conceptDef);
+    	conceptDef = preprocessConceptExtensions(conceptDef);
 
         ValueSetExpansionContainsComponent component = new ValueSetExpansionContainsComponent();
         component.setSystem(codeSystem.getUrl());
@@ -41,17 +48,20 @@ public class ConceptComponentBuilder {
             component.setVersion(codeSystem.getVersion());
         }
 
+        // Supplement content is read from the request's overlay; the base concept is not copied
         CodeSystem.ConceptDefinitionComponent mergedConceptDef =
-                mergeWithSupplements(conceptDef, request);
+                request.getSupplementOverlay().apply(conceptDef);
 
-        processDisplay(component, mergedConceptDef, codeSystem, request);
+        List<CodeSystem.ConceptDefinitionDesignationComponent> designations =
+                processDisplay(component, mergedConceptDef, codeSystem, request);
         setConceptFlags(component, mergedConceptDef, codeSystem);
         if (shouldIncludeDesignations(request)) {
-            addDesignations(component, mergedConceptDef, request);
+            addDesignations(component, designations, request);
         }
 
         List<Extension> knownNonPropertyExtensions = mergedConceptDef.getExtension().stream()
                 .filter(ext -> isKnownNonPropertyExtension(ext.getUrl()))
+                .map(Extension::copy)
                 .collect(Collectors.toList());
 
         component.setExtension(knownNonPropertyExtensions);
@@ -61,14 +71,24 @@ public class ConceptComponentBuilder {
         }
 
         propertiesFromExtensions.get().clear();
+        if (request.getExpansionBudget() != null) {
+            request.getExpansionBudget().record(component);
+        }
         return component;
     }
 
 
-    private void preprocessConceptExtensions(CodeSystem.ConceptDefinitionComponent conceptDef) {
-        if (!conceptDef.hasExtension()) {
-            return;
+    /**
+     * The concept with its property-mapped extensions applied as properties; a copy when there
+     * are any, since CodeSystems (e.g. assembled from the concept store) are shared read-only.
+     */
+    private CodeSystem.ConceptDefinitionComponent preprocessConceptExtensions(
+            CodeSystem.ConceptDefinitionComponent source) {
+        if (!source.hasExtension() || source.getExtension().stream()
+                .noneMatch(ext -> ext.hasValue() && getPropertyCodeFromExtensionUrl(ext.getUrl()).isPresent())) {
+            return source;
         }
+        CodeSystem.ConceptDefinitionComponent conceptDef = source.copy();
 
         for (Extension ext : new ArrayList<>(conceptDef.getExtension())) {
             getPropertyCodeFromExtensionUrl(ext.getUrl()).ifPresent(propertyCode -> {
@@ -82,6 +102,7 @@ public class ConceptComponentBuilder {
                 }
             });
         }
+        return conceptDef;
     }
 
 	private boolean isKnownNonPropertyExtension(String url) {
@@ -99,54 +120,6 @@ public class ConceptComponentBuilder {
         }
     }
 
-	/**
-	 * Merges concept definition with supplement CodeSystems
-	 */
-	private CodeSystem.ConceptDefinitionComponent mergeWithSupplements(CodeSystem.ConceptDefinitionComponent conceptDef,
-			ExpansionRequest request) {
-
-		CodeSystem.ConceptDefinitionComponent merged = conceptDef.copy();
-
-        if (request.getSupplements() != null && !request.getSupplements().isEmpty()) {
-            for (CodeSystem supplementCs : request.getSupplements().values()) {
-                CodeSystem.ConceptDefinitionComponent supplementConcept = 
-                    findConceptInCodeSystem(supplementCs, conceptDef.getCode());
-
-				if (supplementConcept != null) {
-					for (CodeSystem.ConceptDefinitionDesignationComponent supDesg : supplementConcept
-							.getDesignation()) {
-						merged.addDesignation(supDesg);
-					}
-
-					for (CodeSystem.ConceptPropertyComponent supProp : supplementConcept.getProperty()) {
-						merged.getProperty().removeIf(p -> p.getCode().equals(supProp.getCode()));
-						merged.addProperty(supProp);
-					}
-
-                    for (Extension supExt : supplementConcept.getExtension()) {
-                        merged.getExtension().removeIf(e -> e.getUrl().equals(supExt.getUrl()));
-                        merged.addExtension(supExt);
-                        
-                        mapExtensionToProperty(supExt, merged);
-                    }
-				}
-			}
-		}
-
-		return merged;
-	}
-
-	private void mapExtensionToProperty(Extension ext, CodeSystem.ConceptDefinitionComponent conceptDef) {
-        getPropertyCodeFromExtensionUrl(ext.getUrl()).ifPresent(propertyCode -> {
-            if (ext.hasValue()) {
-                conceptDef.getProperty().removeIf(p -> propertyCode.equals(p.getCode()));
-                conceptDef.addProperty()
-                    .setCode(propertyCode)
-                    .setValue(ext.getValue());
-            }
-        });
-    }
-
     public static java.util.Optional<String> getPropertyCodeFromExtensionUrl(String url) {
         if (url == null) return java.util.Optional.empty();
         switch (url) {
@@ -167,19 +140,18 @@ public class ConceptComponentBuilder {
     // 
 
 	/**
-	 * Processes and sets the display value based on language preferences
+	 * Processes and sets the display value based on language preferences. Returns the
+	 * designations left after display promotion.
 	 */
-	private void processDisplay(ValueSetExpansionContainsComponent component,
+	private List<CodeSystem.ConceptDefinitionDesignationComponent> processDisplay(ValueSetExpansionContainsComponent component,
 			CodeSystem.ConceptDefinitionComponent conceptDef, CodeSystem codeSystem, ExpansionRequest request) {
 
 		String defaultDisplay = conceptDef.getDisplay();
 		String defaultLanguage = codeSystem.getLanguage();
 		String finalDisplay = defaultDisplay;
 
-		List<CodeSystem.ConceptDefinitionDesignationComponent> finalDesignations = new ArrayList<>();
-		if (conceptDef.hasDesignation()) {
-			conceptDef.getDesignation().forEach(d -> finalDesignations.add(d.copy()));
-		}
+		List<CodeSystem.ConceptDefinitionDesignationComponent> finalDesignations = new ArrayList<>(
+				conceptDef.getDesignation());
 
 		String displayLanguage = request.getDisplayLanguage();
 		List<LanguageProcessor.LanguagePreference> preferences = languageProcessor
@@ -231,7 +203,7 @@ public class ConceptComponentBuilder {
 
 		component.setDisplay(finalDisplay);
 
-		conceptDef.setDesignation(finalDesignations);
+		return finalDesignations;
 	}
 
 	/**
@@ -258,12 +230,19 @@ public class ConceptComponentBuilder {
 	 * Adds designations to the component
 	 */
 	private void addDesignations(ValueSetExpansionContainsComponent component,
-			CodeSystem.ConceptDefinitionComponent conceptDef, ExpansionRequest request) {
+			List<CodeSystem.ConceptDefinitionDesignationComponent> designations, ExpansionRequest request) {
 
-		for (CodeSystem.ConceptDefinitionDesignationComponent sourceDesg : conceptDef.getDesignation()) {
+		for (CodeSystem.ConceptDefinitionDesignationComponent sourceDesg : designations) {
 			if (shouldIncludeDesignation(sourceDesg, request)) {
-				component.addDesignation().setLanguage(sourceDesg.getLanguage()).setUse(sourceDesg.getUse())
-						.setValue(sourceDesg.getValue()).setExtension(sourceDesg.getExtension());
+				// Deep copies: the source may belong to a cached CodeSystem or supplement overlay
+				ValueSet.ConceptReferenceDesignationComponent designation = component.addDesignation()
+						.setLanguage(sourceDesg.getLanguage()).setValue(sourceDesg.getValue());
+				if (sourceDesg.hasUse()) {
+					designation.setUse(sourceDesg.getUse().copy());
+				}
+				for (Extension ext : sourceDesg.getExtension()) {
+					designation.addExtension(ext.copy());
+				}
 			}
 		}
 	}
@@ -299,13 +278,13 @@ public class ConceptComponentBuilder {
 
 		containsPropertyExt.addExtension().setUrl("code").setValue(new CodeType(code));
 
-		Type finalValue = value;
+		Type finalValue = value.copy();
 
 		if ("order".equals(code) || "weight".equals(code)) {
 			if (value instanceof IntegerType) {
 				finalValue = new DecimalType(((IntegerType) value).getValue());
 			} else if (value instanceof DecimalType) {
-				finalValue = value;
+				finalValue = value.copy();
 			}
 		}
 
@@ -404,36 +383,4 @@ public class ConceptComponentBuilder {
 
 		return Optional.empty();
 	}
-
-	/**
-	 * Helper method to find concept in CodeSystem
-	 */
-	private CodeSystem.ConceptDefinitionComponent findConceptInCodeSystem(CodeSystem codeSystem, String code) {
-		if (codeSystem == null || code == null) {
-			return null;
-		}
-
-		for (CodeSystem.ConceptDefinitionComponent concept : codeSystem.getConcept()) {
-			CodeSystem.ConceptDefinitionComponent found = findConceptRecursive(concept, code);
-			if (found != null) {
-				return found;
-			}
-		}
-		return null;
-	}
-
-	private CodeSystem.ConceptDefinitionComponent findConceptRecursive(CodeSystem.ConceptDefinitionComponent concept,
-			String code) {
-		if (code.equals(concept.getCode())) {
-			return concept;
-		}
-
-		for (CodeSystem.ConceptDefinitionComponent child : concept.getConcept()) {
-			CodeSystem.ConceptDefinitionComponent found = findConceptRecursive(child, code);
-			if (found != null) {
-				return found;
-			}
-		}
-		return null;
-	}
 }
\ No newline at end of file
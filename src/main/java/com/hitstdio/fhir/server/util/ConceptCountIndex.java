@@ -0,0 +1,85 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+
+/**
+ * Concept counts of one CodeSystem version: total and active concepts, and per code the size
+ * of its subtree (itself plus descendants, first occurrence of the code). Lets count-only
+ * expansions of whole-system and is-a/descendent-of includes answer in constant time.
+ * Attached to the CodeSystem instance and cached per stored version like {@link PropertyCatalogue}.
+ */
+public final class ConceptCountIndex implements TerminologyIndexCache.Weighted {
+
+	/** [all, active] subtree sizes per code */
+	private final Map<String, int[]> subtrees = new HashMap<>();
+	private final Map<String, Boolean> active = new HashMap<>();
+	private final int total;
+	private final int activeTotal;
+
+	private ConceptCountIndex(CodeSystem codeSystem, ConceptFilter conceptFilter) {
+		int[] root = count(codeSystem.getConcept(), conceptFilter);
+		this.total = root[0];
+		this.activeTotal = root[1];
+	}
+
+	public static ConceptCountIndex of(CodeSystem codeSystem, ConceptFilter conceptFilter) {
+		return TerminologyIndexCache.of(ConceptCountIndex.class, codeSystem,
+				cs -> new ConceptCountIndex(cs, conceptFilter));
+	}
+
+	@Override
+	public int weight() {
+		return subtrees.size() * 2;
+	}
+
+	private int[] count(List<ConceptDefinitionComponent> concepts, ConceptFilter conceptFilter) {
+		int[] sum = new int[2];
+		for (ConceptDefinitionComponent concept : concepts) {
+			boolean isActive = !conceptFilter.isConceptInactive(concept);
+			int[] subtree = new int[2];
+			// Registered before descending so the first (pre-order) occurrence of a code wins
+			if (concept.getCode() != null && !subtrees.containsKey(concept.getCode())) {
+				subtrees.put(concept.getCode(), subtree);
+				active.put(concept.getCode(), isActive);
+			}
+			int[] children = count(concept.getConcept(), conceptFilter);
+			subtree[0] = children[0] + 1;
+			subtree[1] = children[1] + (isActive ? 1 : 0);
+			sum[0] += subtree[0];
+			sum[1] += subtree[1];
+		}
+		return sum;
+	}
+
+	/**
+	 * Number of concepts in the CodeSystem (every occurrence in the tree).
+	 */
+	public int getTotal(boolean activeOnly) {
+		return activeOnly ? activeTotal : total;
+	}
+
+	/**
+	 * Size of the is-a closure of {@code code}; 0 when the code is unknown.
+	 */
+	public int getSelfAndDescendants(String code, boolean activeOnly) {
+		int[] subtree = subtrees.get(code);
+		return subtree == null ? 0 : subtree[activeOnly ? 1 : 0];
+	}
+
+	/**
+	 * Size of the descendent-of closure of {@code code}; 0 when the code is unknown.
+	 */
+	public int getDescendants(String code, boolean activeOnly) {
+		int[] subtree = subtrees.get(code);
+		if (subtree == null) {
+			return 0;
+		}
+		boolean selfCounted = !activeOnly || Boolean.TRUE.equals(active.get(code));
+		return subtree[activeOnly ? 1 : 0] - (selfCounted ? 1 : 0);
+	}
+}
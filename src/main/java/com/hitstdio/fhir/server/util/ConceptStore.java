@@ -0,0 +1,732 @@
+package com.hitstdio.fhir.server.util;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptPropertyComponent;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Property;
+import org.hl7.fhir.r4.model.StringType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+/**
+ * Relational copy of stored CodeSystem concepts, so that a single concept can be read with an
+ * indexed query instead of loading and parsing the whole CodeSystem resource.
+ * <p>
+ * One header row per CodeSystem url|version ({@code TX_CS_HEADER}, holding the resource
+ * without its concepts) and one row per concept ({@code TX_CS_CONCEPT}) with code, display,
+ * status, the pre-order interval {@code [LFT, RGT]} of its subtree, the LFT of its parent and
+ * the concept itself (properties, designations, extensions; no children) as JSON. Rows are written by
+ * {@link ConceptStoreLoader} from stored resources and by {@link CodeSystemBulkLoader} from
+ * streamed input; readers fall back to the resource when a url|version has no header row.
+ * <p>
+ * Bulk-loaded CodeSystems exist only in this form (the resource is a header with
+ * {@code content = not-present}): single concepts are read with {@link #findView}, and the
+ * full resource is rebuilt chunk by chunk with {@link #assemble} when a client reads it.
+ * Loads in progress are registered in {@code TX_CS_LOAD} (refreshed with every chunk written),
+ * which claims a url|version across nodes ({@link #openBulkWriter(int, int, String, String)})
+ * and keeps their rows from {@link #sweepOrphans()}.
+ */
+public class ConceptStore {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(ConceptStore.class);
+
+	private static final String TABLE_HEADER = "TX_CS_HEADER";
+	private static final String TABLE_CONCEPT = "TX_CS_CONCEPT";
+	private static final String TABLE_LOAD = "TX_CS_LOAD";
+
+	/** A registered load that wrote no chunk for this long is considered dead */
+	static final Duration STALE_LOAD_AGE = Duration.ofHours(1);
+
+	private static final int INSERT_BATCH_SIZE = 500;
+	private static final int MAX_DISPLAY_LENGTH = 2000;
+	private static final int MAX_STATUS_LENGTH = 64;
+
+	private static final String CONCEPT_COLUMNS = "LFT, RGT, DEPTH, PARENT_LFT, CONCEPT_JSON";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final FhirContext fhirContext;
+	private int assemblyChunkSize = 1000;
+
+	public ConceptStore(DataSource dataSource, FhirContext fhirContext) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		this.fhirContext = fhirContext;
+	}
+
+	/**
+	 * Number of rows read per query when terminology operations need the whole concept tree of
+	 * a header-only CodeSystem ({@link #withConcepts(CodeSystem)}).
+	 */
+	public void setAssemblyChunkSize(int assemblyChunkSize) {
+		this.assemblyChunkSize = Math.max(1, assemblyChunkSize);
+	}
+
+	private record Header(String id, String resourceVersion, String json) {
+	}
+
+	/** {@code parentLft} is {@code null} for top-level concepts and rows stored before the column existed */
+	private record ConceptRow(int lft, int rgt, int depth, Integer parentLft, String json) {
+	}
+
+	/**
+	 * Creates the concept tables and indexes when they do not exist yet, and adds the columns
+	 * later versions introduced to existing tables.
+	 */
+	public void initializeSchema() {
+		jdbcTemplate.execute((Connection connection) -> {
+			if (!tableExists(connection, TABLE_HEADER)) {
+				jdbcTemplate.execute("CREATE TABLE " + TABLE_HEADER + " ("
+						+ "CS_ID VARCHAR2(64) NOT NULL PRIMARY KEY, "
+						+ "CS_URL VARCHAR2(500) NOT NULL, "
+						+ "CS_VERSION VARCHAR2(200) NOT NULL, "
+						+ "CS_RES_VER VARCHAR2(64), "
+						+ "CONCEPT_COUNT NUMBER(10) NOT NULL, "
+						+ "HEADER_JSON CLOB, "
+						+ "STORED_AT TIMESTAMP NOT NULL)");
+				jdbcTemplate.execute("CREATE UNIQUE INDEX IDX_CS_HEADER_URL_VER ON " + TABLE_HEADER + " (CS_URL, CS_VERSION)");
+			}
+			if (!tableExists(connection, TABLE_CONCEPT)) {
+				jdbcTemplate.execute("CREATE TABLE " + TABLE_CONCEPT + " ("
+						+ "CS_ID VARCHAR2(64) NOT NULL, "
+						+ "LFT NUMBER(10) NOT NULL, "
+						+ "RGT NUMBER(10) NOT NULL, "
+						+ "DEPTH NUMBER(5) NOT NULL, "
+						+ "PARENT_LFT NUMBER(10), "
+						+ "CODE VARCHAR2(500) NOT NULL, "
+						+ "DISPLAY VARCHAR2(2000), "
+						+ "STATUS VARCHAR2(64), "
+						+ "IS_INACTIVE NUMBER(1), "
+						+ "CONCEPT_JSON CLOB, "
+						+ "PRIMARY KEY (CS_ID, LFT))");
+				jdbcTemplate.execute("CREATE INDEX IDX_CS_CONCEPT_CODE ON " + TABLE_CONCEPT + " (CS_ID, CODE)");
+			} else if (!columnExists(connection, TABLE_CONCEPT, "PARENT_LFT")) {
+				jdbcTemplate.execute("ALTER TABLE " + TABLE_CONCEPT + " ADD (PARENT_LFT NUMBER(10))");
+			}
+			if (!tableExists(connection, TABLE_LOAD)) {
+				jdbcTemplate.execute("CREATE TABLE " + TABLE_LOAD + " ("
+						+ "CS_ID VARCHAR2(64) NOT NULL PRIMARY KEY, "
+						+ "CS_URL VARCHAR2(500), "
+						+ "CS_VERSION VARCHAR2(200), "
+						+ "UPDATED_AT TIMESTAMP NOT NULL)");
+				// only claimed loads carry url|version; unclaimed rows (both NULL) never collide
+				jdbcTemplate.execute("CREATE UNIQUE INDEX IDX_CS_LOAD_URL_VER ON " + TABLE_LOAD + " (CS_URL, CS_VERSION)");
+			}
+			return null;
+		});
+	}
+
+	private boolean columnExists(Connection connection, String tableName, String columnName) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		for (String table : new String[] { tableName, tableName.toLowerCase(Locale.ROOT) }) {
+			for (String column : new String[] { columnName, columnName.toLowerCase(Locale.ROOT) }) {
+				try (ResultSet rs = metaData.getColumns(null, null, table, column)) {
+					if (rs.next()) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean tableExists(Connection connection, String tableName) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		for (String candidate : new String[] { tableName, tableName.toLowerCase(Locale.ROOT) }) {
+			try (ResultSet rs = metaData.getTables(null, null, candidate, new String[] { "TABLE" })) {
+				if (rs.next()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether url|version has no rows stored from the given resource version.
+	 */
+	public boolean needsRefresh(String url, String version, String resourceVersion) {
+		Header header = findHeader(url, version);
+		return header == null || resourceVersion == null || !resourceVersion.equals(header.resourceVersion());
+	}
+
+	/**
+	 * Stored versions of a CodeSystem url ({@code null} for an unversioned one).
+	 */
+	public List<String> findVersions(String url) {
+		return jdbcTemplate.query("SELECT CS_VERSION FROM " + TABLE_HEADER + " WHERE CS_URL = ?",
+				(rs, rowNum) -> denormalizeVersion(rs.getString("CS_VERSION")), url);
+	}
+
+	/**
+	 * A copy of the stored CodeSystem reduced to what a single-concept operation reads: every
+	 * element except {@code concept}, and a concept tree holding only the concept with this
+	 * code (first in pre-order), its ancestors, its direct children and the concepts its
+	 * {@code parent} properties name. The tree is empty when the code is not in the CodeSystem.
+	 * Returns {@code null} when url|version is not stored, so the caller reads the resource.
+	 * <p>
+	 * The copy carries no resource version, so per-version caches never index it.
+	 */
+	public CodeSystem findView(String url, String version, String code) {
+		Header header = findHeader(url, version);
+		if (header == null) {
+			return null;
+		}
+		CodeSystem view = newParser().parseResource(CodeSystem.class, header.json());
+		if (view.getIdElement().hasIdPart()) {
+			view.setId(view.getIdElement().getIdPart());
+		}
+		if (view.hasMeta()) {
+			view.getMeta().setVersionId(null);
+		}
+		if (code == null) {
+			return view;
+		}
+
+		List<ConceptRow> matches = jdbcTemplate.query("SELECT " + CONCEPT_COLUMNS + " FROM " + TABLE_CONCEPT
+				+ " WHERE CS_ID = ? AND CODE = ? ORDER BY LFT", (rs, rowNum) -> readRow(rs), header.id(), code);
+		if (matches.isEmpty()) {
+			return view;
+		}
+		ConceptRow target = matches.get(0);
+
+		Set<String> placed = new HashSet<>();
+		List<ConceptDefinitionComponent> level = view.getConcept();
+		for (ConceptRow ancestor : findAncestors(header.id(), target)) {
+			ConceptDefinitionComponent concept = decodeConcept(ancestor.json());
+			placed.add(concept.getCode());
+			level.add(concept);
+			level = concept.getConcept();
+		}
+		ConceptDefinitionComponent concept = decodeConcept(target.json());
+		placed.add(concept.getCode());
+		level.add(concept);
+		for (ConceptRow child : jdbcTemplate.query("SELECT " + CONCEPT_COLUMNS + " FROM " + TABLE_CONCEPT
+				+ " WHERE CS_ID = ? AND LFT > ? AND LFT <= ? AND DEPTH = ? ORDER BY LFT", (rs, rowNum) -> readRow(rs),
+				header.id(), target.lft(), target.rgt(), target.depth() + 1)) {
+			concept.addConcept(decodeConcept(child.json()));
+		}
+
+		for (ConceptPropertyComponent property : concept.getProperty()) {
+			if (!"parent".equals(property.getCode())) {
+				continue;
+			}
+			String parentCode = property.getValue() instanceof CodeType c ? c.getValue()
+					: property.getValue() instanceof StringType s ? s.getValue() : null;
+			if (parentCode == null || !placed.add(parentCode)) {
+				continue;
+			}
+			List<ConceptRow> parents = jdbcTemplate.query("SELECT " + CONCEPT_COLUMNS + " FROM " + TABLE_CONCEPT
+					+ " WHERE CS_ID = ? AND CODE = ? ORDER BY LFT", (rs, rowNum) -> readRow(rs), header.id(), parentCode);
+			if (!parents.isEmpty()) {
+				view.addConcept(decodeConcept(parents.get(0).json()));
+			}
+		}
+		return view;
+	}
+
+	/**
+	 * Ancestors of a concept row, root first: one primary key lookup per level along PARENT_LFT,
+	 * none for a top-level concept. Rows stored without PARENT_LFT fall back to the interval
+	 * query.
+	 */
+	private List<ConceptRow> findAncestors(String storeId, ConceptRow target) {
+		List<ConceptRow> ancestors = new ArrayList<>();
+		ConceptRow current = target;
+		while (current.depth() > 0) {
+			if (current.parentLft() == null) {
+				return jdbcTemplate.query("SELECT " + CONCEPT_COLUMNS + " FROM " + TABLE_CONCEPT
+						+ " WHERE CS_ID = ? AND LFT < ? AND RGT >= ? ORDER BY LFT", (rs, rowNum) -> readRow(rs),
+						storeId, target.lft(), target.lft());
+			}
+			List<ConceptRow> parents = jdbcTemplate.query("SELECT " + CONCEPT_COLUMNS + " FROM " + TABLE_CONCEPT
+					+ " WHERE CS_ID = ? AND LFT = ?", (rs, rowNum) -> readRow(rs), storeId, current.parentLft());
+			if (parents.isEmpty()) {
+				break;
+			}
+			current = parents.get(0);
+			ancestors.add(0, current);
+		}
+		return ancestors;
+	}
+
+	/**
+	 * Passes every top-level concept of url|version, children included, to {@code sink} in
+	 * stored order. Rows are read in LFT ranges of {@code chunkSize}, so only one chunk and the
+	 * subtree being rebuilt are held at a time. Returns {@code false} when url|version is not
+	 * stored.
+	 */
+	public boolean forEachConcept(String url, String version, int chunkSize,
+			Consumer<ConceptDefinitionComponent> sink) {
+		Header header = findHeader(url, version);
+		if (header == null) {
+			return false;
+		}
+		int step = Math.max(1, chunkSize);
+		List<ConceptDefinitionComponent> path = new ArrayList<>();
+		for (int from = 0;; from += step) {
+			List<ConceptRow> rows = jdbcTemplate.query("SELECT " + CONCEPT_COLUMNS + " FROM " + TABLE_CONCEPT
+					+ " WHERE CS_ID = ? AND LFT >= ? AND LFT < ? ORDER BY LFT", (rs, rowNum) -> readRow(rs),
+					header.id(), from, from + step);
+			if (rows.isEmpty()) {
+				break;
+			}
+			for (ConceptRow row : rows) {
+				ConceptDefinitionComponent concept = decodeConcept(row.json());
+				if (row.depth() == 0 || path.isEmpty()) {
+					if (!path.isEmpty()) {
+						sink.accept(path.get(0));
+					}
+					path.clear();
+				} else {
+					while (path.size() > row.depth()) {
+						path.remove(path.size() - 1);
+					}
+					path.get(path.size() - 1).addConcept(concept);
+				}
+				path.add(concept);
+			}
+		}
+		if (!path.isEmpty()) {
+			sink.accept(path.get(0));
+		}
+		return true;
+	}
+
+	/**
+	 * The CodeSystem as terminology operations read it: a stored header-only CodeSystem gets its
+	 * concept tree ({@link #assemble} with the configured chunk size); others, including
+	 * resources a client supplied, are returned unchanged.
+	 * <p>
+	 * Assembled CodeSystems are kept in {@link TerminologyIndexCache} per stored resource
+	 * version (weighted by concept count), so the rows are read once rather than per request.
+	 * Only the resource version the rows were stored from is assembled: an earlier version of
+	 * the header (e.g. read from the history) is returned unchanged, since the rows hold the
+	 * concepts of the current one. The instance is shared: callers must not modify it
+	 * ({@code copy()} first).
+	 */
+	public CodeSystem withConcepts(CodeSystem codeSystem) {
+		if (codeSystem == null || codeSystem.getContent() != CodeSystem.CodeSystemContentMode.NOTPRESENT) {
+			return codeSystem;
+		}
+		String key = TerminologyIndexCache.keyOf(codeSystem);
+		if (key == null) {
+			return codeSystem;
+		}
+		AssembledConcepts assembled = TerminologyIndexCache.get(AssembledConcepts.class, key,
+				Collections.singletonList(codeSystem.getUrl()), () -> {
+					if (needsRefresh(codeSystem.getUrl(), codeSystem.getVersion(),
+							codeSystem.getIdElement().getVersionIdPart())) {
+						// not the resource version the rows belong to: nothing is cached
+						return null;
+					}
+					CodeSystem result = assemble(codeSystem, assemblyChunkSize);
+					if (result == codeSystem) {
+						// no rows (yet): nothing is cached
+						return null;
+					}
+					// the copy keeps the header's id; its own indexes must not be shared with the header's
+					TerminologyIndexCache.markClientSupplied(result);
+					return new AssembledConcepts(result, countConcepts(result.getConcept()));
+				});
+		return assembled != null ? assembled.codeSystem() : codeSystem;
+	}
+
+	private record AssembledConcepts(CodeSystem codeSystem, int weight) implements TerminologyIndexCache.Weighted {
+	}
+
+	private static int countConcepts(List<ConceptDefinitionComponent> concepts) {
+		int count = concepts.size();
+		for (ConceptDefinitionComponent concept : concepts) {
+			count += countConcepts(concept.getConcept());
+		}
+		return count;
+	}
+
+	/**
+	 * For a header-only CodeSystem ({@code content = not-present}) whose url|version is stored,
+	 * a copy with the concept tree rebuilt from the rows ({@link #forEachConcept}) and
+	 * {@code content = complete}; any other CodeSystem is returned unchanged.
+	 */
+	public CodeSystem assemble(CodeSystem codeSystem, int chunkSize) {
+		if (codeSystem == null || !codeSystem.hasUrl()
+				|| codeSystem.getContent() != CodeSystem.CodeSystemContentMode.NOTPRESENT) {
+			return codeSystem;
+		}
+		CodeSystem assembled = codeSystem.copy();
+		assembled.setConcept(new ArrayList<>());
+		if (!forEachConcept(codeSystem.getUrl(), codeSystem.getVersion(), chunkSize, assembled::addConcept)) {
+			return codeSystem;
+		}
+		assembled.setContent(CodeSystem.CodeSystemContentMode.COMPLETE);
+		return assembled;
+	}
+
+	private ConceptRow readRow(ResultSet rs) throws SQLException {
+		int parentLft = rs.getInt("PARENT_LFT");
+		Integer parent = rs.wasNull() ? null : parentLft;
+		return new ConceptRow(rs.getInt("LFT"), rs.getInt("RGT"), rs.getInt("DEPTH"), parent,
+				rs.getString("CONCEPT_JSON"));
+	}
+
+	private Header findHeader(String url, String version) {
+		if (url == null) {
+			return null;
+		}
+		List<Header> rows = jdbcTemplate.query("SELECT CS_ID, CS_RES_VER, HEADER_JSON FROM " + TABLE_HEADER
+				+ " WHERE CS_URL = ? AND CS_VERSION = ?",
+				(rs, rowNum) -> new Header(rs.getString("CS_ID"), rs.getString("CS_RES_VER"), rs.getString("HEADER_JSON")),
+				url, normalizeVersion(version));
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	/**
+	 * Replaces the stored rows of the CodeSystem's url|version in a single transaction. The
+	 * CodeSystem is only read: header and concepts are encoded from shallow copies without
+	 * their children.
+	 */
+	public void save(CodeSystem codeSystem, String resourceVersion) {
+		String url = codeSystem.getUrl();
+		String version = normalizeVersion(codeSystem.getVersion());
+		String storeId = UUID.randomUUID().toString();
+
+		List<Object[]> conceptRows = new ArrayList<>();
+		flatten(codeSystem.getConcept(), 0, null, conceptRows, storeId, 0);
+
+		String headerJson = encodeHeader(codeSystem);
+
+		transactionTemplate.executeWithoutResult(status -> {
+			deleteByUrlAndVersion(url, version);
+			insertHeader(storeId, url, version, resourceVersion, conceptRows.size(), headerJson);
+			insertConcepts(conceptRows, INSERT_BATCH_SIZE);
+		});
+
+		ourLog.info("Concepts stored for {}|{} ({} concepts)", url, version, conceptRows.size());
+	}
+
+	/**
+	 * Records the version of the resource the rows of url|version belong to (e.g. once the
+	 * header resource of a bulk load is written).
+	 */
+	public void setResourceVersion(String url, String version, String resourceVersion) {
+		jdbcTemplate.update("UPDATE " + TABLE_HEADER + " SET CS_RES_VER = ? WHERE CS_URL = ? AND CS_VERSION = ?",
+				resourceVersion, url, normalizeVersion(version));
+	}
+
+	/**
+	 * Starts a chunked load of one CodeSystem: concept rows are written in their own
+	 * transactions under a new store id, which readers do not see until
+	 * {@link BulkWriter#commit} replaces the url|version header in one transaction.
+	 */
+	public BulkWriter openBulkWriter(int chunkSize, int batchSize) {
+		return openBulkWriter(chunkSize, batchSize, null, null, false);
+	}
+
+	/**
+	 * As {@link #openBulkWriter(int, int)}, claiming url|version for the load: returns
+	 * {@code null} when another live load (on any node) holds the claim. Claims of dead loads
+	 * ({@link #STALE_LOAD_AGE}) are taken over, and their rows removed.
+	 */
+	public BulkWriter openBulkWriter(int chunkSize, int batchSize, String url, String version) {
+		return openBulkWriter(chunkSize, batchSize, url, version, url != null);
+	}
+
+	private BulkWriter openBulkWriter(int chunkSize, int batchSize, String url, String version, boolean claim) {
+		String storeId = UUID.randomUUID().toString();
+		String claimedVersion = claim ? normalizeVersion(version) : null;
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				if (claim) {
+					deleteStaleLoads(" AND CS_URL = ? AND CS_VERSION = ?", url, claimedVersion);
+				}
+				jdbcTemplate.update("INSERT INTO " + TABLE_LOAD + " (CS_ID, CS_URL, CS_VERSION, UPDATED_AT)"
+						+ " VALUES (?, ?, ?, ?)", storeId, claim ? url : null, claimedVersion, now());
+			});
+		} catch (DuplicateKeyException e) {
+			return null;
+		}
+		return new BulkWriter(storeId, Math.max(1, chunkSize), Math.max(1, batchSize));
+	}
+
+	/**
+	 * Removes the concept rows no header row refers to and no live load is writing (loads
+	 * interrupted by a crash or a failed cleanup); returns the number of rows removed.
+	 */
+	public int sweepOrphans() {
+		return transactionTemplate.execute(status -> {
+			deleteStaleLoads("");
+			return jdbcTemplate.update("DELETE FROM " + TABLE_CONCEPT
+					+ " WHERE CS_ID NOT IN (SELECT CS_ID FROM " + TABLE_HEADER + ")"
+					+ " AND CS_ID NOT IN (SELECT CS_ID FROM " + TABLE_LOAD + ")");
+		});
+	}
+
+	private void deleteStaleLoads(String condition, Object... args) {
+		Object[] params = new Object[args.length + 1];
+		params[0] = new Timestamp(System.currentTimeMillis() - STALE_LOAD_AGE.toMillis());
+		System.arraycopy(args, 0, params, 1, args.length);
+		String stale = "SELECT CS_ID FROM " + TABLE_LOAD + " WHERE UPDATED_AT < ?" + condition;
+		jdbcTemplate.update("DELETE FROM " + TABLE_CONCEPT + " WHERE CS_ID IN (" + stale + ")", params);
+		jdbcTemplate.update("DELETE FROM " + TABLE_LOAD + " WHERE UPDATED_AT < ?" + condition, params);
+	}
+
+	private static Timestamp now() {
+		return new Timestamp(System.currentTimeMillis());
+	}
+
+	/**
+	 * Buffers the rows of at most one chunk (plus the subtree of the concept that fills it).
+	 * Closing a writer that was not committed removes the rows written so far and its load
+	 * registration.
+	 */
+	public final class BulkWriter implements AutoCloseable {
+
+		private final String storeId;
+		private final int chunkSize;
+		private final int batchSize;
+		private final List<Object[]> pending = new ArrayList<>();
+		private int written;
+		private int chunks;
+		private boolean committed;
+
+		private BulkWriter(String storeId, int chunkSize, int batchSize) {
+			this.storeId = storeId;
+			this.chunkSize = chunkSize;
+			this.batchSize = batchSize;
+		}
+
+		/**
+		 * Adds a top-level concept and its children; returns true when this wrote a chunk.
+		 */
+		public boolean append(ConceptDefinitionComponent concept) {
+			flatten(List.of(concept), 0, null, pending, storeId, written);
+			if (pending.size() >= chunkSize) {
+				flush();
+				return true;
+			}
+			return false;
+		}
+
+		private void flush() {
+			if (pending.isEmpty()) {
+				return;
+			}
+			List<Object[]> rows = new ArrayList<>(pending);
+			transactionTemplate.executeWithoutResult(status -> {
+				insertConcepts(rows, batchSize);
+				jdbcTemplate.update("UPDATE " + TABLE_LOAD + " SET UPDATED_AT = ? WHERE CS_ID = ?", now(), storeId);
+			});
+			written += rows.size();
+			chunks++;
+			pending.clear();
+		}
+
+		public int getConceptCount() {
+			return written + pending.size();
+		}
+
+		public int getChunkCount() {
+			return chunks;
+		}
+
+		/**
+		 * Writes the last chunk and makes the rows the stored concepts of the header's
+		 * url|version; the load registration is removed in the same transaction.
+		 * {@code resourceVersion} may be {@code null} when the resource is written afterwards
+		 * ({@link ConceptStore#setResourceVersion}).
+		 */
+		public void commit(CodeSystem header, String resourceVersion) {
+			flush();
+			String url = header.getUrl();
+			String version = normalizeVersion(header.getVersion());
+			// the stored resource is a header only (content = not-present); the rows are complete
+			CodeSystem stored = header.copy();
+			stored.setContent(CodeSystem.CodeSystemContentMode.COMPLETE);
+			String headerJson = encodeHeader(stored);
+			transactionTemplate.executeWithoutResult(status -> {
+				deleteByUrlAndVersion(url, version);
+				insertHeader(storeId, url, version, resourceVersion, written, headerJson);
+				jdbcTemplate.update("DELETE FROM " + TABLE_LOAD + " WHERE CS_ID = ?", storeId);
+			});
+			committed = true;
+			// assembled copies of the previous rows (withConcepts) must not outlive them
+			TerminologyIndexCache.invalidate(url);
+			ourLog.info("Concepts stored for {}|{} ({} concepts in {} chunks)", url, version, written, chunks);
+		}
+
+		@Override
+		public void close() {
+			if (!committed) {
+				pending.clear();
+				try {
+					transactionTemplate.executeWithoutResult(status -> {
+						jdbcTemplate.update("DELETE FROM " + TABLE_CONCEPT + " WHERE CS_ID = ?", storeId);
+						jdbcTemplate.update("DELETE FROM " + TABLE_LOAD + " WHERE CS_ID = ?", storeId);
+					});
+				} catch (RuntimeException e) {
+					// left to sweepOrphans() once the registration is stale
+					ourLog.warn("Could not remove the rows of an aborted concept load: {}", e.getMessage());
+				}
+			}
+		}
+	}
+
+	private String encodeHeader(CodeSystem codeSystem) {
+		return newParser().encodeResourceToString(copyWithout(codeSystem, new CodeSystem(), "concept"));
+	}
+
+	/**
+	 * Copies every element of {@code source} except {@code skipped} into {@code target}; the
+	 * skipped element (e.g. a large concept tree) is neither copied nor touched.
+	 */
+	private static <T extends Base> T copyWithout(Base source, T target, String skipped) {
+		for (Property property : source.children()) {
+			if (skipped.equals(property.getName())) {
+				continue;
+			}
+			for (Base value : property.getValues()) {
+				target.setProperty(property.getName(), value.copy());
+			}
+		}
+		return target;
+	}
+
+	private void insertHeader(String storeId, String url, String version, String resourceVersion, int conceptCount,
+			String headerJson) {
+		jdbcTemplate.update("INSERT INTO " + TABLE_HEADER
+				+ " (CS_ID, CS_URL, CS_VERSION, CS_RES_VER, CONCEPT_COUNT, HEADER_JSON, STORED_AT)"
+				+ " VALUES (?, ?, ?, ?, ?, ?, ?)",
+				storeId, url, version, resourceVersion, conceptCount, headerJson,
+				new Timestamp(System.currentTimeMillis()));
+	}
+
+	private void insertConcepts(List<Object[]> rows, int batchSize) {
+		jdbcTemplate.batchUpdate("INSERT INTO " + TABLE_CONCEPT
+				+ " (CS_ID, LFT, RGT, DEPTH, CODE, DISPLAY, STATUS, IS_INACTIVE, CONCEPT_JSON, PARENT_LFT)"
+				+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+				rows, batchSize, (ps, row) -> {
+					for (int i = 0; i < row.length; i++) {
+						ps.setObject(i + 1, row[i]);
+					}
+				});
+	}
+
+	/**
+	 * Appends the rows of a concept list in pre-order, numbering LFT from {@code base} plus the
+	 * rows already in the list; RGT is the LFT of the last row of the subtree and
+	 * {@code parentLft} that of the concept holding the list ({@code null} at the top).
+	 */
+	private void flatten(List<ConceptDefinitionComponent> concepts, int depth, Integer parentLft, List<Object[]> rows,
+			String storeId, int base) {
+		for (ConceptDefinitionComponent concept : concepts) {
+			if (concept.getCode() == null) {
+				continue;
+			}
+			Object[] row = new Object[10];
+			rows.add(row);
+			int lft = base + rows.size() - 1;
+			String status = statusOf(concept);
+			row[0] = storeId;
+			row[1] = lft;
+			row[3] = depth;
+			row[4] = concept.getCode();
+			row[5] = concept.hasDisplay() && concept.getDisplay().length() <= MAX_DISPLAY_LENGTH ? concept.getDisplay() : null;
+			row[6] = status != null && status.length() <= MAX_STATUS_LENGTH ? status : null;
+			row[7] = isInactive(concept, status) ? 1 : 0;
+			row[8] = encodeConcept(concept);
+			row[9] = parentLft;
+			flatten(concept.getConcept(), depth + 1, lft, rows, storeId, base);
+			row[2] = base + rows.size() - 1;
+		}
+	}
+
+	private static String statusOf(ConceptDefinitionComponent concept) {
+		for (ConceptPropertyComponent property : concept.getProperty()) {
+			if ("status".equals(property.getCode()) && property.getValue() != null) {
+				return property.getValue().primitiveValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Same rule as {@link ConceptFilter#isConceptInactive}: {@code inactive=true} or status retired.
+	 */
+	private static boolean isInactive(ConceptDefinitionComponent concept, String status) {
+		for (ConceptPropertyComponent property : concept.getProperty()) {
+			if ("inactive".equals(property.getCode()) && property.getValue() instanceof BooleanType b
+					&& b.booleanValue()) {
+				return true;
+			}
+		}
+		return "retired".equalsIgnoreCase(status);
+	}
+
+	/**
+	 * Removes the stored rows of url|version, if any.
+	 */
+	public void delete(String url, String version) {
+		if (url == null) {
+			return;
+		}
+		transactionTemplate.executeWithoutResult(status -> deleteByUrlAndVersion(url, normalizeVersion(version)));
+	}
+
+	private void deleteByUrlAndVersion(String url, String version) {
+		String existing = "SELECT CS_ID FROM " + TABLE_HEADER + " WHERE CS_URL = ? AND CS_VERSION = ?";
+		jdbcTemplate.update("DELETE FROM " + TABLE_CONCEPT + " WHERE CS_ID IN (" + existing + ")", url, version);
+		jdbcTemplate.update("DELETE FROM " + TABLE_HEADER + " WHERE CS_URL = ? AND CS_VERSION = ?", url, version);
+	}
+
+	/**
+	 * Oracle treats empty strings as NULL, so unversioned CodeSystems are keyed with "-".
+	 */
+	private static String normalizeVersion(String version) {
+		return (version == null || version.isEmpty()) ? "-" : version;
+	}
+
+	private static String denormalizeVersion(String version) {
+		return "-".equals(version) ? null : version;
+	}
+
+	private String encodeConcept(ConceptDefinitionComponent concept) {
+		CodeSystem holder = new CodeSystem();
+		holder.addConcept(copyWithout(concept, new ConceptDefinitionComponent(), "concept"));
+		return newParser().encodeResourceToString(holder);
+	}
+
+	private ConceptDefinitionComponent decodeConcept(String json) {
+		return newParser().parseResource(CodeSystem.class, json).getConceptFirstRep();
+	}
+
+	private IParser newParser() {
+		return fhirContext.newJsonParser();
+	}
+}
@@ -0,0 +1,161 @@
+package com.hitstdio.fhir.server.util;
+
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.UriParam;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes {@link ConceptStore} rows on a single background thread: a full pass over the stored
+ * CodeSystems at startup (only url|versions whose rows are missing or older than the resource)
+ * and a refresh of one url|version after each committed CodeSystem change. All writes run on
+ * the same thread, so they never overlap. Header-only CodeSystems ({@code content = not-present})
+ * are left alone: their rows come from {@link CodeSystemBulkLoader}. The startup pass first
+ * removes rows left without a header by interrupted loads ({@link ConceptStore#sweepOrphans()}).
+ */
+public class ConceptStoreLoader {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(ConceptStoreLoader.class);
+
+	private static final int PAGE_SIZE = 20;
+
+	private final IFhirResourceDao<CodeSystem> codeSystemDao;
+	private final ConceptStore store;
+	private final boolean enabled;
+	private ExecutorService executor;
+
+	public ConceptStoreLoader(IFhirResourceDao<CodeSystem> codeSystemDao, ConceptStore store, boolean enabled) {
+		this.codeSystemDao = codeSystemDao;
+		this.store = store;
+		this.enabled = enabled;
+	}
+
+	public void start() {
+		if (!enabled) {
+			ourLog.info("Relational concept store disabled");
+			return;
+		}
+		executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "concept-store-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.execute(this::loadAllSafely);
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Queues a refresh of url|version from the committed resource; the rows are removed when
+	 * no CodeSystem with that url|version exists any more.
+	 */
+	public void submitRefresh(String url, String version) {
+		if (executor == null || url == null) {
+			return;
+		}
+		executor.execute(() -> {
+			try {
+				refresh(url, version);
+			} catch (RuntimeException e) {
+				// without rows, readers fall back to the CodeSystem resource
+				ourLog.warn("Concept store refresh of {}|{} failed: {}", url, version, e.getMessage());
+				store.delete(url, version);
+			}
+		});
+	}
+
+	private void refresh(String url, String version) {
+		SearchParameterMap params = SearchParameterMap.newSynchronous().add(CodeSystem.SP_URL, new UriParam(url));
+		if (version != null && !version.isEmpty()) {
+			params.add(CodeSystem.SP_VERSION, new TokenParam(version));
+		}
+		IBundleProvider result = codeSystemDao.search(params, new SystemRequestDetails());
+		int size = result.size() != null ? result.size() : 0;
+		for (int from = 0; from < size; from += PAGE_SIZE) {
+			for (IBaseResource resource : result.getResources(from, Math.min(from + PAGE_SIZE, size))) {
+				if (resource instanceof CodeSystem cs && sameVersion(cs.getVersion(), version)) {
+					if (cs.getContent() != CodeSystem.CodeSystemContentMode.NOTPRESENT) {
+						store.save(cs, resourceVersionOf(cs));
+					}
+					return;
+				}
+			}
+		}
+		store.delete(url, version);
+	}
+
+	private static boolean sameVersion(String a, String b) {
+		return (a == null || a.isEmpty()) ? (b == null || b.isEmpty()) : a.equals(b);
+	}
+
+	private void loadAllSafely() {
+		try {
+			int removed = store.sweepOrphans();
+			if (removed > 0) {
+				ourLog.info("Concept store: removed {} rows of interrupted loads", removed);
+			}
+		} catch (RuntimeException e) {
+			ourLog.warn("Concept store orphan sweep failed: {}", e.getMessage());
+		}
+		try {
+			int stored = loadAll();
+			ourLog.info("Concept store initial load finished ({} CodeSystem versions stored)", stored);
+		} catch (RuntimeException e) {
+			ourLog.warn("Concept store initial load failed: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Stores every CodeSystem whose rows are missing or stale; returns the number stored.
+	 */
+	public int loadAll() {
+		int stored = 0;
+		IBundleProvider result = codeSystemDao.search(SearchParameterMap.newSynchronous(), new SystemRequestDetails());
+		int size = result.size() != null ? result.size() : 0;
+		for (int from = 0; from < size; from += PAGE_SIZE) {
+			List<IBaseResource> page = result.getResources(from, Math.min(from + PAGE_SIZE, size));
+			for (IBaseResource resource : page) {
+				if (!(resource instanceof CodeSystem cs) || !cs.hasUrl()
+						|| cs.getContent() == CodeSystem.CodeSystemContentMode.NOTPRESENT) {
+					continue;
+				}
+				String resourceVersion = resourceVersionOf(cs);
+				if (!store.needsRefresh(cs.getUrl(), cs.getVersion(), resourceVersion)) {
+					continue;
+				}
+				try {
+					store.save(cs, resourceVersion);
+					stored++;
+				} catch (RuntimeException e) {
+					ourLog.warn("Could not store concepts of {}|{}: {}", cs.getUrl(), cs.getVersion(), e.getMessage());
+				}
+			}
+		}
+		return stored;
+	}
+
+	private static String resourceVersionOf(CodeSystem codeSystem) {
+		if (codeSystem.getIdElement() != null && codeSystem.getIdElement().hasVersionIdPart()) {
+			return codeSystem.getIdElement().getVersionIdPart();
+		}
+		if (codeSystem.hasMeta() && codeSystem.getMeta().hasVersionId()) {
+			return codeSystem.getMeta().getVersionId();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,327 @@
+package com.hitstdio.fhir.server.util;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.StringType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Reads CodeSystem concept input one top-level concept at a time, so memory use does not
+ * grow with the size of the CodeSystem.
+ * <ul>
+ * <li>{@link Format#CSV}: a header row naming the columns, then one concept per row.
+ * {@code code} is required; {@code display}, {@code definition}, {@code status} and
+ * {@code inactive} are mapped to the concept, any other column becomes a string property.
+ * CSV input is flat: concepts are stored as top-level concepts in row order, and a
+ * {@code parent} column (code of the parent concept) is kept as a {@code parent} property
+ * only, without nesting (use NDJSON or JSON for a hierarchy). Leading {@code # name=value}
+ * lines set CodeSystem elements ({@code url}, {@code version}, {@code name}, {@code title},
+ * {@code status}).</li>
+ * <li>{@link Format#NDJSON}: one concept (FHIR JSON of a {@code CodeSystem.concept}, children
+ * included) per line; a line whose object has a top-level {@code resourceType} is the
+ * header.</li>
+ * <li>{@link Format#JSON}: a CodeSystem resource; its {@code concept} array is streamed.</li>
+ * </ul>
+ */
+public final class ConceptStreamReader {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final ObjectMapper MAPPER = new ObjectMapper(JSON_FACTORY);
+
+	private ConceptStreamReader() {
+	}
+
+	public enum Format {
+		CSV, NDJSON, JSON;
+
+		/**
+		 * The format named by an operation parameter or derived from a content type / file name.
+		 */
+		public static Format of(String value) {
+			String v = value == null ? "" : value.toLowerCase(Locale.ROOT);
+			if (v.contains("csv")) {
+				return CSV;
+			}
+			if (v.contains("ndjson")) {
+				return NDJSON;
+			}
+			if (v.contains("json")) {
+				return JSON;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Passes every top-level concept (with its children) to {@code sink} in input order and
+	 * returns the CodeSystem header (without concepts). With a {@code null} sink only the
+	 * header is read: reading stops where the concepts start, except for CodeSystem JSON that
+	 * has not named its url and version by then, whose concepts are skipped without being parsed.
+	 * Such a header identifies the input (url, version); JSON elements after the concept array
+	 * are not part of it.
+	 *
+	 * @throws InvalidRequestException when the input is malformed
+	 */
+	public static CodeSystem read(Format format, InputStream in, Consumer<ConceptDefinitionComponent> sink)
+			throws IOException {
+		try {
+			return switch (format) {
+				case CSV -> readCsv(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), sink);
+				case NDJSON -> readNdjson(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), sink);
+				case JSON -> readJson(in, sink);
+			};
+		} catch (DataFormatException e) {
+			throw new InvalidRequestException("Invalid concept input: " + e.getMessage());
+		}
+	}
+
+	private static CodeSystem readJson(InputStream in, Consumer<ConceptDefinitionComponent> sink) throws IOException {
+		IParser parser = newParser();
+		ObjectNode header = MAPPER.createObjectNode();
+		try (JsonParser json = JSON_FACTORY.createParser(in)) {
+			if (json.nextToken() != JsonToken.START_OBJECT) {
+				throw new InvalidRequestException("Invalid concept input: expected a CodeSystem JSON object");
+			}
+			while (json.nextToken() == JsonToken.FIELD_NAME) {
+				String field = json.getCurrentName();
+				JsonToken value = json.nextToken();
+				if ("concept".equals(field) && value == JsonToken.START_ARRAY) {
+					if (sink == null && header.has("url") && header.has("version")) {
+						// no later element can name another url or version
+						break;
+					}
+					while (json.nextToken() == JsonToken.START_OBJECT) {
+						if (sink == null) {
+							json.skipChildren();
+						} else {
+							JsonNode concept = MAPPER.readTree(json);
+							sink.accept(parseConcept(parser, concept.toString()));
+						}
+					}
+				} else {
+					header.set(field, MAPPER.readTree(json));
+				}
+			}
+		}
+		if (!header.has("resourceType")) {
+			header.put("resourceType", "CodeSystem");
+		}
+		return parser.parseResource(CodeSystem.class, header.toString());
+	}
+
+	private static CodeSystem readNdjson(BufferedReader reader, Consumer<ConceptDefinitionComponent> sink)
+			throws IOException {
+		IParser parser = newParser();
+		CodeSystem header = new CodeSystem();
+		String line;
+		int number = 0;
+		while ((line = reader.readLine()) != null) {
+			number++;
+			if (line.isBlank()) {
+				continue;
+			}
+			try {
+				if (isResource(line)) {
+					header = parser.parseResource(CodeSystem.class, line);
+					List<ConceptDefinitionComponent> concepts = header.getConcept();
+					header.setConcept(new ArrayList<>());
+					if (sink != null) {
+						concepts.forEach(sink);
+					}
+				} else if (sink != null) {
+					sink.accept(parseConcept(parser, line));
+				} else {
+					// the header is expected on the first line; the rest is not needed
+					break;
+				}
+			} catch (DataFormatException e) {
+				throw new InvalidRequestException("Invalid concept input, line " + number + ": " + e.getMessage());
+			}
+		}
+		return header;
+	}
+
+	/**
+	 * Whether an NDJSON line is a resource (has a top-level {@code resourceType}) rather than a
+	 * concept; only top-level field names are read, nested values are skipped.
+	 */
+	private static boolean isResource(String line) throws IOException {
+		try (JsonParser json = JSON_FACTORY.createParser(line)) {
+			if (json.nextToken() != JsonToken.START_OBJECT) {
+				throw new DataFormatException("expected a JSON object");
+			}
+			while (json.nextToken() == JsonToken.FIELD_NAME) {
+				if ("resourceType".equals(json.getCurrentName())) {
+					return true;
+				}
+				json.nextToken();
+				json.skipChildren();
+			}
+			return false;
+		} catch (JsonProcessingException e) {
+			throw new DataFormatException(e.getOriginalMessage());
+		}
+	}
+
+	private static ConceptDefinitionComponent parseConcept(IParser parser, String conceptJson) {
+		return parser.parseResource(CodeSystem.class, "{\"resourceType\":\"CodeSystem\",\"concept\":[" + conceptJson + "]}")
+				.getConceptFirstRep();
+	}
+
+	private static CodeSystem readCsv(BufferedReader reader, Consumer<ConceptDefinitionComponent> sink)
+			throws IOException {
+		CodeSystem header = new CodeSystem();
+		List<String> columns = null;
+		List<String> record;
+		int number = 0;
+		while ((record = readCsvRecord(reader)) != null) {
+			number++;
+			if (columns == null) {
+				if (number == 1 && !record.isEmpty() && record.get(0).startsWith("\uFEFF")) {
+					record.set(0, record.get(0).substring(1));
+				}
+				String first = record.isEmpty() ? "" : record.get(0).trim();
+				if (record.size() == 1 && first.isEmpty()) {
+					continue;
+				}
+				if (first.startsWith("#")) {
+					applyHeaderLine(header, String.join(",", record).trim().substring(1).trim());
+					continue;
+				}
+				columns = new ArrayList<>();
+				for (String column : record) {
+					columns.add(column.trim().toLowerCase(Locale.ROOT));
+				}
+				if (!columns.contains("code")) {
+					throw new InvalidRequestException("Invalid concept input: the CSV header has no 'code' column");
+				}
+				if (sink == null) {
+					break;
+				}
+				continue;
+			}
+			ConceptDefinitionComponent concept = toConcept(columns, record);
+			if (concept == null) {
+				throw new InvalidRequestException("Invalid concept input, CSV record " + number + ": no code");
+			}
+			sink.accept(concept);
+		}
+		return header;
+	}
+
+	private static void applyHeaderLine(CodeSystem header, String line) {
+		int eq = line.indexOf('=');
+		if (eq <= 0) {
+			return;
+		}
+		String name = line.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+		String value = line.substring(eq + 1).trim();
+		switch (name) {
+			case "url" -> header.setUrl(value);
+			case "version" -> header.setVersion(value);
+			case "name" -> header.setName(value);
+			case "title" -> header.setTitle(value);
+			case "status" -> header.getStatusElement().setValueAsString(value);
+			default -> {
+				// other comment lines are ignored
+			}
+		}
+	}
+
+	private static ConceptDefinitionComponent toConcept(List<String> columns, List<String> record) {
+		ConceptDefinitionComponent concept = new ConceptDefinitionComponent();
+		for (int i = 0; i < columns.size() && i < record.size(); i++) {
+			String value = record.get(i);
+			if (value == null || value.isEmpty()) {
+				continue;
+			}
+			switch (columns.get(i)) {
+				case "code" -> concept.setCode(value.trim());
+				case "display" -> concept.setDisplay(value);
+				case "definition" -> concept.setDefinition(value);
+				case "parent" -> concept.addProperty().setCode("parent").setValue(new CodeType(value.trim()));
+				case "status" -> concept.addProperty().setCode("status").setValue(new CodeType(value.trim()));
+				case "inactive" -> concept.addProperty().setCode("inactive")
+						.setValue(new BooleanType(Boolean.parseBoolean(value.trim())));
+				default -> concept.addProperty().setCode(columns.get(i)).setValue(new StringType(value));
+			}
+		}
+		return concept.hasCode() ? concept : null;
+	}
+
+	/**
+	 * One RFC 4180 record: fields separated by commas, optionally quoted ("" inside quotes is
+	 * a quote, and quoted fields may span lines). Returns {@code null} at end of input.
+	 */
+	private static List<String> readCsvRecord(BufferedReader reader) throws IOException {
+		String line = reader.readLine();
+		if (line == null) {
+			return null;
+		}
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		while (true) {
+			for (int i = 0; i < line.length(); i++) {
+				char c = line.charAt(i);
+				if (quoted) {
+					if (c == '"') {
+						if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+							field.append('"');
+							i++;
+						} else {
+							quoted = false;
+						}
+					} else {
+						field.append(c);
+					}
+				} else if (c == '"') {
+					quoted = true;
+				} else if (c == ',') {
+					fields.add(field.toString());
+					field.setLength(0);
+				} else {
+					field.append(c);
+				}
+			}
+			if (!quoted) {
+				break;
+			}
+			line = reader.readLine();
+			if (line == null) {
+				break;
+			}
+			field.append('\n');
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static IParser newParser() {
+		return FhirContext.forR4Cached().newJsonParser();
+	}
+}
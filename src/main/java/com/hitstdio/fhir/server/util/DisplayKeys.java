@@ -0,0 +1,95 @@
+package com.hitstdio.fhir.server.util;
+
+import java.text.Normalizer;
+import java.util.regex.Pattern;
+
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionDesignationComponent;
+
+/**
+ * Display comparison for one concept: the requested display and the concept's display and
+ * designations are reduced to a comparison key, Unicode-normalized (NFC) and case-folded the
+ * way {@link String#equalsIgnoreCase} compares; {@link #collapsedKey} also collapses whitespace,
+ * for telling whitespace-only differences apart.
+ * <p>
+ * Nothing is attached to the concept: concepts of cached CodeSystems are shared between
+ * requests, so the keys are computed per call. An exact match is checked first and needs no
+ * key at all, and the requested value is keyed once per call.
+ */
+public final class DisplayKeys {
+
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private final ConceptDefinitionComponent concept;
+
+	private DisplayKeys(ConceptDefinitionComponent concept) {
+		this.concept = concept;
+	}
+
+	public static DisplayKeys of(ConceptDefinitionComponent concept) {
+		return new DisplayKeys(concept);
+	}
+
+	/**
+	 * Comparison key: NFC, then every code point folded as {@link String#equalsIgnoreCase} does.
+	 */
+	public static String key(String value) {
+		String normalized = Normalizer.normalize(value, Normalizer.Form.NFC);
+		StringBuilder folded = new StringBuilder(normalized.length());
+		normalized.codePoints()
+				.forEach(cp -> folded.appendCodePoint(Character.toLowerCase(Character.toUpperCase(cp))));
+		return folded.toString();
+	}
+
+	/**
+	 * {@link #key} of the value with runs of whitespace collapsed to one space and trimmed.
+	 */
+	public static String collapsedKey(String value) {
+		return key(WHITESPACE.matcher(value).replaceAll(" ").trim());
+	}
+
+	/**
+	 * Whether two displays differ only in whitespace (and case), but are not identical.
+	 */
+	public static boolean isWhitespaceOnlyDifference(String requested, String expected) {
+		return requested != null && expected != null && !requested.equals(expected)
+				&& collapsedKey(requested).equals(collapsedKey(expected));
+	}
+
+	public boolean matchesDisplay(String value) {
+		String display = concept.getDisplay();
+		return value != null && display != null && (value.equals(display) || key(display).equals(key(value)));
+	}
+
+	public boolean matchesAnyDesignation(String value) {
+		return matchesDesignation(null, value, false);
+	}
+
+	public boolean matchesDesignation(String language, String value) {
+		return language != null && matchesDesignation(language, value, true);
+	}
+
+	private boolean matchesDesignation(String language, String value, boolean byLanguage) {
+		if (value == null || !concept.hasDesignation()) {
+			return false;
+		}
+		String valueKey = null;
+		for (ConceptDefinitionDesignationComponent designation : concept.getDesignation()) {
+			String designationValue = designation.getValue();
+			if (designationValue == null
+					|| (byLanguage && !language.equalsIgnoreCase(designation.getLanguage()))) {
+				continue;
+			}
+			if (designationValue.equals(value)) {
+				return true;
+			}
+			if (valueKey == null) {
+				valueKey = key(value);
+			}
+			if (key(designationValue).equals(valueKey)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,114 @@
+package com.hitstdio.fhir.server.util;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.ValueSet.ConceptReferenceDesignationComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+
+/**
+ * Per-request accounting of the concepts produced by an expansion. Every concept built by
+ * {@link ConceptComponentBuilder} (or read from a pre-expansion) is recorded as it is produced,
+ * so an oversize unpaged request is rejected before the rest of the work is done.
+ */
+public class ExpansionBudget {
+
+	/** Rough per-entry cost of a contains component and its primitive wrappers */
+	private static final int ENTRY_OVERHEAD_BYTES = 256;
+	private static final int DESIGNATION_OVERHEAD_BYTES = 128;
+	private static final int EXTENSION_OVERHEAD_BYTES = 160;
+
+	private final ExpansionLimits limits;
+	private final String valueSetUrl;
+	private final boolean unpaged;
+	private int produced;
+	private long estimatedBytes;
+
+	public ExpansionBudget(ExpansionLimits limits, String valueSetUrl, boolean unpaged) {
+		this.limits = limits;
+		this.valueSetUrl = valueSetUrl;
+		this.unpaged = unpaged;
+	}
+
+	public void record(ValueSetExpansionContainsComponent component) {
+		produced++;
+		if (!limits.isBudgetBased()) {
+			return;
+		}
+		estimatedBytes += estimateSize(component);
+
+		if (limits.isSpillToDisk()) {
+			if (limits.getMaxSpilledConcepts() > 0 && produced > limits.getMaxSpilledConcepts()) {
+				throw tooCostly("Expansion of ValueSet '" + valueSetUrl + "' is too large (>"
+						+ limits.getMaxSpilledConcepts() + " concepts).");
+			}
+		} else if (unpaged && estimatedBytes > limits.getMemoryBudgetBytes()) {
+			throw tooCostly("Expansion of ValueSet '" + valueSetUrl + "' is too large (more than "
+					+ (limits.getMemoryBudgetBytes() / 1024) + " KB after " + produced
+					+ " concepts) and no paging was requested. Use the '_count' parameter.");
+		}
+	}
+
+	/**
+	 * Legacy fixed-count limit, checked as the final concept list grows so an oversize unpaged
+	 * request is rejected without collecting the remaining candidates. {@code collected} is the
+	 * size of a list that can only grow until it is returned (no excludes left to apply).
+	 */
+	public void checkCollected(int collected) {
+		if (!limits.isBudgetBased() && unpaged && collected > ValueSetExpansionService.DEFAULT_MAX_EXPANSION_SIZE) {
+			throw tooCostly("Expansion of ValueSet '" + valueSetUrl + "' is too large (>"
+					+ ValueSetExpansionService.DEFAULT_MAX_EXPANSION_SIZE
+					+ " concepts) and no paging was requested. Use the '_count' parameter.");
+		}
+	}
+
+	/**
+	 * Whether concept buffers should move to disk: spill-to-disk mode and the produced
+	 * concepts no longer fit the memory budget.
+	 */
+	public boolean shouldSpill() {
+		return limits.isSpillToDisk() && estimatedBytes > limits.getMemoryBudgetBytes();
+	}
+
+	public ExpansionLimits getLimits() {
+		return limits;
+	}
+
+	public int getProduced() {
+		return produced;
+	}
+
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	static long estimateSize(ValueSetExpansionContainsComponent component) {
+		long size = ENTRY_OVERHEAD_BYTES
+				+ chars(component.getSystem()) + chars(component.getVersion())
+				+ chars(component.getCode()) + chars(component.getDisplay());
+		for (ConceptReferenceDesignationComponent designation : component.getDesignation()) {
+			size += DESIGNATION_OVERHEAD_BYTES + chars(designation.getLanguage()) + chars(designation.getValue());
+		}
+		for (Extension extension : component.getExtension()) {
+			size += EXTENSION_OVERHEAD_BYTES + EXTENSION_OVERHEAD_BYTES * extension.getExtension().size();
+		}
+		for (ValueSetExpansionContainsComponent child : component.getContains()) {
+			size += estimateSize(child);
+		}
+		return size;
+	}
+
+	private static long chars(String value) {
+		return value != null ? 2L * value.length() : 0;
+	}
+
+	private static UnprocessableEntityException tooCostly(String text) {
+		OperationOutcome oo = new OperationOutcome();
+		oo.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+				.setCode(OperationOutcome.IssueType.TOOCOSTLY)
+				.setDetails(new CodeableConcept().setText(text));
+		return new UnprocessableEntityException("Expansion is too large", oo);
+	}
+}
@@ -35,6 +35,15 @@ public class ExpansionBuilder {
 	public void buildExpansion(ValueSetExpansionComponent expansion, ValueSet sourceValueSet,
 			List<ValueSetExpansionContainsComponent> allConcepts,
 			List<ValueSetExpansionContainsComponent> pagedConcepts, ExpansionRequest request) {
+		buildExpansion(expansion, sourceValueSet, allConcepts.size(), pagedConcepts, request);
+	}
+
+	/**
+	 * Builds the complete expansion when only the total size of the expansion is known,
+	 * e.g. when the page was read from a pre-expansion
+	 */
+	public void buildExpansion(ValueSetExpansionComponent expansion, ValueSet sourceValueSet, int total,
+			List<ValueSetExpansionContainsComponent> pagedConcepts, ExpansionRequest request) {
 
 		// Add expansion parameters
 		addExpansionParameters(expansion, sourceValueSet, request);
@@ -49,15 +58,19 @@ public class ExpansionBuilder {
 		autoDeclarePropertiesFromContains(expansion, pagedConcepts);
 
 		// Set total count
-		expansion.setTotal(allConcepts.size());
+		expansion.setTotal(total);
 
 		// Set offset if provided
 		if (request.getOffset() != null && request.getOffset().hasValue()) {
 			expansion.setOffset(request.getOffset().getValue());
 		}
 
-		// Add the paged concepts
-		pagedConcepts.forEach(expansion::addContains);
+		// Add the paged concepts; a spilled buffer is attached as-is and read while serializing
+		if (pagedConcepts instanceof ConceptBuffer buffer && buffer.isSpilled()) {
+			expansion.setContains(buffer);
+		} else {
+			pagedConcepts.forEach(expansion::addContains);
+		}
 	}
 
 	/**
@@ -304,8 +317,8 @@ public class ExpansionBuilder {
 			return;
 		}
 
-		final Set<String> definedPropertyCodes = codeSystem.getProperty().stream()
-				.map(CodeSystem.PropertyComponent::getCode).collect(Collectors.toSet());
+		PropertyCatalogue catalogue = PropertyCatalogue.of(codeSystem);
+		final Set<String> definedPropertyCodes = catalogue.getDeclaredPropertyCodes();
 
 		Set<String> explicitlyRequestedCodes = new HashSet<>();
 		Parameters parameters = request.getParameters();
@@ -333,7 +346,7 @@ public class ExpansionBuilder {
 			return;
 		}
 
-		Map<String, String> propertyUris = buildPropertyUriMap(codeSystem);
+		Map<String, String> propertyUris = catalogue.getPropertyUris();
 		for (CodeType propToDeclare : propertiesToDeclare) {
 			String code = propToDeclare.getCode();
 			if (propertyUris.containsKey(code)) {
@@ -372,23 +385,6 @@ public class ExpansionBuilder {
 		}
 	}
 
-	/**
-	 * Builds a map of property codes to URIs
-	 */
-	private Map<String, String> buildPropertyUriMap(CodeSystem codeSystem) {
-		Map<String, String> propertyUris = codeSystem.getProperty().stream()
-				.collect(Collectors.toMap(prop -> prop.getCode(), prop -> prop.getUri()));
-
-		propertyUris.put("definition", "http://hl7.org/fhir/concept-properties#definition");
-		propertyUris.put("status", "http://hl7.org/fhir/concept-properties#status");
-		propertyUris.put("notSelectable", "http://hl7.org/fhir/concept-properties#notSelectable");
-
-		propertyUris.put("order", "http://hl7.org/fhir/concept-properties#order");
-		propertyUris.put("label", "http://hl7.org/fhir/concept-properties#label");
-		propertyUris.put("weight", "http://hl7.org/fhir/concept-properties#itemWeight");
-		return propertyUris;
-	}
-
 	/**
 	 * Adds a property declaration extension
 	 */
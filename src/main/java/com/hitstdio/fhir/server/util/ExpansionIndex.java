@@ -0,0 +1,106 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+
+/**
+ * Code lookup over the {@code expansion.contains} tree a ValueSet carries: per code, the
+ * positions of the entries with that code (any system or version) in pre-order, i.e. the order
+ * a recursive search visits them. Like {@link ConceptCodeIndex}, positions rather than entries
+ * are kept, so the cached index serves every instance of the same stored version and expansion
+ * timestamp without holding on to the instance it was built from.
+ */
+public final class ExpansionIndex implements TerminologyIndexCache.Weighted {
+
+	private static final int[][] NO_PATHS = new int[0][];
+
+	/** per code, the child index at each level (from expansion.contains down) of every entry */
+	private final Map<String, int[][]> pathsByCode = new HashMap<>();
+
+	private ExpansionIndex(ValueSet valueSet) {
+		Map<String, List<int[]>> collected = new HashMap<>();
+		if (valueSet.hasExpansion()) {
+			index(valueSet.getExpansion().getContains(), new int[0], collected);
+		}
+		collected.forEach((code, paths) -> pathsByCode.put(code, paths.toArray(NO_PATHS)));
+	}
+
+	public static ExpansionIndex of(ValueSet valueSet) {
+		String timestamp = valueSet.hasExpansion() ? valueSet.getExpansion().getTimestampElement().getValueAsString()
+				: null;
+		return TerminologyIndexCache.of(ExpansionIndex.class, valueSet, timestamp != null ? timestamp : "",
+				ExpansionIndex::new);
+	}
+
+	@Override
+	public int weight() {
+		return pathsByCode.size();
+	}
+
+	private static void index(List<ValueSetExpansionContainsComponent> containsList, int[] parent,
+			Map<String, List<int[]>> collected) {
+		for (int i = 0; i < containsList.size(); i++) {
+			ValueSetExpansionContainsComponent contains = containsList.get(i);
+			int[] path = new int[parent.length + 1];
+			System.arraycopy(parent, 0, path, 0, parent.length);
+			path[parent.length] = i;
+			if (contains.getCode() != null) {
+				collected.computeIfAbsent(contains.getCode(), k -> new ArrayList<>(1)).add(path);
+			}
+			index(contains.getContains(), path, collected);
+		}
+	}
+
+	/**
+	 * Entries of {@code valueSet}'s expansion with exactly this code, in pre-order; empty when
+	 * none.
+	 */
+	public List<ValueSetExpansionContainsComponent> find(ValueSet valueSet, String code) {
+		int[][] paths = code != null ? pathsByCode.get(code) : null;
+		if (paths == null || !valueSet.hasExpansion()) {
+			return Collections.emptyList();
+		}
+		List<ValueSetExpansionContainsComponent> root = valueSet.getExpansion().getContains();
+		List<ValueSetExpansionContainsComponent> found = new ArrayList<>(paths.length);
+		for (int[] path : paths) {
+			ValueSetExpansionContainsComponent contains = resolve(root, path);
+			if (contains == null || !code.equals(contains.getCode())) {
+				// The instance differs from the one indexed (e.g. adjusted after loading): search it
+				found.clear();
+				findRecursive(root, code, found);
+				return found;
+			}
+			found.add(contains);
+		}
+		return found;
+	}
+
+	private static ValueSetExpansionContainsComponent resolve(List<ValueSetExpansionContainsComponent> level,
+			int[] path) {
+		ValueSetExpansionContainsComponent contains = null;
+		for (int i : path) {
+			if (i >= level.size()) {
+				return null;
+			}
+			contains = level.get(i);
+			level = contains.getContains();
+		}
+		return contains;
+	}
+
+	private static void findRecursive(List<ValueSetExpansionContainsComponent> containsList, String code,
+			List<ValueSetExpansionContainsComponent> found) {
+		for (ValueSetExpansionContainsComponent contains : containsList) {
+			if (code.equals(contains.getCode())) {
+				found.add(contains);
+			}
+			findRecursive(contains.getContains(), code, found);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.hitstdio.fhir.server.util;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Size limits for ValueSet expansion.
+ * <p>
+ * With a memory budget of 0 the legacy rule applies: unpaged expansions above
+ * {@link ValueSetExpansionService#DEFAULT_MAX_EXPANSION_SIZE} concepts are rejected. With a
+ * budget, concepts are sized as they are produced; an unpaged expansion that outgrows the
+ * budget is either rejected immediately or, in spill-to-disk mode, buffered in a temporary
+ * file and served from there (see {@link ConceptBuffer}).
+ */
+public final class ExpansionLimits {
+
+	public static final ExpansionLimits DEFAULT = new ExpansionLimits(0, false, 0, null);
+
+	private final long memoryBudgetBytes;
+	private final boolean spillToDisk;
+	private final int maxSpilledConcepts;
+	private final Path spillDirectory;
+
+	public ExpansionLimits(long memoryBudgetBytes, boolean spillToDisk, int maxSpilledConcepts, String spillDirectory) {
+		this.memoryBudgetBytes = Math.max(0, memoryBudgetBytes);
+		// Spilling is triggered by the budget, so it needs one
+		this.spillToDisk = spillToDisk && this.memoryBudgetBytes > 0;
+		this.maxSpilledConcepts = maxSpilledConcepts;
+		this.spillDirectory = spillDirectory == null || spillDirectory.isBlank()
+				? Paths.get(System.getProperty("java.io.tmpdir"))
+				: Paths.get(spillDirectory);
+	}
+
+	public boolean isBudgetBased() {
+		return memoryBudgetBytes > 0;
+	}
+
+	public long getMemoryBudgetBytes() {
+		return memoryBudgetBytes;
+	}
+
+	public boolean isSpillToDisk() {
+		return spillToDisk;
+	}
+
+	/**
+	 * Hard ceiling on produced concepts in spill-to-disk mode; 0 or less means unlimited.
+	 */
+	public int getMaxSpilledConcepts() {
+		return maxSpilledConcepts;
+	}
+
+	public Path getSpillDirectory() {
+		return spillDirectory;
+	}
+}
@@ -40,6 +40,10 @@ public class ExpansionRequest {
     private String resolvedDisplayLanguage;
     private Map<String, String> defaultValueSetVersions;
     private Map<String, CodeSystem> supplements;
+    private SupplementOverlay supplementOverlay;
+    private ExpansionBudget expansionBudget;
+    private SubExpansionMemo subExpansionMemo;
+    private int membershipOnlyDepth;
     private Map<String, Resource> txResourceMap;
     private Map<String, List<String>> usedCodeSystemVersions;
     private Map<String, List<String>> requestedCodeSystemVersions;
@@ -143,6 +147,10 @@ public class ExpansionRequest {
                 for (Parameters.ParametersParameterComponent param : parameters.getParameter()) {
                     if ("tx-resource".equals(param.getName()) && param.hasResource()) {
                         Resource resource = param.getResource();
+                        if (resource instanceof MetadataResource metadataResource) {
+                            // Client content: never served from or put into the index cache
+                            TerminologyIndexCache.markClientSupplied(metadataResource);
+                        }
                         
                         if (resource instanceof ValueSet) {
                             ValueSet vs = (ValueSet) resource;
@@ -179,6 +187,61 @@ public class ExpansionRequest {
     
     public void setSupplements(Map<String, CodeSystem> supplements) {
         this.supplements = supplements;
+        this.supplementOverlay = null;
+    }
+
+    /**
+     * True for {@code count=0}: only expansion.total is wanted, no contains.
+     */
+    public boolean isCountOnly() {
+        return count != null && count.hasValue() && count.getValue() == 0;
+    }
+
+    /**
+     * Size accounting for this request; {@code null} when no limits apply.
+     */
+    public ExpansionBudget getExpansionBudget() {
+        return expansionBudget;
+    }
+
+    public void setExpansionBudget(ExpansionBudget expansionBudget) {
+        this.expansionBudget = expansionBudget;
+    }
+
+    /**
+     * True while an excluded ValueSet is being collected: concepts are only tested for
+     * membership, so components carry just system and code.
+     */
+    public boolean isMembershipOnly() {
+        return membershipOnlyDepth > 0;
+    }
+
+    public void enterMembershipOnly() {
+        membershipOnlyDepth++;
+    }
+
+    public void exitMembershipOnly() {
+        membershipOnlyDepth--;
+    }
+
+    /**
+     * Sub-expansions of imported/excluded ValueSets already computed for this request.
+     */
+    public SubExpansionMemo getSubExpansionMemo() {
+        if (subExpansionMemo == null) {
+            subExpansionMemo = new SubExpansionMemo();
+        }
+        return subExpansionMemo;
+    }
+
+    /**
+     * Code-indexed overlay of the resolved supplements, built on first use.
+     */
+    public SupplementOverlay getSupplementOverlay() {
+        if (supplementOverlay == null) {
+            supplementOverlay = SupplementOverlay.of(getSupplements().values());
+        }
+        return supplementOverlay;
     }
     
     public void recordUsedCodeSystem(String systemUrl, String version) {
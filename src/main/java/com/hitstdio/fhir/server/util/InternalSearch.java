@@ -0,0 +1,34 @@
+package com.hitstdio.fhir.server.util;
+
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+
+/**
+ * Search parameter maps for the internal CodeSystem / ValueSet lookups of the terminology
+ * operations. Both run synchronously: the matches are loaded in the calling thread and
+ * returned directly, without the search coordinator, the query cache or any HFJ_SEARCH /
+ * HFJ_SEARCH_RESULT rows. Client-facing searches, which are paged, keep
+ * {@code new SearchParameterMap()}.
+ */
+public final class InternalSearch {
+
+	private InternalSearch() {
+	}
+
+	/**
+	 * A synchronous search returning every match, for lookups that read all of them
+	 * (e.g. all versions of a url).
+	 */
+	public static SearchParameterMap allMatches() {
+		return SearchParameterMap.newSynchronous();
+	}
+
+	/**
+	 * A synchronous search that loads only the first match, for lookups that read only
+	 * {@code getResources(0, 1)}. {@code size()} of its result is 0 or 1.
+	 */
+	public static SearchParameterMap firstMatch() {
+		SearchParameterMap params = SearchParameterMap.newSynchronous();
+		params.setCount(1);
+		return params;
+	}
+}
@@ -0,0 +1,125 @@
+package com.hitstdio.fhir.server.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Reads {@code application/fhir+ndjson} bulk validation input one line at a time. A line is
+ * a Parameters resource (the same shape as a {@code validation} entry of
+ * $batch-validate-code, {@code tx-resource} parameters included), a CodeableConcept or a Coding.
+ */
+public final class NdjsonValidationItems {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private NdjsonValidationItems() {
+	}
+
+	/**
+	 * Non-blank lines of the input, read lazily.
+	 */
+	public static Iterator<Line> lines(BufferedReader reader) {
+		return new Iterator<>() {
+			private Line next;
+			private int number;
+
+			@Override
+			public boolean hasNext() {
+				if (next != null) {
+					return true;
+				}
+				try {
+					String text;
+					while ((text = reader.readLine()) != null) {
+						number++;
+						if (!text.isBlank()) {
+							next = new Line(number, text);
+							return true;
+						}
+					}
+					return false;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			@Override
+			public Line next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Line line = next;
+				next = null;
+				return line;
+			}
+		};
+	}
+
+	/**
+	 * Converts one line to the Parameters of a validation item.
+	 *
+	 * @throws DataFormatException when the line is not valid FHIR JSON
+	 */
+	public static Parameters toItem(String line) {
+		JsonNode node;
+		try {
+			node = MAPPER.readTree(line);
+		} catch (JsonProcessingException e) {
+			throw new DataFormatException("Invalid JSON: " + e.getOriginalMessage());
+		}
+		if (node == null || !node.isObject()) {
+			throw new DataFormatException("Expected a JSON object (Parameters, CodeableConcept or Coding)");
+		}
+
+		IParser parser = FhirContext.forR4Cached().newJsonParser();
+		JsonNode resourceType = node.get("resourceType");
+		if (resourceType != null) {
+			if (!"Parameters".equals(resourceType.asText())) {
+				throw new DataFormatException("Unexpected resource type '" + resourceType.asText()
+						+ "' (expected Parameters, CodeableConcept or Coding)");
+			}
+			return parser.parseResource(Parameters.class, line);
+		}
+
+		// Apart from id and extension the two types share no elements; coding and text are CodeableConcept-only
+		boolean codeableConcept = node.has("coding") || node.has("text");
+		String name = codeableConcept ? "codeableConcept" : "coding";
+		String valueName = codeableConcept ? "valueCodeableConcept" : "valueCoding";
+		String parameters = "{\"resourceType\":\"Parameters\",\"parameter\":[{\"name\":\"" + name + "\",\""
+				+ valueName + "\":" + node + "}]}";
+		return parser.parseResource(Parameters.class, parameters);
+	}
+
+	/**
+	 * Resources supplied with an item as {@code tx-resource} parameters.
+	 */
+	public static List<IBaseResource> txResources(Parameters item) {
+		List<IBaseResource> resources = new ArrayList<>();
+		for (ParametersParameterComponent parameter : item.getParameter()) {
+			if ("tx-resource".equals(parameter.getName()) && parameter.hasResource()) {
+				resources.add(parameter.getResource());
+			}
+		}
+		return resources;
+	}
+
+	public record Line(int number, String text) {
+	}
+}
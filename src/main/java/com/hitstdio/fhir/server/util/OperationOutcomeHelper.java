@@ -10,23 +10,10 @@ public class OperationOutcomeHelper {
     public static OperationOutcome.OperationOutcomeIssueComponent createCodeSystemVersionNotFoundIssue(
             ValidationContext context) {
 
-        var issue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.NOTFOUND)
-            .setMessageId(OperationOutcomeMessageId.UNKNOWN_CODESYSTEM_VERSION)
-            .setDetails("not-found", buildCodeSystemVersionErrorMessage(context))
-            .build();
-
-        // Set location
-        if ("codeableConcept".equals(context.parameterSource())) {
-            issue.addLocation("CodeableConcept.coding[0].system");
-            issue.addExpression("CodeableConcept.coding[0].system");
-        } else {
-            issue.addLocation("system");
-            issue.addExpression("system");
-        }
-
-        return issue;
+        String location = "codeableConcept".equals(context.parameterSource())
+            ? "CodeableConcept.coding[0].system" : "system";
+        return OperationOutcomeTemplates.forErrorType(ValidationErrorType.SYSTEM_VERSION_NOT_FOUND)
+            .create(buildCodeSystemVersionErrorMessage(context), location);
     }
 
     /**
@@ -35,12 +22,7 @@ public class OperationOutcomeHelper {
     public static OperationOutcome.OperationOutcomeIssueComponent createValueSetValidationWarningIssue(
             ValidationContext context) {
 
-        return new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.WARNING)
-            .setCode(OperationOutcome.IssueType.NOTFOUND)
-            .setMessageId(OperationOutcomeMessageId.UNABLE_TO_CHECK_CODES_IN_VS)
-            .setDetails("vs-invalid", buildValueSetWarningMessage(context))
-            .build();
+        return OperationOutcomeTemplates.VALUESET_WARNING.create(buildValueSetWarningMessage(context));
     }
 
     /**
@@ -49,12 +31,8 @@ public class OperationOutcomeHelper {
     public static OperationOutcome.OperationOutcomeIssueComponent createGeneralValidationErrorIssue(
             ValidationContext context) {
 
-        return new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.CODEINVALID)
-            .setMessageId(OperationOutcomeMessageId.TX_GENERAL_CC_ERROR)
-            .setDetails("not-in-vs", buildValueSetIssueMessage(context))
-            .build();
+        return OperationOutcomeTemplates.forErrorType(ValidationErrorType.GENERAL_ERROR)
+            .create(buildValueSetIssueMessage(context));
     }
 
     /**
@@ -63,26 +41,9 @@ public class OperationOutcomeHelper {
     public static OperationOutcome.OperationOutcomeIssueComponent createCodeNotInCodeSystemIssue(
             ValidationContext context, CodeSystem codeSystem) {
 
-        var issue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.CODEINVALID)
-            .setMessageId(OperationOutcomeMessageId.UNKNOWN_CODE_IN_VERSION)
-            .setDetails("invalid-code", buildCodeSystemIssueMessage(context, codeSystem))
-            .build();
-
-        // Set location by parameter source
-        if ("codeableConcept".equals(context.parameterSource())) {
-            issue.addLocation("CodeableConcept.coding[0].code");
-            issue.addExpression("CodeableConcept.coding[0].code");
-        } else if ("coding".equals(context.parameterSource())) {
-            issue.addLocation("Coding.code");
-            issue.addExpression("Coding.code");
-        } else {
-            issue.addLocation("code");
-            issue.addExpression("code");
-        }
-
-        return issue;
+        return OperationOutcomeTemplates.forErrorType(ValidationErrorType.INVALID_CODE)
+            .create(buildCodeSystemIssueMessage(context, codeSystem),
+                OperationOutcomeTemplates.codeLocation(context.parameterSource()));
     }
 
     /**
@@ -91,26 +52,9 @@ public class OperationOutcomeHelper {
     public static OperationOutcome.OperationOutcomeIssueComponent createCodeNotInValueSetIssue(
             ValidationContext context) {
 
-        var issue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
-            .setCode(OperationOutcome.IssueType.CODEINVALID)
-            .setMessageId(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE)
-            .setDetails("this-code-not-in-vs", buildValueSetIssueMessage(context))
-            .build();
-
-        // Set location by parameter source
-        if ("codeableConcept".equals(context.parameterSource())) {
-            issue.addLocation("CodeableConcept.coding[0].code");
-            issue.addExpression("CodeableConcept.coding[0].code");
-        } else if ("coding".equals(context.parameterSource())) {
-            issue.addLocation("Coding.code");
-            issue.addExpression("Coding.code");
-        } else {
-            issue.addLocation("code");
-            issue.addExpression("code");
-        }
-
-        return issue;
+        return OperationOutcomeTemplates.forErrorType(ValidationErrorType.CODE_NOT_IN_VALUESET)
+            .create(buildValueSetIssueMessage(context),
+                OperationOutcomeTemplates.codeLocation(context.parameterSource()));
     }
 
     /**
@@ -119,34 +63,16 @@ public class OperationOutcomeHelper {
     public static OperationOutcome.OperationOutcomeIssueComponent createInactiveCodeIssue(
             String codeValue) {
 
-        var issue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.BUSINESSRULE)
-            .setMessageId(OperationOutcomeMessageId.STATUS_CODE_WARNING)
-            .setDetails("code-rule", String.format("The code '%s' is valid but is not active", codeValue))
-            .build();
-
-        issue.addLocation("Coding.code");
-        issue.addExpression("Coding.code");
-
-        return issue;
+        return OperationOutcomeTemplates.forErrorType(ValidationErrorType.INACTIVE_CODE_NOT_ALLOWED)
+            .create("The code '" + codeValue + "' is valid but is not active", "Coding.code");
     }
 
     /**
      * Create abstract-code-not-allowed Issue
      */
     public static OperationOutcome.OperationOutcomeIssueComponent createAbstractCodeNotAllowedIssue() {
-        var issue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.BUSINESSRULE)
-            .setMessageId(OperationOutcomeMessageId.ABSTRACT_CODE_NOT_ALLOWED)
-            .setDetails("abstract-code", "Abstract codes are not allowed in this context")
-            .build();
-
-        issue.addLocation("code");
-        issue.addExpression("code");
-
-        return issue;
+        return OperationOutcomeTemplates.forErrorType(ValidationErrorType.ABSTRACT_CODE_NOT_ALLOWED)
+            .create("Abstract codes are not allowed in this context", "code");
     }
 
     /**
@@ -155,27 +81,16 @@ public class OperationOutcomeHelper {
     public static OperationOutcome.OperationOutcomeIssueComponent createInvalidDisplayIssue(
             ValidationContext context) {
 
-        var issue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.INVALID)
-            .setMessageId(OperationOutcomeMessageId.INVALID_DISPLAY)
-            .setDetails("invalid-display", "The display value does not match the code")
-            .build();
-
-        // Set location by parameter source
+        String location;
         if ("coding".equals(context.parameterSource())) {
-            issue.addLocation("coding.display");
-            issue.addExpression("coding.display");
+            location = "coding.display";
         } else if (context.parameterSource().startsWith("codeableConcept")) {
-            String location = context.parameterSource() + ".display";
-            issue.addLocation(location);
-            issue.addExpression(location);
+            location = context.parameterSource() + ".display";
         } else {
-            issue.addLocation("display");
-            issue.addExpression("display");
+            location = "display";
         }
-
-        return issue;
+        return OperationOutcomeTemplates.forErrorType(ValidationErrorType.INVALID_DISPLAY)
+            .create("The display value does not match the code", location);
     }
 
     /**
@@ -189,23 +104,14 @@ public class OperationOutcomeHelper {
         outcome.setMeta(null);
 
         // Issue 1: ValueSet not found
-        var notFoundIssue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.NOTFOUND)
-            .setMessageId(OperationOutcomeMessageId.UNABLE_TO_RESOLVE_VALUE_SET)
-            .setDetails("not-found", valueSetUrl != null ?
-                String.format("$external:1:%s$", valueSetUrl) :
-                "$external:1:ValueSet$")
-            .build();
+        var notFoundIssue = OperationOutcomeTemplates.VALUESET_NOT_FOUND.create(
+            OperationOutcomeTemplates.external(1, valueSetUrl != null ? valueSetUrl : "ValueSet"));
 
         outcome.addIssue(notFoundIssue);
 
         // Issue 2: Informational issue
-        var infoIssue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
-            .setCode(OperationOutcome.IssueType.INFORMATIONAL)
-            .setDiagnostics("$fragments:X-Request-Id:$")
-            .build();
+        var infoIssue = OperationOutcomeTemplates.INFORMATIONAL.create(null)
+            .setDiagnostics("$fragments:X-Request-Id:$");
 
         outcome.addIssue(infoIssue);
 
@@ -218,12 +124,7 @@ public class OperationOutcomeHelper {
     public static OperationOutcome createInvalidRequestOutcome(String errorMessage) {
         OperationOutcome outcome = new OperationOutcome();
 
-        var issue = new OperationOutcomeIssueBuilder()
-            .setSeverity(OperationOutcome.IssueSeverity.ERROR)
-            .setCode(OperationOutcome.IssueType.REQUIRED)
-            .setMessageId(OperationOutcomeMessageId.MISSING_REQUIRED_PARAMETER)
-            .setDetails("invalid-data", errorMessage)
-            .build();
+        var issue = OperationOutcomeTemplates.MISSING_PARAMETER.create(errorMessage);
 
         outcome.addIssue(issue);
 
@@ -234,9 +135,7 @@ public class OperationOutcomeHelper {
 
     private static String buildCodeSystemVersionErrorMessage(ValidationContext context) {
         if (context.system() != null && context.systemVersion() != null) {
-            return String.format("%s|%s",
-                context.system().getValue(),
-                context.systemVersion().getValue());
+            return context.system().getValue() + "|" + context.systemVersion().getValue();
         }
         return "CodeSystem with specified version not found";
     }
@@ -245,7 +144,7 @@ public class OperationOutcomeHelper {
         if (context.valueSet() != null && context.valueSet().hasUrl()) {
             String version = context.valueSet().hasVersion() ?
                 context.valueSet().getVersion() : "unknown";
-            return String.format("%s|%s", context.valueSet().getUrl(), version);
+            return context.valueSet().getUrl() + "|" + version;
         }
         return "Unable to validate against ValueSet";
     }
@@ -254,7 +153,7 @@ public class OperationOutcomeHelper {
         if (context.valueSet() != null && context.valueSet().hasUrl()) {
             String version = context.valueSet().hasVersion() ?
                 context.valueSet().getVersion() : "5.0.0";
-            return String.format("$external:1:%s|%s$", context.valueSet().getUrl(), version);
+            return OperationOutcomeTemplates.external(1, context.valueSet().getUrl() + "|" + version);
         }
         return "$external:1:ValueSet$";
     }
@@ -269,7 +168,7 @@ public class OperationOutcomeHelper {
         }
 
         if (systemUrl != null) {
-            return String.format("$external:2:%s$", systemUrl);
+            return OperationOutcomeTemplates.external(2, systemUrl);
         }
 
         return "$external:2:CodeSystem$";
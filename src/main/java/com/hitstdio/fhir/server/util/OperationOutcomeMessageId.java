@@ -7,16 +7,22 @@ public class OperationOutcomeMessageId {
     public static final String NONE_OF_CODES_IN_VALUE_SET_ONE = "None_of_the_provided_codes_are_in_the_value_set_one";
     public static final String UNABLE_TO_CHECK_CODES_IN_VS = "UNABLE_TO_CHECK_IF_THE_PROVIDED_CODES_ARE_IN_THE_VALUE_SET_CS";
     public static final String TX_GENERAL_CC_ERROR = "TX_GENERAL_CC_ERROR_MESSAGE";
+    /** 一般性錯誤（例外訊息原樣轉出），不屬於任何特定驗證結果 */
+    public static final String TERMINOLOGY_PASSTHROUGH_TX_MESSAGE = "Terminology_PassThrough_TX_Message";
     public static final String UNABLE_TO_CHECK_CODES_IN_VS_VS = "UNABLE_TO_CHECK_IF_THE_PROVIDED_CODES_ARE_IN_THE_VALUE_SET_VS";
+    public static final String VALUESET_VALUE_MISMATCH = "VALUESET_VALUE_MISMATCH";
+    public static final String VALUESET_VALUE_MISMATCH_DEFAULT = "VALUESET_VALUE_MISMATCH_DEFAULT";
     
     // CodeSystem ����
     public static final String UNKNOWN_CODE_IN_VERSION = "Unknown_Code_in_Version";
     public static final String UNKNOWN_CODESYSTEM_VERSION = "UNKNOWN_CODESYSTEM_VERSION";
+    public static final String UNKNOWN_CODESYSTEM_VERSION_NONE = "UNKNOWN_CODESYSTEM_VERSION_NONE";
     public static final String UNKNOWN_CODESYSTEM = "UNKNOWN_CODESYSTEM";
     public static final String TERMINOLOGY_TX_SYSTEM_VALUESET2 = "Terminology_TX_System_ValueSet2";
     public static final String TERMINOLOGY_TX_SYSTEM_RELATIVE = "Terminology_TX_System_Relative";
     public static final String CODING_HAS_NO_SYSTEM_CANNOT_VALIDATE = "Coding_has_no_system__cannot_validate";
     public static final String UNABLE_TO_INFER_CODESYSTEM = "UNABLE_TO_INFER_CODESYSTEM";
+    public static final String UNABLE_TO_RESOLVE_SYSTEM_MULTIPLE_MATCHES = "Unable_to_resolve_system__value_set_has_multiple_matches";
     
     // ��L���ҿ��~
     public static final String ABSTRACT_CODE_NOT_ALLOWED = "Abstract_Code_Not_Allowed";
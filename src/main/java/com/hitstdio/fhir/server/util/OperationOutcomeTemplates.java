@@ -0,0 +1,204 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.StringType;
+
+/**
+ * Issue templates for validation failures. The fixed part of an issue (severity, type,
+ * message id, tx-issue-type code) is held once per template as plain values;
+ * {@link IssueTemplate#create} builds just the elements of the issue from them and fills in the
+ * variable slots (details text, location), without copying a prototype element tree.
+ */
+public final class OperationOutcomeTemplates {
+
+    public static final IssueTemplate VALUESET_WARNING = new IssueTemplate(
+        OperationOutcome.IssueSeverity.WARNING, OperationOutcome.IssueType.NOTFOUND,
+        OperationOutcomeMessageId.UNABLE_TO_CHECK_CODES_IN_VS, "vs-invalid");
+
+    /** As {@link #VALUESET_WARNING}, when a referenced value set (not a code system) is missing */
+    public static final IssueTemplate VALUESET_WARNING_VS = new IssueTemplate(
+        OperationOutcome.IssueSeverity.WARNING, OperationOutcome.IssueType.NOTFOUND,
+        OperationOutcomeMessageId.UNABLE_TO_CHECK_CODES_IN_VS_VS, "vs-invalid");
+
+    public static final IssueTemplate VALUESET_NOT_FOUND = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.NOTFOUND,
+        OperationOutcomeMessageId.UNABLE_TO_RESOLVE_VALUE_SET, "not-found");
+
+    public static final IssueTemplate MISSING_PARAMETER = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.REQUIRED,
+        OperationOutcomeMessageId.MISSING_REQUIRED_PARAMETER, "invalid-data");
+
+    /** Error-level "code not in the value set" (the information-level one is {@link ValidationErrorType#CODE_NOT_IN_VALUESET}) */
+    public static final IssueTemplate NOT_IN_VALUESET = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.CODEINVALID,
+        OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE, "not-in-vs");
+
+    /** CodeableConcept-level summary when none of its codings is in the value set */
+    public static final IssueTemplate TX_GENERAL_CC_ERROR = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.CODEINVALID,
+        OperationOutcomeMessageId.TX_GENERAL_CC_ERROR, "not-in-vs");
+
+    /** The Coding's system is the url of a value set */
+    public static final IssueTemplate SYSTEM_IS_VALUESET = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.INVALID,
+        OperationOutcomeMessageId.TERMINOLOGY_TX_SYSTEM_VALUESET2, "invalid-data");
+
+    public static final IssueTemplate CODING_HAS_NO_SYSTEM = new IssueTemplate(
+        OperationOutcome.IssueSeverity.WARNING, OperationOutcome.IssueType.INVALID,
+        OperationOutcomeMessageId.CODING_HAS_NO_SYSTEM_CANNOT_VALIDATE, "invalid-data");
+
+    public static final IssueTemplate UNKNOWN_CODESYSTEM = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.NOTFOUND,
+        OperationOutcomeMessageId.UNKNOWN_CODESYSTEM, "not-found");
+
+    public static final IssueTemplate UNABLE_TO_INFER_CODESYSTEM = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.NOTFOUND,
+        OperationOutcomeMessageId.UNABLE_TO_INFER_CODESYSTEM, "cannot-infer");
+
+    /** The code is in more than one system of the value set, so none can be inferred */
+    public static final IssueTemplate UNABLE_TO_INFER_MULTIPLE_MATCHES = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.NOTFOUND,
+        OperationOutcomeMessageId.UNABLE_TO_RESOLVE_SYSTEM_MULTIPLE_MATCHES, "cannot-infer");
+
+    /** CodeSystem version of the ValueSet include differs from the one in the value */
+    public static final IssueTemplate VALUESET_VALUE_MISMATCH = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.INVALID,
+        OperationOutcomeMessageId.VALUESET_VALUE_MISMATCH, "vs-invalid");
+
+    /** As {@link #VALUESET_VALUE_MISMATCH}, for a versionless include */
+    public static final IssueTemplate VALUESET_VALUE_MISMATCH_DEFAULT = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.INVALID,
+        OperationOutcomeMessageId.VALUESET_VALUE_MISMATCH_DEFAULT, "vs-invalid");
+
+    /** Unknown CodeSystem version when no version of the CodeSystem is known */
+    public static final IssueTemplate UNKNOWN_CODESYSTEM_VERSION_NONE = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.NOTFOUND,
+        OperationOutcomeMessageId.UNKNOWN_CODESYSTEM_VERSION_NONE, "not-found");
+
+    public static final IssueTemplate DISPLAY_SHOULD_BE_ONE_OF = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.INVALID,
+        OperationOutcomeMessageId.DISPLAY_NAME_SHOULD_BE_ONE_OF, "invalid-display");
+
+    public static final IssueTemplate DISPLAY_SHOULD_BE_ONE_OF_WARNING = new IssueTemplate(
+        OperationOutcome.IssueSeverity.WARNING, OperationOutcome.IssueType.INVALID,
+        OperationOutcomeMessageId.DISPLAY_NAME_SHOULD_BE_ONE_OF, "invalid-display");
+
+    /** Informational issue without details; callers set the diagnostics */
+    public static final IssueTemplate INFORMATIONAL = new IssueTemplate(
+        OperationOutcome.IssueSeverity.INFORMATION, OperationOutcome.IssueType.INFORMATIONAL, null, null);
+
+    /** Used for error types without a template of their own */
+    public static final IssueTemplate GENERIC_ERROR = new IssueTemplate(
+        OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.PROCESSING, null, null);
+
+    private static final Map<ValidationErrorType, IssueTemplate> BY_ERROR_TYPE = new EnumMap<>(ValidationErrorType.class);
+
+    static {
+        BY_ERROR_TYPE.put(ValidationErrorType.SYSTEM_VERSION_NOT_FOUND, new IssueTemplate(
+            OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.NOTFOUND,
+            OperationOutcomeMessageId.UNKNOWN_CODESYSTEM_VERSION, "not-found"));
+        BY_ERROR_TYPE.put(ValidationErrorType.GENERAL_ERROR, new IssueTemplate(
+            OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.PROCESSING,
+            OperationOutcomeMessageId.TERMINOLOGY_PASSTHROUGH_TX_MESSAGE, null));
+        BY_ERROR_TYPE.put(ValidationErrorType.SYSTEM_NOT_FOUND, UNKNOWN_CODESYSTEM);
+        BY_ERROR_TYPE.put(ValidationErrorType.INVALID_CODE, new IssueTemplate(
+            OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.CODEINVALID,
+            OperationOutcomeMessageId.UNKNOWN_CODE_IN_VERSION, "invalid-code"));
+        BY_ERROR_TYPE.put(ValidationErrorType.CODE_NOT_IN_VALUESET, new IssueTemplate(
+            OperationOutcome.IssueSeverity.INFORMATION, OperationOutcome.IssueType.CODEINVALID,
+            OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE, "this-code-not-in-vs"));
+        BY_ERROR_TYPE.put(ValidationErrorType.INACTIVE_CODE_NOT_ALLOWED, new IssueTemplate(
+            OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.BUSINESSRULE,
+            OperationOutcomeMessageId.STATUS_CODE_WARNING, "code-rule"));
+        BY_ERROR_TYPE.put(ValidationErrorType.ABSTRACT_CODE_NOT_ALLOWED, new IssueTemplate(
+            OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.BUSINESSRULE,
+            OperationOutcomeMessageId.ABSTRACT_CODE_NOT_ALLOWED, "abstract-code"));
+        BY_ERROR_TYPE.put(ValidationErrorType.INVALID_DISPLAY, new IssueTemplate(
+            OperationOutcome.IssueSeverity.ERROR, OperationOutcome.IssueType.INVALID,
+            OperationOutcomeMessageId.INVALID_DISPLAY, "invalid-display"));
+    }
+
+    /**
+     * Template of the issue reported for this error type; {@link #GENERIC_ERROR} when the type
+     * has none.
+     */
+    public static IssueTemplate forErrorType(ValidationErrorType errorType) {
+        IssueTemplate template = errorType != null ? BY_ERROR_TYPE.get(errorType) : null;
+        return template != null ? template : GENERIC_ERROR;
+    }
+
+    /**
+     * {@code $external:<slot>:<value>$} placeholder text, without {@link String#format}.
+     */
+    public static String external(int slot, String value) {
+        return "$external:" + slot + ":" + value + "$";
+    }
+
+    /**
+     * {@code location} / {@code expression} of the code element the parameter source points at.
+     */
+    public static String codeLocation(String parameterSource) {
+        if ("codeableConcept".equals(parameterSource)) {
+            return "CodeableConcept.coding[0].code";
+        }
+        return "coding".equals(parameterSource) ? "Coding.code" : "code";
+    }
+
+    public static final class IssueTemplate {
+
+        private final OperationOutcome.IssueSeverity severity;
+        private final OperationOutcome.IssueType code;
+        private final String messageId;
+        private final String txIssueType;
+
+        private IssueTemplate(OperationOutcome.IssueSeverity severity, OperationOutcome.IssueType code,
+                String messageId, String txIssueType) {
+            this.severity = severity;
+            this.code = code;
+            this.messageId = messageId;
+            this.txIssueType = txIssueType;
+        }
+
+        public OperationOutcome.OperationOutcomeIssueComponent create(String detailsText) {
+            OperationOutcome.OperationOutcomeIssueComponent issue = new OperationOutcome.OperationOutcomeIssueComponent();
+            issue.setSeverity(severity);
+            issue.setCode(code);
+            if (messageId != null) {
+                issue.addExtension(new Extension(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL,
+                    new StringType(messageId)));
+            }
+            boolean hasText = detailsText != null && !detailsText.isEmpty();
+            if (txIssueType != null || hasText) {
+                CodeableConcept details = new CodeableConcept();
+                if (txIssueType != null) {
+                    details.addCoding(new Coding(OperationOutcomeMessageId.TX_ISSUE_TYPE_SYSTEM, txIssueType, null));
+                }
+                if (hasText) {
+                    details.setText(detailsText);
+                }
+                issue.setDetails(details);
+            }
+            return issue;
+        }
+
+        /**
+         * Issue with the details text and one location, also used as expression.
+         */
+        public OperationOutcome.OperationOutcomeIssueComponent create(String detailsText, String location) {
+            OperationOutcome.OperationOutcomeIssueComponent issue = create(detailsText);
+            issue.addLocation(location);
+            issue.addExpression(location);
+            return issue;
+        }
+    }
+
+    private OperationOutcomeTemplates() {
+        // Utility class, no instantiation
+    }
+}
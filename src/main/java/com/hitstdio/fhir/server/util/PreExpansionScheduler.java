@@ -0,0 +1,185 @@
+package com.hitstdio.fhir.server.util;
+
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.UriParam;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that keeps {@link PreExpansionStore} up to date. On every run it selects the
+ * ValueSets covered by the configured policy and recomputes those whose pre-expansion is
+ * missing, STALE (a contributing CodeSystem/ValueSet changed) or built from an older
+ * resource version. CodeSystem updates and new CodeSystem versions are applied as concept-level
+ * deltas via {@link #submitDelta} and {@link #submitCreated} instead of a full recompute.
+ */
+public class PreExpansionScheduler {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(PreExpansionScheduler.class);
+
+	public enum Policy {
+		/** Pre-expansion disabled */
+		NONE,
+		/** Only the ValueSet canonicals listed in the configuration */
+		SELECTED,
+		/** Every stored ValueSet */
+		ALL;
+
+		public static Policy fromString(String value) {
+			if (value == null || value.isBlank()) {
+				return NONE;
+			}
+			return Policy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+		}
+	}
+
+	private static final int PAGE_SIZE = 100;
+
+	private final IFhirResourceDao<ValueSet> valueSetDao;
+	private final ValueSetExpansionService expansionService;
+	private final PreExpansionStore store;
+	private final Policy policy;
+	private final List<String> selectedCanonicals;
+	private final long refreshSeconds;
+	private ScheduledExecutorService executor;
+
+	public PreExpansionScheduler(IFhirResourceDao<ValueSet> valueSetDao, ValueSetExpansionService expansionService,
+			PreExpansionStore store, Policy policy, List<String> selectedCanonicals, long refreshSeconds) {
+		this.valueSetDao = valueSetDao;
+		this.expansionService = expansionService;
+		this.store = store;
+		this.policy = policy;
+		this.selectedCanonicals = selectedCanonicals;
+		this.refreshSeconds = refreshSeconds;
+	}
+
+	public void start() {
+		if (policy == Policy.NONE) {
+			ourLog.info("ValueSet pre-expansion disabled");
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "preexpansion-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::refreshSafely, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+		ourLog.info("ValueSet pre-expansion scheduled every {}s with policy {}", refreshSeconds, policy);
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Queues delta-based maintenance of the expansions an updated CodeSystem moved into PATCHING.
+	 * Runs on the scheduler thread so it never overlaps with a refresh pass.
+	 */
+	public void submitDelta(CodeSystemDelta delta, List<String> expansionIds) {
+		submit(delta.getUrl(), expansionIds, () -> {
+			expansionService.applyCodeSystemDelta(delta, expansionIds);
+			ourLog.info("Applied CodeSystem delta for {} ({} concepts changed)", delta.getUrl(), delta.size());
+		});
+	}
+
+	/**
+	 * Queues maintenance of the expansions a newly created CodeSystem version moved into PATCHING.
+	 */
+	public void submitCreated(CodeSystem created, List<String> expansionIds) {
+		submit(created.getUrl(), expansionIds, () -> {
+			expansionService.applyCodeSystemCreated(created, expansionIds);
+			ourLog.info("Applied new CodeSystem version {}|{}", created.getUrl(), created.getVersion());
+		});
+	}
+
+	private void submit(String url, List<String> expansionIds, Runnable task) {
+		if (executor == null) {
+			// nothing would ever patch them; let the next computation pick them up instead
+			store.updateStatus(expansionIds, PreExpansionStore.STATUS_PATCHING, PreExpansionStore.STATUS_STALE);
+			return;
+		}
+		executor.execute(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				ourLog.warn("CodeSystem delta for {} failed, falling back to recompute: {}", url, e.getMessage());
+				store.updateStatus(expansionIds, PreExpansionStore.STATUS_PATCHING, PreExpansionStore.STATUS_STALE);
+			}
+		});
+	}
+
+	private void refreshSafely() {
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			ourLog.warn("Pre-expansion refresh failed: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Runs one refresh pass and returns the number of recomputed expansions.
+	 */
+	public int refresh() {
+		int refreshed = 0;
+		for (ValueSet valueSet : findTargets()) {
+			String resourceVersion = PreExpansionStore.resourceVersionOf(valueSet);
+			if (!valueSet.hasUrl() || !store.needsRefresh(valueSet.getUrl(), valueSet.getVersion(), resourceVersion)) {
+				continue;
+			}
+			try {
+				expansionService.refreshPreExpansion(valueSet);
+				refreshed++;
+			} catch (RuntimeException e) {
+				// Expansions that fail (unknown systems, cycles, ...) are simply not pre-expanded
+				ourLog.warn("Pre-expansion of {}|{} failed: {}", valueSet.getUrl(), valueSet.getVersion(),
+						e.getMessage());
+			}
+		}
+		return refreshed;
+	}
+
+	private List<ValueSet> findTargets() {
+		List<ValueSet> targets = new ArrayList<>();
+		if (policy == Policy.ALL) {
+			collect(valueSetDao.search(SearchParameterMap.newSynchronous(), new SystemRequestDetails()), targets);
+		} else if (policy == Policy.SELECTED) {
+			for (String canonical : selectedCanonicals) {
+				String[] parts = canonical.split("\\|", 2);
+				SearchParameterMap params = SearchParameterMap.newSynchronous()
+						.add(ValueSet.SP_URL, new UriParam(parts[0]));
+				if (parts.length > 1 && !parts[1].isEmpty()) {
+					params.add(ValueSet.SP_VERSION, new TokenParam(parts[1]));
+				}
+				collect(valueSetDao.search(params, new SystemRequestDetails()), targets);
+			}
+		}
+		return targets;
+	}
+
+	private void collect(IBundleProvider result, List<ValueSet> targets) {
+		int size = result.size() != null ? result.size() : 0;
+		for (int from = 0; from < size; from += PAGE_SIZE) {
+			for (IBaseResource resource : result.getResources(from, Math.min(from + PAGE_SIZE, size))) {
+				if (resource instanceof ValueSet vs) {
+					targets.add(vs);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,730 @@
+package com.hitstdio.fhir.server.util;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionParameterComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+/**
+ * Persists pre-computed ValueSet expansions in dedicated tables so that $expand and
+ * $validate-code can page and test membership with indexed SQL instead of re-running
+ * {@link ConceptCollector} on every request.
+ * <p>
+ * One header row per ValueSet url|version ({@code TX_PREEXP_VS}), one row per concept keyed
+ * by expansion id and ordinal ({@code TX_PREEXP_CONCEPT}), and the url|version of every
+ * CodeSystem/ValueSet that contributed to the expansion ({@code TX_PREEXP_DEP}; version "-"
+ * when the expansion does not record which version it used).
+ */
+public class PreExpansionStore {
+
+	private static final Logger ourLog = LoggerFactory.getLogger(PreExpansionStore.class);
+
+	public static final String STATUS_READY = "READY";
+	public static final String STATUS_STALE = "STALE";
+	/** A CodeSystem delta is queued for this expansion; the scheduler must not recompute it meanwhile */
+	public static final String STATUS_PATCHING = "PATCHING";
+
+	private static final String TABLE_VS = "TX_PREEXP_VS";
+	private static final String TABLE_CONCEPT = "TX_PREEXP_CONCEPT";
+	private static final String TABLE_DEP = "TX_PREEXP_DEP";
+
+	private static final int INSERT_BATCH_SIZE = 500;
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final FhirContext fhirContext;
+
+	public PreExpansionStore(DataSource dataSource, FhirContext fhirContext) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		this.fhirContext = fhirContext;
+	}
+
+	/**
+	 * Header of a stored expansion. {@code parameters} are the expansion parameters that
+	 * concept collection produced (used-codesystem, used-valueset, version, ...), replayed
+	 * when the expansion is served from the store.
+	 */
+	public record PreExpansion(String id, String url, String version, String resourceVersion, int total,
+			List<ValueSetExpansionParameterComponent> parameters) {
+	}
+
+	/**
+	 * Position and version of one stored concept row.
+	 */
+	public record ConceptRow(int ordinal, String systemVersion) {
+	}
+
+	/**
+	 * Concept-level changes to one stored expansion. Insertions are applied in list order, each
+	 * directly after the row of {@code afterCode} (or before the first row of the system when null).
+	 * When {@code fromVersion} and {@code toVersion} differ, the rows, the recorded expansion
+	 * parameters and the dependency of the system move from one version to the other.
+	 */
+	public record ConceptPatch(String system, Map<String, ValueSetExpansionContainsComponent> replacements,
+			List<String> removals, List<Insertion> insertions, String fromVersion, String toVersion) {
+
+		public boolean isVersionChange() {
+			return !Objects.equals(fromVersion, toVersion);
+		}
+
+		public boolean isEmpty() {
+			return replacements.isEmpty() && removals.isEmpty() && insertions.isEmpty() && !isVersionChange();
+		}
+	}
+
+	public record Insertion(String afterCode, ValueSetExpansionContainsComponent component) {
+	}
+
+	/**
+	 * Creates the pre-expansion tables and indexes when they do not exist yet.
+	 */
+	public void initializeSchema() {
+		jdbcTemplate.execute((Connection connection) -> {
+			if (!tableExists(connection, TABLE_VS)) {
+				jdbcTemplate.execute("CREATE TABLE " + TABLE_VS + " ("
+						+ "EXP_ID VARCHAR2(64) NOT NULL PRIMARY KEY, "
+						+ "VS_URL VARCHAR2(500) NOT NULL, "
+						+ "VS_VERSION VARCHAR2(200) NOT NULL, "
+						+ "VS_RES_VER VARCHAR2(64), "
+						+ "STATUS VARCHAR2(16) NOT NULL, "
+						+ "TOTAL NUMBER(10) NOT NULL, "
+						+ "PARAMS_JSON CLOB, "
+						+ "EXPANDED_AT TIMESTAMP NOT NULL)");
+				jdbcTemplate.execute("CREATE UNIQUE INDEX IDX_PREEXP_VS_URL_VER ON " + TABLE_VS + " (VS_URL, VS_VERSION)");
+			}
+			if (!tableExists(connection, TABLE_CONCEPT)) {
+				jdbcTemplate.execute("CREATE TABLE " + TABLE_CONCEPT + " ("
+						+ "EXP_ID VARCHAR2(64) NOT NULL, "
+						+ "ORDINAL NUMBER(10) NOT NULL, "
+						+ "TOP_ORDINAL NUMBER(10), "
+						+ "SYSTEM_URL VARCHAR2(500), "
+						+ "SYSTEM_VERSION VARCHAR2(200), "
+						+ "CODE VARCHAR2(500), "
+						+ "DISPLAY VARCHAR2(2000), "
+						+ "IS_ABSTRACT NUMBER(1), "
+						+ "IS_INACTIVE NUMBER(1), "
+						+ "CONTAINS_JSON CLOB, "
+						+ "PRIMARY KEY (EXP_ID, ORDINAL))");
+				jdbcTemplate.execute("CREATE INDEX IDX_PREEXP_CONCEPT_CODE ON " + TABLE_CONCEPT + " (EXP_ID, CODE, SYSTEM_URL)");
+				jdbcTemplate.execute("CREATE INDEX IDX_PREEXP_CONCEPT_TOP ON " + TABLE_CONCEPT + " (EXP_ID, TOP_ORDINAL)");
+			}
+			if (tableExists(connection, TABLE_DEP) && !columnExists(connection, TABLE_DEP, "RES_VERSION")) {
+				// dependencies were keyed on url only; rebuild them with the next computation of each expansion
+				jdbcTemplate.execute("DROP TABLE " + TABLE_DEP);
+				jdbcTemplate.update("UPDATE " + TABLE_VS + " SET STATUS = ?", STATUS_STALE);
+			}
+			if (!tableExists(connection, TABLE_DEP)) {
+				jdbcTemplate.execute("CREATE TABLE " + TABLE_DEP + " ("
+						+ "EXP_ID VARCHAR2(64) NOT NULL, "
+						+ "RES_URL VARCHAR2(500) NOT NULL, "
+						+ "RES_VERSION VARCHAR2(200) NOT NULL, "
+						+ "PRIMARY KEY (EXP_ID, RES_URL, RES_VERSION))");
+				jdbcTemplate.execute("CREATE INDEX IDX_PREEXP_DEP_URL ON " + TABLE_DEP + " (RES_URL, RES_VERSION)");
+			}
+			return null;
+		});
+	}
+
+	private boolean columnExists(Connection connection, String tableName, String columnName) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		for (String table : new String[] { tableName, tableName.toLowerCase(Locale.ROOT) }) {
+			for (String column : new String[] { columnName, columnName.toLowerCase(Locale.ROOT) }) {
+				try (ResultSet rs = metaData.getColumns(null, null, table, column)) {
+					if (rs.next()) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean tableExists(Connection connection, String tableName) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		for (String candidate : new String[] { tableName, tableName.toLowerCase(Locale.ROOT) }) {
+			try (ResultSet rs = metaData.getTables(null, null, candidate, new String[] { "TABLE" })) {
+				if (rs.next()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the stored expansion for url|version when it is READY and was computed from the
+	 * given resource version of the ValueSet, otherwise {@code null}.
+	 */
+	public PreExpansion findReady(String url, String version, String resourceVersion) {
+		if (url == null || resourceVersion == null) {
+			return null;
+		}
+		List<PreExpansion> rows = jdbcTemplate.query(
+				"SELECT EXP_ID, VS_URL, VS_VERSION, VS_RES_VER, TOTAL, PARAMS_JSON FROM " + TABLE_VS
+						+ " WHERE VS_URL = ? AND VS_VERSION = ? AND STATUS = ?",
+				(rs, rowNum) -> new PreExpansion(rs.getString("EXP_ID"), rs.getString("VS_URL"),
+						denormalizeVersion(rs.getString("VS_VERSION")), rs.getString("VS_RES_VER"), rs.getInt("TOTAL"),
+						decodeParameters(rs.getString("PARAMS_JSON"))),
+				url, normalizeVersion(version), STATUS_READY);
+		if (rows.isEmpty() || !resourceVersion.equals(rows.get(0).resourceVersion())) {
+			return null;
+		}
+		return rows.get(0);
+	}
+
+	/**
+	 * Whether url|version has no READY expansion computed from the given resource version.
+	 */
+	public boolean needsRefresh(String url, String version, String resourceVersion) {
+		List<String> rows = jdbcTemplate.query(
+				"SELECT STATUS, VS_RES_VER FROM " + TABLE_VS + " WHERE VS_URL = ? AND VS_VERSION = ?",
+				(rs, rowNum) -> rs.getString("STATUS") + "|" + rs.getString("VS_RES_VER"),
+				url, normalizeVersion(version));
+		if (rows.isEmpty()) {
+			return true;
+		}
+		return !rows.get(0).equals(STATUS_READY + "|" + resourceVersion)
+				&& !rows.get(0).equals(STATUS_PATCHING + "|" + resourceVersion);
+	}
+
+	/**
+	 * The stored expansion with this id while it is PATCHING, otherwise {@code null}.
+	 */
+	public PreExpansion findPatching(String expansionId) {
+		List<PreExpansion> rows = jdbcTemplate.query(
+				"SELECT EXP_ID, VS_URL, VS_VERSION, VS_RES_VER, TOTAL, PARAMS_JSON FROM " + TABLE_VS
+						+ " WHERE EXP_ID = ? AND STATUS = ?",
+				(rs, rowNum) -> new PreExpansion(rs.getString("EXP_ID"), rs.getString("VS_URL"),
+						denormalizeVersion(rs.getString("VS_VERSION")), rs.getString("VS_RES_VER"), rs.getInt("TOTAL"),
+						decodeParameters(rs.getString("PARAMS_JSON"))),
+				expansionId, STATUS_PATCHING);
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	/**
+	 * Takes the READY expansions that depend on the given CodeSystem version out of service
+	 * (PATCHING) until a delta is patched into them; expansions in any other state are left as
+	 * they are. A {@code null} version selects the expansions that used any recorded version.
+	 *
+	 * @return the ids of the expansions moved to PATCHING, the only ones a rollback may restore
+	 */
+	public List<String> markPatching(String resourceUrl, String resourceVersion) {
+		if (resourceUrl == null) {
+			return List.of();
+		}
+		return transactionTemplate.execute(status -> {
+			List<String> candidates = jdbcTemplate.queryForList("SELECT DISTINCT D.EXP_ID FROM " + TABLE_DEP
+					+ " D JOIN " + TABLE_VS + " V ON V.EXP_ID = D.EXP_ID WHERE D.RES_URL = ? AND D.RES_VERSION "
+					+ (resourceVersion != null ? "= ?" : "<> ?") + " AND V.STATUS = ?", String.class,
+					resourceUrl, normalizeVersion(resourceVersion), STATUS_READY);
+			List<String> moved = new ArrayList<>();
+			for (String expansionId : candidates) {
+				if (updateStatus(expansionId, STATUS_READY, STATUS_PATCHING)) {
+					moved.add(expansionId);
+				}
+			}
+			return moved;
+		});
+	}
+
+	/**
+	 * Sets the status of one expansion if it still has the expected status.
+	 *
+	 * @return whether the expansion was updated
+	 */
+	public boolean updateStatus(String expansionId, String expectedStatus, String status) {
+		return jdbcTemplate.update("UPDATE " + TABLE_VS + " SET STATUS = ? WHERE EXP_ID = ? AND STATUS = ?",
+				status, expansionId, expectedStatus) > 0;
+	}
+
+	/**
+	 * Sets the status of the given expansions that still have the expected status.
+	 *
+	 * @return the number of expansions updated
+	 */
+	public int updateStatus(Collection<String> expansionIds, String expectedStatus, String status) {
+		int updated = 0;
+		for (String expansionId : expansionIds) {
+			if (updateStatus(expansionId, expectedStatus, status)) {
+				updated++;
+			}
+		}
+		return updated;
+	}
+
+	/**
+	 * Indexed lookup of the row holding system|code, or {@code null}.
+	 */
+	public ConceptRow findRow(String expansionId, String system, String code) {
+		List<ConceptRow> rows = jdbcTemplate.query(
+				"SELECT ORDINAL, SYSTEM_VERSION FROM " + TABLE_CONCEPT
+						+ " WHERE EXP_ID = ? AND CODE = ? AND SYSTEM_URL = ? ORDER BY ORDINAL",
+				(rs, rowNum) -> new ConceptRow(rs.getInt("ORDINAL"), rs.getString("SYSTEM_VERSION")),
+				expansionId, code, system);
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	/**
+	 * Version stamped on the stored rows of a system, or {@code null} when rows carry no version.
+	 */
+	public String findSystemVersion(String expansionId, String system) {
+		return jdbcTemplate.queryForObject("SELECT MAX(SYSTEM_VERSION) FROM " + TABLE_CONCEPT
+				+ " WHERE EXP_ID = ? AND SYSTEM_URL = ?", String.class, expansionId, system);
+	}
+
+	/**
+	 * Applies a concept-level patch in a single transaction and puts the expansion back into
+	 * service (READY) unless it was marked STALE meanwhile.
+	 * Expansions are stored flat (every row is top-level), so ORDINAL and TOP_ORDINAL move together.
+	 * <p>
+	 * Positions are planned against the current ordinals first; the rows between two change
+	 * points then move by the same amount, so renumbering costs one UPDATE per segment (each row
+	 * is touched at most twice) instead of one full-range UPDATE per inserted or removed code.
+	 */
+	public void applyPatch(String expansionId, ConceptPatch patch) {
+		transactionTemplate.executeWithoutResult(status -> {
+			if (patch.isVersionChange()) {
+				moveSystemVersion(expansionId, patch.system(), patch.fromVersion(), patch.toVersion());
+			}
+			for (Map.Entry<String, ValueSetExpansionContainsComponent> entry : patch.replacements().entrySet()) {
+				ValueSetExpansionContainsComponent contains = entry.getValue();
+				jdbcTemplate.update("UPDATE " + TABLE_CONCEPT
+						+ " SET DISPLAY = ?, IS_ABSTRACT = ?, IS_INACTIVE = ?, CONTAINS_JSON = ?"
+						+ " WHERE EXP_ID = ? AND CODE = ? AND SYSTEM_URL = ?",
+						contains.hasDisplay() ? contains.getDisplay() : null,
+						contains.hasAbstract() && contains.getAbstract() ? 1 : 0,
+						contains.hasInactive() && contains.getInactive() ? 1 : 0,
+						encodeContains(contains), expansionId, entry.getKey(), patch.system());
+			}
+
+			// removed rows, by current ordinal
+			TreeSet<Integer> removed = new TreeSet<>();
+			for (String code : patch.removals()) {
+				ConceptRow row = findRow(expansionId, patch.system(), code);
+				if (row != null) {
+					removed.add(row.ordinal());
+				}
+			}
+			// insertions, by the current ordinal they go before (in list order within a gap)
+			TreeMap<Integer, List<ValueSetExpansionContainsComponent>> insertedBefore = new TreeMap<>();
+			Map<String, Integer> insertedGap = new HashMap<>();
+			for (Insertion insertion : patch.insertions()) {
+				Integer gap = insertion.afterCode() != null ? insertedGap.get(insertion.afterCode()) : null;
+				if (gap == null) {
+					gap = insertGap(expansionId, patch.system(), insertion.afterCode());
+				}
+				insertedBefore.computeIfAbsent(gap, k -> new ArrayList<>()).add(insertion.component());
+				insertedGap.put(insertion.component().getCode(), gap);
+			}
+
+			for (int ordinal : removed) {
+				jdbcTemplate.update("DELETE FROM " + TABLE_CONCEPT + " WHERE EXP_ID = ? AND ORDINAL = ?",
+						expansionId, ordinal);
+			}
+			shiftSegments(expansionId, removed, insertedBefore);
+
+			List<Object[]> rows = new ArrayList<>();
+			int insertedSoFar = 0;
+			for (Map.Entry<Integer, List<ValueSetExpansionContainsComponent>> entry : insertedBefore.entrySet()) {
+				int gap = entry.getKey();
+				int position = gap - removed.headSet(gap).size() + insertedSoFar;
+				for (ValueSetExpansionContainsComponent contains : entry.getValue()) {
+					List<Object[]> flattened = new ArrayList<>();
+					flatten(contains, position, true, flattened, expansionId);
+					Object[] row = flattened.get(0);
+					row[1] = position;
+					rows.add(row);
+					position++;
+				}
+				insertedSoFar += entry.getValue().size();
+			}
+			if (!rows.isEmpty()) {
+				jdbcTemplate.batchUpdate("INSERT INTO " + TABLE_CONCEPT
+						+ " (EXP_ID, ORDINAL, TOP_ORDINAL, SYSTEM_URL, SYSTEM_VERSION, CODE, DISPLAY, IS_ABSTRACT, IS_INACTIVE, CONTAINS_JSON)"
+						+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", rows);
+			}
+
+			jdbcTemplate.update("UPDATE " + TABLE_VS + " SET EXPANDED_AT = ?, TOTAL = (SELECT COUNT(*) FROM "
+					+ TABLE_CONCEPT + " WHERE EXP_ID = ? AND TOP_ORDINAL IS NOT NULL) WHERE EXP_ID = ?",
+					new Timestamp(System.currentTimeMillis()), expansionId, expansionId);
+			updateStatus(expansionId, STATUS_PATCHING, STATUS_READY);
+		});
+		ourLog.info("Pre-expansion {} patched: {} replaced, {} removed, {} inserted", expansionId,
+				patch.replacements().size(), patch.removals().size(), patch.insertions().size());
+	}
+
+	/**
+	 * Restamps the rows of a system that carry {@code fromVersion} with {@code toVersion}, and
+	 * moves the used-codesystem/version parameters and the dependency row along.
+	 */
+	private void moveSystemVersion(String expansionId, String system, String fromVersion, String toVersion) {
+		List<Object[]> rows = new ArrayList<>();
+		jdbcTemplate.query("SELECT ORDINAL, CONTAINS_JSON FROM " + TABLE_CONCEPT
+				+ " WHERE EXP_ID = ? AND SYSTEM_URL = ? AND SYSTEM_VERSION = ?", (RowCallbackHandler) rs -> {
+					String json = rs.getString("CONTAINS_JSON");
+					String moved = null;
+					if (json != null) {
+						ValueSetExpansionContainsComponent contains = decodeContains(json);
+						restampVersion(contains, system, fromVersion, toVersion);
+						moved = encodeContains(contains);
+					}
+					rows.add(new Object[] { toVersion, moved, expansionId, rs.getInt("ORDINAL") });
+				}, expansionId, system, fromVersion);
+		if (!rows.isEmpty()) {
+			jdbcTemplate.batchUpdate("UPDATE " + TABLE_CONCEPT + " SET SYSTEM_VERSION = ?, CONTAINS_JSON = ?"
+					+ " WHERE EXP_ID = ? AND ORDINAL = ?", rows);
+		}
+
+		String paramsJson = jdbcTemplate.queryForObject("SELECT PARAMS_JSON FROM " + TABLE_VS + " WHERE EXP_ID = ?",
+				String.class, expansionId);
+		List<ValueSetExpansionParameterComponent> parameters = decodeParameters(paramsJson);
+		String from = system + "|" + fromVersion;
+		for (ValueSetExpansionParameterComponent parameter : parameters) {
+			if (parameter.getValue() instanceof PrimitiveType<?> value && from.equals(value.getValueAsString())) {
+				value.setValueAsString(system + "|" + toVersion);
+			}
+		}
+		jdbcTemplate.update("UPDATE " + TABLE_VS + " SET PARAMS_JSON = ? WHERE EXP_ID = ?",
+				encodeParameters(parameters), expansionId);
+
+		jdbcTemplate.update("DELETE FROM " + TABLE_DEP + " WHERE EXP_ID = ? AND RES_URL = ? AND RES_VERSION = ?",
+				expansionId, system, normalizeVersion(toVersion));
+		jdbcTemplate.update("UPDATE " + TABLE_DEP + " SET RES_VERSION = ? WHERE EXP_ID = ? AND RES_URL = ? AND RES_VERSION = ?",
+				normalizeVersion(toVersion), expansionId, system, normalizeVersion(fromVersion));
+	}
+
+	private static void restampVersion(ValueSetExpansionContainsComponent contains, String system, String fromVersion,
+			String toVersion) {
+		if (system.equals(contains.getSystem()) && fromVersion.equals(contains.getVersion())) {
+			contains.setVersion(toVersion);
+		}
+		for (ValueSetExpansionContainsComponent child : contains.getContains()) {
+			restampVersion(child, system, fromVersion, toVersion);
+		}
+	}
+
+	/**
+	 * Moves the remaining rows to their patched ordinals. Rows of one segment (between two
+	 * change points) share the same shift; they are first parked at distinct negative ordinals
+	 * and then flipped back in one statement, so no intermediate state collides on the key.
+	 */
+	private void shiftSegments(String expansionId, NavigableSet<Integer> removed,
+			NavigableMap<Integer, List<ValueSetExpansionContainsComponent>> insertedBefore) {
+		TreeSet<Integer> boundaries = new TreeSet<>(insertedBefore.keySet());
+		for (int ordinal : removed) {
+			boundaries.add(ordinal + 1);
+		}
+		List<Object[]> segments = new ArrayList<>();
+		Integer from = null;
+		for (int boundary : boundaries) {
+			if (from != null) {
+				addSegment(segments, expansionId, from, boundary, removed, insertedBefore);
+			}
+			from = boundary;
+		}
+		if (from != null) {
+			addSegment(segments, expansionId, from, Integer.MAX_VALUE, removed, insertedBefore);
+		}
+		if (segments.isEmpty()) {
+			return;
+		}
+		jdbcTemplate.batchUpdate("UPDATE " + TABLE_CONCEPT
+				+ " SET ORDINAL = -1 - (ORDINAL + ?), TOP_ORDINAL = TOP_ORDINAL + ?"
+				+ " WHERE EXP_ID = ? AND ORDINAL >= ? AND ORDINAL < ?", segments);
+		jdbcTemplate.update("UPDATE " + TABLE_CONCEPT + " SET ORDINAL = -1 - ORDINAL WHERE EXP_ID = ? AND ORDINAL < 0",
+				expansionId);
+	}
+
+	private static void addSegment(List<Object[]> segments, String expansionId, int from, int to,
+			NavigableSet<Integer> removed, NavigableMap<Integer, List<ValueSetExpansionContainsComponent>> insertedBefore) {
+		int shift = -removed.headSet(from).size();
+		for (List<ValueSetExpansionContainsComponent> inserted : insertedBefore.headMap(from, true).values()) {
+			shift += inserted.size();
+		}
+		if (shift != 0) {
+			segments.add(new Object[] { shift, shift, expansionId, from, to });
+		}
+	}
+
+	/**
+	 * Current ordinal a new concept goes before: right after {@code afterCode}, else before the
+	 * first row of the system, else at the end.
+	 */
+	private int insertGap(String expansionId, String system, String afterCode) {
+		if (afterCode != null) {
+			ConceptRow row = findRow(expansionId, system, afterCode);
+			if (row != null) {
+				return row.ordinal() + 1;
+			}
+		}
+		Integer first = jdbcTemplate.queryForObject("SELECT MIN(ORDINAL) FROM " + TABLE_CONCEPT
+				+ " WHERE EXP_ID = ? AND SYSTEM_URL = ?", Integer.class, expansionId, system);
+		if (first != null) {
+			return first;
+		}
+		Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE_CONCEPT + " WHERE EXP_ID = ?",
+				Integer.class, expansionId);
+		return count != null ? count : 0;
+	}
+
+	/**
+	 * Reads top-level concepts [offset, offset + count) in expansion order.
+	 */
+	public List<ValueSetExpansionContainsComponent> readPage(String expansionId, int offset, int count) {
+		if (count <= 0) {
+			return new ArrayList<>();
+		}
+		return jdbcTemplate.query(
+				"SELECT CONTAINS_JSON FROM " + TABLE_CONCEPT
+						+ " WHERE EXP_ID = ? AND TOP_ORDINAL >= ? AND TOP_ORDINAL < ? ORDER BY TOP_ORDINAL",
+				(rs, rowNum) -> decodeContains(rs.getString("CONTAINS_JSON")),
+				expansionId, offset, (long) offset + count);
+	}
+
+	/**
+	 * Streams a page of top-level concepts to {@code sink} instead of collecting them, for
+	 * large unpaged reads that may be spilled to disk.
+	 */
+	public void readPage(String expansionId, int offset, int count,
+			Consumer<ValueSetExpansionContainsComponent> sink) {
+		if (count <= 0) {
+			return;
+		}
+		jdbcTemplate.query(
+				"SELECT CONTAINS_JSON FROM " + TABLE_CONCEPT
+						+ " WHERE EXP_ID = ? AND TOP_ORDINAL >= ? AND TOP_ORDINAL < ? ORDER BY TOP_ORDINAL",
+				(RowCallbackHandler) rs -> sink.accept(decodeContains(rs.getString("CONTAINS_JSON"))),
+				expansionId, offset, (long) offset + count);
+	}
+
+	/**
+	 * Indexed membership test; nested concepts are found as well. Returns a flat contains
+	 * entry (system, version, code, display, abstract, inactive) or {@code null}.
+	 */
+	public ValueSetExpansionContainsComponent findMember(String expansionId, String system, String code) {
+		if (code == null) {
+			return null;
+		}
+		String sql = "SELECT SYSTEM_URL, SYSTEM_VERSION, CODE, DISPLAY, IS_ABSTRACT, IS_INACTIVE FROM " + TABLE_CONCEPT
+				+ " WHERE EXP_ID = ? AND CODE = ?" + (system != null ? " AND SYSTEM_URL = ?" : "")
+				+ " ORDER BY ORDINAL";
+		Object[] args = system != null ? new Object[] { expansionId, code, system } : new Object[] { expansionId, code };
+		List<ValueSetExpansionContainsComponent> rows = jdbcTemplate.query(sql, (rs, rowNum) -> {
+			ValueSetExpansionContainsComponent contains = new ValueSetExpansionContainsComponent();
+			contains.setSystem(rs.getString("SYSTEM_URL"));
+			if (rs.getString("SYSTEM_VERSION") != null) {
+				contains.setVersion(rs.getString("SYSTEM_VERSION"));
+			}
+			contains.setCode(rs.getString("CODE"));
+			if (rs.getString("DISPLAY") != null) {
+				contains.setDisplay(rs.getString("DISPLAY"));
+			}
+			if (rs.getInt("IS_ABSTRACT") == 1) {
+				contains.setAbstract(true);
+			}
+			if (rs.getInt("IS_INACTIVE") == 1) {
+				contains.setInactive(true);
+			}
+			return contains;
+		}, args);
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	/**
+	 * Replaces the stored expansion of the given ValueSet in a single transaction.
+	 * {@code dependencies} are canonicals; one without {@code |version} is recorded as "-".
+	 */
+	public void save(ValueSet sourceValueSet, String resourceVersion,
+			List<ValueSetExpansionParameterComponent> collectorParameters,
+			List<ValueSetExpansionContainsComponent> concepts, Collection<String> dependencies) {
+
+		String url = sourceValueSet.getUrl();
+		String version = normalizeVersion(sourceValueSet.getVersion());
+		String expansionId = UUID.randomUUID().toString();
+
+		List<Object[]> conceptRows = new ArrayList<>();
+		int topOrdinal = 0;
+		for (ValueSetExpansionContainsComponent contains : concepts) {
+			flatten(contains, topOrdinal++, true, conceptRows, expansionId);
+		}
+
+		transactionTemplate.executeWithoutResult(status -> {
+			deleteByUrlAndVersion(url, version);
+			jdbcTemplate.update("INSERT INTO " + TABLE_VS
+					+ " (EXP_ID, VS_URL, VS_VERSION, VS_RES_VER, STATUS, TOTAL, PARAMS_JSON, EXPANDED_AT)"
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+					expansionId, url, version, resourceVersion, STATUS_READY, concepts.size(),
+					encodeParameters(collectorParameters), new Timestamp(System.currentTimeMillis()));
+			jdbcTemplate.batchUpdate("INSERT INTO " + TABLE_CONCEPT
+					+ " (EXP_ID, ORDINAL, TOP_ORDINAL, SYSTEM_URL, SYSTEM_VERSION, CODE, DISPLAY, IS_ABSTRACT, IS_INACTIVE, CONTAINS_JSON)"
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+					conceptRows, INSERT_BATCH_SIZE, (ps, row) -> {
+						for (int i = 0; i < row.length; i++) {
+							ps.setObject(i + 1, row[i]);
+						}
+					});
+			Set<String> depKeys = new LinkedHashSet<>();
+			List<Object[]> depRows = new ArrayList<>();
+			for (String dependency : dependencies) {
+				String[] parts = dependency.split("\\|", 2);
+				String depVersion = normalizeVersion(parts.length > 1 ? parts[1] : null);
+				if (depKeys.add(parts[0] + "|" + depVersion)) {
+					depRows.add(new Object[] { expansionId, parts[0], depVersion });
+				}
+			}
+			jdbcTemplate.batchUpdate("INSERT INTO " + TABLE_DEP + " (EXP_ID, RES_URL, RES_VERSION) VALUES (?, ?, ?)",
+					depRows);
+		});
+
+		ourLog.info("Pre-expansion stored for {}|{} ({} concepts)", url, version, concepts.size());
+	}
+
+	private void flatten(ValueSetExpansionContainsComponent contains, int topOrdinal, boolean topLevel,
+			List<Object[]> rows, String expansionId) {
+		rows.add(new Object[] {
+				expansionId,
+				rows.size(),
+				topLevel ? topOrdinal : null,
+				contains.getSystem(),
+				contains.hasVersion() ? contains.getVersion() : null,
+				contains.getCode(),
+				contains.hasDisplay() ? contains.getDisplay() : null,
+				contains.hasAbstract() && contains.getAbstract() ? 1 : 0,
+				contains.hasInactive() && contains.getInactive() ? 1 : 0,
+				topLevel ? encodeContains(contains) : null
+		});
+		for (ValueSetExpansionContainsComponent child : contains.getContains()) {
+			flatten(child, topOrdinal, false, rows, expansionId);
+		}
+	}
+
+	/**
+	 * Marks every expansion that depends on the given CodeSystem/ValueSet URL, in any version,
+	 * as STALE.
+	 *
+	 * @return the number of expansions marked
+	 */
+	public int markStale(String resourceUrl) {
+		if (resourceUrl == null) {
+			return 0;
+		}
+		return jdbcTemplate.update("UPDATE " + TABLE_VS + " SET STATUS = ? WHERE EXP_ID IN (SELECT EXP_ID FROM "
+				+ TABLE_DEP + " WHERE RES_URL = ?)", STATUS_STALE, resourceUrl);
+	}
+
+	/**
+	 * Marks the expansions that depend on url|version, or on the url without a recorded
+	 * version, as STALE; expansions built from other versions of the resource are kept.
+	 *
+	 * @return the number of expansions marked
+	 */
+	public int markStale(String resourceUrl, String resourceVersion) {
+		if (resourceUrl == null) {
+			return 0;
+		}
+		return jdbcTemplate.update("UPDATE " + TABLE_VS + " SET STATUS = ? WHERE EXP_ID IN (SELECT EXP_ID FROM "
+				+ TABLE_DEP + " WHERE RES_URL = ? AND RES_VERSION IN (?, ?))", STATUS_STALE, resourceUrl,
+				normalizeVersion(resourceVersion), normalizeVersion(null));
+	}
+
+	/**
+	 * Removes the stored expansion of url|version, if any.
+	 */
+	public void delete(String url, String version) {
+		if (url == null) {
+			return;
+		}
+		transactionTemplate.executeWithoutResult(status -> deleteByUrlAndVersion(url, normalizeVersion(version)));
+	}
+
+	private void deleteByUrlAndVersion(String url, String version) {
+		String existing = "SELECT EXP_ID FROM " + TABLE_VS + " WHERE VS_URL = ? AND VS_VERSION = ?";
+		jdbcTemplate.update("DELETE FROM " + TABLE_CONCEPT + " WHERE EXP_ID IN (" + existing + ")", url, version);
+		jdbcTemplate.update("DELETE FROM " + TABLE_DEP + " WHERE EXP_ID IN (" + existing + ")", url, version);
+		jdbcTemplate.update("DELETE FROM " + TABLE_VS + " WHERE VS_URL = ? AND VS_VERSION = ?", url, version);
+	}
+
+	/**
+	 * Oracle treats empty strings as NULL, so unversioned ValueSets are keyed with "-".
+	 */
+	private static String normalizeVersion(String version) {
+		return (version == null || version.isEmpty()) ? "-" : version;
+	}
+
+	private static String denormalizeVersion(String version) {
+		return "-".equals(version) ? null : version;
+	}
+
+	public static String resourceVersionOf(ValueSet valueSet) {
+		if (valueSet.getIdElement() != null && valueSet.getIdElement().hasVersionIdPart()) {
+			return valueSet.getIdElement().getVersionIdPart();
+		}
+		if (valueSet.hasMeta() && valueSet.getMeta().hasVersionId()) {
+			return valueSet.getMeta().getVersionId();
+		}
+		return null;
+	}
+
+	private String encodeContains(ValueSetExpansionContainsComponent contains) {
+		ValueSet holder = new ValueSet();
+		holder.getExpansion().addContains(contains.copy());
+		return newParser().encodeResourceToString(holder);
+	}
+
+	private ValueSetExpansionContainsComponent decodeContains(String json) {
+		ValueSet holder = newParser().parseResource(ValueSet.class, json);
+		return holder.getExpansion().getContainsFirstRep();
+	}
+
+	private String encodeParameters(List<ValueSetExpansionParameterComponent> parameters) {
+		ValueSet holder = new ValueSet();
+		for (ValueSetExpansionParameterComponent parameter : parameters) {
+			holder.getExpansion().addParameter(parameter.copy());
+		}
+		return newParser().encodeResourceToString(holder);
+	}
+
+	private List<ValueSetExpansionParameterComponent> decodeParameters(String json) {
+		if (json == null || json.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return newParser().parseResource(ValueSet.class, json).getExpansion().getParameter();
+	}
+
+	private IParser newParser() {
+		return fhirContext.newJsonParser();
+	}
+}
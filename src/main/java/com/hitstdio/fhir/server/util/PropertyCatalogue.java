@@ -0,0 +1,147 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptPropertyComponent;
+import org.hl7.fhir.r4.model.Extension;
+
+/**
+ * Property facts of one CodeSystem version, computed with a single walk over its concepts:
+ * declared property codes and URIs, property codes carried by concept extensions, and which
+ * extension URLs map to which property. Expansion property discovery is then a set union.
+ * <p>
+ * The catalogue is attached to the CodeSystem instance (user data) and, for stored resources,
+ * cached by resource id and version id in {@link TerminologyIndexCache} so it is built once per
+ * CodeSystem version.
+ */
+public final class PropertyCatalogue implements TerminologyIndexCache.Weighted {
+
+	private final Map<String, String> declaredPropertyUris;
+	private final Map<String, String> propertyUris;
+	private final Set<String> extensionPropertyCodes;
+	private final Set<String> rootConceptPropertyCodes;
+	private final Map<String, String> extensionProperties;
+
+	private PropertyCatalogue(CodeSystem codeSystem) {
+		Map<String, String> declared = new LinkedHashMap<>();
+		for (CodeSystem.PropertyComponent property : codeSystem.getProperty()) {
+			if (property.getCode() != null && !declared.containsKey(property.getCode())) {
+				declared.put(property.getCode(), property.getUri());
+			}
+		}
+		this.declaredPropertyUris = Collections.unmodifiableMap(declared);
+
+		Map<String, String> uris = new HashMap<>();
+		declared.forEach((code, uri) -> {
+			if (uri != null) {
+				uris.put(code, uri);
+			}
+		});
+		uris.put("definition", "http://hl7.org/fhir/concept-properties#definition");
+		uris.put("status", "http://hl7.org/fhir/concept-properties#status");
+		uris.put("notSelectable", "http://hl7.org/fhir/concept-properties#notSelectable");
+		uris.put("order", "http://hl7.org/fhir/concept-properties#order");
+		uris.put("label", "http://hl7.org/fhir/concept-properties#label");
+		uris.put("weight", "http://hl7.org/fhir/concept-properties#itemWeight");
+		this.propertyUris = Collections.unmodifiableMap(uris);
+
+		Set<String> rootCodes = new HashSet<>();
+		for (ConceptDefinitionComponent concept : codeSystem.getConcept()) {
+			for (ConceptPropertyComponent property : concept.getProperty()) {
+				rootCodes.add(property.getCode());
+			}
+			for (Extension ext : concept.getExtension()) {
+				ConceptComponentBuilder.getPropertyCodeFromExtensionUrl(ext.getUrl()).ifPresent(rootCodes::add);
+			}
+		}
+		this.rootConceptPropertyCodes = Collections.unmodifiableSet(rootCodes);
+
+		Set<String> extensionCodes = new HashSet<>();
+		Map<String, String> extensionMap = new HashMap<>();
+		scanExtensions(codeSystem.getConcept(), extensionCodes, extensionMap);
+		this.extensionPropertyCodes = Collections.unmodifiableSet(extensionCodes);
+		this.extensionProperties = Collections.unmodifiableMap(extensionMap);
+	}
+
+	/**
+	 * Returns the catalogue of a CodeSystem, building it on first use.
+	 */
+	public static PropertyCatalogue of(CodeSystem codeSystem) {
+		return TerminologyIndexCache.of(PropertyCatalogue.class, codeSystem, PropertyCatalogue::new);
+	}
+
+	@Override
+	public int weight() {
+		return declaredPropertyUris.size() + propertyUris.size() + extensionPropertyCodes.size()
+				+ rootConceptPropertyCodes.size() + extensionProperties.size();
+	}
+
+	private static void scanExtensions(List<ConceptDefinitionComponent> concepts, Set<String> codes,
+			Map<String, String> extensionMap) {
+		for (ConceptDefinitionComponent concept : concepts) {
+			for (Extension ext : concept.getExtension()) {
+				ConceptComponentBuilder.getPropertyCodeFromExtensionUrl(ext.getUrl()).ifPresent(code -> {
+					codes.add(code);
+					extensionMap.put(ext.getUrl(), code);
+				});
+			}
+			if (concept.hasConcept()) {
+				scanExtensions(concept.getConcept(), codes, extensionMap);
+			}
+		}
+	}
+
+	/**
+	 * Property codes declared in CodeSystem.property.
+	 */
+	public Set<String> getDeclaredPropertyCodes() {
+		return declaredPropertyUris.keySet();
+	}
+
+	/**
+	 * URI declared for a property code, or {@code null} when undeclared or declared without one.
+	 */
+	public String getDeclaredPropertyUri(String code) {
+		return declaredPropertyUris.get(code);
+	}
+
+	public boolean isDeclared(String code) {
+		return declaredPropertyUris.containsKey(code);
+	}
+
+	/**
+	 * Declared property URIs plus the standard concept-property URIs used in expansions.
+	 */
+	public Map<String, String> getPropertyUris() {
+		return propertyUris;
+	}
+
+	/**
+	 * Property codes carried by concept extensions anywhere in the concept tree.
+	 */
+	public Set<String> getExtensionPropertyCodes() {
+		return extensionPropertyCodes;
+	}
+
+	/**
+	 * Property codes (explicit or extension-backed) used by the top-level concepts.
+	 */
+	public Set<String> getRootConceptPropertyCodes() {
+		return rootConceptPropertyCodes;
+	}
+
+	/**
+	 * Extension URLs found on concepts, mapped to the property code they represent.
+	 */
+	public Map<String, String> getExtensionProperties() {
+		return extensionProperties;
+	}
+}
@@ -0,0 +1,102 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Memo of the CodeSystem / ValueSet lookups made while validating one request, so every helper
+ * of the pipeline sees the same answer for the same lookup, "not found" included, without a
+ * global cache and without an extra parameter on each helper. The memo belongs to the request's
+ * {@link TxResourceContext}: the items of a batch share it, whichever thread validates them.
+ * {@link #open(TxResourceContext)} binds it to the validating thread until the returned
+ * {@link Binding} is closed; nested opens (a validation that re-enters the entry point) share the
+ * outer binding. A request without a context of its own ({@link TxResourceContext#EMPTY}) gets a
+ * memo per open.
+ * <p>
+ * Without an open scope, {@link #resolve} simply runs the loader.
+ */
+public final class ResolutionScope {
+
+	private static final ThreadLocal<Binding> CURRENT = new ThreadLocal<>();
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	ResolutionScope() {
+	}
+
+	/**
+	 * Binds the memo of {@code context} to this thread, or joins the binding already open.
+	 */
+	public static Binding open(TxResourceContext context) {
+		Binding binding = CURRENT.get();
+		if (binding == null) {
+			ResolutionScope scope = context != null ? context.getResolutionScope() : null;
+			binding = new Binding(scope != null ? scope : new ResolutionScope());
+			CURRENT.set(binding);
+		}
+		binding.depth++;
+		return binding;
+	}
+
+	/**
+	 * Seeds the scope with lookups made before it was opened (e.g. once for a whole batch);
+	 * entries the scope already holds are kept.
+	 */
+	void preload(String kind, Map<String, ?> values) {
+		values.forEach((key, value) -> entries.putIfAbsent(kind + "|" + key, new Entry(value, null)));
+	}
+
+	/**
+	 * The memoized outcome of {@code loader} for {@code kind} and {@code key} in the current
+	 * scope: a value (possibly {@code null}) is returned again, an exception is thrown again.
+	 * Two threads missing the same entry may both run the loader; the first outcome stored wins.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T resolve(String kind, String key, Supplier<T> loader) {
+		Binding binding = CURRENT.get();
+		if (binding == null) {
+			return loader.get();
+		}
+		Map<String, Entry> entries = binding.scope.entries;
+		String entryKey = kind + "|" + key;
+		Entry entry = entries.get(entryKey);
+		if (entry == null) {
+			// not computeIfAbsent: loaders resolve other entries of the same map
+			try {
+				entry = new Entry(loader.get(), null);
+			} catch (RuntimeException e) {
+				entry = new Entry(null, e);
+			}
+			Entry stored = entries.putIfAbsent(entryKey, entry);
+			if (stored != null) {
+				entry = stored;
+			}
+		}
+		if (entry.failure() != null) {
+			throw entry.failure();
+		}
+		return (T) entry.value();
+	}
+
+	/** A scope bound to the current thread; closing the outermost open unbinds it */
+	public static final class Binding implements AutoCloseable {
+
+		private final ResolutionScope scope;
+		private int depth;
+
+		private Binding(ResolutionScope scope) {
+			this.scope = scope;
+		}
+
+		@Override
+		public void close() {
+			if (--depth == 0) {
+				CURRENT.remove();
+			}
+		}
+	}
+
+	private record Entry(Object value, RuntimeException failure) {
+	}
+}
@@ -24,6 +24,8 @@ public class ResourceFinder {
     
     private final IFhirResourceDao<ValueSet> valueSetDao;
     private final IFhirResourceDao<CodeSystem> codeSystemDao;
+    private CodeSystemMetadataQuery metadataQuery;
+    private ConceptStore conceptStore;
     
     public ResourceFinder(IFhirResourceDao<ValueSet> valueSetDao,
                          IFhirResourceDao<CodeSystem> codeSystemDao) {
@@ -31,11 +33,27 @@ public class ResourceFinder {
         this.codeSystemDao = codeSystemDao;
     }
     
+    /**
+     * Lets version listings and latest-version selection read search-index metadata
+     * instead of loading every CodeSystem version.
+     */
+    public void setMetadataQuery(CodeSystemMetadataQuery metadataQuery) {
+        this.metadataQuery = metadataQuery;
+    }
+    
+    /**
+     * Lets stored header-only CodeSystems ({@code content = not-present}) resolve with the
+     * concepts held in the relational concept store.
+     */
+    public void setConceptStore(ConceptStore conceptStore) {
+        this.conceptStore = conceptStore;
+    }
+    
     /**
      * Finds a ValueSet by URL and optional version
      */
     public ValueSet findValueSetByUrl(String url, String version, RequestDetails requestDetails) {
-        SearchParameterMap searchParams = new SearchParameterMap();
+        SearchParameterMap searchParams = InternalSearch.firstMatch();
         searchParams.add(ValueSet.SP_URL, new UriParam(url));
         
         if (version != null && !version.isEmpty()) {
@@ -84,7 +102,7 @@ public class ResourceFinder {
             }
         }
         
-        SearchParameterMap searchParams = new SearchParameterMap();
+        SearchParameterMap searchParams = InternalSearch.firstMatch();
         searchParams.add(ValueSet.SP_URL, new UriParam(url));
         
         if (finalVersion != null) {
@@ -127,8 +145,13 @@ public class ResourceFinder {
                 return (CodeSystem) resource;
             }
         }
+        CodeSystem stored = findStoredCodeSystem(system, version, request);
+        // header-only (bulk-loaded) CodeSystems get their concepts from the concept store
+        return conceptStore != null ? conceptStore.withConcepts(stored) : stored;
+    }
 
-        SearchParameterMap searchParams = new SearchParameterMap();
+    private CodeSystem findStoredCodeSystem(String system, String version, ExpansionRequest request) {
+        SearchParameterMap searchParams = InternalSearch.allMatches();
         searchParams.add(PARAM_URL, new UriParam(system));
 
         // Check if version is a wildcard pattern (e.g., "1.x.x", "1.2.x")
@@ -138,27 +161,13 @@ public class ResourceFinder {
         if (version != null && !version.trim().isEmpty() && !isWildcard) {
             // Exact version match
             searchParams.add(PARAM_VERSION, new TokenParam(version));
+            searchParams.setCount(1);
 
             IBundleProvider results = codeSystemDao.search(searchParams, request.getRequestDetails());
 
             if (results.isEmpty()) {
-                // Query all available versions to provide helpful error message
-                SearchParameterMap allVersionsParams = new SearchParameterMap();
-                allVersionsParams.add(PARAM_URL, new UriParam(system));
-                IBundleProvider allResults = codeSystemDao.search(allVersionsParams, request.getRequestDetails());
-
-                // Collect all available versions
-                java.util.List<String> availableVersions = new java.util.ArrayList<>();
-                if (!allResults.isEmpty()) {
-                    for (org.hl7.fhir.instance.model.api.IBaseResource res : allResults.getAllResources()) {
-                        if (res instanceof CodeSystem) {
-                            CodeSystem cs = (CodeSystem) res;
-                            if (cs.hasVersion()) {
-                                availableVersions.add(cs.getVersion());
-                            }
-                        }
-                    }
-                }
+                // Collect all available versions to provide helpful error message
+                java.util.List<String> availableVersions = findAvailableVersions(system, request);
 
                 // Sort versions from smallest to largest using semantic versioning
                 if (!availableVersions.isEmpty()) {
@@ -205,6 +214,10 @@ public class ResourceFinder {
 
         // For wildcards or no version: get all versions and select the highest by semantic version
         // Per FHIR spec: "Servers SHOULD use the CodeSystem.version, not lastUpdated, to determine the latest release."
+        CodeSystem selected = findHighestVersionFromMetadata(system, version, isWildcard, request);
+        if (selected != null) {
+            return selected;
+        }
         IBundleProvider results = codeSystemDao.search(searchParams, request.getRequestDetails());
 
         if (results.isEmpty()) {
@@ -231,31 +244,13 @@ public class ResourceFinder {
         }
 
         // Get all resources and find the one with the highest version
-        java.util.List<org.hl7.fhir.instance.model.api.IBaseResource> allResources = results.getAllResources();
-        CodeSystem bestMatch = null;
-        String highestVersion = null;
-
-        for (org.hl7.fhir.instance.model.api.IBaseResource baseResource : allResources) {
+        java.util.List<CodeSystem> candidates = new java.util.ArrayList<>();
+        for (org.hl7.fhir.instance.model.api.IBaseResource baseResource : results.getAllResources()) {
             if (baseResource instanceof CodeSystem) {
-                CodeSystem cs = (CodeSystem) baseResource;
-
-                // If wildcard pattern is specified, check if version matches
-                if (isWildcard && cs.hasVersion() && !matchesVersionWildcard(cs.getVersion(), version)) {
-                    continue;
-                }
-
-                // Find the CodeSystem with the highest semantic version
-                if (cs.hasVersion()) {
-                    if (highestVersion == null || compareVersions(cs.getVersion(), highestVersion) > 0) {
-                        highestVersion = cs.getVersion();
-                        bestMatch = cs;
-                    }
-                } else if (bestMatch == null) {
-                    // If no version info, use as fallback only if no versioned CS found
-                    bestMatch = cs;
-                }
+                candidates.add((CodeSystem) baseResource);
             }
         }
+        CodeSystem bestMatch = selectHighestVersion(candidates, isWildcard ? version : null);
 
         if (bestMatch == null) {
             String diagnosticMessage = "No suitable CodeSystem found for URL: " + system +
@@ -283,6 +278,88 @@ public class ResourceFinder {
         return bestMatch;
     }
 
+    /**
+     * Versions of every stored CodeSystem with this URL, from index metadata when available
+     */
+    private java.util.List<String> findAvailableVersions(String system, ExpansionRequest request) {
+        java.util.List<CodeSystemMetadataQuery.CodeSystemMetadata> metadata =
+            metadataQuery != null ? metadataQuery.findByUrl(system) : null;
+        java.util.List<String> availableVersions = new java.util.ArrayList<>();
+        if (metadata != null) {
+            availableVersions.addAll(CodeSystemMetadataQuery.versionsOf(metadata));
+            return availableVersions;
+        }
+        SearchParameterMap allVersionsParams = InternalSearch.allMatches();
+        allVersionsParams.add(PARAM_URL, new UriParam(system));
+        IBundleProvider allResults = codeSystemDao.search(allVersionsParams, request.getRequestDetails());
+        if (!allResults.isEmpty()) {
+            for (org.hl7.fhir.instance.model.api.IBaseResource res : allResults.getAllResources()) {
+                if (res instanceof CodeSystem) {
+                    CodeSystem cs = (CodeSystem) res;
+                    if (cs.hasVersion()) {
+                        availableVersions.add(cs.getVersion());
+                    }
+                }
+            }
+        }
+        return availableVersions;
+    }
+
+    /**
+     * Picks the highest version from index metadata and loads only that CodeSystem;
+     * null when metadata is unavailable or nothing matches (the caller then searches)
+     */
+    private CodeSystem findHighestVersionFromMetadata(String system, String version, boolean isWildcard,
+                                                     ExpansionRequest request) {
+        if (metadataQuery == null) {
+            return null;
+        }
+        java.util.List<CodeSystemMetadataQuery.CodeSystemMetadata> metadata = metadataQuery.findByUrl(system);
+        if (metadata == null || metadata.isEmpty()) {
+            return null;
+        }
+        java.util.List<CodeSystem> stubs = new java.util.ArrayList<>();
+        for (CodeSystemMetadataQuery.CodeSystemMetadata entry : metadata) {
+            stubs.add(entry.toStub());
+        }
+        CodeSystem best = selectHighestVersion(stubs, isWildcard ? version : null);
+        if (best == null) {
+            return null;
+        }
+        SearchParameterMap searchParams = InternalSearch.firstMatch();
+        searchParams.add("_id", new TokenParam(best.getIdElement().getIdPart()));
+        IBundleProvider results = codeSystemDao.search(searchParams, request.getRequestDetails());
+        return results.isEmpty() ? null : (CodeSystem) results.getResources(0, 1).get(0);
+    }
+
+    /**
+     * The CodeSystem with the highest semantic version (matching the wildcard pattern, if any);
+     * an unversioned one only when no versioned one qualifies
+     */
+    private CodeSystem selectHighestVersion(java.util.List<CodeSystem> candidates, String wildcardPattern) {
+        CodeSystem bestMatch = null;
+        String highestVersion = null;
+
+        for (CodeSystem cs : candidates) {
+            // If wildcard pattern is specified, check if version matches
+            if (wildcardPattern != null && cs.hasVersion() && !matchesVersionWildcard(cs.getVersion(), wildcardPattern)) {
+                continue;
+            }
+
+            // Find the CodeSystem with the highest semantic version
+            if (cs.hasVersion()) {
+                if (highestVersion == null || compareVersions(cs.getVersion(), highestVersion) > 0) {
+                    highestVersion = cs.getVersion();
+                    bestMatch = cs;
+                }
+            } else if (bestMatch == null) {
+                // If no version info, use as fallback only if no versioned CS found
+                bestMatch = cs;
+            }
+        }
+        return bestMatch;
+    }
+
     /**
      * Checks if a version string matches a wildcard pattern
      * e.g., "1.2.0" matches "1.x.x" or "1.2.x"
@@ -371,7 +448,7 @@ public class ResourceFinder {
         }
 
         // Then search the database for supplements
-        SearchParameterMap searchParams = new SearchParameterMap();
+        SearchParameterMap searchParams = InternalSearch.allMatches();
         searchParams.add("supplements", new UriParam(systemUrl));
 
         try {
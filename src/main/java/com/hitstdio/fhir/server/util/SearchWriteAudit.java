@@ -0,0 +1,148 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+
+/**
+ * Counters of the database writes caused by JPA searches: every search run through the
+ * search coordinator stores one HFJ_SEARCH row and one HFJ_SEARCH_RESULT row per match,
+ * while a synchronous search writes nothing.
+ * <p>
+ * Counts are kept per audited request: {@code TerminologyReadAuditInterceptor} attaches a
+ * counter to the request (user data) and binds it to the thread handling it, and
+ * {@code SearchWriteAuditInterceptor} adds each search to the counter of the request that ran
+ * it, or of the request bound to the thread for internal searches (system request details).
+ * Searches of other requests, of background work and of worker threads are not attributed.
+ * The per-operation totals are summed from the finished requests.
+ */
+public final class SearchWriteAudit {
+
+	private static final String USER_DATA_KEY = SearchWriteAudit.class.getName() + ".counter";
+
+	private static final ThreadLocal<Counter> CURRENT = new ThreadLocal<>();
+
+	private static final Map<String, Totals> BY_OPERATION = new ConcurrentHashMap<>();
+
+	private SearchWriteAudit() {
+	}
+
+	/**
+	 * Starts counting the searches of a request, on its user data and on this thread.
+	 */
+	public static void attach(RequestDetails theRequestDetails) {
+		Counter counter = new Counter();
+		theRequestDetails.getUserData().put(USER_DATA_KEY, counter);
+		CURRENT.set(counter);
+	}
+
+	/**
+	 * Stops counting for the request; returns what was counted, or {@code null} when the
+	 * request was not attached.
+	 */
+	public static Counts detach(RequestDetails theRequestDetails) {
+		Object counter = theRequestDetails.getUserData().remove(USER_DATA_KEY);
+		if (counter == CURRENT.get()) {
+			CURRENT.remove();
+		}
+		return counter instanceof Counter c ? c.counts() : null;
+	}
+
+	public static void recordPersistedSearch(RequestDetails theRequestDetails) {
+		Counter counter = counterOf(theRequestDetails);
+		if (counter != null) {
+			counter.persistedSearches.incrementAndGet();
+		}
+	}
+
+	public static void recordPersistedResults(RequestDetails theRequestDetails, long count) {
+		Counter counter = counterOf(theRequestDetails);
+		if (counter != null) {
+			counter.persistedResults.addAndGet(count);
+		}
+	}
+
+	public static void recordSynchronousSearch(RequestDetails theRequestDetails) {
+		Counter counter = counterOf(theRequestDetails);
+		if (counter != null) {
+			counter.synchronousSearches.incrementAndGet();
+		}
+	}
+
+	public static void recordCachedSearchReuse(RequestDetails theRequestDetails) {
+		Counter counter = counterOf(theRequestDetails);
+		if (counter != null) {
+			counter.cachedSearchReuses.incrementAndGet();
+		}
+	}
+
+	// the request's own counter, else the one of the request handled by this thread
+	private static Counter counterOf(RequestDetails theRequestDetails) {
+		if (theRequestDetails != null && theRequestDetails.getUserData().get(USER_DATA_KEY) instanceof Counter c) {
+			return c;
+		}
+		return CURRENT.get();
+	}
+
+	/**
+	 * Adds the counts observed while one request of {@code operation} ran.
+	 */
+	public static void recordRequest(String operation, Counts delta) {
+		BY_OPERATION.computeIfAbsent(operation, k -> new Totals()).add(delta);
+	}
+
+	/**
+	 * One line per operation: requests, persisted searches, persisted result rows and
+	 * synchronous searches observed since startup.
+	 */
+	public static String report() {
+		StringBuilder sb = new StringBuilder();
+		new TreeMap<>(BY_OPERATION).forEach((operation, totals) -> sb.append(operation)
+				.append(": requests=").append(totals.requests.get())
+				.append(", persistedSearches=").append(totals.persistedSearches.get())
+				.append(", persistedResults=").append(totals.persistedResults.get())
+				.append(", synchronousSearches=").append(totals.synchronousSearches.get())
+				.append('\n'));
+		return sb.toString();
+	}
+
+	/**
+	 * Counts of one request.
+	 */
+	public record Counts(long persistedSearches, long persistedResults, long synchronousSearches,
+			long cachedSearchReuses) {
+
+		public boolean hasWrites() {
+			return persistedSearches > 0 || persistedResults > 0;
+		}
+	}
+
+	private static final class Counter {
+		private final AtomicLong persistedSearches = new AtomicLong();
+		private final AtomicLong persistedResults = new AtomicLong();
+		private final AtomicLong synchronousSearches = new AtomicLong();
+		private final AtomicLong cachedSearchReuses = new AtomicLong();
+
+		private Counts counts() {
+			return new Counts(persistedSearches.get(), persistedResults.get(), synchronousSearches.get(),
+					cachedSearchReuses.get());
+		}
+	}
+
+	private static final class Totals {
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong persistedSearches = new AtomicLong();
+		private final AtomicLong persistedResults = new AtomicLong();
+		private final AtomicLong synchronousSearches = new AtomicLong();
+
+		private void add(Counts delta) {
+			requests.incrementAndGet();
+			persistedSearches.addAndGet(delta.persistedSearches());
+			persistedResults.addAndGet(delta.persistedResults());
+			synchronousSearches.addAndGet(delta.synchronousSearches());
+		}
+	}
+}
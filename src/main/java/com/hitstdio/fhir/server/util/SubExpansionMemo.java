@@ -0,0 +1,104 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionParameterComponent;
+
+/**
+ * Expansions of imported/excluded ValueSets computed during one request, keyed by
+ * {@code url|version}. All other parameters that shape a sub-expansion are request-wide, so
+ * within a request the canonical is the effective key. Include and exclude sides share the
+ * same entries; an entry is only stored once its expansion completed (cycles are still
+ * detected through the expansion chain).
+ * <p>
+ * Entries computed for an exclude are membership-only: their concepts carry just system and
+ * code. They serve later excludes, but an include of the same canonical recomputes the full
+ * expansion and replaces them.
+ */
+public class SubExpansionMemo {
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	/**
+	 * Returns the entry for a canonical, or {@code null} when none is usable: a membership-only
+	 * entry does not satisfy a request for full concepts.
+	 */
+	public Entry get(String canonical, boolean membershipOnly) {
+		Entry entry = entries.get(canonical);
+		if (entry == null || (entry.membershipOnly && !membershipOnly)) {
+			return null;
+		}
+		return entry;
+	}
+
+	public Entry put(String canonical, List<ValueSetExpansionContainsComponent> concepts,
+			List<ValueSetExpansionParameterComponent> addedParameters, boolean membershipOnly) {
+		Entry entry = new Entry(concepts, new ArrayList<>(addedParameters), membershipOnly);
+		entries.put(canonical, entry);
+		return entry;
+	}
+
+	public static final class Entry {
+		private final List<ValueSetExpansionContainsComponent> concepts;
+		private final List<ValueSetExpansionParameterComponent> addedParameters;
+		private final boolean membershipOnly;
+		private Set<String> codeKeys;
+		private boolean claimed;
+
+		private Entry(List<ValueSetExpansionContainsComponent> concepts,
+				List<ValueSetExpansionParameterComponent> addedParameters, boolean membershipOnly) {
+			this.concepts = concepts;
+			this.addedParameters = addedParameters;
+			this.membershipOnly = membershipOnly;
+		}
+
+		public boolean isMembershipOnly() {
+			return membershipOnly;
+		}
+
+		/**
+		 * Returns true exactly once: the first include may take the computed concepts as they
+		 * are, later includes must copy them.
+		 */
+		public boolean claimConcepts() {
+			if (claimed) {
+				return false;
+			}
+			claimed = true;
+			return true;
+		}
+
+		/**
+		 * Concepts of the sub-expansion; shared, see {@link #claimConcepts()}.
+		 */
+		public List<ValueSetExpansionContainsComponent> getConcepts() {
+			return concepts;
+		}
+
+		/**
+		 * Expansion parameters the sub-expansion added when it was computed.
+		 */
+		public List<ValueSetExpansionParameterComponent> getAddedParameters() {
+			return addedParameters;
+		}
+
+		/**
+		 * {@code system|code} keys, as used for exclusion; built on first use.
+		 */
+		public Set<String> getCodeKeys() {
+			if (codeKeys == null) {
+				codeKeys = new HashSet<>();
+				for (ValueSetExpansionContainsComponent concept : concepts) {
+					codeKeys.add(concept.getSystem() + "|" + concept.getCode());
+				}
+			}
+			return codeKeys;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionDesignationComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptPropertyComponent;
+import org.hl7.fhir.r4.model.Extension;
+
+/**
+ * Code-indexed view of the designations, properties and extensions contributed by a set of
+ * supplement CodeSystems. Built once per supplement set (one walk over each supplement) and
+ * read at emit time, so base concepts never have to be copied or searched per code.
+ * <p>
+ * Merge rules follow the previous copy-and-merge logic: supplement designations are appended,
+ * supplement properties replace base properties with the same code, supplement extensions
+ * replace base extensions with the same url, and extension-backed properties (order, label,
+ * weight, status) replace the property they map to. Later supplements win.
+ */
+public final class SupplementOverlay implements TerminologyIndexCache.Weighted {
+
+	private static final SupplementOverlay EMPTY = new SupplementOverlay(Collections.emptyMap());
+
+	private final Map<String, Entry> entries;
+
+	private SupplementOverlay(Map<String, Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * Returns the overlay for the given supplements, reusing a cached one when every supplement
+	 * is a stored resource with a version id (tx-resources are indexed per call).
+	 */
+	public static SupplementOverlay of(Collection<CodeSystem> supplements) {
+		if (supplements == null || supplements.isEmpty()) {
+			return EMPTY;
+		}
+		List<String> urls = new ArrayList<>(supplements.size());
+		for (CodeSystem supplement : supplements) {
+			urls.add(supplement.getUrl());
+		}
+		return TerminologyIndexCache.get(SupplementOverlay.class, cacheKey(supplements), urls,
+				() -> build(supplements));
+	}
+
+	/** Identity and version of every member; {@code null} unless all are stored resources */
+	private static String cacheKey(Collection<CodeSystem> supplements) {
+		StringBuilder key = new StringBuilder();
+		for (CodeSystem supplement : supplements) {
+			String memberKey = TerminologyIndexCache.keyOf(supplement);
+			if (memberKey == null) {
+				return null;
+			}
+			key.append(memberKey).append(';');
+		}
+		return key.toString();
+	}
+
+	@Override
+	public int weight() {
+		return entries.size();
+	}
+
+	private static SupplementOverlay build(Collection<CodeSystem> supplements) {
+		Map<String, Entry> entries = new HashMap<>();
+		for (CodeSystem supplement : supplements) {
+			index(supplement.getConcept(), entries);
+		}
+		return new SupplementOverlay(entries);
+	}
+
+	private static void index(List<ConceptDefinitionComponent> concepts, Map<String, Entry> entries) {
+		for (ConceptDefinitionComponent concept : concepts) {
+			if (concept.getCode() != null
+					&& (concept.hasDesignation() || concept.hasProperty() || concept.hasExtension())) {
+				entries.computeIfAbsent(concept.getCode(), c -> new Entry()).add(concept);
+			}
+			index(concept.getConcept(), entries);
+		}
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	public boolean hasEntry(String code) {
+		return code != null && entries.containsKey(code);
+	}
+
+	/**
+	 * Returns the base concept itself when no supplement touches it; otherwise a shallow view
+	 * carrying the merged designation/property/extension lists. The base concept is not modified.
+	 */
+	public ConceptDefinitionComponent apply(ConceptDefinitionComponent base) {
+		Entry entry = base.getCode() != null ? entries.get(base.getCode()) : null;
+		if (entry == null) {
+			return base;
+		}
+
+		ConceptDefinitionComponent view = new ConceptDefinitionComponent();
+		view.setCodeElement(base.getCodeElement());
+		view.setDisplayElement(base.getDisplayElement());
+		view.setDefinitionElement(base.getDefinitionElement());
+
+		List<ConceptDefinitionDesignationComponent> designations = new ArrayList<>(base.getDesignation());
+		designations.addAll(entry.designations);
+		view.setDesignation(designations);
+
+		List<Extension> extensions = new ArrayList<>();
+		for (Extension ext : base.getExtension()) {
+			if (!entry.extensions.containsKey(ext.getUrl())) {
+				extensions.add(ext);
+			}
+		}
+		extensions.addAll(entry.extensions.values());
+		view.setExtension(extensions);
+
+		List<ConceptPropertyComponent> properties = new ArrayList<>();
+		for (ConceptPropertyComponent p : base.getProperty()) {
+			if (!entry.properties.containsKey(p.getCode())) {
+				properties.add(p);
+			}
+		}
+		properties.addAll(entry.properties.values());
+		view.setProperty(properties);
+
+		return view;
+	}
+
+	/**
+	 * Supplement designations for a code, in supplement order (empty when none).
+	 */
+	public List<ConceptDefinitionDesignationComponent> getDesignations(String code) {
+		Entry entry = code != null ? entries.get(code) : null;
+		return entry != null ? Collections.unmodifiableList(entry.designations) : Collections.emptyList();
+	}
+
+	private static final class Entry {
+		private final List<ConceptDefinitionDesignationComponent> designations = new ArrayList<>();
+		private final Map<String, ConceptPropertyComponent> properties = new LinkedHashMap<>();
+		private final Map<String, Extension> extensions = new LinkedHashMap<>();
+
+		private void add(ConceptDefinitionComponent concept) {
+			designations.addAll(concept.getDesignation());
+			for (ConceptPropertyComponent p : concept.getProperty()) {
+				properties.remove(p.getCode());
+				properties.put(p.getCode(), p);
+			}
+			for (Extension ext : concept.getExtension()) {
+				extensions.remove(ext.getUrl());
+				extensions.put(ext.getUrl(), ext);
+				ConceptComponentBuilder.getPropertyCodeFromExtensionUrl(ext.getUrl()).ifPresent(propertyCode -> {
+					if (ext.hasValue()) {
+						properties.remove(propertyCode);
+						properties.put(propertyCode,
+								new ConceptPropertyComponent().setCode(propertyCode).setValue(ext.getValue()));
+					}
+				});
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ConceptReferenceComponent;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+
+/**
+ * Code to candidate system index of one ValueSet version, used by {@code inferSystem}: the
+ * systems of enumerated includes are indexed by code, those of a current (timestamped)
+ * expansion are read through its {@link ExpansionIndex}, and whole-system includes are answered
+ * through the CodeSystem's {@link ConceptCodeIndex}.
+ * Filtered includes never yield a candidate. Attached and cached like {@link PropertyCatalogue}.
+ */
+public final class SystemInferenceIndex implements TerminologyIndexCache.Weighted {
+
+	private final List<IncludeEntry> includes = new ArrayList<>();
+	private final String firstSystem;
+
+	private SystemInferenceIndex(ValueSet valueSet) {
+		String first = null;
+		if (valueSet.hasCompose()) {
+			for (ConceptSetComponent include : valueSet.getCompose().getInclude()) {
+				if (!include.hasSystem()) {
+					continue;
+				}
+				if (first == null) {
+					first = include.getSystem();
+				}
+				if (!include.getConcept().isEmpty()) {
+					Map<String, List<String>> displays = new HashMap<>();
+					for (ConceptReferenceComponent concept : include.getConcept()) {
+						if (concept.getCode() != null) {
+							displays.computeIfAbsent(concept.getCode(), k -> new ArrayList<>())
+									.add(concept.hasDisplay() ? concept.getDisplay() : null);
+						}
+					}
+					includes.add(new IncludeEntry(include.getSystem(), null, displays));
+				} else if (include.getFilter().isEmpty()) {
+					includes.add(new IncludeEntry(include.getSystem(),
+							include.hasVersion() ? include.getVersion() : null, null));
+				}
+			}
+		}
+		if (first == null && valueSet.hasExpansion()) {
+			for (ValueSetExpansionContainsComponent contains : valueSet.getExpansion().getContains()) {
+				if (contains.hasSystem()) {
+					first = contains.getSystem();
+					break;
+				}
+			}
+		}
+		this.firstSystem = first;
+	}
+
+	public static SystemInferenceIndex of(ValueSet valueSet) {
+		return TerminologyIndexCache.of(SystemInferenceIndex.class, valueSet, SystemInferenceIndex::new);
+	}
+
+	@Override
+	public int weight() {
+		int weight = 1;
+		for (IncludeEntry include : includes) {
+			weight += include.displays() != null ? include.displays().size() : 1;
+		}
+		return weight;
+	}
+
+	/**
+	 * Systems that contain {@code code} (with {@code display}, when given), expansion systems
+	 * first and then includes in compose order, without duplicates.
+	 *
+	 * @param valueSet           the instance this index was obtained for (its expansion is read)
+	 * @param codeSystemResolver resolves {@code (system, version)} of a whole-system include;
+	 *                           {@code null} when unavailable
+	 * @param displayMatcher     whether a CodeSystem concept carries the requested display
+	 */
+	public List<String> findSystems(ValueSet valueSet, String code, String display,
+			BiFunction<String, String, CodeSystem> codeSystemResolver,
+			BiPredicate<ConceptDefinitionComponent, String> displayMatcher) {
+		if (code == null || code.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Set<String> systems = new LinkedHashSet<>();
+		if (valueSet.hasExpansion() && valueSet.getExpansion().hasTimestamp()) {
+			for (ValueSetExpansionContainsComponent contains : ExpansionIndex.of(valueSet).find(valueSet, code)) {
+				if (contains.hasSystem() && (display == null
+						|| (contains.hasDisplay() && display.equalsIgnoreCase(contains.getDisplay())))) {
+					systems.add(contains.getSystem());
+				}
+			}
+		}
+		for (IncludeEntry include : includes) {
+			if (systems.contains(include.system())) {
+				continue;
+			}
+			if (include.displays() != null) {
+				List<String> displays = include.displays().get(code);
+				if (displays != null && (display == null || displays.stream().anyMatch(display::equalsIgnoreCase))) {
+					systems.add(include.system());
+				}
+				continue;
+			}
+			CodeSystem codeSystem = codeSystemResolver.apply(include.system(), include.version());
+			if (codeSystem == null) {
+				continue;
+			}
+			ConceptDefinitionComponent concept = ConceptCodeIndex.of(codeSystem).find(codeSystem, code);
+			if (concept != null && (display == null || displayMatcher.test(concept, display))) {
+				systems.add(include.system());
+			}
+		}
+		return new ArrayList<>(systems);
+	}
+
+	/**
+	 * The system of the first include, else of the first top-level expansion entry.
+	 */
+	public String getFirstSystem() {
+		return firstSystem;
+	}
+
+	/** {@code displays} is {@code null} for a whole-system include */
+	private record IncludeEntry(String system, String version, Map<String, List<String>> displays) {
+	}
+}
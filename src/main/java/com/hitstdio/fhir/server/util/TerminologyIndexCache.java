@@ -0,0 +1,172 @@
+package com.hitstdio.fhir.server.util;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.hl7.fhir.r4.model.MetadataResource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+/**
+ * The one cache behind the in-memory terminology indexes ({@link PropertyCatalogue},
+ * {@link ConceptCodeIndex}, {@link ExpansionIndex}, ...). Entries are keyed by index kind and
+ * the identity of the resources they were built from ({@code Type/id/_history/n|url|version}),
+ * bounded by their approximate size ({@link Weighted#weight()}) rather than their number, and
+ * dropped for every kind at once when a resource with one of their urls is written
+ * ({@link #invalidate(String)}).
+ * <p>
+ * Only stored resources are cached. Resources without a version id and resources a client
+ * supplied with a request ({@link #markClientSupplied(MetadataResource)}) are indexed per call,
+ * since their id and version say nothing about their content.
+ * <p>
+ * Entries keyed by resource identity expire an hour after their last use. Entries keyed by url
+ * only (e.g. all stored versions of a url) can go stale when another node writes the resource,
+ * since {@link #invalidate(String)} only reaches this node; they are cached with a maximum age
+ * instead ({@link #get(Class, String, Collection, Duration, Supplier)}).
+ */
+public final class TerminologyIndexCache {
+
+	/** Approximate number of indexed entries (codes, references, ...) held by all cached indexes */
+	private static final long MAX_WEIGHT = 4_000_000L;
+
+	private static final long IDLE_NANOS = Duration.ofHours(1).toNanos();
+
+	private static final String CLIENT_SUPPLIED = TerminologyIndexCache.class.getName() + ".clientSupplied";
+
+	private static final Cache<Key, Object> CACHE = Caffeine.newBuilder()
+			.maximumWeight(MAX_WEIGHT)
+			.weigher((Key key, Object value) -> value instanceof Weighted weighted
+					? Math.max(1, weighted.weight()) : 1)
+			.expireAfter(new Expiry<Key, Object>() {
+				@Override
+				public long expireAfterCreate(Key key, Object value, long currentTime) {
+					return key.maxAgeNanos() > 0 ? key.maxAgeNanos() : IDLE_NANOS;
+				}
+
+				@Override
+				public long expireAfterUpdate(Key key, Object value, long currentTime, long currentDuration) {
+					return expireAfterCreate(key, value, currentTime);
+				}
+
+				@Override
+				public long expireAfterRead(Key key, Object value, long currentTime, long currentDuration) {
+					// entries with a maximum age are not kept alive by use
+					return key.maxAgeNanos() > 0 ? currentDuration : IDLE_NANOS;
+				}
+			})
+			.build();
+
+	/**
+	 * Implemented by cached indexes to report their approximate size.
+	 */
+	public interface Weighted {
+		int weight();
+	}
+
+	private record Key(Class<?> kind, String key, List<String> urls, long maxAgeNanos) {
+	}
+
+	private TerminologyIndexCache() {
+	}
+
+	/**
+	 * Returns the {@code kind} index of {@code resource}: the one attached to the instance
+	 * (user data), else the cached one of its stored version, else a new one built with
+	 * {@code builder}. The result is attached to the instance.
+	 */
+	public static <R extends MetadataResource, T> T of(Class<T> kind, R resource, Function<? super R, T> builder) {
+		return of(kind, resource, null, builder);
+	}
+
+	/**
+	 * As {@link #of(Class, MetadataResource, Function)}, for indexes that also depend on
+	 * {@code qualifier} (e.g. the expansion timestamp); instances with another qualifier are
+	 * not reused.
+	 */
+	public static <R extends MetadataResource, T> T of(Class<T> kind, R resource, String qualifier,
+			Function<? super R, T> builder) {
+		String userDataKey = kind.getName() + (qualifier != null ? "|" + qualifier : "");
+		String key;
+		// stored instances are shared read-only by the threads of a batch; user data is a plain map
+		synchronized (resource) {
+			Object attached = resource.getUserData(userDataKey);
+			if (kind.isInstance(attached)) {
+				return kind.cast(attached);
+			}
+			key = keyOf(resource);
+		}
+		if (key != null && qualifier != null) {
+			key = key + "|" + qualifier;
+		}
+		T index = get(kind, key, Collections.singletonList(resource.getUrl()), () -> builder.apply(resource));
+		synchronized (resource) {
+			resource.setUserData(userDataKey, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the cached {@code kind} entry for {@code key}, building it with {@code builder} when
+	 * missing. {@code urls} are the canonical urls the entry was built from; a {@code null} key
+	 * means "not cacheable" and always builds. A builder returning {@code null} caches nothing,
+	 * so the next call builds again.
+	 */
+	public static <T> T get(Class<T> kind, String key, Collection<String> urls, Supplier<T> builder) {
+		return get(kind, key, urls, null, builder);
+	}
+
+	/**
+	 * As {@link #get(Class, String, Collection, Supplier)}, for entries that must not be used
+	 * longer than {@code maxAge} after they were built, however often they are read
+	 * ({@code null}: expire an hour after the last use).
+	 */
+	public static <T> T get(Class<T> kind, String key, Collection<String> urls, Duration maxAge,
+			Supplier<T> builder) {
+		if (key == null) {
+			return builder.get();
+		}
+		Key cacheKey = new Key(kind, key, urls.stream().filter(Objects::nonNull).toList(),
+				maxAge != null ? maxAge.toNanos() : 0L);
+		return kind.cast(CACHE.get(cacheKey, k -> builder.get()));
+	}
+
+	/**
+	 * Cache identity of a stored resource, or {@code null} when it has no version id or was
+	 * supplied by a client.
+	 */
+	public static String keyOf(MetadataResource resource) {
+		if (resource == null || !resource.hasIdElement() || !resource.getIdElement().hasVersionIdPart()
+				|| resource.getUserData(CLIENT_SUPPLIED) != null) {
+			return null;
+		}
+		return resource.getIdElement().toUnqualified().getValue() + "|" + resource.getUrl() + "|"
+				+ resource.getVersion();
+	}
+
+	/**
+	 * Marks a resource supplied with a request (e.g. {@code tx-resource}) so that it is never
+	 * cached, whatever id and {@code meta.versionId} it carries.
+	 */
+	public static void markClientSupplied(MetadataResource resource) {
+		if (resource != null) {
+			resource.setUserData(CLIENT_SUPPLIED, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Drops every cached entry built from a resource with this url; call when a CodeSystem or
+	 * ValueSet with this url is created, updated or deleted.
+	 */
+	public static void invalidate(String url) {
+		if (url != null) {
+			CACHE.asMap().keySet().removeIf(key -> key.urls().contains(url));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.Set;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.ValueSet;
+
+/**
+ * Inline resources supplied with a request ({@code tx-resource}), resolved before the stored
+ * ones, plus what a batch resolved up front (keyed by {@code url|version}): the stored ValueSets
+ * its items target, the CodeSystems those ValueSets include, the compiled membership
+ * ({@code system|code}) of each ValueSet and the errors of targets that could not be resolved.
+ * Built once per request and never modified, so it can be shared by the threads that validate
+ * the items of one batch, together with the request's {@link ResolutionScope} memo.
+ * <p>
+ * Lookups return the shared instances, which callers treat as read-only: code that has to adjust
+ * a ValueSet (e.g. the requested url/version) works on its own copy.
+ */
+public final class TxResourceContext {
+
+	public static final TxResourceContext EMPTY = new TxResourceContext(Collections.emptyMap(),
+			Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), null);
+
+	private final Map<String, ValueSet> valueSets;
+	private final Map<String, ValueSet> resolved;
+	private final Map<String, CodeSystem> codeSystems;
+	private final Map<String, Set<String>> memberships;
+	private final Map<String, OperationOutcome> failures;
+	/** {@code null} for {@link #EMPTY}, which is shared by unrelated requests */
+	private final ResolutionScope resolutionScope;
+
+	private TxResourceContext(Map<String, ValueSet> valueSets, Map<String, ValueSet> resolved,
+			Map<String, CodeSystem> codeSystems, Map<String, Set<String>> memberships,
+			Map<String, OperationOutcome> failures, ResolutionScope resolutionScope) {
+		this.valueSets = valueSets;
+		this.resolved = resolved;
+		this.codeSystems = codeSystems;
+		this.memberships = memberships;
+		this.failures = failures;
+		this.resolutionScope = resolutionScope;
+	}
+
+	/**
+	 * Indexes the ValueSets among the given resources by url (a later one with the same url wins).
+	 */
+	public static TxResourceContext of(List<IBaseResource> resources) {
+		if (resources == null || resources.isEmpty()) {
+			return EMPTY;
+		}
+		Map<String, ValueSet> valueSets = new HashMap<>();
+		for (IBaseResource resource : resources) {
+			if (resource instanceof ValueSet vs && vs.hasUrl()) {
+				TerminologyIndexCache.markClientSupplied(vs);
+				valueSets.put(vs.getUrl(), vs);
+			}
+		}
+		return valueSets.isEmpty() ? EMPTY
+				: new TxResourceContext(Collections.unmodifiableMap(valueSets), Collections.emptyMap(),
+						Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), new ResolutionScope());
+	}
+
+	/**
+	 * Returns a context that also answers what a batch resolved up front, every map keyed by
+	 * {@link #resolvedKey(String, String)}: stored ValueSets, stored CodeSystems, compiled
+	 * ValueSet memberships and the errors of ValueSets that could not be resolved. The returned
+	 * context has a memo of its own, seeded with the CodeSystems.
+	 */
+	public TxResourceContext withResolved(Map<String, ValueSet> resolvedValueSets,
+			Map<String, CodeSystem> resolvedCodeSystems, Map<String, Set<String>> compiledMemberships,
+			Map<String, OperationOutcome> resolutionFailures) {
+		if (resolvedValueSets.isEmpty() && resolvedCodeSystems.isEmpty() && compiledMemberships.isEmpty()
+				&& resolutionFailures.isEmpty()) {
+			return this;
+		}
+		ResolutionScope scope = new ResolutionScope();
+		Map<String, CodeSystem> mergedCodeSystems = merge(codeSystems, resolvedCodeSystems);
+		scope.preload("CodeSystem", mergedCodeSystems);
+		return new TxResourceContext(valueSets, merge(resolved, resolvedValueSets), mergedCodeSystems,
+				merge(memberships, compiledMemberships), merge(failures, resolutionFailures), scope);
+	}
+
+	private static <T> Map<String, T> merge(Map<String, T> current, Map<String, T> added) {
+		if (added.isEmpty()) {
+			return current;
+		}
+		Map<String, T> merged = new HashMap<>(current);
+		merged.putAll(added);
+		return Collections.unmodifiableMap(merged);
+	}
+
+	public static String resolvedKey(String url, String version) {
+		return url + "|" + (version != null ? version : "");
+	}
+
+	/**
+	 * Whether the request supplied ValueSets of its own ({@code tx-resource}); such requests are
+	 * not answered from pre-expansions.
+	 */
+	public boolean hasInlineValueSets() {
+		return !valueSets.isEmpty();
+	}
+
+	public boolean hasInlineValueSet(String url) {
+		return url != null && valueSets.containsKey(url);
+	}
+
+	/**
+	 * Returns the inline ValueSet with this url or, failing that, the ValueSet resolved up front
+	 * for this url and version (shared, read-only); {@code null} when neither exists.
+	 */
+	public ValueSet findValueSet(String url, String version) {
+		if (url == null) {
+			return null;
+		}
+		ValueSet valueSet = valueSets.get(url);
+		if (valueSet != null) {
+			return valueSet;
+		}
+		return resolved.get(resolvedKey(url, version));
+	}
+
+	/**
+	 * The memo shared by the lookups of this request ({@link ResolutionScope#open}); {@code null}
+	 * for {@link #EMPTY}.
+	 */
+	ResolutionScope getResolutionScope() {
+		return resolutionScope;
+	}
+
+	/**
+	 * Stored CodeSystems resolved up front, keyed by {@link #resolvedKey(String, String)}.
+	 */
+	public Map<String, CodeSystem> getResolvedCodeSystems() {
+		return codeSystems;
+	}
+
+	/**
+	 * The compiled membership ({@code system|code} keys, default parameters) of the stored
+	 * ValueSet with this url and version, or {@code null} when it was not compiled.
+	 */
+	public Set<String> findMembership(String url, String version) {
+		return url != null ? memberships.get(resolvedKey(url, version)) : null;
+	}
+
+	/**
+	 * The error resolving the ValueSet with this url and version up front, or {@code null}.
+	 * Items targeting it report a copy of this outcome instead of repeating the lookup.
+	 */
+	public OperationOutcome findFailure(String url, String version) {
+		OperationOutcome failure = url != null ? failures.get(resolvedKey(url, version)) : null;
+		return failure != null ? failure.copy() : null;
+	}
+
+	public static String membershipKey(String system, String code) {
+		return system + "|" + code;
+	}
+}
@@ -0,0 +1,181 @@
+package com.hitstdio.fhir.server.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.hl7.fhir.r4.model.CanonicalType;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
+
+/**
+ * Graph of {@code compose.include.valueSet} references between stored ValueSets. The direct
+ * references of a ValueSet version are computed once (attached and cached like
+ * {@link PropertyCatalogue}); the stored ValueSet a reference resolves to is cached per
+ * {@code url|version} until a ValueSet with that url is written ({@link #invalidate(String)}),
+ * for at most {@link CodeVersionIndex#MAX_AGE} since writes on other nodes are not seen.
+ * References that do not resolve are not cached, so a ValueSet stored later is found at once.
+ * Existence checks and cycle detection are then map lookups.
+ */
+public final class ValueSetDependencyGraph {
+
+	private ValueSetDependencyGraph() {
+	}
+
+	/**
+	 * Direct references of the ValueSet (attached to the instance, cached per stored version).
+	 */
+	public static Node of(ValueSet valueSet) {
+		return TerminologyIndexCache.of(Node.class, valueSet, Node::new);
+	}
+
+	/**
+	 * Whether the reference resolves to a stored ValueSet. {@code loader} returns the stored
+	 * ValueSet or {@code null}, and is only called when the answer is not cached.
+	 */
+	public static boolean exists(Reference reference, Function<Reference, ValueSet> loader) {
+		return resolve(reference, loader) != null;
+	}
+
+	/** The stored resolution of the reference, {@code null} when it is missing (not cached) */
+	private static Resolution resolve(Reference reference, Function<Reference, ValueSet> loader) {
+		return TerminologyIndexCache.get(Resolution.class, reference.key(), List.of(reference.url()),
+				CodeVersionIndex.MAX_AGE, () -> {
+					ValueSet valueSet = loader.apply(reference);
+					return valueSet != null ? new Resolution(of(valueSet), valueSet.getVersion()) : null;
+				});
+	}
+
+	/**
+	 * Urls forming the first reference cycle reachable from {@code root} (the url that closes
+	 * the cycle first), or an empty list. ValueSets are told apart by {@code url|version}, so a
+	 * version including another version of the same url is not a cycle. Missing references end
+	 * a path. Walks the graph with an explicit stack.
+	 */
+	public static List<String> findCycle(ValueSet root, Function<Reference, ValueSet> loader) {
+		if (!root.hasUrl()) {
+			return Collections.emptyList();
+		}
+		Deque<Frame> stack = new ArrayDeque<>();
+		// url|version of the ValueSets on the current path, in path order
+		Set<String> onPath = new LinkedHashSet<>();
+		Set<String> done = new HashSet<>();
+		String rootKey = TxResourceContext.resolvedKey(root.getUrl(), root.getVersion());
+		stack.push(new Frame(rootKey, root.getUrl(), of(root)));
+		onPath.add(rootKey);
+		while (!stack.isEmpty()) {
+			Frame frame = stack.peek();
+			if (frame.next >= frame.node.getValueSets().size()) {
+				stack.pop();
+				onPath.remove(frame.key);
+				done.add(frame.key);
+				continue;
+			}
+			Reference reference = frame.node.getValueSets().get(frame.next++);
+			Resolution resolution = resolve(reference, loader);
+			if (resolution == null) {
+				continue;
+			}
+			String key = TxResourceContext.resolvedKey(reference.url(), resolution.version());
+			if (onPath.contains(key)) {
+				List<String> cycle = new ArrayList<>();
+				boolean inCycle = false;
+				for (Frame onStack : (Iterable<Frame>) stack::descendingIterator) {
+					inCycle |= onStack.key.equals(key);
+					if (inCycle) {
+						cycle.add(onStack.url);
+					}
+				}
+				cycle.add(reference.url());
+				return cycle;
+			}
+			if (done.contains(key)) {
+				continue;
+			}
+			stack.push(new Frame(key, reference.url(), resolution.node()));
+			onPath.add(key);
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Forgets how references to {@code url} resolve; call when a ValueSet with this url is
+	 * created, updated or deleted.
+	 */
+	public static void invalidate(String url) {
+		TerminologyIndexCache.invalidate(url);
+	}
+
+	/** Direct {@code include.valueSet} references of one ValueSet version, in compose order */
+	public static final class Node implements TerminologyIndexCache.Weighted {
+
+		private final List<Reference> valueSets;
+
+		private Node(ValueSet valueSet) {
+			List<Reference> references = new ArrayList<>();
+			if (valueSet.hasCompose()) {
+				for (ConceptSetComponent include : valueSet.getCompose().getInclude()) {
+					for (CanonicalType valueSetRef : include.getValueSet()) {
+						Reference reference = Reference.parse(valueSetRef.getValue());
+						if (reference != null) {
+							references.add(reference);
+						}
+					}
+				}
+			}
+			this.valueSets = Collections.unmodifiableList(references);
+		}
+
+		public List<Reference> getValueSets() {
+			return valueSets;
+		}
+
+		@Override
+		public int weight() {
+			return valueSets.size() + 1;
+		}
+	}
+
+	/** Stored ValueSet a reference resolves to: its references and its version */
+	private record Resolution(Node node, String version) {
+	}
+
+	/** A ValueSet canonical as written ({@code url} or {@code url|version}) and its parts */
+	public record Reference(String canonical, String url, String version) {
+
+		static Reference parse(String canonical) {
+			if (canonical == null || canonical.isEmpty()) {
+				return null;
+			}
+			int pipe = canonical.indexOf('|');
+			if (pipe < 0) {
+				return new Reference(canonical, canonical.trim(), null);
+			}
+			String version = canonical.substring(pipe + 1).trim();
+			return new Reference(canonical, canonical.substring(0, pipe).trim(), version.isEmpty() ? null : version);
+		}
+
+		String key() {
+			return TxResourceContext.resolvedKey(url, version);
+		}
+	}
+
+	private static final class Frame {
+		private final String key;
+		private final String url;
+		private final Node node;
+		private int next;
+
+		private Frame(String key, String url, Node node) {
+			this.key = key;
+			this.url = url;
+			this.node = node;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.hitstdio.fhir.server.util;
 
 import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
 import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 
@@ -28,6 +29,8 @@ public class ValueSetExpansionService {
 	private final ConceptCollector conceptCollector;
 	private final ExpansionBuilder expansionBuilder;
 	private final ConceptFilter conceptFilter;
+	private PreExpansionStore preExpansionStore;
+	private ExpansionLimits expansionLimits = ExpansionLimits.DEFAULT;
 
 	public ValueSetExpansionService(IFhirResourceDao<ValueSet> valueSetDao,
 			IFhirResourceDao<CodeSystem> codeSystemDao) {
@@ -40,12 +43,49 @@ public class ValueSetExpansionService {
 		this.expansionBuilder = new ExpansionBuilder(conceptFilter, resourceFinder);
 	}
 
+	/**
+	 * Enables serving eligible requests from stored pre-expansions.
+	 */
+	public void setPreExpansionStore(PreExpansionStore preExpansionStore) {
+		this.preExpansionStore = preExpansionStore;
+	}
+
+	public PreExpansionStore getPreExpansionStore() {
+		return preExpansionStore;
+	}
+
+	/**
+	 * Lets CodeSystem version selection read search-index metadata instead of every version.
+	 */
+	public void setMetadataQuery(CodeSystemMetadataQuery metadataQuery) {
+		this.resourceFinder.setMetadataQuery(metadataQuery);
+	}
+
+	/**
+	 * Lets header-only (bulk-loaded) CodeSystems be expanded with their stored concepts.
+	 */
+	public void setConceptStore(ConceptStore conceptStore) {
+		this.resourceFinder.setConceptStore(conceptStore);
+	}
+
+	/**
+	 * Sets the memory budget / spill-to-disk limits applied to expansions.
+	 */
+	public void setExpansionLimits(ExpansionLimits expansionLimits) {
+		this.expansionLimits = expansionLimits != null ? expansionLimits : ExpansionLimits.DEFAULT;
+	}
+
 	/**
 	 * Main method to perform ValueSet expansion
 	 */
 	public ValueSet expand(ExpansionRequest request) {
+		// Must be decided before discoverAndAugmentProperties() adds implicit properties
+		boolean preExpansionEligible = isPreExpansionEligible(request);
+
 		ValueSet sourceValueSet = retrieveSourceValueSet(request);
 
+		request.setExpansionBudget(new ExpansionBudget(expansionLimits, sourceValueSet.getUrl(), isUnpaged(request)));
+
 		ValueSet resultValueSet = createResultValueSet(sourceValueSet, request);
 
 		ValueSetExpansionComponent expansion = resultValueSet.getExpansion();
@@ -53,6 +93,582 @@ public class ValueSetExpansionService {
 
 		processSupplements(sourceValueSet, expansion, request);
 
+		List<CodeSystem> includedCodeSystems = findIncludedCodeSystems(sourceValueSet, request);
+
+		discoverAndAugmentProperties(sourceValueSet, request.getSupplements(), includedCodeSystems, request);
+
+		PreExpansionStore.PreExpansion preExpansion = preExpansionEligible
+				? findPreExpansion(sourceValueSet)
+				: null;
+		if (preExpansion != null) {
+			return expandFromPreExpansion(resultValueSet, sourceValueSet, preExpansion, request);
+		}
+
+		if (request.isCountOnly()) {
+			Integer total = conceptCollector.countAllConcepts(sourceValueSet, expansion, request);
+			if (total != null) {
+				expansionBuilder.buildExpansion(expansion, sourceValueSet, total, Collections.emptyList(), request);
+				return resultValueSet;
+			}
+		}
+
+		List<ValueSetExpansionContainsComponent> allConcepts = conceptCollector.collectAllConcepts(sourceValueSet,
+				expansion, request);
+		List<ValueSetExpansionContainsComponent> pagedConcepts = null;
+		try {
+			checkExpansionSize(sourceValueSet, allConcepts.size(), request);
+
+			pagedConcepts = applyPaging(allConcepts, request);
+
+			expansionBuilder.buildExpansion(expansion, sourceValueSet, allConcepts, pagedConcepts, request);
+		} finally {
+			// Only a list attached to the response as-is outlives the request; pages were copied out of it
+			if (pagedConcepts != allConcepts) {
+				release(allConcepts);
+			}
+		}
+
+		return resultValueSet;
+	}
+
+	/**
+	 * Computes the full, unpaged expansion of a stored ValueSet with default parameters and
+	 * writes it to the pre-expansion store. Called by {@link PreExpansionScheduler}.
+	 */
+	public void refreshPreExpansion(ValueSet sourceValueSet) {
+		if (preExpansionStore == null) {
+			return;
+		}
+		ValueSetExpansionComponent expansion = new ValueSetExpansionComponent();
+		ExpansionRequest request = prepareDefaultRequest(sourceValueSet, expansion);
+		// Never rejected for size, but may spill while the rows are written
+		request.setExpansionBudget(new ExpansionBudget(expansionLimits, sourceValueSet.getUrl(), false));
+
+		int parameterCountBefore = expansion.getParameter().size();
+		List<ValueSetExpansionContainsComponent> allConcepts = conceptCollector.collectAllConcepts(sourceValueSet,
+				expansion, request);
+		List<ValueSet.ValueSetExpansionParameterComponent> collectorParameters = new ArrayList<>(
+				expansion.getParameter().subList(parameterCountBefore, expansion.getParameter().size()));
+
+		// url|version of everything the expansion used; a system without a recorded version depends on any version
+		Set<String> dependencies = new LinkedHashSet<>();
+		Set<String> versionedUrls = new HashSet<>();
+		dependencies.add(canonical(sourceValueSet.getUrl(), sourceValueSet.getVersion()));
+		for (ValueSet.ValueSetExpansionParameterComponent param : expansion.getParameter()) {
+			String name = param.getName();
+			if (("used-codesystem".equals(name) || "used-valueset".equals(name) || "used-supplement".equals(name)
+					|| "version".equals(name)) && param.hasValue() && param.getValue().primitiveValue() != null) {
+				String canonical = param.getValue().primitiveValue();
+				dependencies.add(canonical);
+				versionedUrls.add(canonical.split("\\|", 2)[0]);
+			}
+		}
+		if (sourceValueSet.hasCompose()) {
+			for (ConceptSetComponent include : sourceValueSet.getCompose().getInclude()) {
+				if (include.hasSystem() && include.hasVersion()) {
+					dependencies.add(canonical(include.getSystem(), include.getVersion()));
+				} else if (include.hasSystem() && !versionedUrls.contains(include.getSystem())) {
+					dependencies.add(include.getSystem());
+				}
+			}
+		}
+
+		try {
+			preExpansionStore.save(sourceValueSet, PreExpansionStore.resourceVersionOf(sourceValueSet),
+					collectorParameters, allConcepts, dependencies);
+		} finally {
+			release(allConcepts);
+		}
+	}
+
+	/**
+	 * Releases the spill file behind a collected list that is no longer needed.
+	 */
+	private static void release(List<ValueSetExpansionContainsComponent> concepts) {
+		if (concepts instanceof ConceptBuffer buffer) {
+			buffer.close();
+		}
+	}
+
+	/**
+	 * Compiles the membership of a stored ValueSet with default parameters: the
+	 * {@code system|code} keys ({@link TxResourceContext#membershipKey(String, String)}) of a
+	 * membership-only collection, which builds no display, designation or property content.
+	 * Returns {@code null} when the ValueSet has more than {@code maxMembers} members.
+	 */
+	public Set<String> compileMembership(ValueSet sourceValueSet, int maxMembers) {
+		if (!sourceValueSet.hasCompose()) {
+			return null;
+		}
+		ExpansionRequest request = ExpansionRequest.builder()
+				.requestDetails(new SystemRequestDetails())
+				.build();
+		request.setExpansionBudget(new ExpansionBudget(expansionLimits, sourceValueSet.getUrl(), false));
+		request.enterMembershipOnly();
+		List<ValueSetExpansionContainsComponent> members = null;
+		try {
+			members = conceptCollector.collectAllConcepts(sourceValueSet, new ValueSetExpansionComponent(), request);
+			if (members.size() > maxMembers) {
+				return null;
+			}
+			Set<String> keys = new HashSet<>(members.size() * 2);
+			for (ValueSetExpansionContainsComponent member : members) {
+				keys.add(TxResourceContext.membershipKey(member.getSystem(), member.getCode()));
+			}
+			return keys;
+		} finally {
+			request.exitMembershipOnly();
+			release(members);
+		}
+	}
+
+	/**
+	 * Request state equivalent to a parameterless $expand: supplements resolved and implicit
+	 * properties discovered, concept collection not yet run.
+	 */
+	private ExpansionRequest prepareDefaultRequest(ValueSet sourceValueSet, ValueSetExpansionComponent expansion) {
+		ExpansionRequest request = ExpansionRequest.builder()
+				.requestDetails(new SystemRequestDetails())
+				.build();
+		processSupplements(sourceValueSet, expansion, request);
+		List<CodeSystem> includedCodeSystems = findIncludedCodeSystems(sourceValueSet, request);
+		discoverAndAugmentProperties(sourceValueSet, request.getSupplements(), includedCodeSystems, request);
+		return request;
+	}
+
+	private static String canonical(String url, String version) {
+		return version != null && !version.isEmpty() ? url + "|" + version : url;
+	}
+
+	/**
+	 * Maintains the stored pre-expansions that an updated CodeSystem was moved into PATCHING for
+	 * ({@link PreExpansionStore#markPatching}). Expansions whose includes are affected only at the
+	 * level of individual concepts (or only by the version) are patched in place; all others are
+	 * marked STALE and recomputed by the scheduler. Expansions no longer PATCHING are left alone.
+	 */
+	public void applyCodeSystemDelta(CodeSystemDelta delta, Collection<String> expansionIds) {
+		if (preExpansionStore == null) {
+			return;
+		}
+		for (String expansionId : expansionIds) {
+			PreExpansionStore.PreExpansion preExpansion = preExpansionStore.findPatching(expansionId);
+			if (preExpansion == null) {
+				continue;
+			}
+			try {
+				ValueSet sourceValueSet = findCurrentSource(preExpansion);
+				PreExpansionStore.ConceptPatch patch = sourceValueSet != null
+						? planPatch(sourceValueSet, preExpansion, delta) : null;
+				applyOrMarkStale(preExpansion, patch);
+			} catch (RuntimeException e) {
+				markStale(preExpansion);
+			}
+		}
+	}
+
+	/**
+	 * Maintains the stored pre-expansions that used another version of a newly created
+	 * CodeSystem. Expansions that pin a version in their includes, or whose system still
+	 * resolves to another version, are put back into service; the others are patched with the
+	 * difference between the version they used and the new one.
+	 */
+	public void applyCodeSystemCreated(CodeSystem created, Collection<String> expansionIds) {
+		if (preExpansionStore == null) {
+			return;
+		}
+		String system = created.getUrl();
+		for (String expansionId : expansionIds) {
+			PreExpansionStore.PreExpansion preExpansion = preExpansionStore.findPatching(expansionId);
+			if (preExpansion == null) {
+				continue;
+			}
+			try {
+				ValueSet sourceValueSet = findCurrentSource(preExpansion);
+				if (sourceValueSet == null) {
+					markStale(preExpansion);
+					continue;
+				}
+				ExpansionRequest request = ExpansionRequest.builder().requestDetails(new SystemRequestDetails()).build();
+				boolean pinned = sourceValueSet.hasCompose() && sourceValueSet.getCompose().getInclude().stream()
+						.anyMatch(include -> system.equals(include.getSystem()) && include.hasVersion());
+				CodeSystem resolved = pinned ? null : resourceFinder.findCodeSystem(system, null, request);
+				if (pinned || !Objects.equals(resolved.getVersion(), created.getVersion())) {
+					preExpansionStore.updateStatus(expansionId, PreExpansionStore.STATUS_PATCHING,
+							PreExpansionStore.STATUS_READY);
+					continue;
+				}
+				String usedVersion = findUsedVersion(preExpansion, system);
+				PreExpansionStore.ConceptPatch patch = null;
+				if (usedVersion != null) {
+					CodeSystem used = resourceFinder.findCodeSystem(system, usedVersion, request);
+					patch = planPatch(sourceValueSet, preExpansion, CodeSystemDelta.between(used, created));
+				}
+				applyOrMarkStale(preExpansion, patch);
+			} catch (RuntimeException e) {
+				markStale(preExpansion);
+			}
+		}
+	}
+
+	/**
+	 * The ValueSet an expansion was computed from, or {@code null} when the ValueSet itself
+	 * changed since (a full recompute is due anyway).
+	 */
+	private ValueSet findCurrentSource(PreExpansionStore.PreExpansion preExpansion) {
+		ValueSet sourceValueSet = resourceFinder.findValueSetByUrl(preExpansion.url(), preExpansion.version(),
+				new SystemRequestDetails());
+		return Objects.equals(PreExpansionStore.resourceVersionOf(sourceValueSet), preExpansion.resourceVersion())
+				? sourceValueSet : null;
+	}
+
+	private void applyOrMarkStale(PreExpansionStore.PreExpansion preExpansion, PreExpansionStore.ConceptPatch patch) {
+		if (patch == null) {
+			markStale(preExpansion);
+		} else {
+			preExpansionStore.applyPatch(preExpansion.id(), patch);
+		}
+	}
+
+	private void markStale(PreExpansionStore.PreExpansion preExpansion) {
+		preExpansionStore.updateStatus(preExpansion.id(), PreExpansionStore.STATUS_PATCHING,
+				PreExpansionStore.STATUS_STALE);
+	}
+
+	/**
+	 * Works out the row-level changes a delta causes in one stored expansion, or returns
+	 * {@code null} when the affected includes cannot be patched safely.
+	 */
+	private PreExpansionStore.ConceptPatch planPatch(ValueSet sourceValueSet,
+			PreExpansionStore.PreExpansion preExpansion, CodeSystemDelta delta) {
+
+		String system = delta.getUrl();
+		PreExpansionStore.ConceptPatch patch = new PreExpansionStore.ConceptPatch(system, new LinkedHashMap<>(),
+				new ArrayList<>(), new ArrayList<>(), delta.getOldVersion(), delta.getNewVersion());
+
+		// Built against another version than the delta starts from: the delta says nothing about it
+		String usedVersion = findUsedVersion(preExpansion, system);
+		if (usedVersion != null && !usedVersion.equals(delta.getOldVersion())) {
+			return null;
+		}
+		if (delta.isDefinitionChanged() || !sourceValueSet.hasCompose()) {
+			return null;
+		}
+		if (delta.isVersionChanged() && (delta.getOldVersion() == null || delta.getNewVersion() == null)) {
+			// Rows gain or lose their version altogether
+			return null;
+		}
+
+		List<ConceptSetComponent> includes = new ArrayList<>();
+		for (ConceptSetComponent include : sourceValueSet.getCompose().getInclude()) {
+			if (system.equals(include.getSystem())) {
+				if (delta.isVersionChanged() && include.hasVersion()) {
+					// Pinned to the old version, which the update replaced
+					return null;
+				}
+				includes.add(include);
+			}
+		}
+		if (includes.isEmpty()) {
+			// Reached through an imported ValueSet or a supplement
+			return null;
+		}
+		boolean membershipChanges = !delta.getAdded().isEmpty() || !delta.getRemoved().isEmpty();
+		if (membershipChanges && includes.size() > 1) {
+			return null;
+		}
+		for (ConceptSetComponent exclude : sourceValueSet.getCompose().getExclude()) {
+			if (system.equals(exclude.getSystem()) && (membershipChanges || delta.isHierarchyChanged()
+					|| referencesChangedProperty(exclude.getFilter(), delta))) {
+				return null;
+			}
+		}
+
+		Set<String> candidateAdditions = new LinkedHashSet<>();
+		for (ConceptSetComponent include : includes) {
+			if (include.hasConcept()) {
+				// Explicit concepts carry ValueSet-level designations/extensions; recompute if touched
+				for (ConceptReferenceComponent concept : include.getConcept()) {
+					String code = concept.getCode();
+					if (delta.getAdded().contains(code) || delta.getRemoved().contains(code)
+							|| delta.getChanged().contains(code)) {
+						return null;
+					}
+				}
+				continue;
+			}
+			if (include.hasFilter()) {
+				for (ConceptSetFilterComponent filter : include.getFilter()) {
+					boolean hierarchical = filter.getOp() == ValueSet.FilterOperator.ISA
+							|| filter.getOp() == ValueSet.FilterOperator.DESCENDENTOF
+							|| filter.getOp() == ValueSet.FilterOperator.GENERALIZES
+							|| filter.getOp() == ValueSet.FilterOperator.ISNOTA;
+					if (hierarchical && delta.isHierarchyChanged()) {
+						return null;
+					}
+					if (!hierarchical && membershipChanges) {
+						return null;
+					}
+					if (filter.getOp() == ValueSet.FilterOperator.GENERALIZES && membershipChanges) {
+						return null;
+					}
+				}
+				if (referencesChangedProperty(include.getFilter(), delta)) {
+					return null;
+				}
+			}
+			for (String code : delta.getAdded()) {
+				if (isWithinHierarchyFilters(include, code, delta)) {
+					candidateAdditions.add(code);
+				}
+			}
+		}
+
+		ExpansionRequest request = prepareDefaultRequest(sourceValueSet, new ValueSetExpansionComponent());
+		CodeSystem newCodeSystem = delta.getNewCodeSystem();
+
+		for (String code : delta.getChanged()) {
+			PreExpansionStore.ConceptRow row = preExpansionStore.findRow(preExpansion.id(), system, code);
+			if (row == null) {
+				// Not in the expansion yet, but may qualify now (reactivated, newly matching a filter)
+				Boolean qualifies = qualifiesForInclude(sourceValueSet, includes, code, delta, request);
+				if (qualifies == null) {
+					return null;
+				}
+				if (qualifies) {
+					candidateAdditions.add(code);
+				}
+				continue;
+			}
+			ConceptDefinitionComponent conceptDef = delta.getNewConcept(code);
+			if (!conceptFilter.shouldIncludeConcept(sourceValueSet, conceptDef, conceptDef.getDisplay(), request)) {
+				patch.removals().add(code);
+				continue;
+			}
+			ValueSetExpansionContainsComponent component = conceptCollector.createComponent(newCodeSystem,
+					conceptDef, request);
+			applyStoredVersion(component, patchedVersion(row.systemVersion(), delta));
+			patch.replacements().put(code, component);
+		}
+
+		for (String code : delta.getRemoved()) {
+			if (preExpansionStore.findRow(preExpansion.id(), system, code) != null) {
+				patch.removals().add(code);
+			}
+		}
+
+		if (!candidateAdditions.isEmpty()) {
+			String storedVersion = patchedVersion(preExpansionStore.findSystemVersion(preExpansion.id(), system), delta);
+			// Insert each new concept after its nearest depth-first predecessor that is in the expansion
+			Set<String> present = new HashSet<>();
+			String previousPresent = null;
+			for (String code : delta.getNewCodesInOrder()) {
+				if (candidateAdditions.contains(code)) {
+					ConceptDefinitionComponent conceptDef = delta.getNewConcept(code);
+					if (conceptFilter.shouldIncludeConcept(sourceValueSet, conceptDef, conceptDef.getDisplay(), request)) {
+						ValueSetExpansionContainsComponent component = conceptCollector.createComponent(newCodeSystem,
+								conceptDef, request);
+						applyStoredVersion(component, storedVersion);
+						patch.insertions().add(new PreExpansionStore.Insertion(previousPresent, component));
+						previousPresent = code;
+						present.add(code);
+					}
+				} else if (!patch.removals().contains(code) && (present.contains(code)
+						|| preExpansionStore.findRow(preExpansion.id(), system, code) != null)) {
+					previousPresent = code;
+				}
+			}
+		}
+
+		return patch;
+	}
+
+	/**
+	 * Whether a changed concept without a stored row now belongs to the expansion, evaluated
+	 * against the same include criteria a full expansion applies; {@code null} when that
+	 * cannot be decided here (excludes, ValueSet-restricted includes, or several includes of
+	 * the system, whose relative order a patch cannot reproduce).
+	 */
+	private Boolean qualifiesForInclude(ValueSet sourceValueSet, List<ConceptSetComponent> includes, String code,
+			CodeSystemDelta delta, ExpansionRequest request) {
+		ConceptDefinitionComponent conceptDef = delta.getNewConcept(code);
+		CodeSystem newCodeSystem = delta.getNewCodeSystem();
+		if (conceptDef == null
+				|| !conceptFilter.shouldIncludeConcept(sourceValueSet, conceptDef, conceptDef.getDisplay(), request)) {
+			return false;
+		}
+		boolean matched = false;
+		for (ConceptSetComponent include : includes) {
+			if (include.hasConcept()) {
+				// explicit codes: a changed listed code was already sent to recompute
+				continue;
+			}
+			if (include.hasValueSet()) {
+				return null;
+			}
+			for (ConceptSetFilterComponent filter : include.getFilter()) {
+				if (filter.getOp() == ValueSet.FilterOperator.GENERALIZES) {
+					return null;
+				}
+			}
+			// matchesAllFilters accepts hierarchy filters; they are checked against the new tree
+			if (conceptFilter.matchesAllFilters(conceptDef, include.getFilter(), newCodeSystem)
+					&& isWithinHierarchyFilters(include, code, delta)) {
+				matched = true;
+			}
+		}
+		if (!matched) {
+			return false;
+		}
+		if (includes.size() > 1) {
+			return null;
+		}
+		for (ConceptSetComponent exclude : sourceValueSet.getCompose().getExclude()) {
+			if (newCodeSystem.getUrl().equals(exclude.getSystem()) || exclude.hasValueSet()) {
+				return null;
+			}
+		}
+		return true;
+	}
+
+	private boolean isWithinHierarchyFilters(ConceptSetComponent include, String code, CodeSystemDelta delta) {
+		for (ConceptSetFilterComponent filter : include.getFilter()) {
+			if (filter.getOp() == ValueSet.FilterOperator.ISA && !delta.isSelfOrDescendant(code, filter.getValue())) {
+				return false;
+			}
+			if (filter.getOp() == ValueSet.FilterOperator.DESCENDENTOF
+					&& (code.equals(filter.getValue()) || !delta.isSelfOrDescendant(code, filter.getValue()))) {
+				return false;
+			}
+			if (filter.getOp() == ValueSet.FilterOperator.ISNOTA && delta.isSelfOrDescendant(code, filter.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean referencesChangedProperty(List<ConceptSetFilterComponent> filters, CodeSystemDelta delta) {
+		if (delta.getChangedPropertyCodes().isEmpty()) {
+			return false;
+		}
+		for (ConceptSetFilterComponent filter : filters) {
+			String property = filter.getProperty();
+			if (property != null && !"concept".equals(property)
+					&& (delta.getChangedPropertyCodes().contains(property)
+							|| delta.getChangedPropertyCodes().contains("*extension"))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String findUsedVersion(PreExpansionStore.PreExpansion preExpansion, String system) {
+		for (ValueSet.ValueSetExpansionParameterComponent param : preExpansion.parameters()) {
+			if ("used-codesystem".equals(param.getName()) && param.hasValue()) {
+				String canonical = param.getValue().primitiveValue();
+				if (canonical != null && canonical.startsWith(system + "|")) {
+					return canonical.substring(system.length() + 1);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Version a patched row carries: the rows stamped with the old version move to the new one.
+	 */
+	private static String patchedVersion(String storedVersion, CodeSystemDelta delta) {
+		return storedVersion != null && storedVersion.equals(delta.getOldVersion()) ? delta.getNewVersion()
+				: storedVersion;
+	}
+
+	/**
+	 * Keeps the per-concept version consistent with the rows already stored for the system.
+	 */
+	private static void applyStoredVersion(ValueSetExpansionContainsComponent component, String version) {
+		if (version == null) {
+			component.setVersionElement(null);
+		} else {
+			component.setVersion(version);
+		}
+	}
+
+	/**
+	 * Only requests whose result does not depend on request-specific parameters other than
+	 * paging can be answered from a pre-expansion. $validate-code applies the same rule to the
+	 * parameters it shares with $expand.
+	 */
+	public boolean isPreExpansionEligible(ExpansionRequest request) {
+		if (preExpansionStore == null) {
+			return false;
+		}
+		return isEmpty(request.getFilter()) && isEmpty(request.getDate())
+				&& isEmpty(request.getIncludeDesignations()) && isEmptyList(request.getDesignation())
+				&& isEmpty(request.getActiveOnly()) && isEmpty(request.getExcludeNested())
+				&& isEmpty(request.getExcludeNotForUI()) && request.getDisplayLanguage() == null
+				&& isEmptyList(request.getExcludeSystem()) && isEmptyList(request.getSystemVersion())
+				&& isEmptyList(request.getCheckSystemVersion()) && isEmptyList(request.getForceSystemVersion())
+				&& isEmptyList(request.getProperty()) && request.getTxResources().isEmpty()
+				&& request.getDefaultValueSetVersions().isEmpty();
+	}
+
+	private static boolean isEmpty(Type value) {
+		return value == null || value.isEmpty();
+	}
+
+	private static boolean isEmptyList(List<?> values) {
+		return values == null || values.isEmpty();
+	}
+
+	private PreExpansionStore.PreExpansion findPreExpansion(ValueSet sourceValueSet) {
+		try {
+			return preExpansionStore.findReady(sourceValueSet.getUrl(), sourceValueSet.getVersion(),
+					PreExpansionStore.resourceVersionOf(sourceValueSet));
+		} catch (RuntimeException e) {
+			// Store unavailable: fall back to computing the expansion
+			return null;
+		}
+	}
+
+	private ValueSet expandFromPreExpansion(ValueSet resultValueSet, ValueSet sourceValueSet,
+			PreExpansionStore.PreExpansion preExpansion, ExpansionRequest request) {
+
+		ValueSetExpansionComponent expansion = resultValueSet.getExpansion();
+		for (ValueSet.ValueSetExpansionParameterComponent param : preExpansion.parameters()) {
+			expansion.addParameter(param.copy());
+		}
+
+		checkExpansionSize(sourceValueSet, preExpansion.total(), request);
+
+		int offset = request.getOffset() != null ? request.getOffset().getValue() : 0;
+		int count = request.getCount() != null ? request.getCount().getValue() : 0;
+		if (offset < 0) {
+			throw new InvalidRequestException("Offset must be >= 0");
+		}
+		List<ValueSetExpansionContainsComponent> pagedConcepts;
+		if (request.isCountOnly()) {
+			// total comes from the header row, no concept rows are read
+			pagedConcepts = Collections.emptyList();
+		} else if (count > 0) {
+			pagedConcepts = preExpansionStore.readPage(preExpansion.id(), offset, count);
+		} else if (expansionLimits.isBudgetBased()) {
+			// no count: everything from offset on
+			ExpansionBudget budget = request.getExpansionBudget();
+			ConceptBuffer buffer = new ConceptBuffer(budget);
+			preExpansionStore.readPage(preExpansion.id(), offset, preExpansion.total() - offset, component -> {
+				budget.record(component);
+				buffer.add(component);
+			});
+			pagedConcepts = buffer;
+		} else {
+			pagedConcepts = preExpansionStore.readPage(preExpansion.id(), offset, preExpansion.total() - offset);
+		}
+
+		expansionBuilder.buildExpansion(expansion, sourceValueSet, preExpansion.total(), pagedConcepts, request);
+
+		return resultValueSet;
+	}
+
+	private List<CodeSystem> findIncludedCodeSystems(ValueSet sourceValueSet, ExpansionRequest request) {
 		List<CodeSystem> includedCodeSystems = new ArrayList<>();
 		if (sourceValueSet.hasCompose()) {
 			for (ConceptSetComponent include : sourceValueSet.getCompose().getInclude()) {
@@ -64,14 +680,20 @@ public class ValueSetExpansionService {
 				}
 			}
 		}
+		return includedCodeSystems;
+	}
 
-		discoverAndAugmentProperties(sourceValueSet, request.getSupplements(), includedCodeSystems, request);
-
-		List<ValueSetExpansionContainsComponent> allConcepts = conceptCollector.collectAllConcepts(sourceValueSet,
-				expansion, request);
+	private static boolean isUnpaged(ExpansionRequest request) {
+		return request.getCount() == null || !request.getCount().hasValue();
+	}
 
-		if (allConcepts.size() > DEFAULT_MAX_EXPANSION_SIZE
-				&& (request.getCount() == null || !request.getCount().hasValue())) {
+	/**
+	 * Legacy fixed-count limit; with a memory budget the size is enforced while concepts are
+	 * produced (see {@link ExpansionBudget}).
+	 */
+	private void checkExpansionSize(ValueSet sourceValueSet, int total, ExpansionRequest request) {
+		if (!expansionLimits.isBudgetBased() && total > DEFAULT_MAX_EXPANSION_SIZE
+				&& isUnpaged(request)) {
 
 			OperationOutcome oo = new OperationOutcome();
 			oo.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
@@ -82,12 +704,6 @@ public class ValueSetExpansionService {
 
 			throw new UnprocessableEntityException("Expansion is too large", oo);
 		}
-
-		List<ValueSetExpansionContainsComponent> pagedConcepts = applyPaging(allConcepts, request);
-
-		expansionBuilder.buildExpansion(expansion, sourceValueSet, allConcepts, pagedConcepts, request);
-
-		return resultValueSet;
 	}
 
 	private void discoverAndAugmentProperties(ValueSet valueSet, Map<String, CodeSystem> supplements,
@@ -113,26 +729,16 @@ public class ValueSetExpansionService {
 			}
 		}
 
+		// Per-CodeSystem-version catalogues replace the concept tree walks
 		if (supplements != null) {
 			for (CodeSystem cs : supplements.values()) {
-				if (cs.hasConcept()) {
-					for (CodeSystem.ConceptDefinitionComponent concept : cs.getConcept()) {
-						for (CodeSystem.ConceptPropertyComponent prop : concept.getProperty()) {
-							discoveredProperties.add(prop.getCode());
-						}
-						for (Extension ext : concept.getExtension()) {
-							ConceptComponentBuilder.getPropertyCodeFromExtensionUrl(ext.getUrl()).ifPresent(discoveredProperties::add);
-						}
-					}
-				}
+				discoveredProperties.addAll(PropertyCatalogue.of(cs).getRootConceptPropertyCodes());
 			}
 		}
 
 		if (includedCodeSystems != null) {
 			for (CodeSystem cs : includedCodeSystems) {
-				if (cs.hasConcept()) {
-					scanConceptsForProperties(cs.getConcept(), discoveredProperties);
-				}
+				discoveredProperties.addAll(PropertyCatalogue.of(cs).getExtensionPropertyCodes());
 			}
 		}
 
@@ -174,24 +780,6 @@ public class ValueSetExpansionService {
 		}
 	}
 
-	private void scanConceptsForProperties(List<CodeSystem.ConceptDefinitionComponent> concepts,
-			Set<String> discoveredProperties) {
-		if (concepts == null || concepts.isEmpty()) {
-			return;
-		}
-
-		for (CodeSystem.ConceptDefinitionComponent concept : concepts) {
-			for (Extension ext : concept.getExtension()) {
-				ConceptComponentBuilder.getPropertyCodeFromExtensionUrl(ext.getUrl())
-						.ifPresent(discoveredProperties::add);
-			}
-
-			if (concept.hasConcept()) {
-				scanConceptsForProperties(concept.getConcept(), discoveredProperties);
-			}
-		}
-	}
-
 	private static final String STATUS_PROPERTY_URI = "http://hl7.org/fhir/concept-properties#status";
 
 	private boolean isStandardFhirConceptProperty(String code, CodeSystem cs) {
@@ -199,10 +787,9 @@ public class ValueSetExpansionService {
 		// Other standard properties (notSelectable, inactive, etc.) are already
 		// conveyed by abstract/inactive flags in expansion.contains.
 		if (cs != null) {
-			for (CodeSystem.PropertyComponent prop : cs.getProperty()) {
-				if (code.equals(prop.getCode())) {
-					return STATUS_PROPERTY_URI.equals(prop.getUri());
-				}
+			PropertyCatalogue catalogue = PropertyCatalogue.of(cs);
+			if (catalogue.isDeclared(code)) {
+				return STATUS_PROPERTY_URI.equals(catalogue.getDeclaredPropertyUri(code));
 			}
 		}
 		return "status".equals(code);
@@ -428,15 +1015,43 @@ public class ValueSetExpansionService {
 			count = 0;
 		}
 
-		if (count <= 0) {
-			return allConcepts;
+		if (request.isCountOnly()) {
+			return Collections.emptyList();
 		}
 
 		if (offset >= allConcepts.size()) {
-			return Collections.emptyList();
+			return offset == 0 ? allConcepts : Collections.emptyList();
+		}
+
+		if (count <= 0 && offset == 0) {
+			return allConcepts;
+		}
+		if (allConcepts instanceof ConceptBuffer buffer && buffer.isSpilled()) {
+			return readPage(buffer, offset, count, request);
+		}
+
+		if (count <= 0) {
+			// no count: everything from offset on, as a stored pre-expansion serves it
+			return allConcepts.subList(offset, allConcepts.size());
 		}
 
 		int endIndex = Math.min(offset + count, allConcepts.size());
 		return allConcepts.subList(offset, endIndex);
 	}
+
+	/**
+	 * Copies a page out of a spilled list in one pass; without a count the rest of the list may
+	 * be large, so it goes into a buffer of its own that can spill again.
+	 */
+	private List<ValueSetExpansionContainsComponent> readPage(ConceptBuffer buffer, int offset, int count,
+			ExpansionRequest request) {
+		List<ValueSetExpansionContainsComponent> page = count > 0 ? new ArrayList<>(count)
+				: new ConceptBuffer(request.getExpansionBudget());
+		try (ConceptBuffer.Cursor cursor = buffer.cursor(offset)) {
+			while (cursor.hasNext() && (count <= 0 || page.size() < count)) {
+				page.add(cursor.next());
+			}
+		}
+		return page;
+	}
 }
@@ -0,0 +1,109 @@
+package com.hitstdio.fhir.server.job;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import ca.uhn.fhir.batch2.api.IJobDataSink;
+import ca.uhn.fhir.batch2.api.StepExecutionDetails;
+import ca.uhn.fhir.batch2.api.VoidModel;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+
+/**
+ * A bulk validate-code job reads its batch-wide parameters from the query, splits the work into
+ * one chunk per input Binary and writes one result line per input line, in input order, to an
+ * output Binary whose id is stable across retries of the chunk.
+ */
+class BulkValidateItemsStepTest {
+
+	@Test
+	void parametersAreReadFromTheQuery() {
+		BulkValidateJobParameters params = BulkValidateJobParameters.fromQuery(Map.of(
+				"url", new String[] { "http://example.org/vs" },
+				"version", new String[] { " " },
+				"activeOnly", new String[] { "true" },
+				"system-version", new String[] { "http://example.org/cs|1", "http://example.org/cs2|2" },
+				"input", new String[] { "Binary/in-1", "in-2" }));
+
+		assertEquals("http://example.org/vs", params.getUrl());
+		assertNull(params.getVersion());
+		assertEquals(Boolean.TRUE, params.getActiveOnly());
+		assertNull(params.getInferSystem());
+		assertEquals(List.of("http://example.org/cs|1", "http://example.org/cs2|2"), params.getSystemVersion());
+		assertEquals(List.of("in-1", "in-2"), params.getInputBinaryIds());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void oneChunkPerInputBinary() {
+		BulkValidateJobParameters params = new BulkValidateJobParameters();
+		params.setInputBinaryIds(List.of("in-1", "in-2"));
+		StepExecutionDetails<BulkValidateJobParameters, VoidModel> details = mock(StepExecutionDetails.class);
+		when(details.getParameters()).thenReturn(params);
+		IJobDataSink<BulkValidateChunkJson> sink = mock(IJobDataSink.class);
+
+		new BulkValidateGenerateChunksStep().run(details, sink);
+
+		ArgumentCaptor<BulkValidateChunkJson> chunks = ArgumentCaptor.forClass(BulkValidateChunkJson.class);
+		verify(sink, times(2)).accept(chunks.capture());
+		assertEquals(List.of("in-1", "in-2"),
+				chunks.getAllValues().stream().map(BulkValidateChunkJson::getInputBinaryId).toList());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void itemsAreValidatedInOrderIntoAStableOutputBinary() {
+		Binary input = new Binary();
+		input.setData("{\"code\":\"a\"}\n\n{\"code\":\"b\"}\n".getBytes(StandardCharsets.UTF_8));
+		IFhirResourceDao<Binary> binaryDao = mock(IFhirResourceDao.class);
+		when(binaryDao.read(any(IdType.class), any(RequestDetails.class))).thenReturn(input);
+
+		StepExecutionDetails<BulkValidateJobParameters, BulkValidateChunkJson> details = mock(
+				StepExecutionDetails.class, RETURNS_DEEP_STUBS);
+		when(details.getParameters()).thenReturn(new BulkValidateJobParameters());
+		when(details.getData()).thenReturn(new BulkValidateChunkJson("in-1"));
+		when(details.getInstance().getInstanceId()).thenReturn("job-1");
+		IJobDataSink<BulkValidateOutputJson> sink = mock(IJobDataSink.class);
+
+		BulkItemValidator validator = (line, params) -> {
+			Parameters result = new Parameters();
+			result.addParameter().setName("result").setValue(new BooleanType(line.number() == 1));
+			return result;
+		};
+		new BulkValidateItemsStep(binaryDao, validator).run(details, sink);
+
+		String outputId = BulkValidateJobService.outputBinaryId("job-1", "in-1");
+		assertEquals(outputId, BulkValidateJobService.outputBinaryId("job-1", "in-1"));
+		ArgumentCaptor<Binary> stored = ArgumentCaptor.forClass(Binary.class);
+		verify(binaryDao).update(stored.capture(), any(RequestDetails.class));
+		assertEquals(outputId, stored.getValue().getIdElement().getIdPart());
+		assertEquals(BulkValidateJobService.NDJSON_CONTENT_TYPE, stored.getValue().getContentType());
+		String[] lines = new String(stored.getValue().getData(), StandardCharsets.UTF_8).split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].contains("\"valueBoolean\":true"));
+		assertTrue(lines[1].contains("\"valueBoolean\":false"));
+
+		ArgumentCaptor<BulkValidateOutputJson> output = ArgumentCaptor.forClass(BulkValidateOutputJson.class);
+		verify(sink).accept(output.capture());
+		assertEquals(outputId, output.getValue().getOutputBinaryId());
+		assertEquals(2, output.getValue().getItemCount());
+	}
+}
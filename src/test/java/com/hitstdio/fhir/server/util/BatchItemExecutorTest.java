@@ -0,0 +1,64 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+
+/**
+ * Batch items run in parallel, at most {@code concurrencyPerBatch} at a time, and their
+ * results come back in item order.
+ */
+class BatchItemExecutorTest {
+
+	private final BatchItemExecutor executor = new BatchItemExecutor(4, 2);
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void resultsKeepItemOrderAndConcurrencyIsBounded() {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		List<Integer> items = IntStream.range(0, 20).boxed().collect(Collectors.toList());
+
+		List<String> results = executor.map(items, item -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				// later items finish first
+				Thread.sleep(20 - item);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			running.decrementAndGet();
+			return "item-" + item;
+		});
+
+		assertEquals(items.stream().map(item -> "item-" + item).toList(), results);
+		assertTrue(maxRunning.get() <= 2, "at most two items of one batch at a time");
+	}
+
+	@Test
+	void exceptionEscapingAnItemFailsTheBatch() {
+		InvalidRequestException failure = assertThrows(InvalidRequestException.class,
+				() -> executor.map(List.of(1, 2, 3), item -> {
+					if (item == 2) {
+						throw new InvalidRequestException("bad item");
+					}
+					return item;
+				}));
+
+		assertEquals("bad item", failure.getMessage());
+	}
+}
@@ -0,0 +1,82 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.UriType;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Identical batch items are validated once and their result spread back to every position; the
+ * ValueSets the items target are listed once per batch and answered from the resolved context.
+ */
+class BatchItemPlannerTest {
+
+	@Test
+	void identicalItemsAreValidatedOnceAndTargetsListedOnce() {
+		Parameters a = item("a", null);
+		Parameters b = item("b", "http://example.org/vs2");
+		BatchItemPlanner plan = BatchItemPlanner.plan(List.of(a, b, item("a", null), a),
+				new UriType("http://example.org/vs"), new StringType("1"));
+
+		assertEquals(4, plan.size());
+		assertEquals(List.of(a, b), plan.getUniqueItems());
+		List<String[]> targets = plan.getValueSetTargets();
+		assertEquals(2, targets.size());
+		assertArrayEquals(new String[] { "http://example.org/vs", "1" }, targets.get(0));
+		assertArrayEquals(new String[] { "http://example.org/vs2", "1" }, targets.get(1));
+
+		Parameters resultA = new Parameters();
+		Parameters resultB = new Parameters();
+		List<Resource> results = plan.spread(List.of(resultA, resultB));
+		assertEquals(4, results.size());
+		assertSame(resultA, results.get(0));
+		assertSame(resultB, results.get(1));
+		assertNotSame(resultA, results.get(2));
+		assertNotSame(resultA, results.get(3));
+	}
+
+	@Test
+	void resolvedContextAnswersTargetsWithoutALookup() {
+		ValueSet stored = new ValueSet().setUrl("http://example.org/vs");
+		OperationOutcome missing = new OperationOutcome();
+		missing.addIssue().setDiagnostics("not found");
+		String key = TxResourceContext.resolvedKey("http://example.org/vs", "1");
+
+		TxResourceContext context = TxResourceContext.EMPTY.withResolved(Map.of(key, stored),
+				Map.<String, CodeSystem>of(), Map.of(key, Set.of(TxResourceContext.membershipKey("s", "a"))),
+				Map.of(TxResourceContext.resolvedKey("http://example.org/gone", null), missing));
+
+		assertSame(stored, context.findValueSet("http://example.org/vs", "1"));
+		assertNull(context.findValueSet("http://example.org/vs", "2"));
+		assertEquals(Set.of("s|a"), context.findMembership("http://example.org/vs", "1"));
+		OperationOutcome failure = context.findFailure("http://example.org/gone", null);
+		assertNotSame(missing, failure);
+		assertEquals("not found", failure.getIssueFirstRep().getDiagnostics());
+		assertSame(TxResourceContext.EMPTY,
+				TxResourceContext.EMPTY.withResolved(Map.of(), Map.of(), Map.of(), Map.of()));
+	}
+
+	private static Parameters item(String code, String url) {
+		Parameters item = new Parameters();
+		item.addParameter().setName("code").setValue(new CodeType(code));
+		if (url != null) {
+			item.addParameter().setName("url").setValue(new UriType(url));
+		}
+		return item;
+	}
+}
@@ -0,0 +1,222 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.IdType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.api.model.DaoMethodOutcome;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+
+/**
+ * A bulk load commits its rows and then writes the header resource; a load that fails before
+ * or while writing the resource leaves no rows behind.
+ */
+class CodeSystemBulkLoaderTest {
+
+	private static final String URL = "http://example.org/big";
+
+	private static final String CSV = "# url=" + URL + "\n# version=1\ncode,display\na,A\nb,B\nc,C\n";
+
+	private JdbcTemplate jdbcTemplate;
+	private ConceptStore store;
+	private IFhirResourceDao<CodeSystem> codeSystemDao;
+	private CodeSystemBulkLoader loader;
+	private final AtomicReference<CodeSystem> storedResource = new AtomicReference<>();
+	private final AtomicInteger resourceVersion = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() {
+		JdbcDataSource dataSource = TestFixtures.h2("bulk");
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		store = new ConceptStore(dataSource, FhirContext.forR4Cached());
+		store.initializeSchema();
+
+		codeSystemDao = TestFixtures.searchableDao(
+				params -> storedResource.get() == null ? List.of() : List.of(storedResource.get()));
+		when(codeSystemDao.create(any(CodeSystem.class), any(RequestDetails.class)))
+				.thenAnswer(invocation -> write(invocation.getArgument(0)));
+		when(codeSystemDao.update(any(CodeSystem.class), any(RequestDetails.class)))
+				.thenAnswer(invocation -> write(invocation.getArgument(0)));
+
+		// two concepts per chunk, so that failures happen after rows were written
+		loader = new CodeSystemBulkLoader(codeSystemDao, store, true, 2, 10, null);
+	}
+
+	private DaoMethodOutcome write(CodeSystem resource) {
+		CodeSystem stored = resource.copy();
+		stored.setId(new IdType("CodeSystem", "big", String.valueOf(resourceVersion.incrementAndGet())));
+		storedResource.set(stored);
+		DaoMethodOutcome outcome = new DaoMethodOutcome();
+		outcome.setId(stored.getIdElement());
+		return outcome;
+	}
+
+	@Test
+	void loadCommitsRowsAndCreatesHeaderResource() throws IOException {
+		CodeSystemBulkLoader.Result result = loader.load(ConceptStreamReader.Format.CSV, input(CSV), null);
+
+		assertEquals(3, result.concepts());
+		assertEquals(List.of("1"), store.findVersions(URL));
+		assertNotNull(store.findView(URL, "1", "b"));
+		CodeSystem header = storedResource.get();
+		assertEquals(CodeSystem.CodeSystemContentMode.NOTPRESENT, header.getContent());
+		assertEquals(3, header.getCount());
+		assertTrue(header.getConcept().isEmpty());
+		assertEquals(0, loadRows());
+	}
+
+	@Test
+	void malformedInputLeavesNoRows() {
+		String csv = CSV + ",missing code\n";
+
+		assertThrows(InvalidRequestException.class,
+				() -> loader.load(ConceptStreamReader.Format.CSV, input(csv), null));
+
+		assertTrue(store.findVersions(URL).isEmpty());
+		assertEquals(0, conceptRows());
+		assertEquals(0, loadRows());
+		verify(codeSystemDao, never()).create(any(CodeSystem.class), any(RequestDetails.class));
+	}
+
+	@Test
+	void failedResourceWriteOfFirstLoadRemovesRows() {
+		doThrow(new IllegalStateException("database down")).when(codeSystemDao)
+				.create(any(CodeSystem.class), any(RequestDetails.class));
+
+		assertThrows(IllegalStateException.class,
+				() -> loader.load(ConceptStreamReader.Format.CSV, input(CSV), null));
+
+		assertTrue(store.findVersions(URL).isEmpty());
+		assertEquals(0, conceptRows());
+		assertEquals(0, loadRows());
+	}
+
+	@Test
+	void failedResourceUpdateOfReloadRemovesRows() throws IOException {
+		loader.load(ConceptStreamReader.Format.CSV, input(CSV), null);
+		doThrow(new IllegalStateException("database down")).when(codeSystemDao)
+				.update(any(CodeSystem.class), any(RequestDetails.class));
+
+		assertThrows(IllegalStateException.class,
+				() -> loader.load(ConceptStreamReader.Format.CSV, input(CSV), null));
+
+		assertTrue(store.findVersions(URL).isEmpty());
+		assertEquals(0, conceptRows());
+		assertEquals(0, loadRows());
+	}
+
+	@Test
+	void headerOnlyJsonReadStopsAtTheConcepts() throws IOException {
+		// the concepts are not valid JSON: a header-only read must not reach them
+		String json = "{\"resourceType\":\"CodeSystem\",\"url\":\"" + URL + "\",\"version\":\"1\",\"concept\":[{\"code\":";
+
+		CodeSystem header = ConceptStreamReader.read(ConceptStreamReader.Format.JSON, input(json), null);
+
+		assertEquals(URL, header.getUrl());
+		assertEquals("1", header.getVersion());
+	}
+
+	@Test
+	void reloadReplacesRowsAndUpdatesHeaderResource() throws IOException {
+		loader.load(ConceptStreamReader.Format.CSV, input(CSV), null);
+
+		loader.load(ConceptStreamReader.Format.CSV, input("# url=" + URL + "\n# version=1\ncode\nx\n"), null);
+
+		assertNull(store.findView(URL, "1", "a"));
+		assertNotNull(store.findView(URL, "1", "x"));
+		assertEquals(1, conceptRows());
+		assertEquals("2", storedResource.get().getIdElement().getVersionIdPart());
+		assertEquals(1, storedResource.get().getCount());
+	}
+
+	@Test
+	void ndjsonHeaderIsTheLineWithTopLevelResourceType() throws IOException {
+		String ndjson = "{\"resourceType\":\"CodeSystem\",\"url\":\"" + URL + "\",\"version\":\"1\"}\n"
+				+ "{\"code\":\"a\",\"display\":\"not a \\\"resourceType\\\" line\"}\n"
+				+ "{\"code\":\"b\",\"concept\":[{\"code\":\"b1\",\"definition\":\"resourceType\"}]}\n";
+		List<ConceptDefinitionComponent> concepts = new ArrayList<>();
+
+		CodeSystem header = ConceptStreamReader.read(ConceptStreamReader.Format.NDJSON, input(ndjson), concepts::add);
+
+		assertEquals(URL, header.getUrl());
+		assertEquals(List.of("a", "b"), concepts.stream().map(ConceptDefinitionComponent::getCode).toList());
+		assertEquals("b1", concepts.get(1).getConceptFirstRep().getCode());
+		assertThrows(InvalidRequestException.class,
+				() -> ConceptStreamReader.read(ConceptStreamReader.Format.NDJSON, input("[1]\n"), concepts::add));
+	}
+
+	@Test
+	void sweepRemovesOrphansButKeepsLoadsInProgress() {
+		try (ConceptStore.BulkWriter live = store.openBulkWriter(1, 10)) {
+			live.append(new ConceptDefinitionComponent().setCode("a"));
+			try (ConceptStore.BulkWriter crashed = store.openBulkWriter(1, 10)) {
+				crashed.append(new ConceptDefinitionComponent().setCode("x"));
+				crashed.append(new ConceptDefinitionComponent().setCode("y"));
+				// as if the node had died: no registration, rows left behind
+				jdbcTemplate.update("DELETE FROM TX_CS_LOAD WHERE CS_ID NOT IN"
+						+ " (SELECT CS_ID FROM TX_CS_CONCEPT WHERE CODE = 'a')");
+
+				assertEquals(2, store.sweepOrphans());
+			}
+
+			live.commit(new CodeSystem().setUrl(URL).setVersion("1"), null);
+		}
+
+		assertNotNull(store.findView(URL, "1", "a"));
+		assertEquals(1, conceptRows());
+	}
+
+	@Test
+	void claimedUrlAndVersionIsLoadedOnce() {
+		try (ConceptStore.BulkWriter first = store.openBulkWriter(2, 10, URL, "1")) {
+			assertNotNull(first);
+			assertNull(store.openBulkWriter(2, 10, URL, "1"));
+			try (ConceptStore.BulkWriter other = store.openBulkWriter(2, 10, URL, "2")) {
+				assertNotNull(other);
+			}
+		}
+
+		try (ConceptStore.BulkWriter again = store.openBulkWriter(2, 10, URL, "1")) {
+			assertNotNull(again);
+		}
+	}
+
+	private int conceptRows() {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TX_CS_CONCEPT", Integer.class);
+	}
+
+	private int loadRows() {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TX_CS_LOAD", Integer.class);
+	}
+
+	private static InputStream input(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
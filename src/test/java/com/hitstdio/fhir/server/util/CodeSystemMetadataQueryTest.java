@@ -0,0 +1,76 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * CodeSystem url, version and status are read from the search-index tables: one entry per
+ * current resource, deleted ones skipped; without those tables the query reports
+ * "unavailable" so callers load the resources instead.
+ */
+class CodeSystemMetadataQueryTest {
+
+	private static final String URL = "http://example.org/cs";
+
+	@Test
+	void metadataComesFromTheSearchIndex() {
+		JdbcDataSource dataSource = TestFixtures.h2("cs-metadata");
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		jdbc.execute("CREATE TABLE HFJ_RESOURCE (RES_ID NUMBER PRIMARY KEY, FHIR_ID VARCHAR(64),"
+				+ " RES_TYPE VARCHAR(40), RES_DELETED_AT TIMESTAMP)");
+		jdbc.execute("CREATE TABLE HFJ_SPIDX_URI (RES_ID NUMBER, SP_NAME VARCHAR(100), SP_URI VARCHAR(500))");
+		jdbc.execute("CREATE TABLE HFJ_SPIDX_TOKEN (RES_ID NUMBER, SP_NAME VARCHAR(100), SP_VALUE VARCHAR(200))");
+		resource(jdbc, 1, "cs-v1", "1", "active");
+		resource(jdbc, 2, null, "2", "draft");
+		resource(jdbc, 3, "cs-none", null, "unknown-status");
+		resource(jdbc, 4, "cs-deleted", "3", "active");
+		jdbc.update("UPDATE HFJ_RESOURCE SET RES_DELETED_AT = CURRENT_TIMESTAMP WHERE RES_ID = 4");
+		// a repeated index row does not repeat the resource
+		jdbc.update("INSERT INTO HFJ_SPIDX_TOKEN VALUES (1, 'status', 'active')");
+
+		CodeSystemMetadataQuery query = new CodeSystemMetadataQuery(dataSource);
+		List<CodeSystemMetadataQuery.CodeSystemMetadata> metadata = query.findByUrl(URL);
+
+		assertEquals(List.of(
+				new CodeSystemMetadataQuery.CodeSystemMetadata("cs-v1", URL, "1", "active"),
+				new CodeSystemMetadataQuery.CodeSystemMetadata("2", URL, "2", "draft"),
+				new CodeSystemMetadataQuery.CodeSystemMetadata("cs-none", URL, null, "unknown-status")), metadata);
+		assertEquals(List.of("1", "2"), CodeSystemMetadataQuery.versionsOf(metadata));
+		assertEquals(List.of(), query.findByUrl("http://example.org/other"));
+		assertEquals(3, query.findAll().size());
+
+		CodeSystem stub = metadata.get(0).toStub();
+		assertEquals("cs-v1", stub.getIdElement().getIdPart());
+		assertEquals(URL, stub.getUrl());
+		assertEquals("1", stub.getVersion());
+		assertEquals(PublicationStatus.ACTIVE, stub.getStatus());
+		assertFalse(metadata.get(2).toStub().hasStatus());
+	}
+
+	@Test
+	void missingIndexTablesMeanUnavailable() {
+		CodeSystemMetadataQuery query = new CodeSystemMetadataQuery(TestFixtures.h2("cs-metadata-empty"));
+
+		assertNull(query.findByUrl(URL));
+		assertNull(query.findAll());
+		assertNull(query.findByUrl(null));
+	}
+
+	private static void resource(JdbcTemplate jdbc, long id, String fhirId, String version, String status) {
+		jdbc.update("INSERT INTO HFJ_RESOURCE (RES_ID, FHIR_ID, RES_TYPE) VALUES (?, ?, 'CodeSystem')", id, fhirId);
+		jdbc.update("INSERT INTO HFJ_SPIDX_URI VALUES (?, 'url', ?)", id, URL);
+		if (version != null) {
+			jdbc.update("INSERT INTO HFJ_SPIDX_TOKEN VALUES (?, 'version', ?)", id, version);
+		}
+		jdbc.update("INSERT INTO HFJ_SPIDX_TOKEN VALUES (?, 'status', ?)", id, status);
+	}
+}
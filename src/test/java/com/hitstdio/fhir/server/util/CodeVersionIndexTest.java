@@ -0,0 +1,60 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The version of a coding is inferred from an index over all stored versions of its system:
+ * the newest version whose concept carries the display (or a designation) wins, and the index
+ * is built once per url until invalidated.
+ */
+class CodeVersionIndexTest {
+
+	@Test
+	void newestVersionCarryingTheDisplayWins() {
+		String url = "http://example.org/cs-" + UUID.randomUUID();
+		AtomicInteger loads = new AtomicInteger();
+		List<CodeSystem> versions = List.of(
+				version(url, "3", "Heart attack"),
+				version(url, "2", "Myocardial infarction"),
+				version(url, "1", "Myocardial infarction"),
+				new CodeSystem().setUrl(url));
+		versions.get(1).getConceptFirstRep().getConceptFirstRep().addDesignation().setValue("MI");
+
+		CodeVersionIndex index = CodeVersionIndex.of(url, u -> {
+			loads.incrementAndGet();
+			return versions;
+		});
+
+		assertEquals("3", index.inferVersion("a", "heart ATTACK"));
+		assertEquals("2", index.inferVersion("a", "Myocardial infarction"));
+		assertEquals("2", index.inferVersion("a", "mi"));
+		assertNull(index.inferVersion("a", "Stroke"));
+		assertNull(index.inferVersion("zz", "Heart attack"));
+		assertEquals(List.of("3", "2", "1"), index.getVersions());
+		assertEquals("3", index.getLatestVersion());
+
+		assertSame(index, CodeVersionIndex.of(url, u -> List.of()));
+		assertEquals(1, loads.get());
+		CodeVersionIndex.invalidate(url);
+		CodeVersionIndex.of(url, u -> {
+			loads.incrementAndGet();
+			return versions;
+		});
+		assertEquals(2, loads.get());
+	}
+
+	private static CodeSystem version(String url, String version, String display) {
+		CodeSystem codeSystem = new CodeSystem().setUrl(url).setVersion(version);
+		codeSystem.addConcept().setCode("x").addConcept().setCode("a").setDisplay(display);
+		return codeSystem;
+	}
+}
@@ -0,0 +1,72 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.UriType;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Repeated codings of one codeableConcept are validated once, a thrown exception included, and
+ * codings known to be members add nothing once an earlier coding has matched.
+ */
+class CodingValidationPlanTest {
+
+	private static final String SYSTEM = "http://example.org/cs";
+
+	@Test
+	void repeatedCodingsAreValidatedOnce() {
+		ValidationParams a = coding("a", "Alpha");
+		ValidationParams b = coding("b", null);
+		CodingValidationPlan plan = CodingValidationPlan.plan(List.of(a, b, coding("a", "Alpha")));
+		AtomicInteger calls = new AtomicInteger();
+		BiFunction<ValidationParams, StringType, ValidationResult> validator = (params, version) -> {
+			calls.incrementAndGet();
+			if ("b".equals(params.code().getValue())) {
+				throw new IllegalStateException("b failed");
+			}
+			return ValidationResult.of(true, null, null, params.display().getValue(), null, false);
+		};
+
+		ValidationResult first = plan.validate(a, null, validator);
+		assertSame(first, plan.validate(coding("a", "Alpha"), null, validator));
+		IllegalStateException failure = assertThrows(IllegalStateException.class, () -> plan.validate(b, null, validator));
+		assertSame(failure, assertThrows(IllegalStateException.class, () -> plan.validate(b, null, validator)));
+		assertEquals(2, calls.get());
+
+		plan.validate(a, new StringType("2"), validator);
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	void membershipSkipsDiagnosticsOnceMatched() {
+		ValidationParams member = coding("a", null);
+		ValidationParams other = coding("b", null);
+		CodingValidationPlan plan = CodingValidationPlan.plan(List.of(member, other),
+				Set.of(TxResourceContext.membershipKey(SYSTEM, "a")));
+
+		assertTrue(plan.isMember(member));
+		assertFalse(plan.isMember(other));
+		assertNull(plan.isMember(new ValidationParams(new CodeType("a"), null, null, "coding", null, null)));
+		assertTrue(plan.needsDiagnostics(member, false));
+		assertFalse(plan.needsDiagnostics(member, true));
+		assertTrue(plan.needsDiagnostics(other, true));
+		assertNull(CodingValidationPlan.plan(List.of(member)).isMember(member));
+	}
+
+	private static ValidationParams coding(String code, String display) {
+		return new ValidationParams(new CodeType(code), new UriType(SYSTEM),
+				display != null ? new StringType(display) : null, "codeableConcept", null, null);
+	}
+}
@@ -0,0 +1,91 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A spilled buffer reads back in order through cursors and leaves no file behind once closed.
+ */
+class ConceptBufferTest {
+
+	@TempDir
+	Path spillDirectory;
+
+	@Test
+	void cursorsReadSpilledEntriesAndCloseReleasesTheFile() throws IOException {
+		ConceptBuffer buffer = spilledBuffer("a", "b", "c", "d");
+		assertTrue(buffer.isSpilled());
+		assertEquals(1, spillFiles());
+
+		List<String> fromB = new ArrayList<>();
+		try (ConceptBuffer.Cursor cursor = buffer.cursor(1)) {
+			fromB.add(cursor.next().getCode());
+			fromB.add(cursor.next().getCode());
+		}
+		assertEquals(List.of("b", "c"), fromB);
+		assertEquals("d", buffer.get(3).getCode());
+		assertEquals("a", buffer.get(0).getCode());
+
+		buffer.close();
+		assertEquals(0, spillFiles());
+	}
+
+	@Test
+	void removeIfRewritesTheSpillFile() throws IOException {
+		ConceptBuffer buffer = spilledBuffer("a", "b", "c");
+
+		assertTrue(buffer.removeIf(c -> "b".equals(c.getCode())));
+
+		assertEquals(List.of("a", "c"), buffer.stream().map(ValueSetExpansionContainsComponent::getCode).toList());
+		assertEquals(1, spillFiles());
+		buffer.close();
+		assertEquals(0, spillFiles());
+	}
+
+	@Test
+	void sweepRemovesOnlyFilesFromEarlierRuns() throws IOException {
+		Path leftover = Files.createFile(spillDirectory.resolve("expansion-1.ndjson"));
+		Files.setLastModifiedTime(leftover, FileTime.fromMillis(0));
+		Path current = Files.createFile(spillDirectory.resolve("expansion-2.ndjson"));
+		Path unrelated = Files.createFile(spillDirectory.resolve("other.ndjson"));
+		Files.setLastModifiedTime(unrelated, FileTime.fromMillis(0));
+
+		assertEquals(1, ConceptBuffer.sweepSpillDirectory(spillDirectory));
+
+		assertFalse(Files.exists(leftover));
+		assertTrue(Files.exists(current));
+		assertTrue(Files.exists(unrelated));
+	}
+
+	private ConceptBuffer spilledBuffer(String... codes) {
+		ExpansionLimits limits = new ExpansionLimits(1, true, 0, spillDirectory.toString());
+		ExpansionBudget budget = new ExpansionBudget(limits, "http://example.org/vs", false);
+		ConceptBuffer buffer = new ConceptBuffer(budget);
+		for (String code : codes) {
+			ValueSetExpansionContainsComponent component = new ValueSetExpansionContainsComponent()
+					.setSystem("http://example.org/cs").setCode(code);
+			budget.record(component);
+			buffer.add(component);
+		}
+		return buffer;
+	}
+
+	private long spillFiles() throws IOException {
+		try (Stream<Path> files = Files.list(spillDirectory)) {
+			return files.count();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Count-only expansions read their totals from subtree sizes: whole system, is-a and
+ * descendent-of, with and without inactive concepts.
+ */
+class ConceptCountIndexTest {
+
+	@Test
+	void subtreeSizesAnswerCountsWithoutExpanding() {
+		// a (a1 (a11), a2 [inactive]), b
+		CodeSystem codeSystem = new CodeSystem().setUrl("http://example.org/cs");
+		ConceptDefinitionComponent a = codeSystem.addConcept().setCode("a");
+		a.addConcept().setCode("a1").addConcept().setCode("a11");
+		a.addConcept().setCode("a2").addProperty().setCode("inactive").setValue(new BooleanType(true));
+		codeSystem.addConcept().setCode("b");
+
+		ConceptCountIndex index = ConceptCountIndex.of(codeSystem, new ConceptFilter());
+
+		assertEquals(5, index.getTotal(false));
+		assertEquals(4, index.getTotal(true));
+		assertEquals(4, index.getSelfAndDescendants("a", false));
+		assertEquals(3, index.getSelfAndDescendants("a", true));
+		assertEquals(3, index.getDescendants("a", false));
+		assertEquals(2, index.getDescendants("a", true));
+		assertEquals(0, index.getDescendants("a2", true));
+		assertEquals(0, index.getSelfAndDescendants("zz", false));
+	}
+}
@@ -0,0 +1,168 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Concepts saved to the {@link ConceptStore} read back as the same tree, one concept at a time
+ * ({@link ConceptStore#findView}) or as a whole ({@link ConceptStore#forEachConcept}).
+ */
+class ConceptStoreTest {
+
+	private static final String URL = "http://example.org/cs";
+
+	private ConceptStore store;
+	private CodeSystem codeSystem;
+
+	@BeforeEach
+	void setUp() {
+		store = new ConceptStore(TestFixtures.h2("concepts"), FhirContext.forR4Cached());
+		store.initializeSchema();
+
+		codeSystem = new CodeSystem();
+		codeSystem.setId("CodeSystem/cs1/_history/3");
+		codeSystem.setUrl(URL);
+		codeSystem.setVersion("1");
+		codeSystem.setName("Example");
+		codeSystem.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		codeSystem.setContent(CodeSystem.CodeSystemContentMode.COMPLETE);
+		// a (a1 (a11, a12), a2), b (b1), c; b1 also names a as parent
+		ConceptDefinitionComponent a = codeSystem.addConcept().setCode("a").setDisplay("A");
+		ConceptDefinitionComponent a1 = a.addConcept().setCode("a1").setDisplay("A1");
+		a1.addConcept().setCode("a11").setDisplay("A11");
+		a1.addConcept().setCode("a12").setDisplay("A12")
+				.addProperty().setCode("inactive").setValue(new BooleanType(true));
+		a.addConcept().setCode("a2").setDisplay("A2");
+		codeSystem.addConcept().setCode("b").setDisplay("B")
+				.addConcept().setCode("b1").setDisplay("B1")
+				.addProperty().setCode("parent").setValue(new CodeType("a"));
+		codeSystem.addConcept().setCode("c").setDisplay("C");
+	}
+
+	@Test
+	void saveLeavesTheCodeSystemUntouched() {
+		String before = FhirContext.forR4Cached().newJsonParser().encodeResourceToString(codeSystem);
+
+		store.save(codeSystem, "3");
+
+		assertEquals(before, FhirContext.forR4Cached().newJsonParser().encodeResourceToString(codeSystem));
+		assertFalse(store.needsRefresh(URL, "1", "3"));
+		assertTrue(store.needsRefresh(URL, "1", "4"));
+		assertEquals(List.of("1"), store.findVersions(URL));
+	}
+
+	@Test
+	void forEachConceptRebuildsTheTreeWhateverTheChunkSize() {
+		store.save(codeSystem, "3");
+		String expected = tree(codeSystem.getConcept());
+
+		for (int chunkSize : new int[] { 1, 2, 3, 100 }) {
+			List<ConceptDefinitionComponent> concepts = new ArrayList<>();
+			assertTrue(store.forEachConcept(URL, "1", chunkSize, concepts::add));
+			assertEquals(expected, tree(concepts), "chunk size " + chunkSize);
+		}
+		assertFalse(store.forEachConcept(URL, "2", 10, concepts -> {
+		}));
+	}
+
+	@Test
+	void findViewHoldsAncestorsChildrenAndNamedParents() {
+		store.save(codeSystem, "3");
+
+		CodeSystem view = store.findView(URL, "1", "a1");
+		assertEquals("a(a1(a11,a12))", tree(view.getConcept()));
+		assertEquals("Example", view.getName());
+		assertNull(view.getMeta().getVersionId());
+
+		ConceptDefinitionComponent a12 = store.findView(URL, "1", "a12").getConcept().get(0).getConcept().get(0)
+				.getConcept().get(0);
+		assertEquals("a12", a12.getCode());
+		assertEquals("inactive", a12.getPropertyFirstRep().getCode());
+
+		assertEquals("b(b1),a", tree(store.findView(URL, "1", "b1").getConcept()));
+		assertEquals("c", tree(store.findView(URL, "1", "c").getConcept()));
+		assertEquals("", tree(store.findView(URL, "1", "zz").getConcept()));
+		assertNull(store.findView(URL, "2", "a"));
+	}
+
+	@Test
+	void saveReplacesTheRowsOfTheVersion() {
+		store.save(codeSystem, "3");
+		CodeSystem updated = codeSystem.copy();
+		updated.getConcept().remove(2);
+		store.save(updated, "4");
+
+		List<ConceptDefinitionComponent> concepts = new ArrayList<>();
+		store.forEachConcept(URL, "1", 10, concepts::add);
+		assertEquals("a(a1(a11,a12),a2),b(b1)", tree(concepts));
+		assertEquals(List.of("1"), store.findVersions(URL));
+
+		store.delete(URL, "1");
+		assertNull(store.findView(URL, "1", null));
+	}
+
+	@Test
+	void withConceptsSharesOneAssembledCopyPerStoredVersion() {
+		TerminologyIndexCache.invalidate(URL);
+		store.save(codeSystem, "3");
+		CodeSystem header = codeSystem.copy();
+		header.setConcept(new ArrayList<>());
+		header.setContent(CodeSystem.CodeSystemContentMode.NOTPRESENT);
+
+		CodeSystem assembled = store.withConcepts(header);
+		assertEquals(tree(codeSystem.getConcept()), tree(assembled.getConcept()));
+		assertEquals(CodeSystem.CodeSystemContentMode.COMPLETE, assembled.getContent());
+		assertTrue(header.getConcept().isEmpty());
+		assertSame(assembled, store.withConcepts(header));
+
+		CodeSystem supplied = header.copy();
+		TerminologyIndexCache.markClientSupplied(supplied);
+		assertSame(supplied, store.withConcepts(supplied));
+
+		TerminologyIndexCache.invalidate(URL);
+		assertNotSame(assembled, store.withConcepts(header));
+	}
+
+	@Test
+	void withConceptsLeavesEarlierResourceVersionsAsStored() {
+		TerminologyIndexCache.invalidate(URL);
+		store.save(codeSystem, "3");
+		CodeSystem earlier = codeSystem.copy();
+		earlier.setId("CodeSystem/cs1/_history/2");
+		earlier.setConcept(new ArrayList<>());
+		earlier.setContent(CodeSystem.CodeSystemContentMode.NOTPRESENT);
+
+		assertSame(earlier, store.withConcepts(earlier));
+	}
+
+	private static String tree(List<ConceptDefinitionComponent> concepts) {
+		StringBuilder tree = new StringBuilder();
+		for (ConceptDefinitionComponent concept : concepts) {
+			if (tree.length() > 0) {
+				tree.append(',');
+			}
+			tree.append(concept.getCode());
+			if (concept.hasConcept()) {
+				tree.append('(').append(tree(concept.getConcept())).append(')');
+			}
+		}
+		return tree.toString();
+	}
+}
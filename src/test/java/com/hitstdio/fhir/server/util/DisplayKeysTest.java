@@ -0,0 +1,43 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Displays compare by a normalized key: Unicode composition and case do not matter, whitespace
+ * differences are told apart, and designations can be matched by language.
+ */
+class DisplayKeysTest {
+
+	@Test
+	void keysIgnoreCompositionAndCase() {
+		String composed = "Caf\u00e9";
+		String decomposed = "CAFE\u0301";
+
+		assertEquals(DisplayKeys.key(composed), DisplayKeys.key(decomposed));
+		assertFalse(DisplayKeys.key(composed).equals(DisplayKeys.key("Cafe")));
+		assertTrue(DisplayKeys.isWhitespaceOnlyDifference("Heart  attack ", "heart attack"));
+		assertFalse(DisplayKeys.isWhitespaceOnlyDifference("heart attack", "heart attack"));
+		assertFalse(DisplayKeys.isWhitespaceOnlyDifference("heart attack", "heart failure"));
+	}
+
+	@Test
+	void conceptMatchesDisplayAndDesignations() {
+		ConceptDefinitionComponent concept = new ConceptDefinitionComponent().setCode("a").setDisplay("Caf\u00e9");
+		concept.addDesignation().setLanguage("de").setValue("Kaffeehaus");
+		concept.addDesignation().setValue("Coffee shop");
+		DisplayKeys keys = DisplayKeys.of(concept);
+
+		assertTrue(keys.matchesDisplay("CAFE\u0301"));
+		assertFalse(keys.matchesDisplay("Cafe"));
+		assertFalse(keys.matchesDisplay(null));
+		assertTrue(keys.matchesAnyDesignation("coffee SHOP"));
+		assertTrue(keys.matchesDesignation("DE", "kaffeehaus"));
+		assertFalse(keys.matchesDesignation("fr", "Kaffeehaus"));
+		assertFalse(keys.matchesDesignation(null, "Kaffeehaus"));
+	}
+}
@@ -0,0 +1,71 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Codes of a stored expansion are looked up through an index of positions: every entry with the
+ * code, in pre-order, from the instance asked about; the index is shared by instances of the
+ * same stored version and expansion timestamp, but not by client-supplied ones.
+ */
+class ExpansionIndexTest {
+
+	private static final Date TIMESTAMP = new Date(1_700_000_000_000L);
+
+	@Test
+	void entriesAreFoundInPreOrderOnTheInstanceAsked() {
+		String url = "http://example.org/vs-" + UUID.randomUUID();
+		ValueSet first = stored(url);
+		ValueSet second = stored(url);
+
+		ExpansionIndex index = ExpansionIndex.of(first);
+		List<ValueSetExpansionContainsComponent> found = index.find(first, "a");
+		assertEquals(List.of("http://example.org/cs1", "http://example.org/cs2"),
+				found.stream().map(ValueSetExpansionContainsComponent::getSystem).toList());
+		assertSame(first.getExpansion().getContainsFirstRep(), found.get(0));
+		assertTrue(index.find(first, "zz").isEmpty());
+
+		assertSame(index, ExpansionIndex.of(second));
+		assertSame(second.getExpansion().getContainsFirstRep(), index.find(second, "a").get(0));
+
+		// the instance changed after indexing: the stale paths fall back to a search
+		second.getExpansion().getContains().remove(0);
+		assertEquals(List.of("http://example.org/cs2"),
+				index.find(second, "a").stream().map(ValueSetExpansionContainsComponent::getSystem).toList());
+	}
+
+	@Test
+	void clientSuppliedAndRetimestampedInstancesGetTheirOwnIndex() {
+		String url = "http://example.org/vs-" + UUID.randomUUID();
+		ExpansionIndex index = ExpansionIndex.of(stored(url));
+
+		ValueSet clientSupplied = stored(url);
+		TerminologyIndexCache.markClientSupplied(clientSupplied);
+		assertNotSame(index, ExpansionIndex.of(clientSupplied));
+
+		ValueSet reexpanded = stored(url);
+		reexpanded.getExpansion().setTimestamp(new Date(TIMESTAMP.getTime() + 60_000L));
+		assertNotSame(index, ExpansionIndex.of(reexpanded));
+	}
+
+	private static ValueSet stored(String url) {
+		ValueSet valueSet = new ValueSet().setUrl(url).setVersion("1");
+		valueSet.setId("ValueSet/vs/_history/1");
+		valueSet.getExpansion().setTimestamp(TIMESTAMP);
+		valueSet.getExpansion().addContains().setSystem("http://example.org/cs1").setCode("a");
+		ValueSetExpansionContainsComponent group = valueSet.getExpansion().addContains().setAbstract(true)
+				.setCode("g");
+		group.addContains().setSystem("http://example.org/cs2").setCode("a");
+		return valueSet;
+	}
+}
@@ -0,0 +1,88 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.parser.DataFormatException;
+
+/**
+ * NDJSON bulk validation input is read one non-blank line at a time, each line becoming the
+ * Parameters of one item, and results are streamed in input order with a bounded number of
+ * items in flight.
+ */
+class NdjsonValidationItemsTest {
+
+	@Test
+	void linesAreReadLazilyAndBlankLinesSkipped() {
+		Iterator<NdjsonValidationItems.Line> lines = NdjsonValidationItems
+				.lines(new BufferedReader(new StringReader("{\"code\":\"a\"}\n\n  \n{\"code\":\"b\"}\n")));
+
+		assertEquals(new NdjsonValidationItems.Line(1, "{\"code\":\"a\"}"), lines.next());
+		assertEquals(new NdjsonValidationItems.Line(4, "{\"code\":\"b\"}"), lines.next());
+		assertFalse(lines.hasNext());
+	}
+
+	@Test
+	void eachLineShapeBecomesAnItem() {
+		Parameters coding = NdjsonValidationItems.toItem("{\"system\":\"http://example.org/cs\",\"code\":\"a\"}");
+		assertEquals("coding", coding.getParameterFirstRep().getName());
+		assertEquals("a", ((Coding) coding.getParameterFirstRep().getValue()).getCode());
+
+		Parameters concept = NdjsonValidationItems.toItem("{\"text\":\"t\",\"coding\":[{\"code\":\"a\"}]}");
+		assertEquals("codeableConcept", concept.getParameterFirstRep().getName());
+		assertEquals("t", ((CodeableConcept) concept.getParameterFirstRep().getValue()).getText());
+
+		Parameters parameters = NdjsonValidationItems.toItem("{\"resourceType\":\"Parameters\",\"parameter\":["
+				+ "{\"name\":\"code\",\"valueCode\":\"a\"},"
+				+ "{\"name\":\"tx-resource\",\"resource\":{\"resourceType\":\"ValueSet\",\"url\":\"http://example.org/vs\"}}]}");
+		assertEquals(2, parameters.getParameter().size());
+		assertEquals("http://example.org/vs",
+				((ValueSet) NdjsonValidationItems.txResources(parameters).get(0)).getUrl());
+
+		assertThrows(DataFormatException.class, () -> NdjsonValidationItems.toItem("{not json"));
+		assertThrows(DataFormatException.class, () -> NdjsonValidationItems.toItem("[1]"));
+		assertThrows(DataFormatException.class, () -> NdjsonValidationItems.toItem("{\"resourceType\":\"Patient\"}"));
+	}
+
+	@Test
+	void streamKeepsInputOrderWithBoundedItemsInFlight() {
+		BatchItemExecutor executor = new BatchItemExecutor(4, 2);
+		try {
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger maxRunning = new AtomicInteger();
+			List<Integer> items = List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+			List<Integer> results = new ArrayList<>();
+
+			executor.stream(items.iterator(), item -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(10 - item);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				return item;
+			}, results::add);
+
+			assertEquals(items, results);
+			assertTrue(maxRunning.get() <= 2, "at most two items in flight");
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.hl7.fhir.r4.model.OperationOutcome.OperationOutcomeIssueComponent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Issues are built from fixed templates: severity, type, message id and tx-issue-type come from
+ * the template, the details text and location from the caller, and every call returns a new
+ * issue.
+ */
+class OperationOutcomeTemplatesTest {
+
+	@Test
+	void templateFillsFixedPartsAndVariableSlots() {
+		OperationOutcomeIssueComponent issue = OperationOutcomeTemplates.NOT_IN_VALUESET
+				.create("not in vs", OperationOutcomeTemplates.codeLocation("coding"));
+
+		assertEquals(IssueSeverity.ERROR, issue.getSeverity());
+		assertEquals(IssueType.CODEINVALID, issue.getCode());
+		assertEquals(OperationOutcomeMessageId.NONE_OF_CODES_IN_VALUE_SET_ONE,
+				issue.getExtensionByUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL).getValue().primitiveValue());
+		assertEquals(OperationOutcomeMessageId.TX_ISSUE_TYPE_SYSTEM, issue.getDetails().getCodingFirstRep().getSystem());
+		assertEquals("not-in-vs", issue.getDetails().getCodingFirstRep().getCode());
+		assertEquals("not in vs", issue.getDetails().getText());
+		assertEquals("Coding.code", issue.getLocation().get(0).getValue());
+		assertEquals("Coding.code", issue.getExpression().get(0).getValue());
+
+		assertNotSame(issue, OperationOutcomeTemplates.NOT_IN_VALUESET.create("not in vs"));
+	}
+
+	@Test
+	void errorTypesMapToTheirTemplates() {
+		OperationOutcomeIssueComponent general = OperationOutcomeTemplates
+				.forErrorType(ValidationErrorType.GENERAL_ERROR).create("failed");
+		assertEquals(IssueType.PROCESSING, general.getCode());
+		assertEquals(OperationOutcomeMessageId.TERMINOLOGY_PASSTHROUGH_TX_MESSAGE,
+				general.getExtensionByUrl(OperationOutcomeMessageId.MESSAGE_ID_EXTENSION_URL).getValue().primitiveValue());
+		assertFalse(general.getDetails().hasCoding());
+
+		assertSame(OperationOutcomeTemplates.UNKNOWN_CODESYSTEM,
+				OperationOutcomeTemplates.forErrorType(ValidationErrorType.SYSTEM_NOT_FOUND));
+		assertSame(OperationOutcomeTemplates.GENERIC_ERROR,
+				OperationOutcomeTemplates.forErrorType(ValidationErrorType.INTERNAL_ERROR));
+		assertSame(OperationOutcomeTemplates.GENERIC_ERROR, OperationOutcomeTemplates.forErrorType(null));
+
+		OperationOutcomeIssueComponent bare = OperationOutcomeTemplates.GENERIC_ERROR.create(null);
+		assertFalse(bare.hasExtension());
+		assertFalse(bare.hasDetails());
+		assertEquals("$external:1:abc$", OperationOutcomeTemplates.external(1, "abc"));
+	}
+}
@@ -0,0 +1,235 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+
+/**
+ * A stored pre-expansion patched from a {@link CodeSystemDelta} must read back exactly like a
+ * full re-expansion against the new CodeSystem.
+ */
+class PreExpansionPatchTest {
+
+	private static final String SYSTEM = "http://example.org/cs";
+
+	private final AtomicReference<CodeSystem> currentCodeSystem = new AtomicReference<>();
+	private ValueSet valueSet;
+	private PreExpansionStore store;
+	private ValueSetExpansionService service;
+
+	@BeforeEach
+	void setUp() {
+		store = new PreExpansionStore(TestFixtures.h2("preexp"), FhirContext.forR4Cached());
+		store.initializeSchema();
+
+		valueSet = new ValueSet();
+		valueSet.setId("ValueSet/vs1/_history/1");
+		valueSet.setUrl("http://example.org/vs");
+		valueSet.setVersion("1");
+		valueSet.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		valueSet.getCompose().setInactive(false).addInclude().setSystem(SYSTEM);
+
+		IFhirResourceDao<ValueSet> valueSetDao = TestFixtures.searchableDao(params -> List.of(valueSet));
+		IFhirResourceDao<CodeSystem> codeSystemDao = TestFixtures.searchableDao(
+				params -> params.containsKey("supplements") ? List.of() : List.of(currentCodeSystem.get()));
+
+		service = new ValueSetExpansionService(valueSetDao, codeSystemDao);
+		service.setPreExpansionStore(store);
+	}
+
+	@Test
+	void patchMatchesFullExpansion() {
+		CodeSystem before = codeSystem("1", "2024",
+				concept("a", "Alpha", false),
+				concept("b", "Beta", true),
+				concept("c", "Gamma", false),
+				concept("e", "Epsilon", false));
+		CodeSystem after = codeSystem("2", "2024",
+				concept("a", "Alpha (renamed)", false),
+				concept("b", "Beta", false),
+				concept("d", "Delta", false),
+				concept("e", "Epsilon", true),
+				concept("f", "Phi", false));
+
+		List<String> patched = expandThenPatch(before, after);
+
+		service.refreshPreExpansion(valueSet);
+		List<String> rebuilt = read();
+
+		assertEquals(List.of("a=Alpha (renamed)", "b=Beta", "d=Delta", "f=Phi"), rebuilt);
+		assertEquals(rebuilt, patched);
+	}
+
+	@Test
+	void insertionsAndRemovalsAcrossTheWholeRange() {
+		CodeSystem before = codeSystem("1", "2024",
+				concept("c1", "One", false),
+				concept("c2", "Two", false),
+				concept("c3", "Three", false),
+				concept("c4", "Four", false),
+				concept("c5", "Five", false));
+		CodeSystem after = codeSystem("2", "2024",
+				concept("c0", "Zero", false),
+				concept("c2", "Two", false),
+				concept("c2a", "Two and a half", false),
+				concept("c2b", "Two and three quarters", false),
+				concept("c4", "Four", false),
+				concept("c6", "Six", false));
+
+		List<String> patched = expandThenPatch(before, after);
+
+		service.refreshPreExpansion(valueSet);
+		assertEquals(read(), patched);
+	}
+
+	@Test
+	void versionBumpIsPatchedAcrossVersions() {
+		CodeSystem before = codeSystem("1", "2024",
+				concept("a", "Alpha", false),
+				concept("b", "Beta", false));
+		CodeSystem after = codeSystem("2", "2025",
+				concept("a", "Alpha", false),
+				concept("b", "Beta (2025)", false),
+				concept("c", "Gamma", false));
+
+		List<String> patched = expandThenPatch(before, after);
+		List<String> patchedVersions = readVersions();
+		List<String> patchedParameters = readUsedCodeSystems();
+		// the dependency moved along: the next update starts from 2025
+		assertTrue(store.markPatching(SYSTEM, "2024").isEmpty());
+		assertEquals(1, store.markPatching(SYSTEM, "2025").size());
+
+		service.refreshPreExpansion(valueSet);
+		assertEquals(read(), patched);
+		assertEquals(readVersions(), patchedVersions);
+		assertEquals(List.of(SYSTEM + "|2025"), patchedParameters);
+		assertEquals(readUsedCodeSystems(), patchedParameters);
+	}
+
+	@Test
+	void expansionPinnedToTheReplacedVersionGoesStale() {
+		valueSet.getCompose().getIncludeFirstRep().setVersion("2024");
+		CodeSystem before = codeSystem("1", "2024", concept("a", "Alpha", false));
+		CodeSystem after = codeSystem("2", "2025", concept("a", "Alpha", false));
+		currentCodeSystem.set(before);
+		service.refreshPreExpansion(valueSet);
+
+		List<String> patching = store.markPatching(SYSTEM, "2024");
+		service.applyCodeSystemDelta(CodeSystemDelta.between(before, after), patching);
+
+		assertEquals(1, patching.size());
+		assertNull(store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1"));
+	}
+
+	@Test
+	void staleExpansionStaysStale() {
+		CodeSystem before = codeSystem("1", "2024", concept("a", "Alpha", false));
+		CodeSystem after = codeSystem("2", "2024", concept("a", "Alpha", false), concept("b", "Beta", false));
+		currentCodeSystem.set(before);
+		service.refreshPreExpansion(valueSet);
+		String expansionId = store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1").id();
+		store.markStale(SYSTEM);
+
+		List<String> patching = store.markPatching(SYSTEM, "2024");
+		currentCodeSystem.set(after);
+		service.applyCodeSystemDelta(CodeSystemDelta.between(before, after), List.of(expansionId));
+		// a rollback restores only what was taken out of service
+		store.updateStatus(patching, PreExpansionStore.STATUS_PATCHING, PreExpansionStore.STATUS_READY);
+
+		assertTrue(patching.isEmpty());
+		assertNull(store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1"));
+		assertTrue(store.needsRefresh(valueSet.getUrl(), valueSet.getVersion(), "1"));
+	}
+
+	@Test
+	void rollbackRestoresOnlyTheExpansionsItTookOutOfService() {
+		CodeSystem before = codeSystem("1", "2024", concept("a", "Alpha", false));
+		currentCodeSystem.set(before);
+		service.refreshPreExpansion(valueSet);
+
+		List<String> patching = store.markPatching(SYSTEM, "2024");
+		assertEquals(1, patching.size());
+		assertTrue(store.markPatching(SYSTEM, "2024").isEmpty(), "a PATCHING expansion is not taken twice");
+		store.updateStatus(patching, PreExpansionStore.STATUS_PATCHING, PreExpansionStore.STATUS_READY);
+
+		assertNotNull(store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1"));
+	}
+
+	private List<String> expandThenPatch(CodeSystem before, CodeSystem after) {
+		currentCodeSystem.set(before);
+		service.refreshPreExpansion(valueSet);
+		assertNotNull(store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1"));
+
+		List<String> patching = store.markPatching(SYSTEM, before.getVersion());
+		assertEquals(1, patching.size());
+		assertNull(store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1"));
+
+		currentCodeSystem.set(after);
+		service.applyCodeSystemDelta(CodeSystemDelta.between(before, after), patching);
+		assertNotNull(store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1"),
+				"the delta should be patched in place, not marked stale");
+		return read();
+	}
+
+	private List<String> read() {
+		return readContains().stream()
+				.map(c -> c.getCode() + "=" + c.getDisplay())
+				.collect(Collectors.toList());
+	}
+
+	private List<String> readVersions() {
+		return readContains().stream()
+				.map(c -> c.getCode() + "@" + c.getVersion())
+				.collect(Collectors.toList());
+	}
+
+	private List<String> readUsedCodeSystems() {
+		return store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1").parameters().stream()
+				.filter(p -> "used-codesystem".equals(p.getName()))
+				.map(p -> p.getValue().primitiveValue())
+				.collect(Collectors.toList());
+	}
+
+	private List<ValueSetExpansionContainsComponent> readContains() {
+		PreExpansionStore.PreExpansion preExpansion = store.findReady(valueSet.getUrl(), valueSet.getVersion(), "1");
+		return store.readPage(preExpansion.id(), 0, preExpansion.total());
+	}
+
+	private static CodeSystem codeSystem(String resourceVersion, String version, ConceptDefinitionComponent... concepts) {
+		CodeSystem codeSystem = new CodeSystem();
+		codeSystem.setId("CodeSystem/cs1/_history/" + resourceVersion);
+		codeSystem.setUrl(SYSTEM);
+		codeSystem.setVersion(version);
+		codeSystem.setStatus(Enumerations.PublicationStatus.ACTIVE);
+		codeSystem.setContent(CodeSystem.CodeSystemContentMode.COMPLETE);
+		for (ConceptDefinitionComponent concept : concepts) {
+			codeSystem.addConcept(concept);
+		}
+		return codeSystem;
+	}
+
+	private static ConceptDefinitionComponent concept(String code, String display, boolean inactive) {
+		ConceptDefinitionComponent concept = new ConceptDefinitionComponent().setCode(code).setDisplay(display);
+		if (inactive) {
+			concept.addProperty().setCode("inactive").setValue(new BooleanType(true));
+		}
+		return concept;
+	}
+}
@@ -0,0 +1,99 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * A stored pre-expansion is served only while it is READY and built from the current resource
+ * version; it reads back page by page and answers membership for nested concepts too.
+ */
+class PreExpansionStoreTest {
+
+	private static final String SYSTEM = "http://example.org/cs";
+
+	private PreExpansionStore store;
+	private ValueSet valueSet;
+
+	@BeforeEach
+	void setUp() {
+		store = new PreExpansionStore(TestFixtures.h2("preexp-store"), FhirContext.forR4Cached());
+		store.initializeSchema();
+
+		valueSet = new ValueSet();
+		valueSet.setId("ValueSet/vs1/_history/4");
+		valueSet.setUrl("http://example.org/vs");
+		valueSet.setVersion("1");
+	}
+
+	@Test
+	void readyOnlyForTheResourceVersionItWasBuiltFrom() {
+		save();
+
+		assertNotNull(store.findReady(valueSet.getUrl(), "1", "4"));
+		assertNull(store.findReady(valueSet.getUrl(), "1", "5"));
+		assertFalse(store.needsRefresh(valueSet.getUrl(), "1", "4"));
+		assertTrue(store.needsRefresh(valueSet.getUrl(), "1", "5"));
+		assertEquals("4", PreExpansionStore.resourceVersionOf(valueSet));
+	}
+
+	@Test
+	void pagesAndMembershipReadTheStoredRows() {
+		save();
+		PreExpansionStore.PreExpansion preExpansion = store.findReady(valueSet.getUrl(), "1", "4");
+
+		assertEquals(3, preExpansion.total());
+		assertEquals("offset", preExpansion.parameters().get(0).getName());
+		assertEquals(List.of("b", "c"), codes(store.readPage(preExpansion.id(), 1, 5)));
+		assertEquals(List.of("a1"), codes(store.readPage(preExpansion.id(), 0, 1).get(0).getContains()));
+
+		ValueSetExpansionContainsComponent nested = store.findMember(preExpansion.id(), SYSTEM, "a1");
+		assertEquals("A1", nested.getDisplay());
+		assertTrue(nested.getInactive());
+		assertNull(store.findMember(preExpansion.id(), "http://example.org/other", "a1"));
+		assertNull(store.findMember(preExpansion.id(), SYSTEM, "z"));
+	}
+
+	@Test
+	void staleAndDeletedExpansionsAreNotServed() {
+		save();
+
+		assertEquals(1, store.markStale(SYSTEM));
+		assertNull(store.findReady(valueSet.getUrl(), "1", "4"));
+		assertTrue(store.needsRefresh(valueSet.getUrl(), "1", "4"));
+
+		save();
+		store.delete(valueSet.getUrl(), "1");
+		assertNull(store.findReady(valueSet.getUrl(), "1", "4"));
+		assertEquals(0, store.markStale(SYSTEM));
+	}
+
+	private void save() {
+		ValueSetExpansionContainsComponent a = contains("a", "A");
+		a.addContains(contains("a1", "A1").setInactive(true));
+		ValueSet.ValueSetExpansionParameterComponent parameter = new ValueSet.ValueSetExpansionParameterComponent()
+				.setName("offset").setValue(new StringType("0"));
+		store.save(valueSet, PreExpansionStore.resourceVersionOf(valueSet), List.of(parameter),
+				List.of(a, contains("b", "B"), contains("c", "C")), List.of(SYSTEM));
+	}
+
+	private static ValueSetExpansionContainsComponent contains(String code, String display) {
+		return new ValueSetExpansionContainsComponent().setSystem(SYSTEM).setCode(code).setDisplay(display);
+	}
+
+	private static List<String> codes(List<ValueSetExpansionContainsComponent> contains) {
+		return contains.stream().map(ValueSetExpansionContainsComponent::getCode).toList();
+	}
+}
@@ -0,0 +1,53 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.StringType;
+import org.junit.jupiter.api.Test;
+
+/**
+ * One walk over a CodeSystem yields the declared properties, the properties top-level concepts
+ * use and the extension-backed properties anywhere in the tree; the catalogue is built once
+ * per instance.
+ */
+class PropertyCatalogueTest {
+
+	private static final String ORDER = "http://hl7.org/fhir/StructureDefinition/codesystem-conceptOrder";
+	private static final String LABEL = "http://hl7.org/fhir/StructureDefinition/codesystem-label";
+
+	@Test
+	void catalogueCollectsPropertiesInOneWalk() {
+		CodeSystem codeSystem = new CodeSystem().setUrl("http://example.org/cs");
+		codeSystem.addProperty().setCode("colour").setUri("http://example.org/colour");
+		codeSystem.addProperty().setCode("size");
+		ConceptDefinitionComponent a = codeSystem.addConcept().setCode("a");
+		a.addProperty().setCode("colour").setValue(new StringType("red"));
+		a.addExtension(ORDER, new IntegerType(1));
+		a.addConcept().setCode("a1").addExtension(LABEL, new StringType("one"));
+
+		PropertyCatalogue catalogue = PropertyCatalogue.of(codeSystem);
+
+		assertEquals(Set.of("colour", "size"), catalogue.getDeclaredPropertyCodes());
+		assertEquals("http://example.org/colour", catalogue.getDeclaredPropertyUri("colour"));
+		assertNull(catalogue.getDeclaredPropertyUri("size"));
+		assertTrue(catalogue.isDeclared("size"));
+		assertFalse(catalogue.isDeclared("order"));
+		assertEquals("http://example.org/colour", catalogue.getPropertyUris().get("colour"));
+		assertEquals("http://hl7.org/fhir/concept-properties#order", catalogue.getPropertyUris().get("order"));
+		assertEquals(Set.of("colour", "order"), catalogue.getRootConceptPropertyCodes());
+		assertEquals(Set.of("order", "label"), catalogue.getExtensionPropertyCodes());
+		assertEquals(Map.of(ORDER, "order", LABEL, "label"), catalogue.getExtensionProperties());
+
+		assertSame(catalogue, PropertyCatalogue.of(codeSystem));
+	}
+}
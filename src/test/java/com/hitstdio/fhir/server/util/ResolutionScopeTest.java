@@ -0,0 +1,78 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+
+/**
+ * Within an open scope a lookup runs once: its value, "not found" and a thrown exception are all
+ * replayed; nested opens share the scope, a batch's preloaded CodeSystems are answered without a
+ * lookup, and outside a scope every lookup runs.
+ */
+class ResolutionScopeTest {
+
+	@Test
+	void lookupsAreMemoizedForTheLifeOfTheScope() {
+		AtomicInteger loads = new AtomicInteger();
+		CodeSystem codeSystem = new CodeSystem().setUrl("http://example.org/cs");
+
+		try (ResolutionScope.Binding outer = ResolutionScope.open(TxResourceContext.EMPTY)) {
+			assertSame(codeSystem, ResolutionScope.resolve("CodeSystem", "cs|", () -> {
+				loads.incrementAndGet();
+				return codeSystem;
+			}));
+			assertNull(ResolutionScope.resolve("CodeSystem", "missing|", () -> {
+				loads.incrementAndGet();
+				return null;
+			}));
+			ResourceNotFoundException failure = assertThrows(ResourceNotFoundException.class,
+					() -> ResolutionScope.resolve("ValueSet", "gone|", () -> {
+						loads.incrementAndGet();
+						throw new ResourceNotFoundException("gone");
+					}));
+
+			try (ResolutionScope.Binding inner = ResolutionScope.open(TxResourceContext.EMPTY)) {
+				assertSame(codeSystem, ResolutionScope.resolve("CodeSystem", "cs|", () -> null));
+				assertNull(ResolutionScope.resolve("CodeSystem", "missing|", () -> codeSystem));
+				assertSame(failure, assertThrows(ResourceNotFoundException.class,
+						() -> ResolutionScope.resolve("ValueSet", "gone|", () -> null)));
+			}
+			// still open after the nested close
+			assertSame(codeSystem, ResolutionScope.resolve("CodeSystem", "cs|", () -> null));
+			assertEquals(3, loads.get());
+		}
+
+		assertNull(ResolutionScope.resolve("CodeSystem", "cs|", () -> null));
+	}
+
+	@Test
+	void batchScopeIsSharedAndSeededWithResolvedCodeSystems() {
+		CodeSystem preloaded = new CodeSystem().setUrl("http://example.org/cs");
+		String key = TxResourceContext.resolvedKey("http://example.org/cs", "1");
+		TxResourceContext context = TxResourceContext.of(List.of(new ValueSet().setUrl("http://example.org/vs")))
+				.withResolved(Map.of(), Map.of(key, preloaded), Map.of(), Map.of());
+		CodeSystem loaded = new CodeSystem();
+
+		try (ResolutionScope.Binding binding = ResolutionScope.open(context)) {
+			assertSame(preloaded, ResolutionScope.resolve("CodeSystem", key, () -> loaded));
+			ResolutionScope.resolve("ValueSet", "vs|", () -> "first item");
+		}
+		try (ResolutionScope.Binding binding = ResolutionScope.open(context)) {
+			assertEquals("first item", ResolutionScope.resolve("ValueSet", "vs|", () -> "second item"));
+		}
+		try (ResolutionScope.Binding binding = ResolutionScope.open(TxResourceContext.EMPTY)) {
+			assertEquals("other request", ResolutionScope.resolve("ValueSet", "vs|", () -> "other request"));
+		}
+	}
+}
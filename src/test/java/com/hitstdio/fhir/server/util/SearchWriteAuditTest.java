@@ -0,0 +1,72 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+
+import com.hitstdio.fhir.server.interceptor.SearchWriteAuditInterceptor;
+
+import ca.uhn.fhir.jpa.model.search.SearchRuntimeDetails;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+
+/**
+ * Internal lookups are synchronous searches, which write no search rows; the audit tells them
+ * apart from coordinated searches and attributes internal searches (system request details) to
+ * the request bound to the thread.
+ */
+class SearchWriteAuditTest {
+
+	private final SearchWriteAuditInterceptor interceptor = new SearchWriteAuditInterceptor();
+
+	@Test
+	void internalSearchesAreSynchronous() {
+		assertTrue(InternalSearch.allMatches().isLoadSynchronous());
+		assertNull(InternalSearch.allMatches().getCount());
+		assertTrue(InternalSearch.firstMatch().isLoadSynchronous());
+		assertEquals(1, InternalSearch.firstMatch().getCount());
+	}
+
+	@Test
+	void searchesAreCountedOnTheAuditedRequest() {
+		SystemRequestDetails request = new SystemRequestDetails();
+		SystemRequestDetails internal = new SystemRequestDetails();
+		SearchWriteAudit.attach(request);
+
+		interceptor.searchSelectComplete(request, runtime(false, 0));
+		interceptor.searchComplete(request, runtime(false, 3));
+		interceptor.searchSelectComplete(internal, runtime(true, 0));
+		interceptor.searchComplete(internal, runtime(true, 5));
+		interceptor.searchReusingCached(internal);
+
+		SearchWriteAudit.Counts counts = SearchWriteAudit.detach(request);
+		assertEquals(new SearchWriteAudit.Counts(1, 3, 1, 1), counts);
+		assertTrue(counts.hasWrites());
+		assertFalse(new SearchWriteAudit.Counts(0, 0, 4, 0).hasWrites());
+
+		// nothing is attributed once the request is detached
+		interceptor.searchSelectComplete(internal, runtime(false, 0));
+		assertNull(SearchWriteAudit.detach(request));
+	}
+
+	@Test
+	void finishedRequestsAreSummedPerOperation() {
+		String operation = "$audit-test-" + System.nanoTime();
+		SearchWriteAudit.recordRequest(operation, new SearchWriteAudit.Counts(1, 2, 3, 0));
+		SearchWriteAudit.recordRequest(operation, new SearchWriteAudit.Counts(0, 0, 2, 0));
+
+		assertTrue(SearchWriteAudit.report().contains(operation
+				+ ": requests=2, persistedSearches=1, persistedResults=2, synchronousSearches=5\n"));
+	}
+
+	private static SearchRuntimeDetails runtime(boolean synchronous, int matches) {
+		SearchRuntimeDetails details = mock(SearchRuntimeDetails.class);
+		when(details.isLoadSynchronous()).thenReturn(synchronous);
+		when(details.getFoundMatchesCount()).thenReturn(matches);
+		return details;
+	}
+}
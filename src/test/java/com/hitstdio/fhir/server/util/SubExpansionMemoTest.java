@@ -0,0 +1,86 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.UriType;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionParameterComponent;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A ValueSet imported twice within one request (a diamond) is expanded once: the first include
+ * takes the computed concepts, later ones must copy them. Excluded ValueSets are collected as
+ * bare system|code pairs, which serve later excludes only.
+ */
+class SubExpansionMemoTest {
+
+	private static final String CANONICAL = "http://example.org/vs|1";
+
+	@Test
+	void completedExpansionIsReusedAndClaimedOnce() {
+		SubExpansionMemo memo = new SubExpansionMemo();
+		List<ValueSetExpansionContainsComponent> concepts = List.of(contains("a"), contains("b"));
+		List<ValueSetExpansionParameterComponent> parameters = new ArrayList<>();
+		parameters.add(new ValueSetExpansionParameterComponent().setName("used-codesystem")
+				.setValue(new UriType("http://example.org/cs|1")));
+
+		assertNull(memo.get(CANONICAL, false));
+		memo.put(CANONICAL, concepts, parameters, false);
+		parameters.clear();
+
+		SubExpansionMemo.Entry entry = memo.get(CANONICAL, false);
+		assertSame(concepts, entry.getConcepts());
+		assertEquals(1, entry.getAddedParameters().size());
+		assertTrue(entry.claimConcepts());
+		assertFalse(entry.claimConcepts());
+		assertSame(entry, memo.get(CANONICAL, true));
+		assertNull(memo.get("http://example.org/vs|2", false));
+	}
+
+	@Test
+	void membershipOnlyEntryServesExcludesButNotIncludes() {
+		SubExpansionMemo memo = new SubExpansionMemo();
+		memo.put(CANONICAL, List.of(contains("a"), contains("b")), List.of(), true);
+
+		assertNull(memo.get(CANONICAL, false));
+		SubExpansionMemo.Entry entry = memo.get(CANONICAL, true);
+		assertTrue(entry.isMembershipOnly());
+		assertEquals(Set.of("http://example.org/cs|a", "http://example.org/cs|b"), entry.getCodeKeys());
+
+		memo.put(CANONICAL, List.of(contains("a")), List.of(), false);
+		assertFalse(memo.get(CANONICAL, false).isMembershipOnly());
+	}
+
+	@Test
+	void membershipOnlyRequestBuildsBareComponents() {
+		CodeSystem codeSystem = new CodeSystem().setUrl("http://example.org/cs");
+		ConceptDefinitionComponent concept = codeSystem.addConcept().setCode("a").setDisplay("A");
+		concept.addDesignation().setLanguage("de").setValue("A (de)");
+		ExpansionRequest request = ExpansionRequest.builder().build();
+
+		request.enterMembershipOnly();
+		ValueSetExpansionContainsComponent member = new ConceptComponentBuilder(null)
+				.createExpansionComponent(codeSystem, concept, request);
+		request.exitMembershipOnly();
+
+		assertEquals("http://example.org/cs", member.getSystem());
+		assertEquals("a", member.getCode());
+		assertFalse(member.hasDisplay());
+		assertFalse(member.hasDesignation());
+		assertFalse(request.isMembershipOnly());
+	}
+
+	static ValueSetExpansionContainsComponent contains(String code) {
+		return new ValueSetExpansionContainsComponent().setSystem("http://example.org/cs").setCode(code);
+	}
+}
@@ -0,0 +1,72 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionDesignationComponent;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptPropertyComponent;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Supplement content is merged into a view of the base concept at emit time: designations are
+ * appended, properties replaced by code with the later supplement winning, and the base concept
+ * is left as it was.
+ */
+class SupplementOverlayTest {
+
+	@Test
+	void viewMergesSupplementsAndLeavesTheBaseConceptAlone() {
+		ConceptDefinitionComponent base = new ConceptDefinitionComponent().setCode("a").setDisplay("A");
+		base.addDesignation().setLanguage("en").setValue("Alpha");
+		base.addProperty().setCode("weight").setValue(new IntegerType(1));
+		base.addProperty().setCode("kept").setValue(new IntegerType(9));
+
+		CodeSystem first = supplement("a", "de", "Alpha (de)", 2);
+		CodeSystem second = supplement("a", "fr", "Alpha (fr)", 3);
+		SupplementOverlay overlay = SupplementOverlay.of(List.of(first, second));
+
+		ConceptDefinitionComponent view = overlay.apply(base);
+
+		assertEquals(List.of("Alpha", "Alpha (de)", "Alpha (fr)"),
+				view.getDesignation().stream().map(ConceptDefinitionDesignationComponent::getValue).toList());
+		assertEquals(List.of("kept=9", "weight=3"), properties(view));
+		assertEquals("A", view.getDisplay());
+		assertEquals(1, base.getDesignation().size());
+		assertEquals(List.of("weight=1", "kept=9"), properties(base));
+		assertEquals(2, overlay.getDesignations("a").size());
+	}
+
+	@Test
+	void conceptsNoSupplementTouchesAreReturnedAsIs() {
+		SupplementOverlay overlay = SupplementOverlay.of(List.of(supplement("a", "de", "Alpha (de)", 2)));
+		ConceptDefinitionComponent other = new ConceptDefinitionComponent().setCode("b");
+
+		assertSame(other, overlay.apply(other));
+		assertFalse(overlay.hasEntry("b"));
+		assertTrue(overlay.hasEntry("a"));
+		assertTrue(SupplementOverlay.of(List.of()).isEmpty());
+	}
+
+	private static CodeSystem supplement(String code, String language, String designation, int weight) {
+		CodeSystem supplement = new CodeSystem();
+		supplement.setUrl("http://example.org/supplement-" + language);
+		supplement.setContent(CodeSystem.CodeSystemContentMode.SUPPLEMENT);
+		ConceptDefinitionComponent concept = supplement.addConcept().setCode(code);
+		concept.addDesignation().setLanguage(language).setValue(designation);
+		concept.addProperty().setCode("weight").setValue(new IntegerType(weight));
+		return supplement;
+	}
+
+	private static List<String> properties(ConceptDefinitionComponent concept) {
+		return concept.getProperty().stream()
+				.map((ConceptPropertyComponent p) -> p.getCode() + "=" + p.getValue().primitiveValue())
+				.toList();
+	}
+}
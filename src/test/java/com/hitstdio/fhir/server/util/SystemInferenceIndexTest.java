@@ -0,0 +1,79 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.r4.model.ValueSet.FilterOperator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@code inferSystem} candidates come from an index: enumerated includes by code, whole-system
+ * includes through the CodeSystem's code index, filtered includes never; a code index lookup
+ * finds the same concept a depth-first search does, also on an instance adjusted after indexing.
+ */
+class SystemInferenceIndexTest {
+
+	private static final String CS1 = "http://example.org/cs1";
+	private static final String CS2 = "http://example.org/cs2";
+	private static final String CS3 = "http://example.org/cs3";
+
+	@Test
+	void candidatesComeFromEnumeratedAndWholeSystemIncludes() {
+		ValueSet valueSet = new ValueSet().setUrl("http://example.org/vs");
+		ConceptSetComponent enumerated = valueSet.getCompose().addInclude().setSystem(CS1);
+		enumerated.addConcept().setCode("a").setDisplay("Alpha");
+		valueSet.getCompose().addInclude().setSystem(CS2);
+		valueSet.getCompose().addInclude().setSystem(CS3).addFilter().setProperty("concept")
+				.setOp(FilterOperator.ISA).setValue("a");
+
+		CodeSystem cs2 = new CodeSystem().setUrl(CS2);
+		cs2.addConcept().setCode("x").addConcept().setCode("a").setDisplay("Other");
+		CodeSystem cs3 = new CodeSystem().setUrl(CS3);
+		cs3.addConcept().setCode("a");
+
+		SystemInferenceIndex index = SystemInferenceIndex.of(valueSet);
+
+		assertEquals(CS1, index.getFirstSystem());
+		assertEquals(List.of(CS1, CS2), index.findSystems(valueSet, "a", null,
+				(system, version) -> CS2.equals(system) ? cs2 : cs3, SystemInferenceIndexTest::hasDisplay));
+		assertEquals(List.of(CS1), index.findSystems(valueSet, "a", "alpha",
+				(system, version) -> cs2, SystemInferenceIndexTest::hasDisplay));
+		assertEquals(List.of(CS2), index.findSystems(valueSet, "a", "Other",
+				(system, version) -> cs2, SystemInferenceIndexTest::hasDisplay));
+		assertEquals(List.of(), index.findSystems(valueSet, "zz", null,
+				(system, version) -> cs2, SystemInferenceIndexTest::hasDisplay));
+		assertSame(index, SystemInferenceIndex.of(valueSet));
+	}
+
+	@Test
+	void codeIndexFindsTheDepthFirstConcept() {
+		CodeSystem codeSystem = new CodeSystem().setUrl(CS1);
+		ConceptDefinitionComponent a = codeSystem.addConcept().setCode("a");
+		ConceptDefinitionComponent nested = a.addConcept().setCode("b").setDisplay("nested");
+		codeSystem.addConcept().setCode("b").setDisplay("top-level");
+
+		ConceptCodeIndex index = ConceptCodeIndex.of(codeSystem);
+
+		assertTrue(index.contains("b"));
+		assertFalse(index.contains("zz"));
+		assertSame(nested, index.find(codeSystem, "b"));
+		assertNull(index.find(codeSystem, "zz"));
+
+		// the instance changed after indexing: the stale path falls back to a search
+		a.getConcept().clear();
+		assertEquals("top-level", index.find(codeSystem, "b").getDisplay());
+	}
+
+	private static boolean hasDisplay(ConceptDefinitionComponent concept, String display) {
+		return display.equalsIgnoreCase(concept.getDisplay());
+	}
+}
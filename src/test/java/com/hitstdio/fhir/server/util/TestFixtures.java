@@ -0,0 +1,50 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.SimpleBundleProvider;
+
+/**
+ * Fixtures shared by the tests of this package: a private in-memory database in the dialect the
+ * stores target, and resource DAOs whose searches are answered by a function.
+ */
+final class TestFixtures {
+
+	private TestFixtures() {
+	}
+
+	/**
+	 * A new, empty H2 database in Oracle mode, kept until the JVM exits; {@code name} only makes
+	 * the database easier to tell apart in logs.
+	 */
+	static JdbcDataSource h2(String name) {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";MODE=Oracle;DB_CLOSE_DELAY=-1");
+		return dataSource;
+	}
+
+	/**
+	 * A mocked DAO answering every search with the resources {@code search} returns for its
+	 * parameters; other methods can be stubbed as usual.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends IBaseResource> IFhirResourceDao<T> searchableDao(
+			Function<SearchParameterMap, List<? extends IBaseResource>> search) {
+		IFhirResourceDao<T> dao = mock(IFhirResourceDao.class);
+		when(dao.search(any(SearchParameterMap.class), any(RequestDetails.class)))
+				.thenAnswer(invocation -> new SimpleBundleProvider(search.apply(invocation.getArgument(0))));
+		return dao;
+	}
+}
@@ -0,0 +1,80 @@
+package com.hitstdio.fhir.server.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Cycle detection tells ValueSets apart by url|version, and references that do not resolve are
+ * looked up again on the next call.
+ */
+class ValueSetDependencyGraphTest {
+
+	private final Map<String, ValueSet> stored = new HashMap<>();
+	private final Function<ValueSetDependencyGraph.Reference, ValueSet> loader = reference -> stored
+			.get(TxResourceContext.resolvedKey(reference.url(), reference.version()));
+	private String url;
+
+	@BeforeEach
+	void setUp() {
+		// the resolution cache is static: every test uses its own url
+		url = "http://example.org/vs/" + UUID.randomUUID();
+	}
+
+	@Test
+	void includingAnotherVersionOfTheSameUrlIsNotACycle() {
+		ValueSet v1 = store(url, "1");
+		ValueSet v2 = store(url, "2", url + "|1");
+
+		assertTrue(ValueSetDependencyGraph.findCycle(v2, loader).isEmpty());
+		assertTrue(ValueSetDependencyGraph.findCycle(v1, loader).isEmpty());
+	}
+
+	@Test
+	void versionsIncludingEachOtherAreACycle() {
+		ValueSet v1 = store(url, "1", url + "|2");
+		store(url, "2", url + "|1");
+
+		assertEquals(List.of(url, url, url), ValueSetDependencyGraph.findCycle(v1, loader));
+	}
+
+	@Test
+	void cycleThroughAnotherUrlListsThePathFromTheClosingUrl() {
+		String other = url + "-other";
+		ValueSet root = store(url, "1", other + "|1");
+		store(other, "1", url + "|1");
+
+		assertEquals(List.of(url, other, url), ValueSetDependencyGraph.findCycle(root, loader));
+	}
+
+	@Test
+	void missingReferenceIsResolvedAgainOnceStored() {
+		ValueSetDependencyGraph.Reference reference = ValueSetDependencyGraph.of(store(url + "-root", "1", url + "|1"))
+				.getValueSets().get(0);
+		assertFalse(ValueSetDependencyGraph.exists(reference, loader));
+
+		store(url, "1");
+		assertTrue(ValueSetDependencyGraph.exists(reference, loader));
+	}
+
+	private ValueSet store(String valueSetUrl, String version, String... includes) {
+		ValueSet valueSet = new ValueSet();
+		valueSet.setUrl(valueSetUrl);
+		valueSet.setVersion(version);
+		for (String include : includes) {
+			valueSet.getCompose().addInclude().addValueSet(include);
+		}
+		stored.put(TxResourceContext.resolvedKey(valueSetUrl, version), valueSet);
+		return valueSet;
+	}
+}